@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 
+import me.osm.gazetteer.web.api.SearchFallback;
 import me.osm.gazetteer.web.imp.ApacheASCIIFoldTransliterator;
 
 import org.apache.commons.lang3.StringUtils;
@@ -33,6 +34,8 @@ public class Configuration extends org.restexpress.util.Environment
 	private String qAnalyzerTokenSeparators = ", -;.\"()[]№#";
 	private String removeCharacters = "#?%*№@$\"\'";
 	private boolean resendRequestOnFail = true;
+	private SearchFallback searchFallback = SearchFallback.SEQUENTIAL;
+	private SearchFallback suggestSearchFallback = SearchFallback.SEQUENTIAL;
 	private int siteMapMapgeSize = 45000;
 	private List<String> siteMapTypes = Arrays.asList("poipnt");
 	private int executionQueueSize = 5;
@@ -40,7 +43,29 @@ public class Configuration extends org.restexpress.util.Environment
 	private Collection<String> importSkipTypes = new HashSet<>();
 	private String snapshotsRender = "config/html_templates/htmlRender.groovy";
 	private String massGeocodeFolder = "mass_geocode";
+	private String deadLetterFolder = "dead_letter";
+	private String importCheckpointsFolder = "import_checkpoints";
+	private long replacersCacheSize = 100000;
+	private String replacersBackend = "compiled";
 	private String pidFilePath = "gazetteer-web.pid";
+	private int importThreads = Runtime.getRuntime().availableProcessors();
+	private int importBulkSize = 1000;
+	private int importBulkConcurrency = 2;
+	private long importBulkBytes = 5 * 1024 * 1024;
+	private int importParallelFiles = 2;
+	private int diffCoalesceWindow = 10000;
+	private String diffSpoolFolder = "";
+	private long diffSpoolMaxDelayMs = 5000;
+	private boolean diffSpoolBuildingsGeometry = true;
+	private double[] importGeometryTolerances = new double[]{0.0001, 0.001, 0.01};
+	private long searchCacheBytes = 64 * 1024 * 1024;
+	private long searchCacheTTLSec = 600;
+	private int searchCacheLatLonDigits = 3;
+	private int batchSearchChunkSize = 50;
+	private int batchSearchParallelChunks = 2;
+	private int batchSearchMaxQueries = 1000;
+	private int csvGeocodeThreads = 4;
+	private long csvGeocodeCacheSize = 100000;
 	
 	@Override
 	protected void fillValues(Properties p)
@@ -58,6 +83,8 @@ public class Configuration extends org.restexpress.util.Environment
 		this.qAnalyzerTokenSeparators = p.getProperty("query_token_separators", ", -;.\"()[]№#");
 		this.removeCharacters = p.getProperty("query_remove_characters", "#?%*№@$\"\'");
 		this.resendRequestOnFail = !"false".equals(p.getProperty("resend_request_on_fail", "true"));
+		this.searchFallback = SearchFallback.parse(p.getProperty("search_fallback"), SearchFallback.SEQUENTIAL);
+		this.suggestSearchFallback = SearchFallback.parse(p.getProperty("suggest_search_fallback"), searchFallback);
 		this.siteMapMapgeSize = Integer.parseInt(p.getProperty("sitemap_page_size", "45000"));
 		this.siteMapTypes = Arrays.asList(StringUtils.split(p.getProperty("sitemap_types", "poipnt"), " ,;"));
 		this.executionQueueSize = Integer.parseInt(p.getProperty("execution_queue_size", "5"));
@@ -65,7 +92,38 @@ public class Configuration extends org.restexpress.util.Environment
 		this.importSkipTypes = Arrays.asList(StringUtils.split(p.getProperty("import_skip_types", ""), " ,;"));
 		this.snapshotsRender = p.getProperty("snapshots_render", snapshotsRender);
 		this.massGeocodeFolder = p.getProperty("mass_geocode_folder", "mass_geocode");
+		this.deadLetterFolder = p.getProperty("dead_letter_folder", "dead_letter");
+		this.importCheckpointsFolder = p.getProperty("import_checkpoints_folder", "import_checkpoints");
+		this.replacersCacheSize = Long.parseLong(p.getProperty("replacers_cache_size", "100000"));
+		this.replacersBackend = p.getProperty("replacers_backend", "compiled");
 		this.pidFilePath = p.getProperty("pid_file_path", "gazetteer-web.pid");
+		this.importThreads = Integer.parseInt(p.getProperty("import_threads", 
+				String.valueOf(Runtime.getRuntime().availableProcessors())));
+		this.importBulkSize = Integer.parseInt(p.getProperty("import_bulk_size", "1000"));
+		this.importBulkConcurrency = Integer.parseInt(p.getProperty("import_bulk_concurrency", "2"));
+		this.importBulkBytes = Long.parseLong(p.getProperty("import_bulk_size_mb", "5")) * 1024 * 1024;
+		this.importParallelFiles = Integer.parseInt(p.getProperty("import_parallel_files", "2"));
+		this.diffCoalesceWindow = Integer.parseInt(p.getProperty("diff_coalesce_window", "10000"));
+		this.diffSpoolFolder = p.getProperty("diff_spool_folder", "");
+		this.diffSpoolMaxDelayMs = Long.parseLong(p.getProperty("diff_spool_max_delay_ms", "5000"));
+		this.diffSpoolBuildingsGeometry = !"false".equals(p.getProperty("diff_spool_buildings_geometry", "true"));
+		
+		this.searchCacheBytes = Long.parseLong(p.getProperty("search_cache_size_mb", "64")) * 1024 * 1024;
+		this.searchCacheTTLSec = Long.parseLong(p.getProperty("search_cache_ttl_sec", "600"));
+		this.searchCacheLatLonDigits = Integer.parseInt(p.getProperty("search_cache_latlon_digits", "3"));
+		
+		this.batchSearchChunkSize = Integer.parseInt(p.getProperty("batch_search_chunk_size", "50"));
+		this.batchSearchParallelChunks = Integer.parseInt(p.getProperty("batch_search_parallel_chunks", "2"));
+		this.batchSearchMaxQueries = Integer.parseInt(p.getProperty("batch_search_max_queries", "1000"));
+		
+		this.csvGeocodeThreads = Integer.parseInt(p.getProperty("csv_geocode_threads", "4"));
+		this.csvGeocodeCacheSize = Long.parseLong(p.getProperty("csv_geocode_cache_size", "100000"));
+		
+		String[] tolerances = StringUtils.split(p.getProperty("import_geometry_tolerances", "0.0001 0.001 0.01"), " ,;");
+		this.importGeometryTolerances = new double[tolerances.length];
+		for(int i = 0; i < tolerances.length; i++) {
+			this.importGeometryTolerances[i] = Double.parseDouble(tolerances[i]);
+		}
 	}
 
 	public String getDefaultFormat()
@@ -122,6 +180,21 @@ public class Configuration extends org.restexpress.util.Environment
 	public boolean isReRestrict() {
 		return resendRequestOnFail;
 	}
+
+	/**
+	 * How to resend request if strict search founds nothing, 
+	 * used when {@link #isReRestrict()} is on
+	 * */
+	public SearchFallback getSearchFallback() {
+		return searchFallback;
+	}
+
+	/**
+	 * Fallback for suggest route, search_fallback by default
+	 * */
+	public SearchFallback getSuggestSearchFallback() {
+		return suggestSearchFallback;
+	}
 	
 	public int getSiteMapMapgeSize() {
 		return siteMapMapgeSize;
@@ -151,8 +224,144 @@ public class Configuration extends org.restexpress.util.Environment
 		return massGeocodeFolder ;
 	}
 
+	public String getDeadLetterFolder() {
+		return deadLetterFolder;
+	}
+
+	public String getImportCheckpointsFolder() {
+		return importCheckpointsFolder;
+	}
+
+	public long getReplacersCacheSize() {
+		return replacersCacheSize;
+	}
+
+	public String getReplacersBackend() {
+		return replacersBackend;
+	}
+
 	public String getPidFilePath() {
 		return pidFilePath;
 	}
 
+	public int getImportThreads() {
+		return Math.max(1, importThreads);
+	}
+
+	public int getImportBulkSize() {
+		return importBulkSize;
+	}
+
+	public int getImportBulkConcurrency() {
+		return importBulkConcurrency;
+	}
+
+	public long getImportBulkBytes() {
+		return importBulkBytes;
+	}
+
+	/**
+	 * How many files of multi-region import are imported concurrently
+	 * */
+	public int getImportParallelFiles() {
+		return Math.max(1, importParallelFiles);
+	}
+
+	/**
+	 * How many diff lines are kept to merge operations
+	 * over the same object
+	 * */
+	public int getDiffCoalesceWindow() {
+		return Math.max(1, diffCoalesceWindow);
+	}
+
+	/**
+	 * Folder watched for diffs, empty if diffs are imported
+	 * only via api
+	 * */
+	public String getDiffSpoolFolder() {
+		return diffSpoolFolder;
+	}
+
+	/**
+	 * How long applied diffs might be invisible for search
+	 * */
+	public long getDiffSpoolMaxDelayMs() {
+		return diffSpoolMaxDelayMs;
+	}
+
+	public boolean isDiffSpoolBuildingsGeometry() {
+		return diffSpoolBuildingsGeometry;
+	}
+
+	/**
+	 * Tolerances (in degrees) of simplified geometries stored
+	 * along with full_geometry, empty if simplified geometries 
+	 * shouldn't be stored
+	 * */
+	public double[] getImportGeometryTolerances() {
+		return importGeometryTolerances;
+	}
+
+	/**
+	 * Max size of cached search results, 0 to switch cache off
+	 * */
+	public long getSearchCacheBytes() {
+		return searchCacheBytes;
+	}
+
+	/**
+	 * How long search results are cached
+	 * */
+	public long getSearchCacheTTLSec() {
+		return searchCacheTTLSec;
+	}
+
+	/**
+	 * Map center coordinates are rounded to this number 
+	 * of decimal digits, when search results are cached
+	 * */
+	public int getSearchCacheLatLonDigits() {
+		return searchCacheLatLonDigits;
+	}
+
+	/**
+	 * How many queries of batch search are sent 
+	 * by one multi search request
+	 * */
+	public int getBatchSearchChunkSize() {
+		return batchSearchChunkSize;
+	}
+
+	/**
+	 * How many multi search requests of one batch
+	 * are executed at once
+	 * */
+	public int getBatchSearchParallelChunks() {
+		return batchSearchParallelChunks;
+	}
+
+	/**
+	 * Max amount of queries in one batch search http request
+	 * */
+	public int getBatchSearchMaxQueries() {
+		return batchSearchMaxQueries;
+	}
+
+	/**
+	 * How many chunks of rows are geocoded at once
+	 * by one csv geocode task
+	 * */
+	public int getCSVGeocodeThreads() {
+		return Math.max(1, csvGeocodeThreads);
+	}
+
+	/**
+	 * Max amount of distinct search texts, which answers
+	 * are kept by one csv geocode task
+	 * */
+	public long getCSVGeocodeCacheSize() {
+		return csvGeocodeCacheSize;
+	}
+
 }
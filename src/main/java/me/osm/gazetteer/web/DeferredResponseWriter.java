@@ -0,0 +1,245 @@
+package me.osm.gazetteer.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import me.osm.gazetteer.web.api.utils.ChunkedAnswer;
+import me.osm.gazetteer.web.api.utils.DeferredAnswer;
+import me.osm.gazetteer.web.serialization.JSONBufferEncoder;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelLocal;
+import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.json.JSONObject;
+import org.restexpress.Request;
+import org.restexpress.Response;
+import org.restexpress.pipeline.Postprocessor;
+import org.restexpress.response.HttpResponseWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes responses of controllers which return {@link DeferredAnswer}
+ * when answer is completed, other responses are written immediately.
+ * <p>
+ * Postprocessors which work with answer body are applied
+ * to the completed answer, then it's serialized as REST Express does.
+ * <p>
+ * {@link ChunkedAnswer} responses are written as chunked http responses,
+ * headers are written at once, parts are written as they are ready.
+ * <p>
+ * Responses of one connection are written in order of requests, 
+ * see {@link ResponsesQueue}, so pipelined requests are answered
+ * in order.
+ * */
+public class DeferredResponseWriter implements HttpResponseWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(DeferredResponseWriter.class);
+
+	private final HttpResponseWriter writer;
+	private final List<Postprocessor> bodyPostprocessors;
+
+	private final ChannelLocal<ResponsesQueue> queues = new ChannelLocal<ResponsesQueue>(true) {
+		
+		@Override
+		protected ResponsesQueue initialValue(Channel channel) {
+			return new ResponsesQueue();
+		}
+		
+	};
+
+	/**
+	 * @param writer writes completed responses
+	 * @param bodyPostprocessors postprocessors to apply to completed answers
+	 * */
+	public DeferredResponseWriter(HttpResponseWriter writer, List<Postprocessor> bodyPostprocessors) {
+		this.writer = writer;
+		this.bodyPostprocessors = bodyPostprocessors;
+	}
+
+	@Override
+	public void write(final ChannelHandlerContext ctx, final Request request, final Response response) {
+		Object body = response.getBody();
+		
+		final ResponsesQueue.Slot slot = queues.get(ctx.getChannel()).add();
+		final Runnable write = new Runnable() {
+			
+			@Override
+			public void run() {
+				writer.write(ctx, request, response);
+			}
+			
+		};
+
+		if(body instanceof ChunkedAnswer) {
+			final ChunkedAnswer answer = (ChunkedAnswer) body;
+			slot.start(new Runnable() {
+				
+				@Override
+				public void run() {
+					writeChunked(ctx, request, response, answer, slot);
+				}
+				
+			});
+			return;
+		}
+
+		if(!(body instanceof DeferredAnswer)) {
+			slot.ready(write);
+			return;
+		}
+
+		final DeferredAnswer<?> answer = (DeferredAnswer<?>) body;
+		answer.onComplete(new Runnable() {
+
+			@Override
+			public void run() {
+				complete(request, response, answer);
+				slot.ready(write);
+			}
+
+		});
+	}
+
+	/**
+	 * Apply postprocessors and serialize completed answer
+	 * */
+	private void complete(Request request, Response response, DeferredAnswer<?> answer) {
+
+		try {
+			response.useSerialization();
+
+			if(answer.getFailure() != null) {
+				log.error("{} {} failed", request.getEffectiveHttpMethod(),
+						request.getUrl(), answer.getFailure());
+
+				response.setBody(null);
+				response.setException(answer.getFailure());
+				response.setResponseStatus(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+			}
+			else {
+				response.setBody(answer.getAnswer());
+				for(Postprocessor pp : bodyPostprocessors) {
+					pp.process(request, response);
+				}
+			}
+
+			if(response.isSerialized() && response.hasSerializationSettings()) {
+				String serialized = response.getSerializationSettings().serialize(response);
+				if(serialized != null) {
+					response.setBody(serialized);
+				}
+			}
+		}
+		catch (Exception e) {
+			log.error("Failed to serialize answer for {}", request.getUrl(), e);
+
+			response.setBody(null);
+			response.setResponseStatus(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	private void writeChunked(ChannelHandlerContext ctx, Request request, Response response,
+			ChunkedAnswer answer, ResponsesQueue.Slot slot) {
+
+		HttpResponse httpResponse = new DefaultHttpResponse(request.getHttpVersion(),
+				response.getResponseStatus());
+
+		for(String name : response.getHeaderNames()) {
+			for(String value : response.getHeaders(name)) {
+				httpResponse.headers().add(name, value);
+			}
+		}
+
+		// HTTP 1.0 has no chunked encoding, parts are written 
+		// as is and connection is closed after the last one
+		boolean keepAlive = request.isKeepAlive() && !request.isHttpVersion1_0();
+		if(keepAlive) {
+			HttpHeaders.setTransferEncodingChunked(httpResponse);
+		}
+		else {
+			httpResponse.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+		}
+
+		Channel channel = ctx.getChannel();
+		channel.write(httpResponse);
+
+		answer.setSink(new ChunksSink(channel, keepAlive, slot));
+	}
+
+	/**
+	 * Writes parts of {@link ChunkedAnswer} as members of JSON array
+	 * */
+	private static final class ChunksSink implements ChunkedAnswer.Sink {
+
+		private static final ChannelBuffer OPEN = buffer("[");
+		private static final ChannelBuffer SEPARATOR = buffer(",");
+		private static final ChannelBuffer CLOSE = buffer("]");
+
+		private final Channel channel;
+		private final boolean keepAlive;
+		private final ResponsesQueue.Slot slot;
+
+		private boolean first = true;
+
+		public ChunksSink(Channel channel, boolean keepAlive, ResponsesQueue.Slot slot) {
+			this.channel = channel;
+			this.keepAlive = keepAlive;
+			this.slot = slot;
+		}
+
+		@Override
+		public void write(JSONObject part) {
+			ChannelBuffer prefix = first ? OPEN : SEPARATOR;
+			first = false;
+
+			ChannelBuffer encoded;
+			try {
+				encoded = JSONBufferEncoder.encode(part);
+			}
+			catch (IOException e) {
+				log.error("Failed to encode answer part", e);
+				encoded = buffer("null");
+			}
+
+			channel.write(new DefaultHttpChunk(
+					ChannelBuffers.wrappedBuffer(prefix.duplicate(), encoded)));
+		}
+
+		@Override
+		public void close() {
+			if(first) {
+				channel.write(new DefaultHttpChunk(
+						ChannelBuffers.wrappedBuffer(OPEN.duplicate(), CLOSE.duplicate())));
+			}
+			else {
+				channel.write(new DefaultHttpChunk(CLOSE.duplicate()));
+			}
+
+			ChannelFuture future = channel.write(HttpChunk.LAST_CHUNK);
+			if(!keepAlive) {
+				future.addListener(ChannelFutureListener.CLOSE);
+			}
+			
+			slot.finish();
+		}
+
+		private static ChannelBuffer buffer(String s) {
+			return ChannelBuffers.unmodifiableBuffer(
+					ChannelBuffers.copiedBuffer(s, StandardCharsets.UTF_8));
+		}
+
+	}
+
+}
@@ -6,9 +6,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.Properties;
 
+import me.osm.gazetteer.web.imp.DiffSpool;
 import me.osm.gazetteer.web.postprocessor.AllowOriginPP;
+import me.osm.gazetteer.web.postprocessor.JSONBufferPostprocessor;
 import me.osm.gazetteer.web.postprocessor.LastModifiedHeaderPostprocessor;
 import me.osm.gazetteer.web.postprocessor.MarkHeaderPostprocessor;
 import me.osm.gazetteer.web.serialization.SerializationProvider;
@@ -17,7 +20,10 @@ import me.osm.gazetteer.web.utils.OSMDocSinglton;
 import me.osm.osmdoc.localization.L10n;
 
 import org.apache.commons.io.FileUtils;
+import org.jboss.netty.channel.ChannelHandler;
 import org.restexpress.RestExpress;
+import org.restexpress.pipeline.DefaultRequestHandler;
+import org.restexpress.pipeline.Postprocessor;
 import org.restexpress.util.Environment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +45,7 @@ public class GazetteerWeb {
 	    @Override
 	    public void run()
 	    {
+	    	DiffSpool.stop();
 	    	ESNodeHolder.stopNode();
 	    	server.shutdown();
 	    }
@@ -60,14 +67,35 @@ public class GazetteerWeb {
 
 			initOSMDoc();
 			
+			DiffSpool.start();
+			
 			RestExpress.setSerializationProvider(new SerializationProvider());
 			
-			server = new RestExpress()
+			server = new RestExpress() {
+				
+				@Override
+				public ChannelHandler buildRequestHandler() {
+					DefaultRequestHandler handler = (DefaultRequestHandler) super.buildRequestHandler();
+					
+					// Search answers are completed asynchronously,
+					// so postprocessors which modify answer body are applied 
+					// again when answer is ready
+					handler.setResponseWriter(new DeferredResponseWriter(
+							handler.getResponseWriter(), 
+							Arrays.<Postprocessor>asList(
+									new MarkHeaderPostprocessor(), 
+									new JSONBufferPostprocessor())));
+					
+					return handler;
+				}
+				
+			}
 				.setUseSystemOut(false)
 				.setName(config.getName())
 				.addPostprocessor(new LastModifiedHeaderPostprocessor())
 				.addPostprocessor(new AllowOriginPP())
 				.addPostprocessor(new MarkHeaderPostprocessor())
+				.addPostprocessor(new JSONBufferPostprocessor())
 				.addPreprocessor(new BasikAuthPreprocessor(null));
 			
 			Routes.defineRoutes(server);
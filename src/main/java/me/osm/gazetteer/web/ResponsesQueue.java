@@ -0,0 +1,136 @@
+package me.osm.gazetteer.web;
+
+import java.util.LinkedList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Responses of one connection, in order of requests.
+ * <p>
+ * HTTP/1.1 requires pipelined requests to be answered in order,
+ * but deferred answers are completed in any order. Response, which
+ * is ready, is held until responses of previous requests are written.
+ * <p>
+ * Writes are made one by one, by the thread which made the head
+ * response ready, outside of the queue lock.
+ * */
+public class ResponsesQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(ResponsesQueue.class);
+
+	/**
+	 * Place of response in the queue
+	 * */
+	public final class Slot {
+
+		private Runnable write;
+		private boolean finishOnWrite;
+
+		private boolean written = false;
+		private boolean done = false;
+
+		private Slot() {
+
+		}
+
+		/**
+		 * Response is ready, and will be completely written by write
+		 * */
+		public void ready(Runnable write) {
+			set(write, true);
+		}
+
+		/**
+		 * Response is ready to be started by write, it's
+		 * written until {@link #finish()} is called
+		 * */
+		public void start(Runnable write) {
+			set(write, false);
+		}
+
+		/**
+		 * Response is completely written, next one might be written
+		 * */
+		public void finish() {
+			synchronized (ResponsesQueue.this) {
+				done = true;
+			}
+			flush();
+		}
+
+		private void set(Runnable write, boolean finishOnWrite) {
+			synchronized (ResponsesQueue.this) {
+				this.write = write;
+				this.finishOnWrite = finishOnWrite;
+			}
+			flush();
+		}
+	}
+
+	private final LinkedList<Slot> slots = new LinkedList<>();
+	private boolean flushing = false;
+
+	/**
+	 * Reserve place for the response of the next request
+	 * */
+	public synchronized Slot add() {
+		Slot slot = new Slot();
+		slots.add(slot);
+		return slot;
+	}
+
+	/**
+	 * @return amount of responses which are not completely written yet
+	 * */
+	public synchronized int size() {
+		return slots.size();
+	}
+
+	private void flush() {
+		synchronized (this) {
+			if(flushing) {
+				// current writer will check queue again
+				return;
+			}
+			flushing = true;
+		}
+
+		while(true) {
+			Slot head;
+			Runnable write = null;
+			synchronized (this) {
+				while(!slots.isEmpty() && slots.getFirst().done) {
+					slots.removeFirst();
+				}
+
+				head = slots.peekFirst();
+				if(head != null && !head.written && head.write != null) {
+					head.written = true;
+					write = head.write;
+				}
+
+				if(write == null) {
+					flushing = false;
+					return;
+				}
+			}
+
+			boolean failed = false;
+			try {
+				write.run();
+			}
+			catch (Exception e) {
+				log.error("Failed to write response", e);
+				failed = true;
+			}
+
+			synchronized (this) {
+				if(head.finishOnWrite || failed) {
+					head.done = true;
+				}
+			}
+		}
+	}
+
+}
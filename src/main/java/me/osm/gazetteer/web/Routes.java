@@ -1,5 +1,6 @@
 package me.osm.gazetteer.web;
 
+import me.osm.gazetteer.web.api.BatchSearchAPI;
 import me.osm.gazetteer.web.api.FeatureAPI;
 import me.osm.gazetteer.web.api.GeocodeCSVAPI;
 import me.osm.gazetteer.web.api.HealthAPI;
@@ -53,17 +54,23 @@ public class Routes {
 		SearchAPI searchAPIInstance = new SearchAPI();
 		
 		server.uri(root + "/location/_search", searchAPIInstance)
-				.method(HttpMethod.GET)
+				.action("readAsync", HttpMethod.GET)
 				.name("feature")
 				.flag(Flags.Auth.PUBLIC_ROUTE)
 				.parameter(Parameters.Cache.MAX_AGE, MINUTE);
 		
 		server.uri(root + "/location/_search.{format}", searchAPIInstance)
-				.method(HttpMethod.GET)
+				.action("readAsync", HttpMethod.GET)
 				.name("feature")
 				.flag(Flags.Auth.PUBLIC_ROUTE)
 				.parameter(Parameters.Cache.MAX_AGE, MINUTE);
 
+		server.uri(root + "/location/_search/_batch",
+				new BatchSearchAPI(searchAPIInstance))
+				.method(HttpMethod.POST)
+				.flag(Flags.Auth.PUBLIC_ROUTE)
+				.flag(Flags.Cache.DONT_CACHE);
+
 		server.uri(root + "/location/_geocode_csv",
 				new GeocodeCSVAPI(searchAPIInstance))
 				.method(HttpMethod.GET)
@@ -74,12 +81,13 @@ public class Routes {
 				.method(HttpMethod.GET)
 				.name("feature")
 				.flag(Flags.Auth.PUBLIC_ROUTE)
+				.parameter(SearchAPI.FALLBACK_PARAMETER, config.getSuggestSearchFallback())
 				.parameter(Parameters.Cache.MAX_AGE, MINUTE);
 
 		server.uri(root + "/location/{id}/{_related}",
 				new FeatureAPI())
 					.alias(root + "/location/{id}")
-					.method(HttpMethod.GET)
+					.action("readAsync", HttpMethod.GET)
 					.name("feature")
 					.flag(Flags.Auth.PUBLIC_ROUTE)
 					.parameter(Parameters.Cache.MAX_AGE, MINUTE);
@@ -88,7 +96,7 @@ public class Routes {
 				new InverseGeocodeAPI())
 				.alias(root + "/location/latlon/{lat}/{lon}")
 				.alias(root + "/_inverse")
-				.method(HttpMethod.GET)
+				.action("readAsync", HttpMethod.GET)
 				.name("feature")
 				.flag(Flags.Auth.PUBLIC_ROUTE)
 				.parameter(Parameters.Cache.MAX_AGE, MINUTE);
@@ -106,7 +114,7 @@ public class Routes {
 
 		server.uri(root + "/osmdoc/statistic/tagvalues.{format}",
 				new StatisticAPI())
-				.method(HttpMethod.GET)
+				.action("readAsync", HttpMethod.GET)
 				.flag(Flags.Auth.PUBLIC_ROUTE)
 				.defaultFormat("json")
 				.parameter(Parameters.Cache.MAX_AGE, DAY);
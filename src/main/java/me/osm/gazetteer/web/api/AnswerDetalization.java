@@ -1,5 +1,29 @@
 package me.osm.gazetteer.web.api;
 
+/**
+ * How much of location is returned.
+ * <p>
+ * Short answers are built from a few fields, only they
+ * are fetched from ES, see {@link #getSourceIncludes()}
+ * */
 public enum AnswerDetalization {
-	FULL, SHORT, SHORT_SCORE
+	
+	FULL(), 
+	
+	SHORT("id", "type", "name", "center_point", "address.text"), 
+	
+	SHORT_SCORE("id", "type", "name", "center_point", "address.text", "addr_level");
+	
+	private final String[] sourceIncludes;
+	
+	private AnswerDetalization(String... sourceIncludes) {
+		this.sourceIncludes = sourceIncludes;
+	}
+	
+	/**
+	 * @return _source fields used by answer, null for all fields
+	 * */
+	public String[] getSourceIncludes() {
+		return sourceIncludes.length == 0 ? null : sourceIncludes.clone();
+	}
 }
@@ -0,0 +1,149 @@
+package me.osm.gazetteer.web.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.api.meta.Endpoint;
+import me.osm.gazetteer.web.api.meta.Parameter;
+import me.osm.gazetteer.web.api.search.BatchQuery;
+import me.osm.gazetteer.web.api.search.BatchSearch;
+import me.osm.gazetteer.web.api.utils.ChunkedAnswer;
+
+import org.jboss.netty.util.CharsetUtil;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restexpress.Request;
+import org.restexpress.Response;
+import org.restexpress.domain.metadata.UriMetadata;
+import org.restexpress.exception.BadRequestException;
+
+/**
+ * Search for many queries by one http request.
+ * <p>
+ * Takes JSON array of query objects (or object with such array
+ * in <code>queries</code> field), every object has the same options as
+ * {@link SearchAPI} request parameters. Queries are executed by
+ * {@link BatchSearch}, answers are written as JSON array,
+ * in the order of queries, as soon as they are ready.
+ * */
+public class BatchSearchAPI implements DocumentedApi {
+
+	private static final String QUERIES_FIELD = "queries";
+
+	private final SearchAPI searchAPI;
+
+	public BatchSearchAPI(SearchAPI searchAPI) {
+		this.searchAPI = searchAPI;
+	}
+
+	/**
+	 * REST Express create (POST) routine method
+	 *
+	 * @param request REST Express request
+	 * @param response REST Express response
+	 *
+	 * @return answers, which are written as they are ready
+	 * */
+	public ChunkedAnswer create(Request request, Response response) {
+		JSONArray queries = readQueries(request);
+
+		int maxQueries = GazetteerWeb.config().getBatchSearchMaxQueries();
+		if(queries.length() > maxQueries) {
+			throw new BadRequestException("Too many queries, no more than "
+					+ maxQueries + " are allowed");
+		}
+
+		List<BatchSearch.Item> items = new ArrayList<>(queries.length());
+		final String[] errors = new String[queries.length()];
+
+		for(int i = 0; i < queries.length(); i++) {
+			try {
+				BatchQuery query = BatchQuery.parse(queries.getJSONObject(i));
+				items.add(searchAPI.prepare(query, true));
+			}
+			catch (Exception e) {
+				// report the error in place of answer
+				items.add(null);
+				errors[i] = e.getMessage();
+			}
+		}
+
+		final ChunkedAnswer answer = ChunkedAnswer.create(response);
+
+		new BatchSearch().execute(items, new BatchSearch.Listener() {
+
+			@Override
+			public void onResult(int index, JSONObject result, Throwable failure) {
+				if(result == null) {
+					result = new JSONObject();
+					result.put("result", "error");
+					result.put("error", errors[index] != null ? errors[index]
+							: failure == null ? null : failure.getMessage());
+				}
+
+				answer.write(result);
+			}
+
+			@Override
+			public void onDone() {
+				answer.close();
+			}
+
+		});
+
+		return answer;
+	}
+
+	private static JSONArray readQueries(Request request) {
+		String body = request.getBody() == null ? "" :
+			request.getBody().toString(CharsetUtil.UTF_8).trim();
+
+		try {
+			if(body.startsWith("{")) {
+				return new JSONObject(body).getJSONArray(QUERIES_FIELD);
+			}
+
+			return new JSONArray(body);
+		}
+		catch (JSONException e) {
+			throw new BadRequestException("Request body should be JSON array of queries", e);
+		}
+	}
+
+	@Override
+	public Endpoint getMeta(UriMetadata uriMetadata) {
+		Endpoint meta = new Endpoint(uriMetadata.getPattern(), "Batch locations search",
+				"Searches for many queries at once. POST JSON array of query objects, "
+			  + "objects fields are the same as locations search parameters. "
+			  + "Returns JSON array of answers in the order of queries.");
+
+		meta.getUrlParameters().add(new Parameter(SearchAPI.Q_HEADER, "Querry text"));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.TYPE_HEADER,
+				"Type of feature. [adrpnt, poipnt, hghnet, plcpnt, admbnd]"));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.POI_CLASS_HEADER,
+				"Look for pois of exact types."));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.REFERENCES_HEADER,
+				"Features id's of higher objects to filter results."));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.BBOX_HEADER,
+				"Search inside given BBOX only. [west, south, east, north]"));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.LAT_HEADER,
+				"Latitude of map center, used for distance scoring."));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.LON_HEADER,
+				"Longitude of map center, used for distance scoring."));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.STRICT_SEARCH_HEADER,
+				"Create strict query. Default value is false."));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.ADDRESSES_ONLY_HEADER,
+				"Search only for addresses, don't search for POIs."));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.FULL_GEOMETRY_HEADER,
+				"Include or not full geometry of object. Default is not include."));
+		meta.getUrlParameters().add(new Parameter(SearchAPI.ANSWER_DETALIZATION_HEADER,
+				"How many details should contains answer. full/short"));
+		meta.getUrlParameters().add(new Parameter("size",
+				"Amount of results, no more than " + BatchQuery.MAX_SIZE + "."));
+
+		return meta;
+	}
+
+}
@@ -3,6 +3,7 @@ package me.osm.gazetteer.web.api;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -11,7 +12,14 @@ import java.util.Set;
 import me.osm.gazetteer.web.ESNodeHolder;
 import me.osm.gazetteer.web.api.meta.Endpoint;
 import me.osm.gazetteer.web.api.meta.Parameter;
+import me.osm.gazetteer.web.api.utils.AnswerListener;
+import me.osm.gazetteer.web.api.utils.AnswerStep;
+import me.osm.gazetteer.web.api.utils.DeferredAnswer;
+import me.osm.gazetteer.web.api.utils.GeometryStore;
+import me.osm.gazetteer.web.api.utils.RequestUtils;
+import me.osm.gazetteer.web.api.utils.SearchBatch;
 import me.osm.gazetteer.web.imp.IndexHolder;
+import me.osm.gazetteer.web.utils.GeometryPyramid;
 
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -36,25 +44,79 @@ public class FeatureAPI implements DocumentedApi {
 	public JSONObject read(Request request, Response response) 
 			throws IOException {
 		
+		DeferredAnswer<JSONObject> answer = new DeferredAnswer<JSONObject>();
+		feature(request, response, answer);
+		
+		return answer.get();
+	}
+
+	/**
+	 * REST Express read routine method, which doesn't block 
+	 * request handling thread while ES reads feature.
+	 * */
+	public DeferredAnswer<JSONObject> readAsync(Request request, Response response) {
+		DeferredAnswer<JSONObject> answer = DeferredAnswer.create(response);
+		feature(request, response, answer);
+		
+		return answer;
+	}
+	
+	private void feature(Request request, final Response response, 
+			DeferredAnswer<JSONObject> answer) {
+		
 		String id = request.getHeader("id");
 
 		boolean withRelated = request.getHeader("_related") != null;
 		
-		JSONObject feature = getFeature(id, withRelated);
+		Double tolerance = RequestUtils.getDoubleHeader(GeometryPyramid.TOLERANCE_HEADER, request);
 		
-		if(feature != null) {
-			return feature;
-		}
+		final DeferredAnswer<JSONObject> feature = getFeatureAsync(
+				id, withRelated, tolerance == null ? 0 : tolerance);
 		
-		response.setResponseCode(404);
-		return null;
+		feature.onComplete(new AnswerStep<JSONObject, JSONObject>(feature, answer) {
+			
+			@Override
+			protected void onAnswer(JSONObject result) {
+				if(result == null) {
+					response.setResponseCode(404);
+				}
+				answer.complete(result);
+			}
+			
+		});
 	}
 
 	public static JSONObject getFeature(String idParam, boolean withRelated) {
+		return getFeature(idParam, withRelated, 0);
+	}
+	
+	/**
+	 * @param geometryTolerance tolerance of returned geometry, 
+	 * see {@link GeometryStore#fill(JSONObject, boolean, double)}
+	 * */
+	public static JSONObject getFeature(String idParam, boolean withRelated, 
+			double geometryTolerance) {
+		
+		return getFeatureAsync(idParam, withRelated, geometryTolerance).get();
+	}
+	
+	/**
+	 * Like {@link #getFeature(String, boolean, double)}, but doesn't block,
+	 * feature, its geometry and related objects are read from ES listeners.
+	 * 
+	 * @return answer, completed with feature or with null if there is 
+	 * no such feature
+	 * */
+	public static DeferredAnswer<JSONObject> getFeatureAsync(String idParam, 
+			final boolean withRelated, final double geometryTolerance) {
+		
 		Client client = ESNodeHolder.getClient();
 		
+		final DeferredAnswer<JSONObject> answer = new DeferredAnswer<>();
+		
 		if(idParam == null) {
-			return null;
+			answer.complete(null);
+			return answer;
 		}
 		
 		QueryBuilder q = QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), 
@@ -63,33 +125,66 @@ public class FeatureAPI implements DocumentedApi {
 					FilterBuilders.termsFilter("id", idParam))
 				);
 		
-		SearchResponse searchResponse = client.prepareSearch("gazetteer")
+		client.prepareSearch(IndexHolder.ALIAS)
 			.setTypes(IndexHolder.LOCATION)
 			.setSize(50)
-			.setQuery(q).get();
+			.setQuery(q)
+			.setListenerThreaded(true)
+			.execute(new AnswerListener<SearchResponse, JSONObject>(answer) {
+				
+				@Override
+				protected void onAnswer(SearchResponse searchResponse) {
+					SearchHit[] hits = searchResponse.getHits().getHits();
+					
+					if(hits.length == 0) {
+						answer.complete(null);
+						return;
+					}
+					
+					List<JSONObject> hitObjects = new ArrayList<>(hits.length);
+					for(SearchHit hitsrc : hits) {
+						hitObjects.add(new JSONObject(hitsrc.getSourceAsString())) ;
+					}
+					
+					fill(mergeIntoFeature(hitObjects), withRelated, geometryTolerance, answer);
+				}
+				
+			});
 		
-		SearchHit[] hits = searchResponse.getHits().getHits();
+		return answer;
+	}
+	
+	/**
+	 * Related objects are searched while geometry is read
+	 * */
+	private static void fill(final JSONObject feature, boolean withRelated, 
+			double geometryTolerance, DeferredAnswer<JSONObject> answer) {
 		
-		if(hits.length > 0) {
-			
-			List<JSONObject> hitObjects = new ArrayList<>(hits.length);
-			for(SearchHit hitsrc : hits) {
-				hitObjects.add(new JSONObject(hitsrc.getSourceAsString())) ;
-			}
+		SearchBatch batch = new SearchBatch();
+		final JSONObject related = withRelated ? getRelated(feature, batch) : null;
+		final DeferredAnswer<SearchBatch> relatedAnswer = batch.executeAsync();
+		
+		final DeferredAnswer<Collection<JSONObject>> geometry = GeometryStore.fillAsync(
+				Collections.singletonList(feature), true, geometryTolerance);
+		
+		geometry.onComplete(new AnswerStep<Collection<JSONObject>, JSONObject>(geometry, answer) {
 			
-			JSONObject feature = mergeIntoFeature(hitObjects);
-
-			if(withRelated) {
-				JSONObject related =  getRelated(feature);
-				if(related != null) {
-					feature.put("_related", related);
-				}
+			@Override
+			protected void onAnswer(Collection<JSONObject> result) {
+				relatedAnswer.onComplete(new AnswerStep<SearchBatch, JSONObject>(relatedAnswer, answer) {
+					
+					@Override
+					protected void onAnswer(SearchBatch batch) {
+						if(related != null) {
+							feature.put("_related", related);
+						}
+						answer.complete(feature);
+					}
+					
+				});
 			}
 			
-			return feature;
-		}
-		
-		return null;
+		});
 	}
 	
 	/**
@@ -147,7 +242,30 @@ public class FeatureAPI implements DocumentedApi {
 		return result;
 	}
 
+	/**
+	 * Find objects related to feature.
+	 * <p>
+	 * Related objects queries are independent, 
+	 * they are sent by one multi search request.
+	 * */
 	public static JSONObject getRelated(JSONObject feature) {
+		SearchBatch batch = new SearchBatch();
+		
+		JSONObject related = getRelated(feature, batch);
+		batch.execute();
+		
+		return related;
+	}
+
+	/**
+	 * Add related objects queries to batch.
+	 * 
+	 * @param feature source feature
+	 * @param batch batch for queries
+	 * 
+	 * @return related objects, arrays are filled when batch is joined
+	 * */
+	static JSONObject getRelated(JSONObject feature, SearchBatch batch) {
 
 		String id = feature.getString("feature_id");
 		Client client = ESNodeHolder.getClient();
@@ -157,14 +275,14 @@ public class FeatureAPI implements DocumentedApi {
 		JSONArray samePoiType = new JSONArray();
 		
 		if(id.startsWith("adrpnt")) {
-			sameBuilding(id, client, sameBuilding);
+			batch.add(sameBuilding(id, client), sameBuilding);
 		}
 		else if(id.startsWith("poipnt")) {
 			
 			JSONObject addr = feature.getJSONArray("addresses").getJSONObject(0);
 			JSONArray jsonArray = addr.getJSONObject("refs").optJSONArray("poi_addresses");
 			if(jsonArray != null && jsonArray.length() > 0) {
-				sameBuilding(jsonArray.getString(0), client, sameBuilding);
+				batch.add(sameBuilding(jsonArray.getString(0), client), sameBuilding);
 			}
 			
 			Set<String> types = new HashSet<String>();
@@ -173,10 +291,12 @@ public class FeatureAPI implements DocumentedApi {
 				types.add(poiClassesJSON.getString(i));
 			}
 			
-			sameType(id, types, feature.getJSONObject("center_point"), client, samePoiType);
+			batch.add(sameType(id, types, feature.getJSONObject("center_point"), client), samePoiType);
 		}
 		else if(id.startsWith("hghway")) {
-			result.put("_ref_hn", referenced4Street(id, client));
+			JSONArray referenced = new JSONArray();
+			batch.add(referenced4Street(id, client), referenced);
+			result.put("_ref_hn", referenced);
 		}
 		
 		result.put("_same_building", sameBuilding);
@@ -185,9 +305,7 @@ public class FeatureAPI implements DocumentedApi {
 		return result;
 	}
 
-	private static JSONArray referenced4Street(String id, Client client) {
-		
-		JSONArray result = new JSONArray();
+	private static SearchRequestBuilder referenced4Street(String id, Client client) {
 		
 		QueryBuilder q = QueryBuilders.filteredQuery(
 				QueryBuilders.matchAllQuery(), 
@@ -195,32 +313,16 @@ public class FeatureAPI implements DocumentedApi {
 						FilterBuilders.termsFilter("refs.street", id),
 						FilterBuilders.termFilter("type", "adrpnt")));
 
-		SearchRequestBuilder querry = client.prepareSearch("gazetteer")
+		return client.prepareSearch(IndexHolder.ALIAS)
 				.setTypes(IndexHolder.LOCATION)
+				.setFetchSource(null, GeometryPyramid.FIELD)
 				.setSize(200)
 				.addSort("housenumber", SortOrder.ASC)
 				.setQuery(q);
-		
-		return putReferenced(client, result, querry);
-		
 	}
 
-	private static JSONArray putReferenced(Client client, JSONArray result,
-			SearchRequestBuilder querry) {
-		
-		SearchResponse searchResponse = querry
-				.execute().actionGet();
-		
-		for(SearchHit hit : searchResponse.getHits().getHits()) {
-			JSONObject h = new JSONObject(hit.getSourceAsString());
-			result.put(h);
-		}
-		
-		return result;
-	}
-
-	private static void sameType(String curentFeatureId, Collection<String> types, JSONObject point, Client client,
-			JSONArray result) {
+	private static SearchRequestBuilder sameType(String curentFeatureId, Collection<String> types, 
+			JSONObject point, Client client) {
 		
 		QueryBuilder q = QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), 
 				FilterBuilders.andFilter(
@@ -232,23 +334,15 @@ public class FeatureAPI implements DocumentedApi {
 						//and not the original poi
 						FilterBuilders.notFilter(FilterBuilders.termFilter("feature_id", curentFeatureId))));
 	
-		SearchRequestBuilder querry = client.prepareSearch("gazetteer")
+		return client.prepareSearch(IndexHolder.ALIAS)
 				.setTypes(IndexHolder.LOCATION)
+				.setFetchSource(null, GeometryPyramid.FIELD)
 				.addSort(SortBuilders.geoDistanceSort("center_point").point(point.getDouble("lat"), point.getDouble("lon")))
 				.setSize(20)
 				.setQuery(q);
-		
-		SearchResponse searchResponse = querry
-				.execute().actionGet();
-		
-		for(SearchHit hit : searchResponse.getHits().getHits()) {
-			JSONObject h = new JSONObject(hit.getSourceAsString());
-			result.put(h);
-		}
 	}
 
-	private static void sameBuilding(String id, Client client,
-			JSONArray result) {
+	private static SearchRequestBuilder sameBuilding(String id, Client client) {
 		
 		QueryBuilder q = QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), 
 				FilterBuilders.andFilter(
@@ -257,23 +351,10 @@ public class FeatureAPI implements DocumentedApi {
 				
 		);
 		
-		fillArrayFromResult(client, result, q);
-	}
-
-	private static void fillArrayFromResult(Client client,
-			JSONArray sameBuilding, QueryBuilder q) {
-		
-		SearchRequestBuilder querry = client.prepareSearch("gazetteer")
+		return client.prepareSearch(IndexHolder.ALIAS)
 				.setTypes(IndexHolder.LOCATION)
+				.setFetchSource(null, GeometryPyramid.FIELD)
 				.setQuery(q);
-		
-		SearchResponse searchResponse = querry
-				.execute().actionGet();
-		
-		for(SearchHit hit : searchResponse.getHits().getHits()) {
-			JSONObject h = new JSONObject(hit.getSourceAsString());
-			sameBuilding.put(h);
-		}
 	}
 
 	private static final String[] COMMON_FIELDS = new String[]{
@@ -291,7 +372,8 @@ public class FeatureAPI implements DocumentedApi {
         "poi_keywords",
         "more_tags",
         "center_point",
-        "full_geometry"
+        "full_geometry",
+        GeometryPyramid.FIELD
 	};
 
 	private static final String[] ADDR_ROW_FIELDS = new String[] {
@@ -326,6 +408,9 @@ public class FeatureAPI implements DocumentedApi {
 		meta.getPathParameters().add(new Parameter("id", "Object id (required)."));
 		meta.getPathParameters().add(new Parameter("_related", 
 				"Return data for related object."));
+		meta.getUrlParameters().add(new Parameter(GeometryPyramid.TOLERANCE_HEADER, 
+				"Return simplified full geometry, with tolerance up to given value in degrees. "
+			  + "Default is 0, geometry is returned as is."));
 		
 		return meta;
 	}
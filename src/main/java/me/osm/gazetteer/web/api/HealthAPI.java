@@ -11,7 +11,9 @@ import java.util.Properties;
 import me.osm.gazetteer.web.ESNodeHolder;
 import me.osm.gazetteer.web.api.meta.Endpoint;
 import me.osm.gazetteer.web.api.meta.health.Health;
+import me.osm.gazetteer.web.api.utils.SearchCache;
 import me.osm.gazetteer.web.executions.BackgroundExecutorFacade;
+import me.osm.gazetteer.web.imp.DiffSpool;
 import me.osm.gazetteer.web.imp.IndexHolder;
 
 import org.elasticsearch.action.count.CountRequestBuilder;
@@ -61,14 +63,14 @@ public class HealthAPI implements DocumentedApi {
 		
 		try {
 			Client client = ESNodeHolder.getClient();
-			long featuresCount = client.prepareCount("gazetteer")
+			long featuresCount = client.prepareCount(IndexHolder.ALIAS)
 					.setTypes(IndexHolder.LOCATION)
 					.setQuery(QueryBuilders.matchAllQuery())
 					.get().getCount();
 			health.setFeatures(featuresCount);
 			
 			
-			SearchRequestBuilder types = client.prepareSearch("gazetteer").setTypes(IndexHolder.LOCATION)
+			SearchRequestBuilder types = client.prepareSearch(IndexHolder.ALIAS).setTypes(IndexHolder.LOCATION)
 					.setQuery(QueryBuilders.matchAllQuery())
 					.setSearchType(SearchType.COUNT)
 					.addAggregation(AggregationBuilders.terms("ftypes").field("type"))
@@ -82,7 +84,7 @@ public class HealthAPI implements DocumentedApi {
 			fillTimestamp(health, aggregations);
 			
 			
-			CountRequestBuilder poiClasses = client.prepareCount("gazetteer").setTypes(IndexHolder.POI_CLASS)
+			CountRequestBuilder poiClasses = client.prepareCount(IndexHolder.ALIAS).setTypes(IndexHolder.POI_CLASS)
 					.setQuery(QueryBuilders.matchAllQuery());
 			
 			health.setPoiClasses(poiClasses.get().getCount());
@@ -92,7 +94,14 @@ public class HealthAPI implements DocumentedApi {
 		}
 		
 		health.setBackgroundTasks(BackgroundExecutorFacade.get().getStateInfo()); 
+		
+		DiffSpool diffSpool = DiffSpool.get();
+		if(diffSpool != null) {
+			health.setDiffSpool(diffSpool.getState());
+		}
 
+		health.setSearchCache(SearchCache.get().getState());
+		
 		health.setVersions(versions);
 		
 		return health;
@@ -1,13 +1,16 @@
 package me.osm.gazetteer.web.api;
 
 import me.osm.gazetteer.web.ESNodeHolder;
+import me.osm.gazetteer.web.GazetteerWeb;
 import me.osm.gazetteer.web.api.meta.Endpoint;
 import me.osm.gazetteer.web.api.meta.Parameter;
 import me.osm.gazetteer.web.api.utils.ImportSrcType;
 import me.osm.gazetteer.web.api.utils.RequestUtils;
+import me.osm.gazetteer.web.imp.ImportCheckpoint;
 import me.osm.gazetteer.web.imp.IndexHolder;
 import me.osm.gazetteer.web.imp.LocationsDiffImporter;
 import me.osm.gazetteer.web.imp.LocationsDumpImporter;
+import me.osm.gazetteer.web.imp.MultiRegionImporter;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.validator.routines.UrlValidator;
@@ -54,6 +57,26 @@ public class ImportLocations implements DocumentedApi {
 	 * */
 	private static final String OSMDOC_HEADER = "osmdoc";
 	
+	/**
+	 * Continue interrupted import of the task with given uuid
+	 * */
+	private static final String RESUME_HEADER = "resume";
+	
+	/**
+	 * Import into a new index and switch alias after import
+	 * */
+	private static final String REINDEX_HEADER = "reindex";
+	
+	/**
+	 * Merge segments of new index before switch
+	 * */
+	private static final String OPTIMIZE_HEADER = "optimize";
+	
+	/**
+	 * Files imported concurrently, when source is a directory or glob
+	 * */
+	private static final String PARALLEL_HEADER = "parallel";
+	
 	
 	public JSONObject read(Request request, Response response) {
 		
@@ -63,14 +86,47 @@ public class ImportLocations implements DocumentedApi {
 		boolean drop = RequestUtils.getBooleanHeader(request, DROP_HEADER, false);
 		boolean buildingsGeometry = RequestUtils.getBooleanHeader(request, BUILDINGS_GEOMETRY_HEADER, true);
 		boolean osmdoc = RequestUtils.getBooleanHeader(request, OSMDOC_HEADER, false);
+		boolean reindex = RequestUtils.getBooleanHeader(request, REINDEX_HEADER, false);
+		boolean optimize = RequestUtils.getBooleanHeader(request, OPTIMIZE_HEADER, false);
 		ImportSrcType type = RequestUtils.getEnumHeader(
 				request, TYPE_HEADER, ImportSrcType.class, ImportSrcType.DUMP);
 		
 		String callbackUrl = request.getHeader(CALLBACK_HEADER);
 		
+		ImportCheckpoint resume = null;
+		String resumeUUID = request.getHeader(RESUME_HEADER);
+		if(StringUtils.isNotEmpty(resumeUUID)) {
+			resume = ImportCheckpoint.load(resumeUUID);
+			
+			if(resume == null) {
+				result.put("state", "rejected");
+				result.put("message", "There is no checkpoint for task " + resumeUUID);
+				return result;
+			}
+			
+			// Continue with the same source and options, don't drop 
+			// already imported data
+			source = resume.getSource();
+			type = resume.getSourceType();
+			buildingsGeometry = resume.isBuildingsGeometry();
+			drop = false;
+			reindex = false;
+			
+			result.put(RESUME_HEADER, resumeUUID);
+			result.put("resume_line", resume.getLine());
+		}
+		
+		// New index is built from scratch, and osmdoc 
+		// is imported into it by importer
+		if(reindex) {
+			drop = false;
+			osmdoc = false;
+			result.put(REINDEX_HEADER, true);
+		}
+		
 		if(drop) {
-			new DeleteByQueryRequestBuilder(ESNodeHolder.getClient()).setIndices("gazetteer")
-				.setTypes(IndexHolder.LOCATION).setQuery(QueryBuilders.matchAllQuery()).execute().actionGet();
+			new DeleteByQueryRequestBuilder(ESNodeHolder.getClient()).setIndices(IndexHolder.ALIAS)
+				.setTypes(IndexHolder.LOCATION, IndexHolder.GEOMETRY).setQuery(QueryBuilders.matchAllQuery()).execute().actionGet();
 			
 			result.put(DROP_HEADER, true);
 		}
@@ -81,7 +137,31 @@ public class ImportLocations implements DocumentedApi {
 		}
 		
 		boolean imp = StringUtils.isNotEmpty(source);
-		if(imp) {
+		if(imp && resume == null && type == ImportSrcType.DUMP 
+				&& MultiRegionImporter.isMultiSource(source)) {
+			
+			int parallel = RequestUtils.getIntHeader(request, PARALLEL_HEADER, 
+					GazetteerWeb.config().getImportParallelFiles());
+			
+			MultiRegionImporter importer = new MultiRegionImporter(source, buildingsGeometry, parallel);
+			if(reindex) {
+				importer.setReindex(optimize);
+			}
+			
+			if(StringUtils.isNotEmpty(callbackUrl) && isValidUrl(callbackUrl)) {
+				importer.setCallback(callbackUrl);
+				result.put("callback_url", callbackUrl);
+			}
+			
+			result.put("state", importer.submit() ? "submitted" : "rejected");
+			result.put("locations_import", imp);
+			result.put("task_id", importer.getId());
+			result.put("task_uuid", importer.getUUID());
+			result.put("files", importer.getFiles().size());
+			result.put(PARALLEL_HEADER, parallel);
+			result.put(BUILDINGS_GEOMETRY_HEADER, buildingsGeometry);
+		}
+		else if(imp) {
 			
 			LocationsDumpImporter importer = null;
 			if(type == ImportSrcType.DIFF) {
@@ -91,6 +171,13 @@ public class ImportLocations implements DocumentedApi {
 				importer = new LocationsDumpImporter(source, buildingsGeometry);
 			}
 			
+			if(resume != null) {
+				importer.setResume(resume);
+			}
+			else if(reindex) {
+				importer.setReindex(optimize);
+			}
+			
 			if(StringUtils.isNotEmpty(callbackUrl) && isValidUrl(callbackUrl)) {
 				importer.setCallback(callbackUrl);
 				result.put("callback_url", callbackUrl);
@@ -132,7 +219,9 @@ public class ImportLocations implements DocumentedApi {
 		
 		meta.getUrlParameters().add(new Parameter(SOURCE_HEADER, "Path to dump file. "
 				+ "Relative to working dir or absolute. "
-				+ "If file ends with .gz it will be unzipped automaticaly."));
+				+ "If file ends with .gz it will be unzipped automaticaly. "
+				+ "Directory or glob (like regions/*.json.gz) imports all matched "
+				+ "dumps as one task, each with its own region."));
 		meta.getUrlParameters().add(new Parameter(TYPE_HEADER, 
 				"Type of source file, DUMP or DIFF. Default value is DUMP."));
 		meta.getUrlParameters().add(new Parameter(DROP_HEADER, 
@@ -141,6 +230,22 @@ public class ImportLocations implements DocumentedApi {
 				"Import buildings geometry for POIs and Addresses. true by default."));
 		meta.getUrlParameters().add(new Parameter(OSMDOC_HEADER, 
 				"Also import osmdoc (will uses embedded version of osmdoc catalog)."));
+		meta.getUrlParameters().add(new Parameter(RESUME_HEADER, 
+				"Uuid of interrupted import task. Import continues from the last "
+			  + "acknowledged line with the same source and options. "
+			  + "drop is ignored."));
+		meta.getUrlParameters().add(new Parameter(REINDEX_HEADER, 
+				"Import into a new index with bulk load settings, "
+			  + "and switch gazetteer alias to it when import is done. "
+			  + "Search is served from the old index meanwhile. "
+			  + "drop and osmdoc are ignored, osmdoc is always imported into new index. "
+			  + "false by default."));
+		meta.getUrlParameters().add(new Parameter(OPTIMIZE_HEADER, 
+				"Merge segments of the new index before switch, used with reindex. "
+			  + "false by default."));
+		meta.getUrlParameters().add(new Parameter(PARALLEL_HEADER, 
+				"How many files are imported concurrently, when source is "
+			  + "a directory or glob. import_parallel_files config value by default."));
 		
 		return meta;
 	}
@@ -1,6 +1,7 @@
 package me.osm.gazetteer.web.api;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -10,6 +11,10 @@ import java.util.Set;
 import me.osm.gazetteer.web.ESNodeHolder;
 import me.osm.gazetteer.web.api.meta.Endpoint;
 import me.osm.gazetteer.web.api.meta.Parameter;
+import me.osm.gazetteer.web.api.search.PoiClassMatcher;
+import me.osm.gazetteer.web.api.utils.SearchCache;
+import me.osm.gazetteer.web.executions.AbortedException;
+import me.osm.gazetteer.web.imp.BulkDispatcher;
 import me.osm.gazetteer.web.imp.IndexHolder;
 import me.osm.gazetteer.web.utils.FileUtils;
 import me.osm.gazetteer.web.utils.FileUtils.LineHandler;
@@ -20,8 +25,8 @@ import me.osm.osmdoc.model.Feature;
 import org.apache.commons.lang3.StringUtils;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequestBuilder;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -40,30 +45,44 @@ public class ImportOSMDoc implements DocumentedApi {
 	}
 
 	public JSONObject run(String source, boolean drop) {
+		return run(source, drop, IndexHolder.ALIAS);
+	}
+
+	/**
+	 * Import POI classification into the index
+	 * 
+	 * @param source path to additional poi classes, might be null
+	 * @param drop remove existing classes
+	 * @param index index or alias name, poi classes matcher is rebuilt 
+	 * only for alias, use {@link IndexHolder#switchIndex(String, boolean)}
+	 * for new indexes
+	 * */
+	public JSONObject run(String source, boolean drop, final String index) {
 		JSONObject result = new JSONObject();
 		
 		if(drop) {
-			new DeleteRequestBuilder(ESNodeHolder.getClient(), "gazetteer")
+			new DeleteRequestBuilder(ESNodeHolder.getClient(), index)
 				.setType(IndexHolder.POI_CLASS).execute().actionGet();
 		}
 		
 		IndicesExistsResponse response = 
 				new IndicesExistsRequestBuilder(ESNodeHolder.getClient().admin().indices())
-					.setIndices("gazetteer").execute().actionGet();
+					.setIndices(index).execute().actionGet();
 
 		if (!response.isExists()) {
-			IndexHolder.createIndex();
+			IndexHolder.createIndex(index, false);
 		}
 		
-		final BulkRequestBuilder bulk = ESNodeHolder.getClient().prepareBulk();
+		// there are few poi classes, so send them all at the end
+		final List<IndexRequest> requests = new ArrayList<>();
 
 		List<JSONObject> features = OSMDocSinglton.get().getFacade().listTranslatedFeatures(null);
 		for(JSONObject obj : features) {
 			
 			IndexRequestBuilder ind = new IndexRequestBuilder(ESNodeHolder.getClient())
-				.setSource(obj.toString()).setIndex("gazetteer").setType(IndexHolder.POI_CLASS);
+				.setSource(obj.toString()).setIndex(index).setType(IndexHolder.POI_CLASS);
 			
-			bulk.add(ind.request());
+			requests.add(ind.request());
 		}
 		
 		if(StringUtils.isNotEmpty(source)) {
@@ -96,8 +115,8 @@ public class ImportOSMDoc implements DocumentedApi {
 						obj.put("keywords", new JSONArray(kwds));
 						
 						IndexRequestBuilder ind = new IndexRequestBuilder(ESNodeHolder.getClient())
-						.setSource(obj.toString()).setIndex("gazetteer").setType(IndexHolder.POI_CLASS);
-						bulk.add(ind.request());
+						.setSource(obj.toString()).setIndex(index).setType(IndexHolder.POI_CLASS);
+						requests.add(ind.request());
 						
 					}
 				}
@@ -111,10 +130,25 @@ public class ImportOSMDoc implements DocumentedApi {
 			result.put("result", "skip");
 		}
 		
-		if(bulk.numberOfActions() > 0) {
-			bulk.execute().actionGet();
+		BulkDispatcher bulk = new BulkDispatcher(ESNodeHolder.getClient());
+		try {
+			for(IndexRequest ind : requests) {
+				bulk.add(ind);
+			}
+			bulk.close();
+		}
+		catch (AbortedException e) {
+			bulk.shutdown();
+			throw new RuntimeException("Import of poi classes was interrupted", e);
+		}
+		
+		// classes imported into new index are loaded by IndexHolder.switchIndex
+		if(IndexHolder.ALIAS.equals(index)) {
+			PoiClassMatcher.get().rebuild();
 		}
 		
+		// poi classes are part of search answers
+		SearchCache.get().invalidate();
 		
 		return result;
 	}
@@ -31,15 +31,18 @@ public class IndexAPI {
 		}
 		else {
 			GetMappingsResponse mappingsResponse = new GetMappingsRequestBuilder(
-					ESNodeHolder.getClient().admin().indices(), "gazetteer").get();
+					ESNodeHolder.getClient().admin().indices(), IndexHolder.ALIAS).get();
 			
 			JSONObject result = new JSONObject();
 			
 			ImmutableOpenMap<String, ImmutableOpenMap<String, MappingMetaData>> answer = mappingsResponse.getMappings();
-			ObjectContainer<MappingMetaData> mappings = answer.get("gazetteer").values();
-			for (ObjectCursor<MappingMetaData> objectCursor : mappings) {
-				MappingMetaData mmeta = objectCursor.value;
-				result.put(mmeta.type(), new JSONObject(mmeta.source().toString()));
+			// Keyed by concrete index name, which differs from alias
+			for (ObjectCursor<ImmutableOpenMap<String, MappingMetaData>> index : answer.values()) {
+				ObjectContainer<MappingMetaData> mappings = index.value.values();
+				for (ObjectCursor<MappingMetaData> objectCursor : mappings) {
+					MappingMetaData mmeta = objectCursor.value;
+					result.put(mmeta.type(), new JSONObject(mmeta.source().toString()));
+				}
 			}
 			
 			return result;
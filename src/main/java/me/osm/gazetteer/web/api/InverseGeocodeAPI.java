@@ -1,19 +1,24 @@
 package me.osm.gazetteer.web.api;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import me.osm.gazetteer.web.ESNodeHolder;
 import me.osm.gazetteer.web.api.meta.Endpoint;
 import me.osm.gazetteer.web.api.meta.Parameter;
+import me.osm.gazetteer.web.api.utils.AnswerStep;
+import me.osm.gazetteer.web.api.utils.DeferredAnswer;
+import me.osm.gazetteer.web.api.utils.GeometryStore;
 import me.osm.gazetteer.web.api.utils.RequestUtils;
+import me.osm.gazetteer.web.api.utils.SearchBatch;
 import me.osm.gazetteer.web.imp.IndexHolder;
+import me.osm.gazetteer.web.utils.GeometryPyramid;
 import me.osm.gazetteer.web.utils.GeometryUtils;
 
 import org.apache.commons.lang3.StringUtils;
@@ -73,14 +78,35 @@ public class InverseGeocodeAPI implements DocumentedApi {
 	 * <li> if there is no highway nearby, return boundaries 
 	 * </ol>
 	 * 
+	 * Highway and boundaries queries don't depend on enclosed features,
+	 * so all queries required for requested level are sent at once,
+	 * by one multi search request.
+	 * 
 	 * @param request REST Express request
 	 * @param response REST Express response
 	 * 
 	 * @return JSONObject with following structure
 	 * */
 	public JSONObject read(Request request, Response response){
+		DeferredAnswer<JSONObject> answer = new DeferredAnswer<JSONObject>();
+		inverse(request, answer);
 		
-		JSONObject result = new JSONObject();
+		return answer.get();
+	}
+	
+	/**
+	 * REST Express read routine method, which doesn't block 
+	 * request handling thread while ES executes queries,
+	 * see {@link #read(Request, Response)}
+	 * */
+	public DeferredAnswer<JSONObject> readAsync(Request request, Response response) {
+		DeferredAnswer<JSONObject> answer = DeferredAnswer.create(response);
+		inverse(request, answer);
+		
+		return answer;
+	}
+	
+	private void inverse(Request request, DeferredAnswer<JSONObject> answer) {
 		
 		// Requested point longitude
 		double lon = RequestUtils.getDoubleHeader(LON_HEADER, request);
@@ -95,6 +121,10 @@ public class InverseGeocodeAPI implements DocumentedApi {
 		boolean fullGeometry = request.getHeader(SearchAPI.FULL_GEOMETRY_HEADER) != null 
 				&& "true".equals(request.getParameter(SearchAPI.FULL_GEOMETRY_HEADER));
 		
+		// Return simplified full geometry
+		Double tolerance = RequestUtils.getDoubleHeader(GeometryPyramid.TOLERANCE_HEADER, request);
+		double geometryTolerance = tolerance == null ? 0 : tolerance;
+		
 		// No more than this amount of neighbours please 
 		int maxNeighbours = request.getHeader(MAX_NEIGHBOURS_HEADER) == null ? 15 : 
 			Integer.valueOf(request.getHeader(MAX_NEIGHBOURS_HEADER));
@@ -129,62 +159,185 @@ public class InverseGeocodeAPI implements DocumentedApi {
 			maxNeighbours = 0;
 		}
 		
+		Inverse inverse = new Inverse(lon, lat, wRelated, fullGeometry, 
+				geometryTolerance, detalization, answer);
+		
 		if(PLACE_LEVEL.equals(largestLevel)) {
-			fillBoundaries(result, lon, lat, fullGeometry, 
-					new ArrayList<JSONObject>(), new LinkedHashMap<String, String>());
-			
-	 		return detalization(result, detalization);
+			inverse.places();
 		}
+		else {
+			inverse.objects(maxNeighbours, largestLevel);
+		}
+	}
+	
+	/**
+	 * Queries of one inverse geocode request. 
+	 * <p>
+	 * Every step is continued from ES listener of the previous one, 
+	 * the last one completes the answer.
+	 * */
+	private final class Inverse {
 		
-		List<JSONObject> neighbours = maxNeighbours == 0 ? null : new ArrayList<JSONObject>(maxNeighbours);
-		List<JSONObject> enclosedFeatures = getEnclosedFeatures(lon, lat, maxNeighbours, neighbours);
-
-		// Get first feature as a main feature.
-		JSONObject mainFeature = enclosedFeatures.isEmpty() ? null : enclosedFeatures.remove(0);
+		private final double lon;
+		private final double lat;
+		private final boolean wRelated;
+		private final boolean fullGeometry;
+		private final double geometryTolerance;
+		private final AnswerDetalization detalization;
+		private final DeferredAnswer<JSONObject> answer;
 		
-		// If main feature is founded, write it out
-		if(mainFeature != null) {
-			return writeMainFeature(wRelated, fullGeometry, neighbours,
-					enclosedFeatures, mainFeature);
+		private final JSONObject result = new JSONObject();
+		
+		public Inverse(double lon, double lat, boolean wRelated, boolean fullGeometry,
+				double geometryTolerance, AnswerDetalization detalization,
+				DeferredAnswer<JSONObject> answer) {
+			
+			this.lon = lon;
+			this.lat = lat;
+			this.wRelated = wRelated;
+			this.fullGeometry = fullGeometry;
+			this.geometryTolerance = geometryTolerance;
+			this.detalization = detalization;
+			this.answer = answer;
+		}
+		
+		/**
+		 * Boundaries only
+		 * */
+		public void places() {
+			SearchBatch batch = new SearchBatch();
+			final BoundariesQuery boundariesQuery = new BoundariesQuery(batch, lon, lat);
+			
+			final DeferredAnswer<SearchBatch> executed = batch.executeAsync();
+			executed.onComplete(new AnswerStep<SearchBatch, JSONObject>(executed, answer) {
+				
+				@Override
+				protected void onAnswer(SearchBatch batch) {
+					Map<String, JSONObject> levels = boundariesQuery.get();
+					fillBoundaries(result, levels, new ArrayList<JSONObject>(), 
+							new LinkedHashMap<String, String>());
+					
+					complete(levels.values());
+				}
+				
+			});
 		}
 		
-		// Return neighbours only
-		if(largestLevel.equals(OBJECTS_LEVEL)) {
-			result.put(_NEIGHBOURS, neighbours);
-			return detalization(result, detalization);
+		/**
+		 * Highway and boundaries queries don't depend on enclosed features,
+		 * so all queries required for requested level are sent at once
+		 * */
+		public void objects(final int maxNeighbours, String largestLevel) {
+			SearchBatch batch = new SearchBatch();
+			
+			final SearchBatch.Result enclosedQuery = batch.add(buildEnclosedFeaturesRequest(lon, lat, maxNeighbours));
+			
+			// Short answer has no highway and boundaries
+			final boolean withHighway = !largestLevel.equals(OBJECTS_LEVEL) && detalization != AnswerDetalization.SHORT;
+			final SearchBatch.Result highwayQuery = withHighway ? batch.add(buildHighwayRequest(lon, lat, 25)) : null;
+			
+			final boolean withBoundaries = withHighway && !largestLevel.equals(HIGHWAYS_LEVEL);
+			final BoundariesQuery boundariesQuery = withBoundaries ? new BoundariesQuery(batch, lon, lat) : null;
+			
+			final DeferredAnswer<SearchBatch> executed = batch.executeAsync();
+			executed.onComplete(new AnswerStep<SearchBatch, JSONObject>(executed, answer) {
+				
+				@Override
+				protected void onAnswer(SearchBatch batch) {
+					
+					// geometries are needed to check that feature encloses point
+					final DeferredAnswer<Collection<JSONObject>> geometries = GeometryStore.fillAsync(
+							sources(enclosedQuery.getHits()), true, 0);
+					
+					geometries.onComplete(new AnswerStep<Collection<JSONObject>, JSONObject>(geometries, answer) {
+						
+						@Override
+						protected void onAnswer(Collection<JSONObject> features) {
+							List<JSONObject> neighbours = maxNeighbours == 0 ? null : new ArrayList<JSONObject>(maxNeighbours);
+							List<JSONObject> enclosedFeatures = getEnclosedFeatures(features, lon, lat, neighbours);
+							
+							enclosed(enclosedFeatures, neighbours, withHighway, highwayQuery, 
+									withBoundaries, boundariesQuery);
+						}
+						
+					});
+				}
+				
+			});
 		}
-
-		// If there is no enclosing features, look for highways within 25 meters
-		JSONObject highway = getHighway(lon, lat, 25);
-
-		// Address parts to return 
-		LinkedHashMap<String, String> parts = new LinkedHashMap<String, String>();
-		if(highway != null) {
+		
+		private void enclosed(List<JSONObject> enclosedFeatures, List<JSONObject> neighbours,
+				boolean withHighway, SearchBatch.Result highwayQuery, 
+				boolean withBoundaries, BoundariesQuery boundariesQuery) {
+			
+			// Get first feature as a main feature.
+			JSONObject mainFeature = enclosedFeatures.isEmpty() ? null : enclosedFeatures.remove(0);
 			
-			// Fill address parts by founded highway
-			fillByHighway(parts, highway);
-			if (!fullGeometry) {
-				highway.remove("full_geometry");
+			// If main feature is founded, write it out
+			if(mainFeature != null) {
+				writeMainFeature(wRelated, fullGeometry, neighbours,
+						enclosedFeatures, mainFeature, answer);
+				return;
 			}
 			
-			result.put("highway", highway);
-			result.put("parts", new JSONObject(parts));
-			result.put("text", StringUtils.join(parts.values(), ", "));
+			// Return neighbours only, 
+			// short answer has no highway and boundaries anyway
+			if(!withHighway) {
+				result.put(_NEIGHBOURS, neighbours);
+				complete(Collections.<JSONObject>emptyList());
+				return;
+			}
 			
-			// Don't forget about neighbours
-			result.put(_NEIGHBOURS, neighbours);
+			// If there is no enclosing features, look for highways within 25 meters
+			JSONObject highway = getHighway(highwayQuery.getHits());
 			
-			return detalization(result, detalization);
-		}
-		else if(largestLevel.equals(HIGHWAYS_LEVEL)) {
-			// Don't forget about neighbours
-			result.put(_NEIGHBOURS, neighbours);
-			return detalization(result, detalization);
+			// Address parts to return 
+			LinkedHashMap<String, String> parts = new LinkedHashMap<String, String>();
+			if(highway != null) {
+				
+				// Fill address parts by founded highway
+				fillByHighway(parts, highway);
+				
+				result.put("highway", highway);
+				result.put("parts", new JSONObject(parts));
+				result.put("text", StringUtils.join(parts.values(), ", "));
+				
+				// Don't forget about neighbours
+				result.put(_NEIGHBOURS, neighbours);
+				
+				complete(Collections.singletonList(highway));
+				return;
+			}
+			else if(!withBoundaries) {
+				// Don't forget about neighbours
+				result.put(_NEIGHBOURS, neighbours);
+				complete(Collections.<JSONObject>emptyList());
+				return;
+			}
+			
+			Map<String, JSONObject> levels = boundariesQuery.get();
+			fillBoundaries(result, levels, neighbours, parts);
+			
+			complete(levels.values());
 		}
 		
-		fillBoundaries(result, lon, lat, fullGeometry, neighbours, parts);
+		/**
+		 * Read geometries of returned objects and complete answer
+		 * */
+		private void complete(Collection<JSONObject> withGeometry) {
+			final DeferredAnswer<Collection<JSONObject>> geometries = 
+					GeometryStore.fillAsync(withGeometry, fullGeometry, geometryTolerance);
+			
+			geometries.onComplete(new AnswerStep<Collection<JSONObject>, JSONObject>(geometries, answer) {
+				
+				@Override
+				protected void onAnswer(Collection<JSONObject> features) {
+					answer.complete(detalization(result, detalization));
+				}
+				
+			});
+		}
 		
-		return detalization(result, detalization);
 	}
 
 	private JSONObject detalization(JSONObject raw,
@@ -239,9 +392,13 @@ public class InverseGeocodeAPI implements DocumentedApi {
 		return raw;
 	}
 
+	/**
+	 * Uses the same fields, which are fetched for 
+	 * {@link AnswerDetalization#SHORT} answers
+	 * */
 	private JSONObject shortAnswer(JSONObject raw) {
 		JSONObject shortResult = new JSONObject(raw, 
-				new String[]{"id", "type", "name", "center_point"});
+				AnswerDetalization.SHORT.getSourceIncludes());
 		shortResult.put("address", getAddressText(raw));
 		return shortResult;
 	}
@@ -255,14 +412,10 @@ public class InverseGeocodeAPI implements DocumentedApi {
 		}
 	}
 
-	private void fillBoundaries(JSONObject result, double lon, double lat,
-			boolean fullGeometry, List<JSONObject> neighbours,
-			LinkedHashMap<String, String> parts) {
-		// Get administrative boundaries 
-		Map<String, JSONObject> levels = getBoundariesLevels(lon, lat);
-		
+	private void fillBoundaries(JSONObject result, Map<String, JSONObject> levels,
+			List<JSONObject> neighbours, LinkedHashMap<String, String> parts) {
 		// Fill address parts by founded boundaries
-		fillByBoundaries(fullGeometry, parts, levels);
+		fillByBoundaries(parts, levels);
 		result.put("boundaries", new JSONObject(levels));
 		
 		result.put("text", StringUtils.join(parts.values(), ", "));
@@ -280,12 +433,11 @@ public class InverseGeocodeAPI implements DocumentedApi {
 	 * @param neighbours list of neighbours
 	 * @param enclosedFeatures list of objects encloses provided point
 	 * @param mainFeature most relevant feature
-	 * 
-	 * @return result encoded as JSONObject
+	 * @param answer completed with main feature, when related objects are read
 	 * */
-	private JSONObject writeMainFeature(boolean wRelated, boolean fullGeometry,
+	private void writeMainFeature(boolean wRelated, boolean fullGeometry,
 			List<JSONObject> neighbours, List<JSONObject> enclosedFeatures,
-			JSONObject mainFeature) {
+			final JSONObject mainFeature, DeferredAnswer<JSONObject> answer) {
 		
 		//Remove full geometry for neighbours
 		if(!fullGeometry && neighbours != null) {
@@ -294,13 +446,6 @@ public class InverseGeocodeAPI implements DocumentedApi {
 			}
 		}
 
-		if(wRelated) {
-			JSONObject related = FeatureAPI.getRelated(mainFeature);
-			if(related != null) {
-				mainFeature.put(RELATED_HEADER, related);
-			}
-		}
-
 		if(neighbours != null) {
 			mainFeature.put("_neighbours", neighbours);
 		}
@@ -309,7 +454,21 @@ public class InverseGeocodeAPI implements DocumentedApi {
 			mainFeature.put("_enclosed", enclosedFeatures);
 		}
 		
-		return mainFeature;
+		SearchBatch batch = new SearchBatch();
+		final JSONObject related = wRelated ? FeatureAPI.getRelated(mainFeature, batch) : null;
+		
+		final DeferredAnswer<SearchBatch> executed = batch.executeAsync();
+		executed.onComplete(new AnswerStep<SearchBatch, JSONObject>(executed, answer) {
+			
+			@Override
+			protected void onAnswer(SearchBatch batch) {
+				if(related != null) {
+					mainFeature.put(RELATED_HEADER, related);
+				}
+				answer.complete(mainFeature);
+			}
+			
+		});
 	}
 
 	/**
@@ -322,6 +481,27 @@ public class InverseGeocodeAPI implements DocumentedApi {
 	 * @return founded highway or null
 	 * */
 	public JSONObject getHighway(double lon, double lat, int r) {
+		return getHighway(buildHighwayRequest(lon, lat, r).get().getHits().getHits());
+	}
+	
+	private static JSONObject getHighway(SearchHit[] hits) {
+		for(SearchHit hit : hits) {
+			return new JSONObject(hit.getSource());
+		}
+		
+		return null;
+	}
+
+	/**
+	 * Build request for highway within r meters around
+	 * 
+	 * @param lon center longitude
+	 * @param lat center latitude
+	 * @param r radius in meters
+	 * 
+	 * @return ElasticSearch SearchRequestBuilder
+	 * */
+	private SearchRequestBuilder buildHighwayRequest(double lon, double lat, int r) {
 		Client client = ESNodeHolder.getClient();
 		
 		FilteredQueryBuilder q =
@@ -335,17 +515,10 @@ public class InverseGeocodeAPI implements DocumentedApi {
 						));
 		
 		SearchRequestBuilder searchRequest = 
-				client.prepareSearch("gazetteer").setTypes(IndexHolder.LOCATION).setQuery(q);
+				client.prepareSearch(IndexHolder.ALIAS).setTypes(IndexHolder.LOCATION).setQuery(q);
 		
 		searchRequest.setSize(1);
-		SearchResponse searchResponse = searchRequest.get();
-		
-		SearchHit[] hits = searchResponse.getHits().getHits();
-		for(SearchHit hit : hits) {
-			return new JSONObject(hit.getSource());
-		}
-		
-		return null;
+		return searchRequest;
 	}
 
 	/**
@@ -359,19 +532,33 @@ public class InverseGeocodeAPI implements DocumentedApi {
 	 * @return enclosed features
 	 * */
 	public List<JSONObject> getEnclosedFeatures(double lon, double lat, int maxNeighbours, List<JSONObject> neighbours) {
+		SearchResponse searchResponse = buildEnclosedFeaturesRequest(lon, lat, maxNeighbours).get();
 		
-		List<JSONObject> result = new ArrayList<>();
+		// geometries are needed to check that feature encloses point
+		List<JSONObject> features = sources(searchResponse.getHits().getHits());
+		GeometryStore.fill(features, true, 0);
 		
-		SearchRequestBuilder searchRequest = 
-				buildEnclosedFeaturesRequest(lon, lat, maxNeighbours);
+		return getEnclosedFeatures(features, lon, lat, neighbours);
+	}
+	
+	private static List<JSONObject> sources(SearchHit[] hits) {
+		List<JSONObject> features = new ArrayList<>(hits.length);
+		for(SearchHit hit : hits) {
+			features.add(new JSONObject(hit.getSource()));
+		}
+		return features;
+	}
+	
+	/**
+	 * @param features locations with geometries, sorted by distance
+	 * */
+	private List<JSONObject> getEnclosedFeatures(Collection<JSONObject> features, double lon, double lat, 
+			List<JSONObject> neighbours) {
 		
-		SearchResponse searchResponse = searchRequest.get();
-				
-		SearchHit[] hits = searchResponse.getHits().getHits();
+		List<JSONObject> result = new ArrayList<>();
 		
 		Point p = GeometryUtils.factory.createPoint(new Coordinate(lon, lat));
-		for(SearchHit hit : hits) {
-			JSONObject feature = new JSONObject(hit.getSource());
+		for(JSONObject feature : features) {
 			Geometry geoemtry = GeometryUtils.parseGeometry(feature.optJSONObject("full_geometry"));
 			if (geoemtry != null && geoemtry.contains(p)) {
 				
@@ -424,7 +611,7 @@ public class InverseGeocodeAPI implements DocumentedApi {
 									.distance(1000, DistanceUnit.METERS)
 						));
 
-		SearchRequestBuilder searchRequest = client.prepareSearch("gazetteer")
+		SearchRequestBuilder searchRequest = client.prepareSearch(IndexHolder.ALIAS)
 				.setTypes(IndexHolder.LOCATION).setQuery(q);
 		
 		searchRequest.addSort(SortBuilders.geoDistanceSort("center_point").point(lat, lon));
@@ -442,33 +629,40 @@ public class InverseGeocodeAPI implements DocumentedApi {
 	 * @return boundaries mapped by it's levels (addr_level attribute value)
 	 * */
 	public Map<String, JSONObject> getBoundariesLevels(double lon, double lat) {
-		Client client = ESNodeHolder.getClient();
-		
-		GeoShapeFilterBuilder filter = FilterBuilders.geoShapeFilter("full_geometry", 
-				ShapeBuilder.newPoint(lon, lat), ShapeRelation.INTERSECTS);
-		
-		FilteredQueryBuilder q =
-				QueryBuilders.filteredQuery(
-						QueryBuilders.matchAllQuery(),
-						filter);
-		
-		SearchRequestBuilder searchRequest = client.prepareSearch("gazetteer")
-				.setTypes(IndexHolder.LOCATION).setQuery(q);
+		SearchBatch batch = new SearchBatch();
+		BoundariesQuery query = new BoundariesQuery(batch, lon, lat);
+		batch.execute();
 		
-		SearchResponse searchResponse = searchRequest.get();
-				
-		SearchHit[] hits = searchResponse.getHits().getHits();
-		List<JSONObject> boundaries = new ArrayList<JSONObject>();
+		return query.get();
+	}
+	
+	/**
+	 * Boundaries encloses point, and nearest place for
+	 * the case when there is no locality boundary.
+	 * <p>
+	 * Place query is added to batch together with boundaries
+	 * query, and used only if there is no locality boundary.
+	 * */
+	private static final class BoundariesQuery {
 		
-		Map<String, JSONObject> levels = new HashMap<String, JSONObject>();
-		for(SearchHit hit : hits) {
-			JSONObject obj = new JSONObject(hit.getSourceAsString());
-
-			boundaries.add(obj);
-			levels.put(obj.optString("addr_level"), obj);
-		}
+		private final SearchBatch.Result boundaries;
+		private final SearchBatch.Result hamlets;
 		
-		if (!levels.containsKey("locality")) {
+		public BoundariesQuery(SearchBatch batch, double lon, double lat) {
+			Client client = ESNodeHolder.getClient();
+			
+			GeoShapeFilterBuilder filter = FilterBuilders.geoShapeFilter("full_geometry", 
+					ShapeBuilder.newPoint(lon, lat), ShapeRelation.INTERSECTS);
+			
+			FilteredQueryBuilder q =
+					QueryBuilders.filteredQuery(
+							QueryBuilders.matchAllQuery(),
+							filter);
+			
+			SearchRequestBuilder searchRequest = client.prepareSearch(IndexHolder.ALIAS)
+					.setTypes(IndexHolder.LOCATION).setQuery(q);
+			
+			this.boundaries = batch.add(searchRequest);
 			
 			GeoDistanceFilterBuilder distanceF = FilterBuilders.geoDistanceFilter("center_point")
 					.distance("1km").lon(lon).lat(lat);
@@ -482,24 +676,35 @@ public class InverseGeocodeAPI implements DocumentedApi {
 								.add(distanceF)
 								.add(plcpnt));
 			
-			searchRequest = client.prepareSearch("gazetteer")
+			searchRequest = client.prepareSearch(IndexHolder.ALIAS)
 					.setTypes(IndexHolder.LOCATION).setQuery(hamlets);
 			searchRequest.addSort(SortBuilders.geoDistanceSort("center_point").point(lat, lon));
 			searchRequest.setSize(1);
 			
-			searchResponse = searchRequest.get();
-			hits = searchResponse.getHits().getHits();
-			
-			if(hits.length > 0) {
-				JSONObject obj = new JSONObject(hits[0].getSourceAsString());
-
-				boundaries.add(obj);
+			this.hamlets = batch.add(searchRequest);
+		}
+		
+		/**
+		 * @return boundaries mapped by it's levels, call after batch is joined
+		 * */
+		public Map<String, JSONObject> get() {
+			Map<String, JSONObject> levels = new HashMap<String, JSONObject>();
+			for(SearchHit hit : boundaries.getHits()) {
+				JSONObject obj = new JSONObject(hit.getSourceAsString());
 				levels.put(obj.optString("addr_level"), obj);
 			}
 			
+			if (!levels.containsKey("locality")) {
+				SearchHit[] hits = hamlets.getHits();
+				if(hits.length > 0) {
+					JSONObject obj = new JSONObject(hits[0].getSourceAsString());
+					levels.put(obj.optString("addr_level"), obj);
+				}
+			}
+			
+			return levels;
 		}
 		
-		return levels;
 	}
 	
 	/**
@@ -544,11 +749,10 @@ public class InverseGeocodeAPI implements DocumentedApi {
 	/**
 	 * Fill address parts by boundaries
 	 * 
-	 * @param fullGeometry keep full geometry
 	 * @param parts target parts map
 	 * @param boundaries boundaries mapped by level
 	 * */
-	private void fillByBoundaries(boolean fullGeometry, LinkedHashMap<String, String> parts,
+	private void fillByBoundaries(LinkedHashMap<String, String> parts,
 			Map<String, JSONObject> boundaries) {
 		
 		if(boundaries.containsKey("admin0")) {
@@ -569,12 +773,6 @@ public class InverseGeocodeAPI implements DocumentedApi {
 		if(boundaries.containsKey("neighborhood")) {
 			parts.put("neighborhood", boundaries.get("neighborhood").optString("name"));
 		}
-		
-		if (!fullGeometry) {
-			for(Entry<String, JSONObject> entry : boundaries.entrySet()) {
-				entry.getValue().remove("full_geometry");
-			}
-		}
 	}
 
 	@Override
@@ -599,6 +797,10 @@ public class InverseGeocodeAPI implements DocumentedApi {
 				"This API returns enclosed feature and this amount of nearby features. "
 			  + "Default amount is 15. Use 0 turn neighbours search off. "
 			  + "Maximum avaible number is 100."));
+		meta.getUrlParameters().add(new Parameter(GeometryPyramid.TOLERANCE_HEADER, 
+				"Return simplified full geometry of highways and boundaries, "
+			  + "with tolerance up to given value in degrees. "
+			  + "Default is 0, geometry is returned as is."));
 		
 		return meta;
 	}
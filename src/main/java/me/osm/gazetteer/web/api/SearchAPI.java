@@ -10,6 +10,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import me.osm.gazetteer.web.ESNodeHolder;
 import me.osm.gazetteer.web.GazetteerWeb;
@@ -18,18 +19,28 @@ import me.osm.gazetteer.web.api.meta.Parameter;
 import me.osm.gazetteer.web.api.query.QToken;
 import me.osm.gazetteer.web.api.query.Query;
 import me.osm.gazetteer.web.api.query.QueryAnalyzer;
+import me.osm.gazetteer.web.api.search.BatchQuery;
+import me.osm.gazetteer.web.api.search.BatchSearch;
+import me.osm.gazetteer.web.api.search.PoiClassMatcher;
 import me.osm.gazetteer.web.api.search.SearchBuilder;
 import me.osm.gazetteer.web.api.utils.APIUtils;
+import me.osm.gazetteer.web.api.utils.AnswerListener;
 import me.osm.gazetteer.web.api.utils.BuildSearchQContext;
+import me.osm.gazetteer.web.api.utils.DeferredAnswer;
 import me.osm.gazetteer.web.api.utils.Paginator;
 import me.osm.gazetteer.web.api.utils.RequestUtils;
+import me.osm.gazetteer.web.api.utils.SearchCache;
 import me.osm.gazetteer.web.imp.IndexHolder;
+import me.osm.gazetteer.web.utils.GeometryPyramid;
 import me.osm.gazetteer.web.utils.OSMDocSinglton;
 import me.osm.osmdoc.model.Feature;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.search.BooleanQuery;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchPhaseExecutionException;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -151,6 +162,12 @@ public class SearchAPI implements DocumentedApi {
 	 * */
 	public static final String ANSWER_DETALIZATION_HEADER = "detalization";
 	
+	/**
+	 * Route parameter, what to do if strict search founds nothing, 
+	 * holds {@link SearchFallback} value parsed at routes definition
+	 * */
+	public static final String FALLBACK_PARAMETER = "fallback";
+	
 
 	private static final Logger log = LoggerFactory.getLogger(SearchAPI.class);
 
@@ -179,6 +196,22 @@ public class SearchAPI implements DocumentedApi {
 		return read(request, response, false);
 	}
 	
+	/**
+	 * REST Express read routine method, which doesn't block 
+	 * request handling thread while ES executes query.
+	 * 
+	 * @param request REST Express request
+	 * @param response REST Express response
+	 * 
+	 * @return Search results, which will be written when ES answers
+	 * */
+	public DeferredAnswer<JSONObject> readAsync(Request request, Response response) throws IOException {
+		DeferredAnswer<JSONObject> answer = DeferredAnswer.create(response);
+		search(request, false, answer);
+		
+		return answer;
+	}
+	
 	/**
 	 * Parse request, create and execute query, encode and return results. 
 	 * 
@@ -190,6 +223,32 @@ public class SearchAPI implements DocumentedApi {
 	 * */
 	public JSONObject read(Request request, Response response, boolean resendedAfterFail) 
 			throws IOException {
+		
+		DeferredAnswer<JSONObject> answer = new DeferredAnswer<JSONObject>();
+		search(request, resendedAfterFail, answer);
+
+		try {
+			return answer.get();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			response.setException(e);
+			response.setResponseCode(500);
+			
+			return null;
+		}
+		
+	}
+
+	/**
+	 * Parse request and start search, results will be passed into answer.
+	 * 
+	 * @param request RESTExpress request
+	 * @param resendedAfterFail shows that it is a second request, sent after strict request failed
+	 * @param answer search results
+	 * */
+	private void search(Request request, boolean resendedAfterFail, 
+			DeferredAnswer<JSONObject> answer) {
 
 		boolean explain = "true".equals(request.getHeader(EXPLAIN_HEADER));
 		String querryString = StringUtils.stripToNull(request.getHeader(Q_HEADER));
@@ -226,23 +285,10 @@ public class SearchAPI implements DocumentedApi {
 		
 		List<String> bbox = getList(request, BBOX_HEADER);
 		
-		try {
-			
-			JSONObject answer = internalSearch(request, response,
-					resendedAfterFail, explain, querryString, types, poiClass,
-					lat, lon, refs, strictRequested, fullGeometry,
-					addressesOnly, detalization, bbox, poiTagFilters);
-			
-			return answer;
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-			response.setException(e);
-			response.setResponseCode(500);
-			
-			return null;
-		}
-		
+		internalSearch(request, answer,
+				resendedAfterFail, explain, querryString, types, poiClass,
+				lat, lon, refs, strictRequested, fullGeometry,
+				addressesOnly, detalization, bbox, poiTagFilters);
 	}
 
 	public JSONObject internalSearch(
@@ -272,85 +318,504 @@ public class SearchAPI implements DocumentedApi {
 			resended = true;
 		}
 		
-		return internalSearch(
-				null, null, resended, explain, querryString, types, 
+		DeferredAnswer<JSONObject> answer = new DeferredAnswer<JSONObject>();
+		internalSearch(
+				null, answer, resended, explain, querryString, types, 
 				poiClass, lat, lon, refs, strict, fullGeometry, 
 				addressesOnly, detalization, bbox, poiTagFilters);
+		
+		return answer.get();
 	}
 	
-	private JSONObject internalSearch(Request request, Response response,
+	private void internalSearch(Request request, DeferredAnswer<JSONObject> answer,
 			boolean resendedAfterFail, boolean explain, String querryString,
 			Set<String> types, Set<String> poiClass, Double lat, Double lon,
 			Set<String> refs, boolean strictRequested, boolean fullGeometry,
 			boolean addressesOnly, AnswerDetalization detalization,
-			List<String> bbox, JSONObject poiTagFilters) throws IOException {
+			List<String> bbox, JSONObject poiTagFilters) {
 		
 		if(querryString == null && poiClass.isEmpty() && types.isEmpty() && refs.isEmpty()) {
-			return null;
+			answer.complete(null);
+			return;
 		}
 		
-		Query query = queryAnalyzer.getQuery(querryString);
-		
-		List<JSONObject> poiType = null;
-		
-		//don't look for poi type if we search only for addresses 
-		if(query != null && !addressesOnly) {
-			poiType = findPoiClass(query);
+		try {
+			Query query = queryAnalyzer.getQuery(querryString);
+			
+			double geometryTolerance = 0;
+			if (request != null) {
+				Double tolerance = getDoubleHeader(GeometryPyramid.TOLERANCE_HEADER, request);
+				geometryTolerance = tolerance == null ? 0 : tolerance;
+			}
+			
+			SearchFallback fallback = getFallback(request);
+			
+			// Explanations are written into log, so don't cache them
+			SearchCache cache = SearchCache.get();
+			if(cache.isEnabled() && !explain) {
+				int digits = GazetteerWeb.config().getSearchCacheLatLonDigits();
+				lat = round(lat, digits);
+				lon = round(lon, digits);
+				
+				String key = cache.key(getCacheKey(request, query, resendedAfterFail, fallback, 
+						types, poiClass, lat, lon, refs, strictRequested, fullGeometry, 
+						geometryTolerance, addressesOnly, detalization, bbox, poiTagFilters));
+				
+				JSONObject cached = cache.get(key);
+				if(cached != null) {
+					// Different strings might be analyzed into the same query
+					cached.put("request", StringEscapeUtils.escapeHtml4(querryString));
+					answer.complete(cached);
+					return;
+				}
+				
+				answer = cacheOnComplete(key, answer);
+			}
+			
+			List<JSONObject> poiType = null;
+			
+			//don't look for poi type if we search only for addresses 
+			if(query != null && !addressesOnly) {
+				poiType = findPoiClass(query);
+			}
+			
+			// Strict if strict is requested or this query wasn't yet been resended after fail
+			boolean strict = strictRequested ? true : !resendedAfterFail;
+			
+			SearchRequestBuilder searchRequest = prepareSearch(request, strict, 
+					bbox, explain, types, poiClass, poiTagFilters, addressesOnly, 
+					lat, lon, refs, query, detalization, fullGeometry);
+			
+			SearchRequestBuilder relaxedRequest = null;
+			if(strict && !strictRequested && fallback != SearchFallback.STRICT_ONLY) {
+				relaxedRequest = prepareSearch(request, false, 
+						bbox, explain, types, poiClass, poiTagFilters, addressesOnly, 
+						lat, lon, refs, query, detalization, fullGeometry);
+				
+				// Don't send the same query twice
+				if(relaxedRequest.toString().equals(searchRequest.toString())) {
+					relaxedRequest = null;
+				}
+			}
+			
+			// answers for http requests are encoded by JSONBufferPostprocessor
+			ResultEncoder encoder = new ResultEncoder(request, query, querryString, 
+					poiType, explain, fullGeometry, geometryTolerance, detalization, request != null);
+			
+			if(relaxedRequest == null) {
+				execute(searchRequest, strict, encoder, answer);
+			}
+			else if(fallback == SearchFallback.SPECULATIVE) {
+				executeSpeculative(searchRequest, relaxedRequest, encoder, answer);
+			}
+			else {
+				executeSequential(searchRequest, relaxedRequest, encoder, answer);
+			}
 		}
-		
-		// Strict if strict is requested or this query wasn't yet been resended after fail
-		boolean strict = strictRequested ? true : !resendedAfterFail;
+		catch (Exception e) {
+			answer.fail(e);
+		}
+	}
+
+	/**
+	 * Create search request with fetch source and paging
+	 * */
+	private SearchRequestBuilder prepareSearch(Request request, boolean strict,
+			List<String> bbox, boolean explain, Set<String> types, Set<String> poiClass,
+			JSONObject poiTagFilters, boolean addressesOnly, Double lat, Double lon,
+			Set<String> refs, Query query, AnswerDetalization detalization, boolean fullGeometry) {
 		
 		SearchRequestBuilder searchRequest = buildSearchRequest(bbox, strict,
 				explain, types, poiClass, poiTagFilters, addressesOnly,
 				lat, lon, refs, query);
 		
-		log.trace("Search request: {}", searchRequest);
+		APIUtils.setFetchSource(searchRequest, detalization, fullGeometry);
 		
 		if (request != null) {
 			paginator.patchSearchQ(request, searchRequest);
 		}
 		
-		try {
+		log.trace("Search request: {}", searchRequest);
+		
+		return searchRequest;
+	}
+
+	/**
+	 * Prepare query of batch search, see {@link BatchSearch}.
+	 * <p>
+	 * Query is strict, unless strict is not requested and re-restrict
+	 * is on, then relaxed query is sent if strict one founds nothing,
+	 * like for http request with sequential fallback. 
+	 * Query fallback, if any, is sent after that.
+	 * 
+	 * @param batchQuery query options
+	 * @param rawHits encode hits as {@link me.osm.gazetteer.web.serialization.RawHitJSON}, 
+	 * for answers which are written by {@link me.osm.gazetteer.web.serialization.JSONBufferEncoder}
+	 * 
+	 * @return prepared query
+	 * 
+	 * @throws IllegalArgumentException if query is empty
+	 * */
+	public BatchSearch.Item prepare(BatchQuery batchQuery, boolean rawHits) {
+		String querryString = batchQuery.getQ();
+		
+		if(querryString == null && batchQuery.getPoiClass().isEmpty() 
+				&& batchQuery.getTypes().isEmpty() && batchQuery.getRefs().isEmpty()) {
+			throw new IllegalArgumentException("Query is empty");
+		}
+		
+		Query query = queryAnalyzer.getQuery(querryString);
+		
+		List<JSONObject> poiType = null;
+		if(query != null && !batchQuery.isAddressesOnly()) {
+			poiType = findPoiClass(query);
+		}
+		
+		ResultEncoder encoder = new ResultEncoder(null, query, querryString, poiType, 
+				false, batchQuery.isFullGeometry(), 0, batchQuery.getDetalization(), rawHits);
+		
+		SearchItem item = new SearchItem(prepareSearch(batchQuery, query, true), true, encoder);
+		
+		SearchItem last = item;
+		if(!batchQuery.isStrict() && GazetteerWeb.config().isReRestrict()) {
+			SearchRequestBuilder relaxedRequest = prepareSearch(batchQuery, query, false);
+			
+			// Don't send the same query twice
+			if(!relaxedRequest.toString().equals(item.request.toString())) {
+				last = new SearchItem(relaxedRequest, false, encoder);
+				item.fallback = last;
+			}
+		}
+		
+		if(batchQuery.getFallback() != null) {
+			last.fallback = prepare(batchQuery.getFallback(), rawHits);
+		}
+		
+		return item;
+	}
+
+	private SearchRequestBuilder prepareSearch(BatchQuery batchQuery, Query query, boolean strict) {
+		SearchRequestBuilder searchRequest = prepareSearch(null, strict, 
+				batchQuery.getBbox(), false, batchQuery.getTypes(), batchQuery.getPoiClass(), 
+				batchQuery.getPoiTagFilters(), batchQuery.isAddressesOnly(), 
+				batchQuery.getLat(), batchQuery.getLon(), batchQuery.getRefs(), query, 
+				batchQuery.getDetalization(), batchQuery.isFullGeometry());
+		
+		if(batchQuery.getSize() != null) {
+			searchRequest.setSize(batchQuery.getSize());
+		}
+		
+		return searchRequest;
+	}
+	
+	/**
+	 * Prepared query of batch search
+	 * */
+	private static final class SearchItem extends BatchSearch.Item {
+		
+		private final SearchRequestBuilder request;
+		private final boolean strict;
+		private final ResultEncoder encoder;
+		
+		private BatchSearch.Item fallback;
+		
+		public SearchItem(SearchRequestBuilder request, boolean strict, ResultEncoder encoder) {
+			this.request = request;
+			this.strict = strict;
+			this.encoder = encoder;
+		}
+
+		@Override
+		public SearchRequestBuilder getRequest() {
+			return request;
+		}
+
+		@Override
+		public void encode(SearchResponse response, DeferredAnswer<JSONObject> answer) {
+			encoder.encode(response, strict, answer);
+		}
+		
+		@Override
+		public BatchSearch.Item getFallback() {
+			return fallback;
+		}
+		
+	}
+
+	/**
+	 * Fallback for http request, from route parameter or config.
+	 * Requests without http request (csv geocoding) choose 
+	 * strict or relaxed search by themselves.
+	 * */
+	private static SearchFallback getFallback(Request request) {
+		if(request == null || !GazetteerWeb.config().isReRestrict()) {
+			return SearchFallback.STRICT_ONLY;
+		}
+		
+		if(request.getResolvedRoute() != null) {
+			Object parameter = request.getParameter(FALLBACK_PARAMETER);
+			if(parameter instanceof SearchFallback) {
+				return (SearchFallback) parameter;
+			}
+		}
+		
+		return GazetteerWeb.config().getSearchFallback();
+	}
+	
+	private static void execute(final SearchRequestBuilder searchRequest, final boolean strict, 
+			final ResultEncoder encoder, DeferredAnswer<JSONObject> answer) {
+		
+		// Results are handled in ES listener thread pool 
+		// not in the transport threads
+		searchRequest.setListenerThreaded(true).execute(
+				new SearchListener<SearchResponse>(answer, searchRequest) {
 			
-			SearchResponse searchResponse = searchRequest.execute().actionGet();
+			@Override
+			protected void onAnswer(SearchResponse searchResponse) throws Exception {
+				encoder.encode(searchResponse, strict, answer);
+			}
+			
+		});
+	}
+
+	private static void executeSequential(final SearchRequestBuilder strictRequest, 
+			final SearchRequestBuilder relaxedRequest, final ResultEncoder encoder, 
+			DeferredAnswer<JSONObject> answer) {
+		
+		strictRequest.setListenerThreaded(true).execute(
+				new SearchListener<SearchResponse>(answer, strictRequest) {
 			
-			if(request != null && response != null) {
+			@Override
+			protected void onAnswer(SearchResponse searchResponse) throws Exception {
 				if(searchResponse.getHits().getHits().length == 0) {
-					if(GazetteerWeb.config().isReRestrict() && !strictRequested && !resendedAfterFail) {
-						return read(request, response, true);
-					}
+					execute(relaxedRequest, false, encoder, answer);
+				}
+				else {
+					encoder.encode(searchResponse, true, answer);
 				}
 			}
 			
+		});
+	}
+
+	/**
+	 * Send strict and relaxed requests in one multi search, 
+	 * ES executes them in parallel. Relaxed results are ignored 
+	 * if strict request founds something.
+	 * */
+	private static void executeSpeculative(final SearchRequestBuilder strictRequest, 
+			final SearchRequestBuilder relaxedRequest, final ResultEncoder encoder, 
+			DeferredAnswer<JSONObject> answer) {
+		
+		MultiSearchRequestBuilder msearch = ESNodeHolder.getClient().prepareMultiSearch()
+				.add(strictRequest).add(relaxedRequest);
+		
+		msearch.setListenerThreaded(true).execute(
+				new SearchListener<MultiSearchResponse>(answer, strictRequest) {
+			
+			@Override
+			protected void onAnswer(MultiSearchResponse msResponse) throws Exception {
+				MultiSearchResponse.Item strictItem = msResponse.getResponses()[0];
+				MultiSearchResponse.Item relaxedItem = msResponse.getResponses()[1];
+				
+				if(strictItem.isFailure()) {
+					log.error("Failed to execute query: {}", strictRequest);
+					throw new ElasticsearchException(strictItem.getFailureMessage());
+				}
+				
+				SearchResponse strictResponse = strictItem.getResponse();
+				if(strictResponse.getHits().getHits().length > 0) {
+					encoder.encode(strictResponse, true, answer);
+				}
+				else if(relaxedItem.isFailure()) {
+					log.error("Failed to execute query: {}", relaxedRequest);
+					throw new ElasticsearchException(relaxedItem.getFailureMessage());
+				}
+				else {
+					encoder.encode(relaxedItem.getResponse(), false, answer);
+				}
+			}
+			
+		});
+	}
+	
+	/**
+	 * Logs failed queries
+	 * */
+	private static abstract class SearchListener<R> extends AnswerListener<R, JSONObject> {
+		
+		private final SearchRequestBuilder searchRequest;
+
+		public SearchListener(DeferredAnswer<JSONObject> answer, SearchRequestBuilder searchRequest) {
+			super(answer);
+			this.searchRequest = searchRequest;
+		}
+		
+		@Override
+		public void onFailure(Throwable e) {
+			if(e instanceof SearchPhaseExecutionException) {
+				log.error("Failed to execute query: {}", searchRequest, e);
+			}
+			super.onFailure(e);
+		}
+		
+	}
+	
+	/**
+	 * Encodes ES response into search answer
+	 * */
+	private final class ResultEncoder {
+		
+		private final Request request;
+		private final Query query;
+		private final String querryString;
+		private final List<JSONObject> poiType;
+		private final boolean explain;
+		private final boolean fullGeometry;
+		private final double geometryTolerance;
+		private final AnswerDetalization detalization;
+		private final boolean rawHits;
+		
+		public ResultEncoder(Request request, Query query, String querryString,
+				List<JSONObject> poiType, boolean explain, boolean fullGeometry,
+				double geometryTolerance, AnswerDetalization detalization, boolean rawHits) {
+			
+			this.request = request;
+			this.query = query;
+			this.querryString = querryString;
+			this.poiType = poiType;
+			this.explain = explain;
+			this.fullGeometry = fullGeometry;
+			this.geometryTolerance = geometryTolerance;
+			this.detalization = detalization;
+			this.rawHits = rawHits;
+		}
+		
+		/**
+		 * Encode answer and complete it, when geometries are read
+		 * */
+		public void encode(SearchResponse searchResponse, final boolean strict, 
+				final DeferredAnswer<JSONObject> answer) {
+			
 			if(explain) {
 				for(SearchHit hit : searchResponse.getHits().getHits()) {
+					// search field isn't fetched for short answers, log id then
+					Object search = hit.getSource() == null ? null : hit.getSource().get("search");
 					log.debug("{} strict={} result={} \nexplanations={}",
-							query.toString(), strict, hit.getSource().get("search"), hit.explanation().toString());
+							new Object[]{query.toString(), strict, search != null ? search : hit.getId(), 
+							hit.explanation().toString()});
 				}
 			}
 			
-			JSONObject answer = APIUtils.encodeSearchResult(
-					searchResponse,	fullGeometry, explain, detalization);
+			final DeferredAnswer<JSONObject> encoded = APIUtils.encodeSearchResultAsync(
+					searchResponse,	fullGeometry, geometryTolerance, explain, detalization, 
+					rawHits);
 			
-			answer.put("request", StringEscapeUtils.escapeHtml4(querryString));
+			encoded.onComplete(new Runnable() {
+				
+				@Override
+				public void run() {
+					if(encoded.getFailure() != null) {
+						answer.fail(encoded.getFailure());
+						return;
+					}
+					
+					try {
+						answer.complete(complete(encoded.getAnswer(), strict));
+					}
+					catch (Throwable t) {
+						answer.fail(t);
+					}
+				}
+				
+			});
+		}
+
+		private JSONObject complete(JSONObject result, boolean strict) {
+			result.put("request", StringEscapeUtils.escapeHtml4(querryString));
 			
 			if(poiType != null && !poiType.isEmpty()) {
-				answer.put("matched_type", new JSONArray(poiType));
+				result.put("matched_type", new JSONArray(poiType));
 			}
 			
-			answer.put("strict", strict);
+			result.put("strict", strict);
 			
 			if (request != null) {
-				paginator.patchAnswer(request, answer);
+				paginator.patchAnswer(request, result);
 			}
 			
-			return answer;
+			return result;
+		}
+		
+	}
+
+	/**
+	 * Normalized request, every parameter which affects results
+	 * should be here.
+	 * */
+	private String getCacheKey(Request request, Query query, boolean resendedAfterFail, 
+			SearchFallback fallback, Set<String> types, Set<String> poiClass, Double lat, Double lon, Set<String> refs, 
+			boolean strictRequested, boolean fullGeometry, double geometryTolerance, 
+			boolean addressesOnly, AnswerDetalization detalization, List<String> bbox, 
+			JSONObject poiTagFilters) {
+		
+		char s = '\u0001';
+		
+		StringBuilder sb = new StringBuilder(getClass().getSimpleName());
+		sb.append(s).append(query == null ? "" : query.print());
+		sb.append(s).append(new TreeSet<String>(types));
+		sb.append(s).append(new TreeSet<String>(poiClass));
+		sb.append(s).append(new TreeSet<String>(refs));
+		sb.append(s).append(bbox);
+		sb.append(s).append(lat).append(',').append(lon);
+		sb.append(s).append(strictRequested).append(',').append(resendedAfterFail);
+		sb.append(s).append(fallback);
+		sb.append(s).append(fullGeometry).append(',').append(geometryTolerance);
+		sb.append(s).append(addressesOnly);
+		sb.append(s).append(detalization);
+		sb.append(s).append(poiTagFilters);
+		
+		// answers for http requests contains raw hits
+		sb.append(s).append(request != null);
+		if(request != null) {
+			sb.append(s).append(paginator.getPagingKey(request));
 		}
-		catch(SearchPhaseExecutionException spe) {
-			log.error("Failed to execute query: {}", searchRequest, spe);
-			throw spe;
+		
+		return sb.toString();
+	}
+
+	/**
+	 * @return answer, which will be cached and passed to result
+	 * when completed 
+	 * */
+	private static DeferredAnswer<JSONObject> cacheOnComplete(final String key, 
+			final DeferredAnswer<JSONObject> result) {
+		
+		final DeferredAnswer<JSONObject> answer = new DeferredAnswer<JSONObject>();
+		answer.onComplete(new Runnable() {
+			
+			@Override
+			public void run() {
+				if(answer.getFailure() != null) {
+					result.fail(answer.getFailure());
+				}
+				else {
+					result.complete(SearchCache.get().put(key, answer.getAnswer()));
+				}
+			}
+			
+		});
+		
+		return answer;
+	}
+	
+	private static Double round(Double coordinate, int digits) {
+		if(coordinate == null) {
+			return null;
 		}
+		
+		double scale = Math.pow(10, digits);
+		return Math.round(coordinate * scale) / scale;
 	}
 
 	/**
@@ -441,7 +906,7 @@ public class SearchAPI implements DocumentedApi {
 		
 		Client client = ESNodeHolder.getClient();
 		SearchRequestBuilder searchRequest = client
-				.prepareSearch("gazetteer").setTypes(IndexHolder.LOCATION)
+				.prepareSearch(IndexHolder.ALIAS).setTypes(IndexHolder.LOCATION)
 				.setQuery(qb)
 				.setExplain(explain);
 		
@@ -592,22 +1057,7 @@ public class SearchAPI implements DocumentedApi {
 	 * @return List of matched poi classes
 	 * */
 	protected List<JSONObject> findPoiClass(Query query) {
-		
-		Client client = ESNodeHolder.getClient();
-		
-		String qs = query.required().woNumbers().toString();
-		
-		SearchRequestBuilder searchRequest = client.prepareSearch("gazetteer").setTypes(IndexHolder.POI_CLASS)
-				.setQuery(QueryBuilders.multiMatchQuery(qs, "translated_title", "keywords"));
-		
-		SearchHit[] hits = searchRequest.get().getHits().getHits();
-
-		List<JSONObject> result = new ArrayList<JSONObject>(hits.length);
-		if(hits.length > 0) {
-			result.add(new JSONObject(hits[0].sourceAsString()));
-		}
-		
-		return result;
+		return PoiClassMatcher.get().match(query.required().woNumbers().toString());
 	}
 
 	/**
@@ -772,6 +1222,10 @@ public class SearchAPI implements DocumentedApi {
 			  + " Multiple values are combined via OR."));
 		meta.getUrlParameters().add(new Parameter(FULL_GEOMETRY_HEADER, 
 				"Include or not full geometry of object. Default is not include."));
+		meta.getUrlParameters().add(new Parameter(GeometryPyramid.TOLERANCE_HEADER, 
+				"Return simplified full geometry, with tolerance up to given value in degrees "
+			  + "(0.0001, 0.001 and 0.01 levels are available by default). "
+			  + "Default is 0, geometry is returned as is."));
 		meta.getUrlParameters().add(new Parameter(BBOX_HEADER, 
 				"Search inside given BBOX only. [west, south, east, north]"));
 		meta.getUrlParameters().add(new Parameter(POI_CLASS_HEADER, 
@@ -0,0 +1,53 @@
+package me.osm.gazetteer.web.api;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What to do, when strict search founds nothing.
+ * <p>
+ * Default is set via search_fallback config property,
+ * and could be overridden for route via
+ * {@link SearchAPI#FALLBACK_PARAMETER} route parameter,
+ * which holds parsed value (suggest_search_fallback config 
+ * property for suggest route).
+ * */
+public enum SearchFallback {
+
+	/**
+	 * Send relaxed request after strict one, if strict founds nothing
+	 * */
+	SEQUENTIAL,
+
+	/**
+	 * Send strict and relaxed requests at once (via multi search),
+	 * use relaxed results if strict founds nothing
+	 * */
+	SPECULATIVE,
+
+	/**
+	 * Don't send relaxed request
+	 * */
+	STRICT_ONLY;
+
+	/**
+	 * Parse config value, like "strict-only"
+	 * 
+	 * @param value value to parse
+	 * @param defaultValue returned for empty or unknown value
+	 * */
+	public static SearchFallback parse(String value, SearchFallback defaultValue) {
+		if(StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		
+		try {
+			return valueOf(value.trim().toUpperCase().replace('-', '_'));
+		}
+		catch (IllegalArgumentException e) {
+			LoggerFactory.getLogger(SearchFallback.class).warn(
+					"Unknown search fallback {}, use {}", value, defaultValue);
+			return defaultValue;
+		}
+	}
+}
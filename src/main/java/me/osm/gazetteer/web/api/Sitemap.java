@@ -74,7 +74,7 @@ public class Sitemap implements DocumentedApi {
 
 		Client client = ESNodeHolder.getClient();
 		
-		SearchRequestBuilder searchQ = client.prepareSearch("gazetteer")
+		SearchRequestBuilder searchQ = client.prepareSearch(IndexHolder.ALIAS)
 				.setTypes(IndexHolder.LOCATION)
 				.addField("id")
 				.addField("timestamp")
@@ -110,7 +110,7 @@ public class Sitemap implements DocumentedApi {
 	public static void renderIndex(SitemapRender render) throws UnsupportedEncodingException {
 		Client client = ESNodeHolder.getClient();
 		
-		CountResponse countResponse = client.prepareCount("gazetteer")
+		CountResponse countResponse = client.prepareCount(IndexHolder.ALIAS)
 				.setTypes(IndexHolder.LOCATION)
 				.setQuery(QueryBuilders.termsQuery("type", config.listSiteMapTypes())).get();
 		
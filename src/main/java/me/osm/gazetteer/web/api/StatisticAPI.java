@@ -18,6 +18,8 @@ import me.osm.gazetteer.web.ESNodeHolder;
 import me.osm.gazetteer.web.GazetteerWeb;
 import me.osm.gazetteer.web.api.meta.Endpoint;
 import me.osm.gazetteer.web.api.meta.Parameter;
+import me.osm.gazetteer.web.api.utils.AnswerListener;
+import me.osm.gazetteer.web.api.utils.DeferredAnswer;
 import me.osm.gazetteer.web.api.utils.RequestUtils;
 import me.osm.gazetteer.web.imp.IndexHolder;
 import me.osm.gazetteer.web.utils.OSMDocSinglton;
@@ -56,8 +58,27 @@ public class StatisticAPI implements DocumentedApi {
 	private String apiDefaultHierarchy;
 	
 	public JSONObject read(Request request, Response response) {
+		DeferredAnswer<JSONObject> answer = new DeferredAnswer<JSONObject>();
+		statistic(request, response, answer);
 		
-		Set<String> classes = RequestUtils.getSet(request, SearchAPI.POI_CLASS_HEADER);
+		return answer.get();
+	}
+	
+	/**
+	 * REST Express read routine method, which doesn't block 
+	 * request handling thread while ES executes aggregations.
+	 * */
+	public DeferredAnswer<JSONObject> readAsync(Request request, Response response) {
+		DeferredAnswer<JSONObject> answer = DeferredAnswer.create(response);
+		statistic(request, response, answer);
+		
+		return answer;
+	}
+	
+	private void statistic(Request request, Response response, 
+			DeferredAnswer<JSONObject> answer) {
+		
+		final Set<String> classes = RequestUtils.getSet(request, SearchAPI.POI_CLASS_HEADER);
 		
 		Set<String> refs = getSet(request, REFERENCES_HEADER);
 		
@@ -70,7 +91,7 @@ public class StatisticAPI implements DocumentedApi {
 		String hname = request.getHeader(SearchAPI.HIERARCHY_CODE_HEADER, apiDefaultHierarchy);
 		SearchAPI.addPOIGroups(request, classes, hname);
 		
-		boolean doc4Found = RequestUtils.getBooleanHeader(request, "doc4found", true);
+		final boolean doc4Found = RequestUtils.getBooleanHeader(request, "doc4found", true);
 		
 		OSMDocFacade osmdoc = OSMDocSinglton.get().getFacade();
 		
@@ -84,7 +105,8 @@ public class StatisticAPI implements DocumentedApi {
 		
 		if(features.isEmpty()) {
 			response.setResponseCode(404);
-			return null;
+			answer.complete(null);
+			return;
 		}
 
 		Client client = ESNodeHolder.getClient();
@@ -97,12 +119,12 @@ public class StatisticAPI implements DocumentedApi {
 			filters.must(QueryBuilders.termsQuery("refs", refs));
 		}
 		
-		SearchRequestBuilder searchQ = client.prepareSearch("gazetteer")
+		SearchRequestBuilder searchQ = client.prepareSearch(IndexHolder.ALIAS)
 				.setTypes(IndexHolder.LOCATION)
 				.setQuery(filters);
 		
-		JSONObject tagOptions = osmdoc.collectCommonTagsWithTraitsJSON(osmdoc.getFeature(classes), locale);
-		Set<String> allTagKeys = getTagKeys(tagOptions);
+		final JSONObject tagOptions = osmdoc.collectCommonTagsWithTraitsJSON(osmdoc.getFeature(classes), locale);
+		final Set<String> allTagKeys = getTagKeys(tagOptions);
 		
 		allTagKeys.removeAll(GazetteerWeb.osmdocProperties().getIgnoreTagsGrouping());
 
@@ -115,7 +137,20 @@ public class StatisticAPI implements DocumentedApi {
 		
 		searchQ.setSearchType(SearchType.COUNT);
 		
-		SearchResponse esResponse = searchQ.execute().actionGet();
+		searchQ.setListenerThreaded(true).execute(
+				new AnswerListener<SearchResponse, JSONObject>(answer) {
+			
+			@Override
+			protected void onAnswer(SearchResponse esResponse) {
+				answer.complete(encode(esResponse, classes, 
+						tagOptions, allTagKeys, doc4Found));
+			}
+			
+		});
+	}
+
+	private JSONObject encode(SearchResponse esResponse, Set<String> classes,
+			JSONObject tagOptions, Set<String> allTagKeys, boolean doc4Found) {
 		
 		Aggregations aggregations = esResponse.getAggregations();
 		
@@ -1,29 +1,23 @@
 package me.osm.gazetteer.web.api;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 
-import me.osm.gazetteer.web.ESNodeHolder;
 import me.osm.gazetteer.web.GazetteerWeb;
 import me.osm.gazetteer.web.api.meta.Endpoint;
 import me.osm.gazetteer.web.api.query.Query;
+import me.osm.gazetteer.web.api.search.PoiClassMatcher;
 import me.osm.gazetteer.web.api.search.SearchBuilder;
 import me.osm.gazetteer.web.api.utils.BuildSearchQContext;
 import me.osm.gazetteer.web.api.utils.RequestUtils;
-import me.osm.gazetteer.web.imp.IndexHolder;
 
 import org.apache.commons.lang3.StringUtils;
-import org.elasticsearch.action.search.SearchRequestBuilder;
-import org.elasticsearch.client.Client;
 import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.elasticsearch.index.query.DisMaxQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.SearchHit;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.restexpress.Request;
@@ -104,38 +98,10 @@ public class SuggestAPI extends SearchAPI {
 	}
 
 	private List<JSONObject> suggestPoiType(Query query) {
-		Client client = ESNodeHolder.getClient();
 		// TODO: process with replacers
 		Query filtered = query.filter(new HashSet<String>(Arrays.asList("на", "дом")));
 		
-		DisMaxQueryBuilder dismax = QueryBuilders.disMaxQuery()
-				.add(QueryBuilders.prefixQuery("translated_title", filtered.toString()));
-		
-		dismax.add(
-				QueryBuilders.boolQuery()
-					.should(QueryBuilders.prefixQuery("translated_title", query.tail().toString()))
-					.should(QueryBuilders.prefixQuery("keywords", query.tail().toString()))
-					.minimumNumberShouldMatch(1)
-				);
-		
-		if(!query.listToken().isEmpty()) {
-			dismax.add(QueryBuilders.prefixQuery("translated_title", query.listToken().get(0).toString()));
-		}
-		
-		SearchRequestBuilder searchRequest = client.prepareSearch("gazetteer")
-				.setTypes(IndexHolder.POI_CLASS)
-				.setQuery(dismax);
-		
-		SearchHit[] hits = searchRequest.get().getHits().getHits();
-
-		List<JSONObject> types = new ArrayList<JSONObject>(hits.length);
-		if(hits.length > 0) {
-			for(SearchHit hit : hits) {
-				types.add(new JSONObject(hit.getSourceAsString()));
-			}
-		}
-		
-		return types;
+		return PoiClassMatcher.get().suggest(query, filtered);
 	}
 	
 	@Override
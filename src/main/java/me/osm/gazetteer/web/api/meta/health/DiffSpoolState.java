@@ -0,0 +1,147 @@
+package me.osm.gazetteer.web.api.meta.health;
+
+import java.util.Date;
+
+public class DiffSpoolState {
+
+	private String folder;
+	private long maxDelayMs;
+
+	private int queued;
+	private String oldestQueued;
+	private Date oldestQueuedTS;
+	private long lagMs;
+
+	private String applying;
+	private boolean paused;
+	private long applied;
+	private long failed;
+	private String lastError;
+
+	private Date lastAppliedGenTS;
+	private Date lastRefreshTS;
+
+	public String getFolder() {
+		return folder;
+	}
+
+	public void setFolder(String folder) {
+		this.folder = folder;
+	}
+
+	public long getMaxDelayMs() {
+		return maxDelayMs;
+	}
+
+	public void setMaxDelayMs(long maxDelayMs) {
+		this.maxDelayMs = maxDelayMs;
+	}
+
+	/**
+	 * @return amount of files waiting for import, including current one
+	 * */
+	public int getQueued() {
+		return queued;
+	}
+
+	public void setQueued(int queued) {
+		this.queued = queued;
+	}
+
+	/**
+	 * @return oldest not applied file
+	 * */
+	public String getOldestQueued() {
+		return oldestQueued;
+	}
+
+	public void setOldestQueued(String oldestQueued) {
+		this.oldestQueued = oldestQueued;
+	}
+
+	public Date getOldestQueuedTS() {
+		return oldestQueuedTS;
+	}
+
+	public void setOldestQueuedTS(Date oldestQueuedTS) {
+		this.oldestQueuedTS = oldestQueuedTS;
+	}
+
+	/**
+	 * @return how long oldest not applied file waits, 0 if there are
+	 * no such files
+	 * */
+	public long getLagMs() {
+		return lagMs;
+	}
+
+	public void setLagMs(long lagMs) {
+		this.lagMs = lagMs;
+	}
+
+	public String getApplying() {
+		return applying;
+	}
+
+	public void setApplying(String applying) {
+		this.applying = applying;
+	}
+
+	/**
+	 * @return true if diffs aren't applied because of reindex
+	 * */
+	public boolean isPaused() {
+		return paused;
+	}
+
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+	public long getApplied() {
+		return applied;
+	}
+
+	public void setApplied(long applied) {
+		this.applied = applied;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public void setFailed(long failed) {
+		this.failed = failed;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+
+	/**
+	 * @return max gen_ts of applied diffs
+	 * */
+	public Date getLastAppliedGenTS() {
+		return lastAppliedGenTS;
+	}
+
+	public void setLastAppliedGenTS(Date lastAppliedGenTS) {
+		this.lastAppliedGenTS = lastAppliedGenTS;
+	}
+
+	/**
+	 * @return when applied changes were made visible for search last time
+	 * */
+	public Date getLastRefreshTS() {
+		return lastRefreshTS;
+	}
+
+	public void setLastRefreshTS(Date lastRefreshTS) {
+		this.lastRefreshTS = lastRefreshTS;
+	}
+
+}
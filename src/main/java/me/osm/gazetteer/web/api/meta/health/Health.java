@@ -25,6 +25,10 @@ public class Health {
 	
 	private BackgroundExecution backgroundTasks;
 	
+	private DiffSpoolState diffSpool;
+	
+	private SearchCacheState searchCache;
+	
 	private Map<String, String> versions;
 	private Date lastTS;
 	
@@ -145,5 +149,21 @@ public class Health {
 	public void setLastTS(Date date) {
 		this.lastTS = date;
 	}
+
+	public DiffSpoolState getDiffSpool() {
+		return diffSpool;
+	}
+
+	public void setDiffSpool(DiffSpoolState diffSpool) {
+		this.diffSpool = diffSpool;
+	}
+
+	public SearchCacheState getSearchCache() {
+		return searchCache;
+	}
+
+	public void setSearchCache(SearchCacheState searchCache) {
+		this.searchCache = searchCache;
+	}
 	
 }
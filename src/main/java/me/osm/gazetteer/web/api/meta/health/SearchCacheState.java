@@ -0,0 +1,98 @@
+package me.osm.gazetteer.web.api.meta.health;
+
+public class SearchCacheState {
+
+	private long generation;
+
+	private long entries;
+	private long sizeBytes;
+	private long maxSizeBytes;
+	private long ttlSec;
+
+	private long hits;
+	private long misses;
+	private double hitRate;
+	private long evictions;
+
+	/**
+	 * @return how many times cache was invalidated by imports
+	 * */
+	public long getGeneration() {
+		return generation;
+	}
+
+	public void setGeneration(long generation) {
+		this.generation = generation;
+	}
+
+	public long getEntries() {
+		return entries;
+	}
+
+	public void setEntries(long entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * @return approximate size of cached answers
+	 * */
+	public long getSizeBytes() {
+		return sizeBytes;
+	}
+
+	public void setSizeBytes(long sizeBytes) {
+		this.sizeBytes = sizeBytes;
+	}
+
+	public long getMaxSizeBytes() {
+		return maxSizeBytes;
+	}
+
+	public void setMaxSizeBytes(long maxSizeBytes) {
+		this.maxSizeBytes = maxSizeBytes;
+	}
+
+	public long getTtlSec() {
+		return ttlSec;
+	}
+
+	public void setTtlSec(long ttlSec) {
+		this.ttlSec = ttlSec;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	public double getHitRate() {
+		return hitRate;
+	}
+
+	public void setHitRate(double hitRate) {
+		this.hitRate = hitRate;
+	}
+
+	/**
+	 * @return answers removed because of size limit or ttl
+	 * */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+}
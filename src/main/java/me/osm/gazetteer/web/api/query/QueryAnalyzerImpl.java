@@ -2,6 +2,7 @@ package me.osm.gazetteer.web.api.query;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -16,6 +17,7 @@ import me.osm.gazetteer.web.GazetteerWeb;
 import me.osm.gazetteer.web.imp.IndexHolder;
 import me.osm.gazetteer.web.imp.Replacer;
 import me.osm.gazetteer.web.utils.ReplacersCompiler;
+import me.osm.gazetteer.web.utils.ReplacersPrefilter;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -40,8 +42,10 @@ public class QueryAnalyzerImpl implements QueryAnalyzer {
 	}
 	
 	public static final List<Replacer> searchReplacers = new ArrayList<>();
+	public static final ReplacersPrefilter searchReplacersPrefilter;
 	static {
-		ReplacersCompiler.compile(searchReplacers, new File("config/replacers/search/requiredSearchReplacers"));
+		searchReplacersPrefilter = ReplacersCompiler.compile(searchReplacers, 
+				new File("config/replacers/search/requiredSearchReplacers"));
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -95,8 +99,9 @@ public class QueryAnalyzerImpl implements QueryAnalyzer {
 		}
 
 		LinkedHashMap<String, Collection<String>> groups = new LinkedHashMap<>();
-		for(Replacer r : searchReplacers) {
-			groups.putAll(r.replaceGroups(q));
+		BitSet candidates = searchReplacersPrefilter.candidates(q);
+		for(int ri = candidates.nextSetBit(0); ri >= 0; ri = candidates.nextSetBit(ri + 1)) {
+			groups.putAll(searchReplacers.get(ri).replaceGroups(q));
 		}
 		
 		HashMap<String, String> groupAliases = new HashMap<>();
@@ -0,0 +1,245 @@
+package me.osm.gazetteer.web.api.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import me.osm.gazetteer.web.api.AnswerDetalization;
+import me.osm.gazetteer.web.api.SearchAPI;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Options of one query of batch search.
+ * <p>
+ * Options have the same names and meaning as {@link SearchAPI}
+ * request parameters.
+ * */
+public class BatchQuery {
+
+	/**
+	 * Max amount of results for one query
+	 * */
+	public static final int MAX_SIZE = 100;
+
+	private String q;
+	private Set<String> types = new HashSet<>();
+	private Set<String> poiClass = new HashSet<>();
+	private Set<String> refs = new HashSet<>();
+	private List<String> bbox = new ArrayList<>();
+	private Double lat;
+	private Double lon;
+	private boolean strict;
+	private boolean addressesOnly;
+	private boolean fullGeometry;
+	private AnswerDetalization detalization = AnswerDetalization.FULL;
+	private JSONObject poiTagFilters;
+	private Integer size;
+
+	private BatchQuery fallback;
+
+	/**
+	 * Parse query options
+	 *
+	 * @param json query object of batch request
+	 *
+	 * @throws IllegalArgumentException if option has unexpected value
+	 * */
+	public static BatchQuery parse(JSONObject json) {
+		BatchQuery query = new BatchQuery();
+
+		query.q = StringUtils.stripToNull(json.optString(SearchAPI.Q_HEADER, null));
+		query.types = getSet(json, SearchAPI.TYPE_HEADER);
+		query.poiClass = getSet(json, SearchAPI.POI_CLASS_HEADER);
+		query.refs = getSet(json, SearchAPI.REFERENCES_HEADER);
+		query.bbox = new ArrayList<>(getList(json, SearchAPI.BBOX_HEADER));
+
+		query.lat = getDouble(json, SearchAPI.LAT_HEADER);
+		query.lon = getDouble(json, SearchAPI.LON_HEADER);
+
+		query.strict = json.optBoolean(SearchAPI.STRICT_SEARCH_HEADER, false);
+		query.addressesOnly = json.optBoolean(SearchAPI.ADDRESSES_ONLY_HEADER, false);
+		query.fullGeometry = json.optBoolean(SearchAPI.FULL_GEOMETRY_HEADER, false);
+
+		String detalization = json.optString(SearchAPI.ANSWER_DETALIZATION_HEADER, null);
+		if(StringUtils.isNotBlank(detalization)) {
+			query.detalization = AnswerDetalization.valueOf(detalization.trim().toUpperCase());
+		}
+
+		Object filters = json.opt(SearchAPI.POI_TAGS_FILTER_HEADER);
+		if(filters instanceof JSONObject) {
+			query.poiTagFilters = (JSONObject) filters;
+		}
+		else if(filters instanceof String && StringUtils.isNotEmpty((String) filters)) {
+			query.poiTagFilters = new JSONObject((String) filters);
+		}
+
+		if(json.has("size")) {
+			query.setSize(json.getInt("size"));
+		}
+
+		return query;
+	}
+
+	private static Set<String> getSet(JSONObject json, String key) {
+		return new HashSet<>(getList(json, key));
+	}
+
+	private static List<String> getList(JSONObject json, String key) {
+		Object value = json.opt(key);
+		if(value == null) {
+			return new ArrayList<>();
+		}
+
+		if(value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			List<String> result = new ArrayList<>(array.length());
+			for(int i = 0; i < array.length(); i++) {
+				result.add(array.get(i).toString());
+			}
+			return result;
+		}
+
+		// The same as url parameters
+		return Arrays.asList(StringUtils.split(value.toString(), ", []\"\'"));
+	}
+
+	private static Double getDouble(JSONObject json, String key) {
+		Object value = json.opt(key);
+		if(value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if(value != null) {
+			try {
+				return Double.parseDouble(value.toString());
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	public String getQ() {
+		return q;
+	}
+
+	public void setQ(String q) {
+		this.q = q;
+	}
+
+	public Set<String> getTypes() {
+		return types;
+	}
+
+	public void setTypes(Set<String> types) {
+		this.types = types;
+	}
+
+	public Set<String> getPoiClass() {
+		return poiClass;
+	}
+
+	public void setPoiClass(Set<String> poiClass) {
+		this.poiClass = poiClass;
+	}
+
+	public Set<String> getRefs() {
+		return refs;
+	}
+
+	public void setRefs(Set<String> refs) {
+		this.refs = refs;
+	}
+
+	public List<String> getBbox() {
+		return bbox;
+	}
+
+	public void setBbox(List<String> bbox) {
+		this.bbox = bbox;
+	}
+
+	public Double getLat() {
+		return lat;
+	}
+
+	public void setLat(Double lat) {
+		this.lat = lat;
+	}
+
+	public Double getLon() {
+		return lon;
+	}
+
+	public void setLon(Double lon) {
+		this.lon = lon;
+	}
+
+	public boolean isStrict() {
+		return strict;
+	}
+
+	public void setStrict(boolean strict) {
+		this.strict = strict;
+	}
+
+	public boolean isAddressesOnly() {
+		return addressesOnly;
+	}
+
+	public void setAddressesOnly(boolean addressesOnly) {
+		this.addressesOnly = addressesOnly;
+	}
+
+	public boolean isFullGeometry() {
+		return fullGeometry;
+	}
+
+	public void setFullGeometry(boolean fullGeometry) {
+		this.fullGeometry = fullGeometry;
+	}
+
+	public AnswerDetalization getDetalization() {
+		return detalization;
+	}
+
+	public void setDetalization(AnswerDetalization detalization) {
+		this.detalization = detalization;
+	}
+
+	public JSONObject getPoiTagFilters() {
+		return poiTagFilters;
+	}
+
+	public void setPoiTagFilters(JSONObject poiTagFilters) {
+		this.poiTagFilters = poiTagFilters;
+	}
+
+	/**
+	 * @return amount of results, null for ES default
+	 * */
+	public Integer getSize() {
+		return size;
+	}
+
+	public void setSize(Integer size) {
+		this.size = size == null ? null : Math.max(1, Math.min(MAX_SIZE, size));
+	}
+
+	/**
+	 * @return query which is sent if this one founds nothing
+	 * */
+	public BatchQuery getFallback() {
+		return fallback;
+	}
+
+	public void setFallback(BatchQuery fallback) {
+		this.fallback = fallback;
+	}
+
+}
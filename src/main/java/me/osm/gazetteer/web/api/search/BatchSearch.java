@@ -0,0 +1,309 @@
+package me.osm.gazetteer.web.api.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import me.osm.gazetteer.web.ESNodeHolder;
+import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.api.utils.DeferredAnswer;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes many search queries via multi search requests.
+ * <p>
+ * Queries are split into chunks, every chunk is sent as one
+ * multi search request, and a few chunks are executed at once.
+ * Queries of a chunk which found nothing are resent with their
+ * fallback queries, by one more multi search request.
+ * <p>
+ * Results are passed to {@link Listener} in the order of queries,
+ * as soon as all previous results are ready.
+ * */
+public class BatchSearch {
+
+	private static final Logger log = LoggerFactory.getLogger(BatchSearch.class);
+
+	/**
+	 * Prepared query of batch
+	 * */
+	public static abstract class Item {
+
+		/**
+		 * @return ES request
+		 * */
+		public abstract SearchRequestBuilder getRequest();
+
+		/**
+		 * Encode ES response and complete answer, 
+		 * implementation shouldn't block ES listener thread
+		 * */
+		public abstract void encode(SearchResponse response, DeferredAnswer<JSONObject> answer);
+
+		/**
+		 * @return item to send, if this one founds nothing, or null
+		 * */
+		public Item getFallback() {
+			return null;
+		}
+
+	}
+
+	/**
+	 * Receives results of batch
+	 * */
+	public interface Listener {
+
+		/**
+		 * Called once for every query, in the order of queries.
+		 * Calls are serialized, so implementation could write
+		 * results into a stream.
+		 *
+		 * @param index index of query
+		 * @param answer answer, null if query failed
+		 * @param failure failure or null
+		 * */
+		public void onResult(int index, JSONObject answer, Throwable failure);
+
+		/**
+		 * Called after the last result
+		 * */
+		public void onDone();
+
+	}
+
+	private final int chunkSize;
+	private final int parallelChunks;
+
+	/**
+	 * Create batch search with chunk size and amount
+	 * of parallel chunks from config
+	 * */
+	public BatchSearch() {
+		this(GazetteerWeb.config().getBatchSearchChunkSize(),
+				GazetteerWeb.config().getBatchSearchParallelChunks());
+	}
+
+	/**
+	 * @param chunkSize queries per multi search request
+	 * @param parallelChunks multi search requests executed at once
+	 * */
+	public BatchSearch(int chunkSize, int parallelChunks) {
+		this.chunkSize = Math.max(1, chunkSize);
+		this.parallelChunks = Math.max(1, parallelChunks);
+	}
+
+	/**
+	 * Start execution, doesn't wait for results.
+	 *
+	 * @param items prepared queries, null items are reported as failed
+	 * @param listener receives results
+	 * */
+	public void execute(List<Item> items, Listener listener) {
+		new Execution(items, listener).start();
+	}
+
+	/**
+	 * Execute and wait for all results.
+	 *
+	 * @param items prepared queries, null items are reported as failed
+	 *
+	 * @return completed answers in the order of queries
+	 * */
+	public List<DeferredAnswer<JSONObject>> executeAndWait(List<Item> items)
+			throws InterruptedException {
+
+		final CountDownLatch done = new CountDownLatch(1);
+		Execution execution = new Execution(items, new Listener() {
+
+			@Override
+			public void onResult(int index, JSONObject answer, Throwable failure) {
+				// answers are read after all
+			}
+
+			@Override
+			public void onDone() {
+				done.countDown();
+			}
+
+		});
+
+		execution.start();
+		done.await();
+
+		return execution.answers;
+	}
+
+	private final class Execution {
+
+		private final List<Item> items;
+		private final Listener listener;
+		private final List<DeferredAnswer<JSONObject>> answers;
+
+		private final Runnable releaseTask = new Runnable() {
+
+			@Override
+			public void run() {
+				release();
+			}
+
+		};
+
+		private int nextChunk = 0;
+		private int released = 0;
+		private boolean finished = false;
+
+		public Execution(List<Item> items, Listener listener) {
+			this.items = items;
+			this.listener = listener;
+
+			this.answers = new ArrayList<>(items.size());
+			for(int i = 0; i < items.size(); i++) {
+				answers.add(new DeferredAnswer<JSONObject>());
+			}
+		}
+
+		public synchronized void start() {
+			for(int i = 0; i < parallelChunks; i++) {
+				startNextChunk();
+			}
+
+			// empty batch
+			release();
+		}
+
+		private synchronized void startNextChunk() {
+			if(nextChunk >= items.size()) {
+				return;
+			}
+
+			int from = nextChunk;
+			int to = Math.min(items.size(), from + chunkSize);
+			nextChunk = to;
+
+			List<Integer> indexes = new ArrayList<>(to - from);
+			List<Item> chunk = new ArrayList<>(to - from);
+			for(int i = from; i < to; i++) {
+				Item item = items.get(i);
+				if(item == null) {
+					answers.get(i).fail(new IllegalArgumentException("Query " + i + " is malformed"));
+				}
+				else {
+					indexes.add(i);
+					chunk.add(item);
+				}
+			}
+
+			send(indexes, chunk);
+		}
+
+		private void send(final List<Integer> indexes, final List<Item> chunk) {
+			if(chunk.isEmpty()) {
+				chunkDone();
+				return;
+			}
+
+			MultiSearchRequestBuilder msearch = ESNodeHolder.getClient().prepareMultiSearch();
+			for(Item item : chunk) {
+				msearch.add(item.getRequest());
+			}
+
+			// Answers are encoded in ES listener thread pool
+			msearch.setListenerThreaded(true).execute(new ActionListener<MultiSearchResponse>() {
+
+				@Override
+				public void onResponse(MultiSearchResponse response) {
+					List<Integer> resendIndexes = new ArrayList<>();
+					List<Item> resend = new ArrayList<>();
+
+					MultiSearchResponse.Item[] responses = response.getResponses();
+					for(int i = 0; i < responses.length; i++) {
+						Item item = chunk.get(i);
+						DeferredAnswer<JSONObject> answer = answers.get(indexes.get(i));
+
+						if(responses[i].isFailure()) {
+							log.error("Failed to execute query: {}", item.getRequest());
+							answer.fail(new ElasticsearchException(responses[i].getFailureMessage()));
+							continue;
+						}
+
+						SearchResponse searchResponse = responses[i].getResponse();
+						if(searchResponse.getHits().getHits().length == 0 && item.getFallback() != null) {
+							resendIndexes.add(indexes.get(i));
+							resend.add(item.getFallback());
+							continue;
+						}
+
+						try {
+							item.encode(searchResponse, answer);
+						}
+						catch (Throwable t) {
+							answer.fail(t);
+						}
+
+						// answer might be completed later, by geometries request
+						answer.onComplete(releaseTask);
+					}
+
+					release();
+
+					if(resend.isEmpty()) {
+						chunkDone();
+					}
+					else {
+						send(resendIndexes, resend);
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable e) {
+					log.error("Failed to execute batch of {} queries", chunk.size(), e);
+					for(Integer i : indexes) {
+						answers.get(i).fail(e);
+					}
+
+					release();
+					chunkDone();
+				}
+
+			});
+		}
+
+		private synchronized void chunkDone() {
+			startNextChunk();
+			release();
+		}
+
+		/**
+		 * Pass ready results to listener, preserving order
+		 * */
+		private synchronized void release() {
+			while(released < items.size() && answers.get(released).isDone()) {
+				DeferredAnswer<JSONObject> answer = answers.get(released);
+				try {
+					listener.onResult(released, answer.getAnswer(), answer.getFailure());
+				}
+				catch (Exception e) {
+					log.warn("Failed to handle result of query {}", released, e);
+				}
+				released++;
+			}
+
+			if(released == items.size() && !finished) {
+				finished = true;
+				listener.onDone();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,428 @@
+package me.osm.gazetteer.web.api.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import me.osm.gazetteer.web.ESNodeHolder;
+import me.osm.gazetteer.web.api.query.QToken;
+import me.osm.gazetteer.web.api.query.Query;
+import me.osm.gazetteer.web.imp.IndexHolder;
+import me.osm.gazetteer.web.utils.OSMDocSinglton;
+import me.osm.osmdoc.localization.L10n;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory matcher of POI classes.
+ * <p>
+ * There are only a few hundreds of poi classes, and they change only
+ * with osmdoc import, so instead of querying poi_class type for
+ * every search, poi classes are loaded once and matched in memory.
+ * <p>
+ * Classes are matched by translated_title and keywords of imported
+ * poi_class docs, and by titles and keywords for every supported locale.
+ * Matched classes are returned as imported docs, the same way
+ * as they were returned from ES.
+ * <p>
+ * Index is rebuilt via {@link #rebuild()} and replaced atomically,
+ * searches which are in progress use the previous one.
+ * */
+public class PoiClassMatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(PoiClassMatcher.class);
+
+	/**
+	 * Default ES search size
+	 * */
+	private static final int SUGGEST_SIZE = 10;
+
+	private static final PoiClassMatcher INSTANCE = new PoiClassMatcher();
+
+	public static PoiClassMatcher get() {
+		return INSTANCE;
+	}
+
+	private static final class PoiClass {
+
+		private final int order;
+		private final JSONObject source;
+
+		private final List<List<String>> titles = new ArrayList<>();
+		private final Set<String> keywords = new LinkedHashSet<>();
+
+		public PoiClass(int order, JSONObject source) {
+			this.order = order;
+			this.source = source;
+		}
+	}
+
+	private static final class Index {
+
+		private final List<PoiClass> classes;
+
+		private final TreeMap<String, Set<PoiClass>> titleTerms = new TreeMap<>();
+		private final TreeMap<String, Set<PoiClass>> keywordTerms = new TreeMap<>();
+
+		public Index(List<PoiClass> classes) {
+			this.classes = classes;
+
+			for(PoiClass pc : classes) {
+				for(List<String> title : pc.titles) {
+					for(String term : title) {
+						add(titleTerms, term, pc);
+					}
+				}
+				for(String term : pc.keywords) {
+					add(keywordTerms, term, pc);
+				}
+			}
+		}
+
+		private static void add(Map<String, Set<PoiClass>> terms, String term, PoiClass pc) {
+			Set<PoiClass> set = terms.get(term);
+			if(set == null) {
+				set = new LinkedHashSet<>();
+				terms.put(term, set);
+			}
+			set.add(pc);
+		}
+
+		private double idf(Map<String, Set<PoiClass>> terms, String term) {
+			Set<PoiClass> set = terms.get(term);
+			int df = set == null ? 0 : set.size();
+			return 1.0 + Math.log((double) classes.size() / (df + 1));
+		}
+	}
+
+	private static final Comparator<Map.Entry<PoiClass, Double>> BY_SCORE =
+			new Comparator<Map.Entry<PoiClass, Double>>() {
+
+		@Override
+		public int compare(Map.Entry<PoiClass, Double> e1, Map.Entry<PoiClass, Double> e2) {
+			int c = Double.compare(e2.getValue(), e1.getValue());
+			return c != 0 ? c : Integer.compare(e1.getKey().order, e2.getKey().order);
+		}
+
+	};
+
+	/**
+	 * Delays of retries after failed lazy load
+	 * */
+	private static final long MIN_RETRY_DELAY_MS = 1000;
+	private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+	private volatile Index index;
+
+	private volatile long retryAt = 0;
+	private long retryDelay = MIN_RETRY_DELAY_MS;
+
+	/**
+	 * Load poi classes from index and osmdoc, and replace
+	 * current index. Should be called when poi_class docs
+	 * are changed and visible for search.
+	 * <p>
+	 * If loading fails, current index is kept.
+	 *
+	 * @return true if index was replaced
+	 * */
+	public boolean rebuild() {
+		try {
+			List<JSONObject> docs = loadDocs();
+
+			List<JSONObject> translations = new ArrayList<>();
+			for(String lang : L10n.supported) {
+				translations.addAll(OSMDocSinglton.get().getFacade()
+						.listTranslatedFeatures(Locale.forLanguageTag(lang)));
+			}
+
+			update(docs, translations);
+
+			log.info("Poi classes matcher is built, {} classes", docs.size());
+			return true;
+		}
+		catch (Exception e) {
+			log.error("Failed to build poi classes matcher", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Replace current index
+	 *
+	 * @param docs poi_class docs, they are returned as matched classes
+	 * @param translations additional titles and keywords of poi classes,
+	 * linked with docs by name
+	 * */
+	public void update(Collection<JSONObject> docs, Collection<JSONObject> translations) {
+		Map<String, PoiClass> byName = new LinkedHashMap<>();
+
+		List<PoiClass> classes = new ArrayList<>(docs.size());
+		for(JSONObject doc : docs) {
+			PoiClass pc = new PoiClass(classes.size(), doc);
+			addTerms(pc, doc);
+
+			classes.add(pc);
+			byName.put(doc.optString("name"), pc);
+		}
+
+		for(JSONObject t : translations) {
+			PoiClass pc = byName.get(t.optString("name"));
+			if(pc != null) {
+				addTerms(pc, t);
+			}
+		}
+
+		this.index = new Index(classes);
+	}
+
+	private static void addTerms(PoiClass pc, JSONObject obj) {
+		List<String> title = tokenize(obj.optString("translated_title"));
+		if(!title.isEmpty() && !pc.titles.contains(title)) {
+			pc.titles.add(title);
+		}
+
+		JSONArray keywords = obj.optJSONArray("keywords");
+		if(keywords != null) {
+			for(int i = 0; i < keywords.length(); i++) {
+				pc.keywords.addAll(tokenize(keywords.optString(i)));
+			}
+		}
+	}
+
+	/**
+	 * Find poi class for search query.
+	 * <p>
+	 * Works like multi match query over translated_title and keywords,
+	 * score of a class is the best of fields scores. Field score
+	 * is a sum of idf of matched terms, normalized by field length
+	 * and by share of matched query terms.
+	 *
+	 * @param queryString poi class related part of the query
+	 *
+	 * @return the best matched class or empty list
+	 * */
+	public List<JSONObject> match(String queryString) {
+		Index index = index();
+		if(index == null) {
+			return Collections.emptyList();
+		}
+
+		Set<String> terms = new LinkedHashSet<>(tokenize(queryString));
+		if(terms.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		Set<PoiClass> candidates = new LinkedHashSet<>();
+		for(String term : terms) {
+			addAll(candidates, index.titleTerms.get(term));
+			addAll(candidates, index.keywordTerms.get(term));
+		}
+
+		Map<PoiClass, Double> scores = new HashMap<>();
+		for(PoiClass pc : candidates) {
+			double score = score(index, index.keywordTerms, pc.keywords, terms);
+			for(List<String> title : pc.titles) {
+				score = Math.max(score, score(index, index.titleTerms, title, terms));
+			}
+			scores.put(pc, score);
+		}
+
+		List<Map.Entry<PoiClass, Double>> sorted = sort(scores);
+		if(sorted.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<JSONObject> result = new ArrayList<JSONObject>(1);
+		result.add(sorted.get(0).getKey().source);
+
+		return result;
+	}
+
+	/**
+	 * Find poi classes by prefixes of query, used for suggestions.
+	 * <p>
+	 * Class matches, if one of its title terms starts with whole filtered
+	 * query, first or the last query token; or one of its keywords
+	 * starts with the last query token. Classes which match more
+	 * conditions go first.
+	 *
+	 * @param query analyzed query
+	 * @param filtered query without stop words
+	 *
+	 * @return matched classes, no more than 10
+	 * */
+	public List<JSONObject> suggest(Query query, Query filtered) {
+		Index index = index();
+		if(index == null || query == null || query.listToken().isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<QToken> tokens = query.listToken();
+		String tail = tokens.get(tokens.size() - 1).toString();
+		String first = tokens.get(0).toString();
+
+		Map<PoiClass, Double> scores = new HashMap<>();
+		prefix(scores, index.titleTerms, filtered.toString());
+		prefix(scores, index.titleTerms, tail);
+		prefix(scores, index.keywordTerms, tail);
+		prefix(scores, index.titleTerms, first);
+
+		List<JSONObject> result = new ArrayList<JSONObject>();
+		for(Map.Entry<PoiClass, Double> entry : sort(scores)) {
+			if(result.size() == SUGGEST_SIZE) {
+				break;
+			}
+			result.add(entry.getKey().source);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Lazy load of index. If there are no poi classes yet, index is empty
+	 * and will be rebuilt after osmdoc import. If loading fails
+	 * (ES isn't ready yet), it's retried with growing delay.
+	 *
+	 * @return index or null if it isn't loaded yet
+	 * */
+	private Index index() {
+		if(index == null && System.currentTimeMillis() >= retryAt) {
+			synchronized (this) {
+				if(index == null && System.currentTimeMillis() >= retryAt) {
+					if(rebuild()) {
+						retryDelay = MIN_RETRY_DELAY_MS;
+					}
+					else {
+						retryAt = System.currentTimeMillis() + retryDelay;
+						retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+					}
+				}
+			}
+		}
+
+		return index;
+	}
+
+	private static double score(Index index, Map<String, Set<PoiClass>> fieldTerms,
+			Collection<String> field, Set<String> terms) {
+
+		if(field.isEmpty()) {
+			return 0;
+		}
+
+		int matched = 0;
+		double score = 0;
+		for(String term : terms) {
+			if(field.contains(term)) {
+				double idf = index.idf(fieldTerms, term);
+				score += idf * idf;
+				matched++;
+			}
+		}
+
+		return score / Math.sqrt(field.size()) * matched / terms.size();
+	}
+
+	private static void prefix(Map<PoiClass, Double> scores,
+			TreeMap<String, Set<PoiClass>> terms, String prefix) {
+
+		// unlike ES, empty prefix doesn't match everything
+		if(prefix.isEmpty()) {
+			return;
+		}
+
+		Set<PoiClass> matched = new HashSet<>();
+		for(Set<PoiClass> set : terms.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+			matched.addAll(set);
+		}
+
+		for(PoiClass pc : matched) {
+			Double score = scores.get(pc);
+			scores.put(pc, score == null ? 1.0 : score + 1.0);
+		}
+	}
+
+	private static List<Map.Entry<PoiClass, Double>> sort(Map<PoiClass, Double> scores) {
+		List<Map.Entry<PoiClass, Double>> sorted = new ArrayList<>();
+		for(Map.Entry<PoiClass, Double> entry : scores.entrySet()) {
+			if(entry.getValue() > 0) {
+				sorted.add(entry);
+			}
+		}
+		Collections.sort(sorted, BY_SCORE);
+
+		return sorted;
+	}
+
+	private static void addAll(Set<PoiClass> candidates, Set<PoiClass> set) {
+		if(set != null) {
+			candidates.addAll(set);
+		}
+	}
+
+	/**
+	 * Lowercase and split by non letter or digit characters,
+	 * like ES standard analyzer does.
+	 * */
+	private static List<String> tokenize(String s) {
+		List<String> result = new ArrayList<>();
+		if(s == null) {
+			return result;
+		}
+
+		StringBuilder token = new StringBuilder();
+		for(char c : s.toLowerCase(Locale.ROOT).toCharArray()) {
+			if(Character.isLetterOrDigit(c)) {
+				token.append(c);
+			}
+			else if(token.length() > 0) {
+				result.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		if(token.length() > 0) {
+			result.add(token.toString());
+		}
+
+		return result;
+	}
+
+	private static List<JSONObject> loadDocs() {
+		Client client = ESNodeHolder.getClient();
+
+		// make just imported classes visible
+		client.admin().indices().prepareRefresh(IndexHolder.ALIAS).get();
+
+		long count = client.prepareCount(IndexHolder.ALIAS).setTypes(IndexHolder.POI_CLASS)
+				.setQuery(QueryBuilders.matchAllQuery()).get().getCount();
+
+		SearchHit[] hits = client.prepareSearch(IndexHolder.ALIAS).setTypes(IndexHolder.POI_CLASS)
+				.setQuery(QueryBuilders.matchAllQuery())
+				.setSize((int) count).get().getHits().getHits();
+
+		List<JSONObject> result = new ArrayList<>(hits.length);
+		for(SearchHit hit : hits) {
+			result.add(new JSONObject(hit.getSourceAsString()));
+		}
+
+		return result;
+	}
+
+}
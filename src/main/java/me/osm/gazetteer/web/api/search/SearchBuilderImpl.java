@@ -12,7 +12,9 @@ import me.osm.gazetteer.web.api.query.QToken;
 import me.osm.gazetteer.web.api.query.Query;
 import me.osm.gazetteer.web.api.utils.BuildSearchQContext;
 import me.osm.gazetteer.web.imp.Replacer;
+import me.osm.gazetteer.web.utils.ReplacersCache;
 import me.osm.gazetteer.web.utils.ReplacersCompiler;
+import me.osm.gazetteer.web.utils.ReplacersPrefilter;
 
 import org.apache.commons.lang3.StringUtils;
 import org.elasticsearch.common.unit.Fuzziness;
@@ -36,6 +38,12 @@ public class SearchBuilderImpl implements SearchBuilder {
 	 * Search and fuzzy housenumbers
 	 * */
 	protected List<Replacer> housenumberReplacers = new ArrayList<>();
+	private ReplacersPrefilter housenumberPrefilter;
+	
+	/**
+	 * Results of housenumberReplacers
+	 * */
+	private final ReplacersCache replacersCache = new ReplacersCache();
 	
 	private Weights WEIGHTS;
 
@@ -44,7 +52,8 @@ public class SearchBuilderImpl implements SearchBuilder {
 	private static final Logger log = LoggerFactory.getLogger(SearchBuilderImpl.class);
 	
 	public SearchBuilderImpl() {
-		ReplacersCompiler.compile(housenumberReplacers, new File("config/replacers/search/hnSearchReplacers"));
+		housenumberPrefilter = ReplacersCompiler.compile(housenumberReplacers, 
+				new File("config/replacers/search/hnSearchReplacers"));
 		WEIGHTS = Weights.readFromFile();
 	}
 
@@ -432,20 +441,8 @@ public class SearchBuilderImpl implements SearchBuilder {
 	 * @param optString housenumber part of query or full query
 	 * */
 	private LinkedHashSet<String> transformHousenumbers(String optString) {
-		LinkedHashSet<String> result = new LinkedHashSet<>(); 
-		for(Replacer replacer : housenumberReplacers) {
-			try {
-				Collection<String> replace = replacer.replace(optString);
-				if(replace != null) {
-					result.addAll(replace);
-				}
-			}
-			catch (Exception e) {
-				LoggerFactory.getLogger(getClass()).warn("Exception in Replacer", e);
-			}
-		}
-		
-		return result;
+		return new LinkedHashSet<>(
+				replacersCache.replace("hn", housenumberReplacers, housenumberPrefilter, optString));
 	}
 
 }
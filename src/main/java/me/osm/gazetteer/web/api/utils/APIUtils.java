@@ -1,8 +1,14 @@
 package me.osm.gazetteer.web.api.utils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import me.osm.gazetteer.web.api.AnswerDetalization;
+import me.osm.gazetteer.web.serialization.RawHitJSON;
+import me.osm.gazetteer.web.utils.GeometryPyramid;
 
 import org.apache.commons.lang3.StringEscapeUtils;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.search.SearchHit;
 import org.json.JSONArray;
@@ -11,9 +17,120 @@ import org.json.JSONObject;
 
 public class APIUtils {
 	
+	/**
+	 * Geometry fields, which are still stored in _source 
+	 * of indexes imported before geometries were separated
+	 * */
+	private static final String[] GEOMETRY_FIELDS = new String[]{
+		"full_geometry", 
+		GeometryPyramid.FIELD
+	};
+	
+	/**
+	 * Fetch only fields used by answer of given detalization
+	 * 
+	 * @param searchRequest request to locations
+	 * @param detalization answer detalization
+	 * @param fullGeometry geometry is returned
+	 * 
+	 * @return the same request
+	 * */
+	public static SearchRequestBuilder setFetchSource(SearchRequestBuilder searchRequest, 
+			AnswerDetalization detalization, boolean fullGeometry) {
+		
+		String[] includes = detalization == null ? null : detalization.getSourceIncludes();
+		String[] excludes = fullGeometry ? null : GEOMETRY_FIELDS;
+		
+		return searchRequest.setFetchSource(includes, excludes);
+	}
+	
 	public static JSONObject encodeSearchResult(SearchResponse searchResponse, 
 			boolean fullGeometry, boolean explain, AnswerDetalization detalization) {
 		
+		return encodeSearchResult(searchResponse, fullGeometry, 0, explain, detalization);
+	}
+	
+	/**
+	 * @param geometryTolerance tolerance of returned geometries, 
+	 * see {@link GeometryStore#fill(java.util.Collection, boolean, double)}
+	 * */
+	public static JSONObject encodeSearchResult(SearchResponse searchResponse, 
+			boolean fullGeometry, double geometryTolerance, boolean explain, 
+			AnswerDetalization detalization) {
+		
+		return encodeSearchResult(searchResponse, fullGeometry, geometryTolerance, 
+				explain, detalization, false);
+	}
+	
+	/**
+	 * @param geometryTolerance tolerance of returned geometries, 
+	 * see {@link GeometryStore#fill(java.util.Collection, boolean, double)}
+	 * @param rawHits put sources of full answers without geometry as 
+	 * {@link RawHitJSON}, request source should be filtered by 
+	 * {@link #setFetchSource(SearchRequestBuilder, AnswerDetalization, boolean)}
+	 * */
+	public static JSONObject encodeSearchResult(SearchResponse searchResponse, 
+			boolean fullGeometry, double geometryTolerance, boolean explain, 
+			AnswerDetalization detalization, boolean rawHits) {
+		
+		List<JSONObject> hits = new ArrayList<>(searchResponse.getHits().getHits().length);
+		JSONObject result = encodeHits(searchResponse, fullGeometry, explain, detalization, rawHits, hits);
+		
+		// short answers have no geometry
+		GeometryStore.fill(hits, fullGeometry && detalization == AnswerDetalization.FULL, 
+				geometryTolerance);
+		
+		return result;
+	}
+	
+	/**
+	 * Like {@link #encodeSearchResult(SearchResponse, boolean, double, boolean, AnswerDetalization, boolean)},
+	 * but doesn't block ES listener thread, geometries are read 
+	 * by {@link GeometryStore#fillAsync(java.util.Collection, boolean, double)}
+	 * 
+	 * @return answer, completed when geometries are filled
+	 * */
+	public static DeferredAnswer<JSONObject> encodeSearchResultAsync(SearchResponse searchResponse, 
+			boolean fullGeometry, double geometryTolerance, boolean explain, 
+			AnswerDetalization detalization, boolean rawHits) {
+		
+		final DeferredAnswer<JSONObject> answer = new DeferredAnswer<>();
+		
+		List<JSONObject> hits = new ArrayList<>(searchResponse.getHits().getHits().length);
+		final JSONObject result = encodeHits(searchResponse, fullGeometry, explain, detalization, rawHits, hits);
+		
+		// short answers have no geometry
+		final DeferredAnswer<?> filled = GeometryStore.fillAsync(hits, 
+				fullGeometry && detalization == AnswerDetalization.FULL, geometryTolerance);
+		
+		filled.onComplete(new Runnable() {
+			
+			@Override
+			public void run() {
+				if(filled.getFailure() != null) {
+					answer.fail(filled.getFailure());
+				}
+				else {
+					answer.complete(result);
+				}
+			}
+			
+		});
+		
+		return answer;
+	}
+	
+	/**
+	 * Encode answer without geometries
+	 * 
+	 * @param hits receives features which might need geometry
+	 * */
+	private static JSONObject encodeHits(SearchResponse searchResponse, boolean fullGeometry, 
+			boolean explain, AnswerDetalization detalization, boolean rawHits, List<JSONObject> hits) {
+		
+		// hits are written as is, if they don't need rewriting
+		boolean raw = rawHits && !fullGeometry && detalization == AnswerDetalization.FULL;
+		
 		JSONObject result = new JSONObject();
 		result.put("result", "success");
 		
@@ -23,6 +140,12 @@ public class APIUtils {
 		result.put("hits", searchResponse.getHits().getTotalHits());
 		
 		for(SearchHit hit : searchResponse.getHits().getHits()) {
+			RawHitJSON rawHit = raw ? RawHitJSON.create(hit.sourceRef(), hit.getScore()) : null;
+			if(rawHit != null) {
+				features.put(rawHit);
+				continue;
+			}
+			
 			JSONObject feature = new JSONObject(hit.getSource());
 
 			if(detalization == AnswerDetalization.SHORT) {
@@ -44,14 +167,11 @@ public class APIUtils {
 				feature.put("addr_level", source.getString("addr_level"));
 			}
 			
-			if(!fullGeometry) {
-				feature.remove("full_geometry");
-			}
-			
 			if(detalization != AnswerDetalization.SHORT) { 
 				feature.put("_hit_score", hit.getScore());
 			}
 			
+			hits.add(feature);
 			features.put(feature);
 		}
 		
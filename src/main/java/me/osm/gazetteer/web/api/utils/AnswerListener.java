@@ -0,0 +1,40 @@
+package me.osm.gazetteer.web.api.utils;
+
+import org.elasticsearch.action.ActionListener;
+
+/**
+ * ES listener, which completes {@link DeferredAnswer}.
+ * <p>
+ * Exceptions thrown from {@link #onAnswer(Object)} and ES failures
+ * fail the answer.
+ * */
+public abstract class AnswerListener<R, T> implements ActionListener<R> {
+
+	protected final DeferredAnswer<T> answer;
+
+	public AnswerListener(DeferredAnswer<T> answer) {
+		this.answer = answer;
+	}
+
+	/**
+	 * Handle ES response, implementations should complete answer
+	 * or pass it to the next request.
+	 * */
+	protected abstract void onAnswer(R response) throws Exception;
+
+	@Override
+	public void onResponse(R response) {
+		try {
+			onAnswer(response);
+		}
+		catch (Throwable t) {
+			answer.fail(t);
+		}
+	}
+
+	@Override
+	public void onFailure(Throwable e) {
+		answer.fail(e);
+	}
+
+}
@@ -0,0 +1,42 @@
+package me.osm.gazetteer.web.api.utils;
+
+/**
+ * Continues {@link DeferredAnswer} when previous deferred step
+ * is completed, like {@link AnswerListener} does for ES responses.
+ * <p>
+ * Pass it to {@link DeferredAnswer#onComplete(Runnable)} of previous step.
+ * Failure of previous step and exceptions thrown from
+ * {@link #onAnswer(Object)} fail the answer.
+ * */
+public abstract class AnswerStep<P, T> implements Runnable {
+
+	protected final DeferredAnswer<P> previous;
+	protected final DeferredAnswer<T> answer;
+
+	public AnswerStep(DeferredAnswer<P> previous, DeferredAnswer<T> answer) {
+		this.previous = previous;
+		this.answer = answer;
+	}
+
+	/**
+	 * Handle result of previous step, implementations should
+	 * complete answer or pass it to the next step.
+	 * */
+	protected abstract void onAnswer(P result) throws Exception;
+
+	@Override
+	public void run() {
+		if(previous.getFailure() != null) {
+			answer.fail(previous.getFailure());
+			return;
+		}
+
+		try {
+			onAnswer(previous.getAnswer());
+		}
+		catch (Throwable t) {
+			answer.fail(t);
+		}
+	}
+
+}
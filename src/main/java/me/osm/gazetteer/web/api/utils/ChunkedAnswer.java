@@ -0,0 +1,97 @@
+package me.osm.gazetteer.web.api.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.restexpress.Response;
+import org.restexpress.serialization.SerializationSettings;
+
+/**
+ * Answer which is written by parts, as they are ready.
+ * <p>
+ * Controller returns it, and writes parts from other threads.
+ * {@link me.osm.gazetteer.web.DeferredResponseWriter} writes
+ * response headers at once, and every part as a http chunk.
+ * Parts are written as members of JSON array.
+ * <p>
+ * Parts written before response writer is attached are buffered.
+ * */
+public class ChunkedAnswer {
+
+	/**
+	 * Writes parts of answer
+	 * */
+	public interface Sink {
+
+		public void write(JSONObject part);
+
+		public void close();
+
+	}
+
+	private final List<JSONObject> pending = new ArrayList<>();
+
+	private boolean closed;
+	private Sink sink;
+
+	/**
+	 * Create answer for REST Express response, see {@link DeferredAnswer#create(Response)}
+	 * */
+	public static ChunkedAnswer create(Response response) {
+		if(response.hasSerializationSettings() && !response.hasHeader("Content-Type")) {
+			SerializationSettings settings = response.getSerializationSettings();
+			response.setContentType(settings.getMediaType());
+		}
+		response.noSerialization();
+
+		return new ChunkedAnswer();
+	}
+
+	/**
+	 * Write next part
+	 * */
+	public synchronized void write(JSONObject part) {
+		if(closed) {
+			throw new IllegalStateException("Answer is closed");
+		}
+
+		if(sink != null) {
+			sink.write(part);
+		}
+		else {
+			pending.add(part);
+		}
+	}
+
+	/**
+	 * Finish the answer
+	 * */
+	public synchronized void close() {
+		if(closed) {
+			return;
+		}
+
+		closed = true;
+		if(sink != null) {
+			sink.close();
+		}
+	}
+
+	/**
+	 * Attach writer, buffered parts are written at once
+	 * */
+	public synchronized void setSink(Sink sink) {
+		this.sink = sink;
+
+		for(JSONObject part : pending) {
+			sink.write(part);
+		}
+		pending.clear();
+
+		if(closed) {
+			sink.close();
+		}
+	}
+
+}
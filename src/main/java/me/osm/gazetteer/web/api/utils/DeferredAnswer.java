@@ -0,0 +1,141 @@
+package me.osm.gazetteer.web.api.utils;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.restexpress.Response;
+import org.restexpress.serialization.SerializationSettings;
+
+/**
+ * Answer which will be available later.
+ * <p>
+ * Controller returns it instead of answer, and completes it
+ * from ES {@link org.elasticsearch.action.ActionListener}, see
+ * {@link AnswerListener}. Response is written when answer
+ * is completed, by {@link me.osm.gazetteer.web.DeferredResponseWriter},
+ * so request handling thread isn't blocked while ES executes request.
+ * <p>
+ * Synchronous callers could wait for answer with {@link #get()}.
+ * */
+public class DeferredAnswer<T> {
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private T answer;
+	private Throwable failure;
+	private Runnable listener;
+
+	/**
+	 * Create answer for REST Express response.
+	 * <p>
+	 * Content type of response is set here, and serialization
+	 * is turned off until answer is completed, because response
+	 * is serialized right after controller returns deferred answer.
+	 * */
+	public static <T> DeferredAnswer<T> create(Response response) {
+		if(response != null) {
+			if(response.hasSerializationSettings() && !response.hasHeader("Content-Type")) {
+				SerializationSettings settings = response.getSerializationSettings();
+				response.setContentType(settings.getMediaType());
+			}
+			response.noSerialization();
+		}
+
+		return new DeferredAnswer<T>();
+	}
+
+	public void complete(T answer) {
+		Runnable l;
+		synchronized (this) {
+			if(isDone()) {
+				return;
+			}
+			this.answer = answer;
+			done.countDown();
+			l = listener;
+		}
+
+		if(l != null) {
+			l.run();
+		}
+	}
+
+	public void fail(Throwable failure) {
+		Runnable l;
+		synchronized (this) {
+			if(isDone()) {
+				return;
+			}
+			this.failure = failure;
+			done.countDown();
+			l = listener;
+		}
+
+		if(l != null) {
+			l.run();
+		}
+	}
+
+	/**
+	 * Set completion listener, if answer is already completed,
+	 * listener is called immediately.
+	 * */
+	public void onComplete(Runnable listener) {
+		synchronized (this) {
+			if(!isDone()) {
+				this.listener = listener;
+				return;
+			}
+		}
+
+		listener.run();
+	}
+
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * @return answer, null if answer isn't completed or failed
+	 * */
+	public synchronized T getAnswer() {
+		return answer;
+	}
+
+	/**
+	 * @return failure, null if answer isn't completed or succeeded
+	 * */
+	public synchronized Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Wait for answer
+	 *
+	 * @return answer
+	 *
+	 * @throws RuntimeException if answer is failed
+	 * */
+	public T get() {
+		try {
+			done.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+
+		synchronized (this) {
+			if(failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			}
+			if(failure instanceof Error) {
+				throw (Error) failure;
+			}
+			if(failure != null) {
+				throw new RuntimeException(failure);
+			}
+			return answer;
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package me.osm.gazetteer.web.api.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import me.osm.gazetteer.web.ESNodeHolder;
+import me.osm.gazetteer.web.imp.IndexHolder;
+import me.osm.gazetteer.web.utils.GeometryPyramid;
+
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.json.JSONObject;
+
+/**
+ * Geometries of locations are stored separately from
+ * locations, in {@link IndexHolder#GEOMETRY} by feature_id.
+ * <p>
+ * Location _source has no full_geometry, so search hits stay small,
+ * geometries are fetched by multi get only for answers which
+ * need them. Answers encoded in ES listener threads use
+ * {@link #fillAsync(Collection, boolean, double)}, so listener
+ * threads aren't blocked by multi get.
+ * <p>
+ * Locations imported before geometries were separated still
+ * have full_geometry in _source, it's returned as is.
+ * */
+public class GeometryStore {
+
+	/**
+	 * @return id of geometry document for location
+	 * */
+	public static String getFeatureId(JSONObject feature) {
+		return feature.optString("feature_id", feature.optString("id", null));
+	}
+
+	/**
+	 * Read geometries by one multi get request
+	 *
+	 * @param featureIds feature ids of locations
+	 *
+	 * @return geometry documents by feature id, missing ones are skipped
+	 * */
+	public static Map<String, JSONObject> get(Collection<String> featureIds) {
+		if(featureIds.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		return read(prepareGet(featureIds).get());
+	}
+
+	/**
+	 * Prepare geometry of location for response.
+	 *
+	 * @see #fill(Collection, boolean, double)
+	 * */
+	public static void fill(JSONObject feature, boolean fullGeometry, double tolerance) {
+		fill(Collections.singletonList(feature), fullGeometry, tolerance);
+	}
+
+	/**
+	 * Prepare geometries of locations for response.
+	 * <p>
+	 * If full geometry is requested, reads stored geometries of
+	 * locations and selects level of simplification,
+	 * see {@link GeometryPyramid#select(JSONObject, boolean, double)}
+	 *
+	 * @param features locations sources
+	 * @param fullGeometry fill full_geometry
+	 * @param tolerance acceptable tolerance, 0 for full resolution
+	 * */
+	public static void fill(Collection<JSONObject> features, boolean fullGeometry, double tolerance) {
+		Map<String, JSONObject> geometries = fullGeometry 
+				? get(getMissingIds(features)) : Collections.<String, JSONObject>emptyMap();
+		
+		apply(features, geometries, fullGeometry, tolerance);
+	}
+
+	/**
+	 * Like {@link #fill(Collection, boolean, double)}, but doesn't block,
+	 * geometries are read by multi get, which completes the answer
+	 * from ES listener.
+	 *
+	 * @return answer, completed with the same features when they are filled
+	 * */
+	public static DeferredAnswer<Collection<JSONObject>> fillAsync(
+			final Collection<JSONObject> features, final boolean fullGeometry, final double tolerance) {
+		
+		final DeferredAnswer<Collection<JSONObject>> answer = new DeferredAnswer<>();
+		
+		Set<String> ids = fullGeometry ? getMissingIds(features) : Collections.<String>emptySet();
+		if(ids.isEmpty()) {
+			apply(features, Collections.<String, JSONObject>emptyMap(), fullGeometry, tolerance);
+			answer.complete(features);
+			return answer;
+		}
+		
+		prepareGet(ids).setListenerThreaded(true).execute(
+				new AnswerListener<MultiGetResponse, Collection<JSONObject>>(answer) {
+			
+			@Override
+			protected void onAnswer(MultiGetResponse response) throws Exception {
+				apply(features, read(response), fullGeometry, tolerance);
+				answer.complete(features);
+			}
+			
+		});
+		
+		return answer;
+	}
+
+	/**
+	 * @return feature ids of locations without full_geometry in _source
+	 * */
+	private static Set<String> getMissingIds(Collection<JSONObject> features) {
+		Set<String> ids = new LinkedHashSet<>();
+		for(JSONObject feature : features) {
+			String id = getFeatureId(feature);
+			if(id != null && !feature.has("full_geometry")) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	private static MultiGetRequestBuilder prepareGet(Collection<String> featureIds) {
+		MultiGetRequestBuilder request = ESNodeHolder.getClient().prepareMultiGet();
+		for(String id : featureIds) {
+			request.add(IndexHolder.ALIAS, IndexHolder.GEOMETRY, id);
+		}
+		return request;
+	}
+
+	private static Map<String, JSONObject> read(MultiGetResponse response) {
+		Map<String, JSONObject> result = new HashMap<>(response.getResponses().length);
+		for(MultiGetItemResponse item : response.getResponses()) {
+			if(!item.isFailed() && item.getResponse().isExists()) {
+				result.put(item.getId(), new JSONObject(item.getResponse().getSourceAsString()));
+			}
+		}
+		return result;
+	}
+
+	private static void apply(Collection<JSONObject> features, Map<String, JSONObject> geometries,
+			boolean fullGeometry, double tolerance) {
+		
+		for(JSONObject feature : features) {
+			JSONObject geometry = geometries.get(getFeatureId(feature));
+			if(geometry != null && !feature.has("full_geometry")) {
+				feature.put("full_geometry", geometry.get("full_geometry"));
+
+				Object levels = geometry.opt(GeometryPyramid.FIELD);
+				if(levels != null) {
+					feature.put(GeometryPyramid.FIELD, levels);
+				}
+			}
+		}
+
+		for(JSONObject feature : features) {
+			GeometryPyramid.select(feature, fullGeometry, tolerance);
+		}
+	}
+
+}
@@ -16,4 +16,9 @@ public interface Paginator {
 	 * */
 	public void patchAnswer(Request request, JSONObject answer);
 
+	/**
+	 * Paging of the request, as a part of cached answers key
+	 * */
+	public String getPagingKey(Request request);
+
 }
\ No newline at end of file
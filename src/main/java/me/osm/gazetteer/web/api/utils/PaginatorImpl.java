@@ -21,18 +21,9 @@ public class PaginatorImpl implements Paginator {
 	public void patchSearchQ(Request request,
 			SearchRequestBuilder searchQ) {
 		
-		int pageSize = DEFAULT_PAGE_SIZE;
-		if(request.getHeader(PAGE_SIZE) != null) {
-			pageSize = Integer.parseInt(request.getHeader(PAGE_SIZE));
-		}
+		int pageSize = getPageSize(request);
+		int page = getPage(request);
 		
-		int page = 1;
-		if(request.getHeader(PAGE_PARAM) != null) {
-			page = Integer.parseInt(request.getHeader(PAGE_PARAM));
-			if(page < 1) {
-				page = 1;
-			}
-		}
 		searchQ.setSize(pageSize);
 		searchQ.setFrom((page - 1) * pageSize);
 	}
@@ -42,11 +33,29 @@ public class PaginatorImpl implements Paginator {
 	 */
 	@Override
 	public void patchAnswer(Request request, JSONObject answer) {
+		int pageSize = getPageSize(request);
+		int page = getPage(request);
+		
+		answer.put(PAGE_SIZE, pageSize);
+		answer.put("from", (page - 1) * pageSize);
+		answer.put(PAGE_PARAM, page);
+		
+	}
+
+	@Override
+	public String getPagingKey(Request request) {
+		return getPage(request) + "/" + getPageSize(request);
+	}
+
+	private int getPageSize(Request request) {
 		int pageSize = DEFAULT_PAGE_SIZE;
 		if(request.getHeader(PAGE_SIZE) != null) {
 			pageSize = Integer.parseInt(request.getHeader(PAGE_SIZE));
 		}
-		
+		return pageSize;
+	}
+
+	private int getPage(Request request) {
 		int page = 1;
 		if(request.getHeader(PAGE_PARAM) != null) {
 			page = Integer.parseInt(request.getHeader(PAGE_PARAM));
@@ -54,9 +63,6 @@ public class PaginatorImpl implements Paginator {
 				page = 1;
 			}
 		}
-		answer.put(PAGE_SIZE, pageSize);
-		answer.put("from", (page - 1) * pageSize);
-		answer.put(PAGE_PARAM, page);
-		
+		return page;
 	}
 }
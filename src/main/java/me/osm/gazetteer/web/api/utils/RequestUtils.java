@@ -77,6 +77,25 @@ public final class RequestUtils {
 		return null;
 	}
 
+	/**
+	 * Parses int request header.
+	 * 
+	 * If header is absent or isn't a number, returns default value.
+	 * */
+	public static int getIntHeader(Request request, String header, int def) {
+		String valString = request.getHeader(header);
+		if(valString != null) {
+			try{
+				return Integer.parseInt(valString.trim());
+			}
+			catch (NumberFormatException e) {
+				return def;
+			}
+		}
+		
+		return def;
+	}
+
 	/**
 	 * Parses boolean request header.
 	 * 
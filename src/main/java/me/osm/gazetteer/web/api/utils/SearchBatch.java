@@ -0,0 +1,260 @@
+package me.osm.gazetteer.web.api.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.osm.gazetteer.web.ESNodeHolder;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Independent queries of one API call, sent to ES at once.
+ * <p>
+ * Queries are collected via {@link #add(SearchRequestBuilder)},
+ * and sent by one multi search request, so ES executes them
+ * in parallel, and the whole batch takes about one round trip.
+ * <p>
+ * Batch could be started via {@link #start()} before some other
+ * blocking work (reading geometries for example), and joined
+ * via {@link #join()} after it.
+ * <p>
+ * Answers built in ES listener threads use {@link #executeAsync()},
+ * which doesn't block.
+ * <p>
+ * Batch is request scoped and isn't thread safe.
+ * */
+public class SearchBatch {
+
+	private static final Logger log = LoggerFactory.getLogger(SearchBatch.class);
+
+	/**
+	 * Response of one query of batch, available after {@link SearchBatch#join()}
+	 * */
+	public static final class Result {
+
+		private final SearchRequestBuilder request;
+		private final JSONArray target;
+
+		private SearchResponse response;
+		private String failure;
+
+		private Result(SearchRequestBuilder request, JSONArray target) {
+			this.request = request;
+			this.target = target;
+		}
+
+		/**
+		 * @return response of query
+		 *
+		 * @throws ElasticsearchException if query is failed
+		 * */
+		public SearchResponse get() {
+			if(failure != null) {
+				throw new ElasticsearchException(failure);
+			}
+
+			if(response == null) {
+				throw new IllegalStateException("Batch isn't joined yet");
+			}
+
+			return response;
+		}
+
+		/**
+		 * @return hits of query response
+		 * */
+		public SearchHit[] getHits() {
+			return get().getHits().getHits();
+		}
+
+		private void setResponse(SearchResponse response) {
+			this.response = response;
+
+			if(target != null) {
+				for(SearchHit hit : response.getHits().getHits()) {
+					target.put(new JSONObject(hit.getSourceAsString()));
+				}
+			}
+		}
+
+		private void setFailure(String failure) {
+			log.error("Failed to execute query: {}", request);
+			this.failure = failure;
+		}
+	}
+
+	private final List<Result> results = new ArrayList<>();
+
+	private ListenableActionFuture<MultiSearchResponse> multiSearch;
+	private ListenableActionFuture<SearchResponse> search;
+	private boolean started = false;
+
+	/**
+	 * Add query to the batch
+	 *
+	 * @return handle for query response
+	 * */
+	public Result add(SearchRequestBuilder request) {
+		return add(request, null);
+	}
+
+	/**
+	 * Add query to the batch, sources of founded hits
+	 * will be appended to target array, when batch is joined.
+	 *
+	 * @param request query
+	 * @param target array for hits sources
+	 *
+	 * @return handle for query response
+	 * */
+	public Result add(SearchRequestBuilder request, JSONArray target) {
+		if(started) {
+			throw new IllegalStateException("Batch is already started");
+		}
+
+		Result result = new Result(request, target);
+		results.add(result);
+
+		return result;
+	}
+
+	/**
+	 * Send queries, don't wait for responses
+	 * */
+	public SearchBatch start() {
+		if(started) {
+			throw new IllegalStateException("Batch is already started");
+		}
+		started = true;
+
+		// There is no need to wrap single query into multi search
+		if(results.size() == 1) {
+			search = results.get(0).request.execute();
+		}
+		else if(results.size() > 1) {
+			MultiSearchRequestBuilder msearch = ESNodeHolder.getClient().prepareMultiSearch();
+			for(Result r : results) {
+				msearch.add(r.request);
+			}
+			multiSearch = msearch.execute();
+		}
+
+		return this;
+	}
+
+	/**
+	 * Wait for responses of started batch
+	 *
+	 * @throws ElasticsearchException if one of queries is failed
+	 * */
+	public void join() {
+		if(search != null) {
+			Result result = results.get(0);
+			try {
+				result.setResponse(search.actionGet());
+			}
+			catch (ElasticsearchException e) {
+				result.setFailure(e.getDetailedMessage());
+				throw e;
+			}
+		}
+		else if(multiSearch != null) {
+			read(multiSearch.actionGet());
+		}
+	}
+
+	private void read(MultiSearchResponse response) {
+		String failure = null;
+
+		MultiSearchResponse.Item[] items = response.getResponses();
+		for(int i = 0; i < items.length; i++) {
+			if(items[i].isFailure()) {
+				results.get(i).setFailure(items[i].getFailureMessage());
+				failure = failure == null ? items[i].getFailureMessage() : failure;
+			}
+			else {
+				results.get(i).setResponse(items[i].getResponse());
+			}
+		}
+
+		if(failure != null) {
+			throw new ElasticsearchException(failure);
+		}
+	}
+
+	/**
+	 * Send queries and wait for responses
+	 * */
+	public void execute() {
+		start();
+		join();
+	}
+
+	/**
+	 * Send queries, don't wait for responses.
+	 *
+	 * @return answer, completed with this batch from ES listener
+	 * thread, when responses are read. It's failed if one of
+	 * queries is failed.
+	 * */
+	public DeferredAnswer<SearchBatch> executeAsync() {
+		if(started) {
+			throw new IllegalStateException("Batch is already started");
+		}
+		started = true;
+
+		final DeferredAnswer<SearchBatch> answer = new DeferredAnswer<>();
+
+		if(results.isEmpty()) {
+			answer.complete(this);
+		}
+		else if(results.size() == 1) {
+			final Result result = results.get(0);
+			result.request.setListenerThreaded(true).execute(
+					new AnswerListener<SearchResponse, SearchBatch>(answer) {
+
+				@Override
+				protected void onAnswer(SearchResponse response) throws Exception {
+					result.setResponse(response);
+					answer.complete(SearchBatch.this);
+				}
+
+				@Override
+				public void onFailure(Throwable e) {
+					result.setFailure(e.getMessage());
+					super.onFailure(e);
+				}
+
+			});
+		}
+		else {
+			MultiSearchRequestBuilder msearch = ESNodeHolder.getClient().prepareMultiSearch();
+			for(Result r : results) {
+				msearch.add(r.request);
+			}
+			msearch.setListenerThreaded(true).execute(
+					new AnswerListener<MultiSearchResponse, SearchBatch>(answer) {
+
+				@Override
+				protected void onAnswer(MultiSearchResponse response) throws Exception {
+					read(response);
+					answer.complete(SearchBatch.this);
+				}
+
+			});
+		}
+
+		return answer;
+	}
+
+}
@@ -0,0 +1,195 @@
+package me.osm.gazetteer.web.api.utils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.api.meta.health.SearchCacheState;
+import me.osm.gazetteer.web.serialization.JSONBufferEncoder;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.cache.Weigher;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process cache of search answers.
+ * <p>
+ * Answers are cached by normalized request and index generation.
+ * Generation is incremented, and cache is cleared, when imported data
+ * becomes visible, so answers which were started before import
+ * completion are never returned after it.
+ * <p>
+ * Cached answers are shared, so callers always get shallow copies,
+ * and could add or replace top level fields (postprocessors do it).
+ * */
+public class SearchCache {
+
+	private static final Logger log = LoggerFactory.getLogger(SearchCache.class);
+
+	private static final SearchCache INSTANCE = new SearchCache(
+			GazetteerWeb.config().getSearchCacheBytes(),
+			GazetteerWeb.config().getSearchCacheTTLSec());
+
+	public static SearchCache get() {
+		return INSTANCE;
+	}
+
+	private static final class CachedAnswer {
+
+		private final JSONObject answer;
+		private final int bytes;
+
+		public CachedAnswer(JSONObject answer, int bytes) {
+			this.answer = answer;
+			this.bytes = bytes;
+		}
+	}
+
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong sizeBytes = new AtomicLong();
+
+	private final long maxBytes;
+	private final long ttlSec;
+
+	private final Cache<String, CachedAnswer> cache;
+
+	public SearchCache(long maxBytes, long ttlSec) {
+		this.maxBytes = maxBytes;
+		this.ttlSec = ttlSec;
+
+		if(maxBytes > 0) {
+			this.cache = CacheBuilder.newBuilder()
+					.maximumWeight(maxBytes)
+					.weigher(new Weigher<String, CachedAnswer>() {
+						@Override
+						public int weigh(String key, CachedAnswer value) {
+							return weight(key, value);
+						}
+					})
+					.removalListener(new RemovalListener<String, CachedAnswer>() {
+						@Override
+						public void onRemoval(RemovalNotification<String, CachedAnswer> notification) {
+							sizeBytes.addAndGet(-weight(notification.getKey(), notification.getValue()));
+						}
+					})
+					.expireAfterWrite(ttlSec, TimeUnit.SECONDS)
+					.recordStats().build();
+		}
+		else {
+			this.cache = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return cache != null;
+	}
+
+	/**
+	 * Create cache key for current index generation
+	 *
+	 * @param requestKey normalized request
+	 * */
+	public String key(String requestKey) {
+		return generation.get() + ":" + requestKey;
+	}
+
+	/**
+	 * @param key key created with {@link #key(String)}
+	 *
+	 * @return copy of cached answer or null
+	 * */
+	public JSONObject get(String key) {
+		if(cache == null) {
+			return null;
+		}
+
+		CachedAnswer cached = cache.getIfPresent(key);
+		return cached == null ? null : copy(cached.answer);
+	}
+
+	/**
+	 * Cache answer, answer shouldn't be modified after that.
+	 *
+	 * @param key key created with {@link #key(String)}
+	 * @param answer answer to cache
+	 *
+	 * @return copy of cached answer
+	 * */
+	public JSONObject put(String key, JSONObject answer) {
+		if(cache == null || answer == null) {
+			return answer;
+		}
+
+		try {
+			int bytes = JSONBufferEncoder.encode(answer).readableBytes();
+			CachedAnswer cached = new CachedAnswer(answer, bytes);
+
+			sizeBytes.addAndGet(weight(key, cached));
+			cache.put(key, cached);
+		}
+		catch (IOException e) {
+			log.warn("Failed to estimate size of answer for {}", key, e);
+			return answer;
+		}
+
+		return copy(answer);
+	}
+
+	/**
+	 * Drop all cached answers, should be called
+	 * when changes in index become visible for search.
+	 * */
+	public void invalidate() {
+		long g = generation.incrementAndGet();
+
+		if(cache != null) {
+			cache.invalidateAll();
+			log.debug("Search cache invalidated, generation {}", g);
+		}
+	}
+
+	/**
+	 * @return hits, evictions and size for health api
+	 * */
+	public SearchCacheState getState() {
+		SearchCacheState state = new SearchCacheState();
+
+		state.setGeneration(generation.get());
+		state.setMaxSizeBytes(maxBytes);
+		state.setTtlSec(ttlSec);
+
+		if(cache != null) {
+			CacheStats stats = cache.stats();
+
+			state.setEntries(cache.size());
+			state.setSizeBytes(Math.max(0, sizeBytes.get()));
+			state.setHits(stats.hitCount());
+			state.setMisses(stats.missCount());
+			state.setHitRate(stats.hitRate());
+			state.setEvictions(stats.evictionCount());
+		}
+
+		return state;
+	}
+
+	private static int weight(String key, CachedAnswer value) {
+		return key.length() * 2 + value.bytes;
+	}
+
+	private static JSONObject copy(JSONObject answer) {
+		String[] names = JSONObject.getNames(answer);
+		if(names == null) {
+			return new JSONObject();
+		}
+
+		return new JSONObject(answer, names);
+	}
+
+}
@@ -1,5 +1,6 @@
 package me.osm.gazetteer.web.csvgeocode;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -14,10 +15,20 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import me.osm.gazetteer.web.GazetteerWeb;
-import me.osm.gazetteer.web.api.AnswerDetalization;
 import me.osm.gazetteer.web.api.SearchAPI;
+import me.osm.gazetteer.web.api.search.BatchQuery;
+import me.osm.gazetteer.web.api.search.BatchSearch;
+import me.osm.gazetteer.web.api.utils.DeferredAnswer;
 import me.osm.gazetteer.web.executions.AbortedException;
 import me.osm.gazetteer.web.executions.BackgroudTaskDescription;
 import me.osm.gazetteer.web.executions.BackgroundExecutorFacade.BackgroundExecutableTask;
@@ -25,14 +36,32 @@ import me.osm.gazetteer.web.imp.LocationsDumpImporter;
 
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.supercsv.io.CsvMapReader;
 import org.supercsv.io.CsvMapWriter;
 import org.supercsv.prefs.CsvPreference;
 
 public class CSVGeocode extends BackgroundExecutableTask {
+	
+	private static final Logger log = LoggerFactory.getLogger(CSVGeocode.class);
+	
+	private static final String[] RESULT_COLUMNS = new String[]{
+		"result_lat", "result_lon", "result_score", "result_lvl", "result_id"};
+	
+	/**
+	 * Marks the end of geocoded chunks queue
+	 * */
+	private static final Future<List<Map<String, String>>> END_OF_SOURCE = 
+			new FutureTask<List<Map<String, String>>>(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, null);
 
 	private String filePath;
 	private String callback;
@@ -42,7 +71,14 @@ public class CSVGeocode extends BackgroundExecutableTask {
 	private SearchAPI searchAPI;
 	private Set<String> refs;
 	private File outFile = null;
-	private int counter;
+	private volatile int counter;
+	
+	private BatchSearch batchSearch;
+	
+	/**
+	 * Result columns by search text, lives while task is executed
+	 * */
+	private Cache<String, String[]> results;
 	
 	public CSVGeocode(){};
 	
@@ -64,87 +100,282 @@ public class CSVGeocode extends BackgroundExecutableTask {
 		this.outFile = new File(geocodeFolder, getUUID() + ".csv.gz");
 	}
 
+	/**
+	 * Geocoding is done in three stages:
+	 * <ol>
+	 * <li>{@link RowsReader} thread reads rows and splits them into chunks,
+	 * <li>workers pool geocodes chunks of rows (see {@link #geocode(List)}),
+	 * <li>this thread takes geocoded chunks in the original order and writes them.
+	 * </ol>
+	 * Stages are connected via bounded queue, so reader will wait for
+	 * geocoding, and geocoding will wait for writer.
+	 * */
 	@Override
 	public void executeTask() throws AbortedException {
+		
+		CsvMapReader csvMapReader = null;
+		CsvMapWriter csvMapWriter = null;
+		
+		ExecutorService workers = Executors.newFixedThreadPool(
+				GazetteerWeb.config().getCSVGeocodeThreads());
+		RowsReader rowsReader = null;
+		
 		try {
 			
-			
 			CsvPreference csvPreferences = CsvPreference.STANDARD_PREFERENCE;
 			if(StringUtils.endsWith(filePath, ".tsv")) {
 				csvPreferences = CsvPreference.TAB_PREFERENCE;
 			}
 			
-			CsvMapReader csvMapReader = 
-					new CsvMapReader(new InputStreamReader(LocationsDumpImporter.getFileIS(filePath), 
+			csvMapReader = new CsvMapReader(new InputStreamReader(LocationsDumpImporter.getFileIS(filePath), 
 							Charset.forName("UTF-8")), csvPreferences);
 			
 			String[] header = csvMapReader.getHeader(true);
 
-			CsvMapWriter csvMapWriter = new CsvMapWriter(new OutputStreamWriter(new GzipCompressorOutputStream(
+			csvMapWriter = new CsvMapWriter(new OutputStreamWriter(new GzipCompressorOutputStream(
 					new FileOutputStream(outFile)), Charset.forName("UTF-8")), csvPreferences);
 
 			String[] writeHeader = writeHeader(header, csvMapWriter);
 			
-			Map<String, String> row = null;
-			while( (row = csvMapReader.read(header)) != null ) {
-				String string = row.get(searchField);
-
-				AnswerDetalization detalization = AnswerDetalization.FULL;
-				
-				try {
-					JSONObject answer = searchAPI.internalSearch(
-							false, string, null, null, null, null, 
-							this.refs, true, false, true, 
-							detalization, null, null);
-					
-					counter++;
-					
-					if(!gotResult(answer)) {
-						Set<String> types = new HashSet<>(
-								Arrays.asList("hghnet", "hghway", "admbnd", "plcpnt"));
-						
-						answer = searchAPI.internalSearch(
-								false, string, types, null, null, null, 
-								this.refs, false, false, true, 
-								detalization, null, null);
-					}
-					
-					fillTheRow(row, answer);
-					
+			this.batchSearch = new BatchSearch(GazetteerWeb.config().getBatchSearchChunkSize(), 1);
+			this.results = CacheBuilder.newBuilder()
+					.maximumSize(GazetteerWeb.config().getCSVGeocodeCacheSize())
+					.<String, String[]>build();
+			
+			rowsReader = new RowsReader(csvMapReader, header, workers);
+			rowsReader.start();
+			
+			Future<List<Map<String, String>>> chunk = rowsReader.geocoded.take();
+			while (chunk != END_OF_SOURCE) {
+				for(Map<String, String> row : chunk.get()) {
 					csvMapWriter.write(row, writeHeader);
+					counter++;
 				}
-				catch (Exception e) {
-					LoggerFactory.getLogger(getClass()).error("Failed to geocode {}", string, e);
+				
+				if(isAborted()) {
+					throw new AbortedException(null, null, true);
 				}
+				
+				chunk = rowsReader.geocoded.take();
+			}
+			
+			if(rowsReader.error != null) {
+				throw rowsReader.error;
+			}
+			
+			if(isAborted()) {
+				throw new AbortedException(null, null, true);
 			}
 			
 			csvMapWriter.flush();
 			csvMapWriter.close();
 			
+			log.info("Geocoding done. {} rows written.", counter);
+		}
+		catch (AbortedException aborted) {
+			log.info("Geocoding was interrupted. {} rows written.", counter);
+			throw aborted;
+		}
+		catch (ExecutionException e) {
+			throw new AbortedException(e.getMessage(), e.getCause(), false);
 		}
 		catch (Exception e) {
 			throw new AbortedException(e.getMessage(), e, false); 
 		}
+		finally {
+			if(rowsReader != null) {
+				rowsReader.interrupt();
+			}
+			workers.shutdownNow();
+			
+			closeQuietly(csvMapWriter);
+			closeQuietly(csvMapReader);
+			
+			this.results = null;
+		}
+	}
+	
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			if(closeable != null) {
+				closeable.close();
+			}
+		}
+		catch (IOException e) {
+			// nothing to do
+		}
+	}
+	
+	/**
+	 * Reads rows, and submits them to geocoding workers by chunks.
+	 * Futures of geocoded chunks are put into the queue in the same order 
+	 * as rows were read. 
+	 * */
+	private class RowsReader extends Thread {
+		
+		private final CsvMapReader reader;
+		private final String[] header;
+		private final ExecutorService workers;
+		
+		private final BlockingQueue<Future<List<Map<String, String>>>> geocoded;
+		private volatile Exception error;
+		
+		public RowsReader(CsvMapReader reader, String[] header, ExecutorService workers) {
+			super("csv-geocode-reader-" + CSVGeocode.this.getId());
+			this.reader = reader;
+			this.header = header;
+			this.workers = workers;
+			this.geocoded = new ArrayBlockingQueue<>(
+					GazetteerWeb.config().getCSVGeocodeThreads() * 2);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				int chunkSize = GazetteerWeb.config().getBatchSearchChunkSize();
+				
+				List<Map<String, String>> chunk = new ArrayList<>(chunkSize);
+				Map<String, String> row = null;
+				while (!isAborted() && (row = reader.read(header)) != null) {
+					chunk.add(row);
+					
+					if(chunk.size() >= chunkSize) {
+						submit(chunk);
+						chunk = new ArrayList<>(chunkSize);
+					}
+				}
+				
+				if(!chunk.isEmpty()) {
+					submit(chunk);
+				}
+			}
+			catch (InterruptedException e) {
+				// Nobody waits for the rest of the source
+				return;
+			}
+			catch (Exception e) {
+				error = e;
+			}
+			
+			try {
+				geocoded.put(END_OF_SOURCE);
+			}
+			catch (InterruptedException e) {
+				// Nobody waits for the rest of the source
+			}
+		}
+		
+		private void submit(final List<Map<String, String>> chunk) 
+				throws InterruptedException {
+			
+			geocoded.put(workers.submit(new Callable<List<Map<String, String>>>() {
+				@Override
+				public List<Map<String, String>> call() throws Exception {
+					return geocode(chunk);
+				}
+			}));
+		}
 	}
 
-	private boolean gotResult(JSONObject answer) {
-		JSONArray optJSONArray = answer.optJSONArray("features");
-		if(optJSONArray == null) {
-			return false;
+	/**
+	 * Geocode chunk of rows by one batch search.
+	 * <p>
+	 * Called concurrently from geocoding workers.
+	 * Rows with the same search text are geocoded once,
+	 * results for texts geocoded before are taken from cache.
+	 * 
+	 * @return all rows in the original order, rows which were 
+	 * failed to geocode have empty result columns
+	 * */
+	private List<Map<String, String>> geocode(List<Map<String, String>> rows) 
+			throws InterruptedException {
+		
+		// search text -> result, null for failed texts
+		Map<String, String[]> chunkResults = new HashMap<>();
+		
+		List<String> texts = new ArrayList<>();
+		List<BatchSearch.Item> items = new ArrayList<>();
+		for(Map<String, String> row : rows) {
+			String text = StringUtils.stripToNull(row.get(searchField));
+			if(text == null || chunkResults.containsKey(text)) {
+				continue;
+			}
+			
+			String[] cached = results.getIfPresent(text);
+			if(cached != null) {
+				chunkResults.put(text, cached);
+				continue;
+			}
+			
+			chunkResults.put(text, null);
+			try {
+				items.add(searchAPI.prepare(createQuery(text), false));
+				texts.add(text);
+			}
+			catch (Exception e) {
+				log.error("Failed to geocode {}", text, e);
+			}
+		}
+		
+		List<DeferredAnswer<JSONObject>> answers = batchSearch.executeAndWait(items);
+		for(int i = 0; i < texts.size(); i++) {
+			String text = texts.get(i);
+			DeferredAnswer<JSONObject> answer = answers.get(i);
+			
+			if(answer.getFailure() != null) {
+				log.error("Failed to geocode {}", text, answer.getFailure());
+				continue;
+			}
+			
+			String[] result = getResult(answer.getAnswer());
+			results.put(text, result);
+			chunkResults.put(text, result);
 		}
-		if(optJSONArray.length() == 0) {
-			return false;
+		
+		for(Map<String, String> row : rows) {
+			String text = StringUtils.stripToNull(row.get(searchField));
+			fillTheRow(row, text == null ? null : chunkResults.get(text));
 		}
-		return true;
+		
+		return rows;
 	}
 
-	private void fillTheRow(Map<String, String> row, JSONObject answer) {
+	/**
+	 * Strict search over addresses, if it founds nothing,
+	 * search for streets, places and boundaries.
+	 * */
+	private BatchQuery createQuery(String string) {
+		BatchQuery query = new BatchQuery();
+		query.setQ(StringUtils.stripToNull(string));
+		query.setStrict(true);
+		query.setAddressesOnly(true);
+		
+		// only the first hit is used
+		query.setSize(1);
+		if(this.refs != null) {
+			query.setRefs(this.refs);
+		}
+		
+		BatchQuery fallback = new BatchQuery();
+		fallback.setQ(query.getQ());
+		fallback.setTypes(new HashSet<>(
+				Arrays.asList("hghnet", "hghway", "admbnd", "plcpnt")));
+		fallback.setAddressesOnly(true);
+		fallback.setSize(1);
+		fallback.setRefs(query.getRefs());
+		
+		query.setFallback(fallback);
 		
-		String lat = null;
-		String lon = null;
-		String score = null;
-		String lvl = null;
-		String id = null;
+		return query;
+	}
+
+	/**
+	 * @return lat, lon, score, level and id of the first feature, 
+	 * nulls if nothing was found
+	 * */
+	private static String[] getResult(JSONObject answer) {
+		
+		String[] result = new String[RESULT_COLUMNS.length];
 
 		JSONArray features = answer.optJSONArray("features");
 		
@@ -152,42 +383,37 @@ public class CSVGeocode extends BackgroundExecutableTask {
 			JSONObject firstAnswer = features.optJSONObject(0);
 			
 			if(firstAnswer != null) {
-				id = firstAnswer.optString("id");
 				JSONObject cp = firstAnswer.optJSONObject("center_point");
 				if(cp != null) {
-					lat = String.valueOf(cp.optDouble("lat", Double.NaN)); 
-					lon = String.valueOf(cp.optDouble("lon", Double.NaN)); 
+					result[0] = String.valueOf(cp.optDouble("lat", Double.NaN)); 
+					result[1] = String.valueOf(cp.optDouble("lon", Double.NaN)); 
 				}
-				score = String.valueOf(firstAnswer.opt("_hit_score"));
-				lvl = String.valueOf(firstAnswer.optString("weight_base_type"));
+				result[2] = String.valueOf(firstAnswer.opt("_hit_score"));
+				result[3] = String.valueOf(firstAnswer.optString("weight_base_type"));
+				result[4] = firstAnswer.optString("id");
 			}
 		}
 		
-		row.put("result_lat", lat);
-		row.put("result_lon", lon);
-		row.put("result_score", score);
-		row.put("result_lvl", lvl);
-		row.put("result_id", id);
+		return result;
+	}
+
+	/**
+	 * @param result result columns values, or null to leave them empty
+	 * */
+	private static void fillTheRow(Map<String, String> row, String[] result) {
+		for(int i = 0; i < RESULT_COLUMNS.length; i++) {
+			row.put(RESULT_COLUMNS[i], result == null ? null : result[i]);
+		}
 	}
 
 	private String[] writeHeader(String[] header, CsvMapWriter csvMapWriter)
 			throws IOException {
 		
 		List<String> outHeader =  new ArrayList<>(Arrays.asList(header));
-		if(!outHeader.contains("result_lat")) {
-			outHeader.add("result_lat");
-		}
-		if(!outHeader.contains("result_lon")) {
-			outHeader.add("result_lon");
-		}
-		if(!outHeader.contains("result_score")) {
-			outHeader.add("result_score");
-		}
-		if(!outHeader.contains("result_lvl")) {
-			outHeader.add("result_lvl");
-		}
-		if(!outHeader.contains("result_id")) {
-			outHeader.add("result_id");
+		for(String column : RESULT_COLUMNS) {
+			if(!outHeader.contains(column)) {
+				outHeader.add(column);
+			}
 		}
 		
 		String[] array = outHeader.toArray(new String[outHeader.size()]);
@@ -0,0 +1,541 @@
+package me.osm.gazetteer.web.imp;
+
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.executions.AbortedException;
+
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.transport.ReceiveTimeoutTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends bulk requests to ES.
+ * <p>
+ * Batch is flushed when it reaches either documents limit or size limit
+ * in bytes. Up to {@link #maxInFlight} bulks are executed concurrently,
+ * when all of them are busy, {@link #add(ActionRequest, String, long)} waits.
+ * <p>
+ * Documents limit is adjusted after each response: it slowly grows
+ * while ES answers fast, and halves when bulk was slow or some
+ * requests were rejected.
+ * <p>
+ * Requests failed because of rejections or timeouts are resent
+ * with exponential backoff, up to {@link #MAX_ATTEMPTS} times.
+ * Source lines of requests which are still failed are written into
+ * {@link DeadLetterWriter}.
+ * <p>
+ * Version conflicts of externally versioned requests mean that
+ * index already has the same or newer state of the document, such
+ * requests are counted as superseded, not as failed.
+ * <p>
+ * Requests might be marked with increasing source positions 
+ * (line numbers), {@link #getAcknowledged()} returns position 
+ * before which all requests are done.
+ * <p>
+ * Not thread safe, requests should be added from one thread.
+ * */
+public class BulkDispatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(BulkDispatcher.class);
+
+	private static final int MIN_BATCH_SIZE = 100;
+	private static final int MAX_BATCH_SIZE = 10000;
+	private static final int BATCH_SIZE_STEP = 100;
+
+	/**
+	 * Bulks which takes longer are considered as slow
+	 * */
+	private static final long TARGET_LATENCY_MS = 2000;
+
+	private static final int MAX_ATTEMPTS = 6;
+	private static final long RETRY_DELAY_MS = 500;
+
+	private final Client client;
+
+	private final int maxInFlight;
+	private final long maxBytes;
+	private final Semaphore inFlight;
+
+	private volatile int batchSize;
+
+	private BulkRequest current;
+	
+	private long currentFirstPosition = -1;
+	private long lastPosition = -1;
+	
+	private long flushed = 0;
+	
+	/**
+	 * First positions of bulks in flight by bulk number
+	 * */
+	private final TreeMap<Long, Long> pending = new TreeMap<>();
+	private long lastFlushedPosition = -1;
+
+	private DeadLetterWriter deadLetters;
+	
+	/**
+	 * Last added source line, requests made from the same 
+	 * line share one {@link Source}
+	 * */
+	private Source lastSource;
+	private ScheduledExecutorService retryExecutor;
+	private boolean closed = false;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong superseded = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong bulks = new AtomicLong();
+
+	public BulkDispatcher(Client client) {
+		this(client,
+				GazetteerWeb.config().getImportBulkConcurrency(),
+				GazetteerWeb.config().getImportBulkBytes(),
+				GazetteerWeb.config().getImportBulkSize());
+	}
+
+	public BulkDispatcher(Client client, int maxInFlight, long maxBytes, int batchSize) {
+		this.client = client;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.maxBytes = maxBytes;
+		this.batchSize = Math.min(MAX_BATCH_SIZE, Math.max(MIN_BATCH_SIZE, batchSize));
+		this.inFlight = new Semaphore(this.maxInFlight);
+		this.current = new BulkRequest();
+		this.retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "bulk-retry");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Where to write requests which were failed.
+	 * If not set, failed requests are only logged.
+	 * */
+	public BulkDispatcher setDeadLetters(DeadLetterWriter deadLetters) {
+		this.deadLetters = deadLetters;
+		return this;
+	}
+
+	public boolean add(ActionRequest<?> request) throws AbortedException {
+		return add(request, null, -1);
+	}
+
+	/**
+	 * Add request to the current batch, and send batch if it's full.
+	 *
+	 * @param request request to send
+	 * @param source source line, will be written into dead letters if
+	 * request fails
+	 * @param position position of request in source or -1
+	 *
+	 * @return true if batch was sent
+	 * 
+	 * @throws AbortedException if thread was interrupted while waiting
+	 * */
+	public boolean add(ActionRequest<?> request, String source, long position) 
+			throws AbortedException {
+
+		current.add(request, getSource(source));
+		
+		if(position >= 0) {
+			if(currentFirstPosition < 0) {
+				currentFirstPosition = position;
+			}
+			lastPosition = position;
+		}
+
+		if(current.numberOfActions() >= batchSize
+				|| current.estimatedSizeInBytes() >= maxBytes) {
+
+			flush();
+			return true;
+		}
+
+		return false;
+	}
+
+	private Source getSource(String line) {
+		if(line == null) {
+			return null;
+		}
+		if(lastSource == null || lastSource.line != line) {
+			lastSource = new Source(line);
+		}
+		return lastSource;
+	}
+
+	/**
+	 * Send current batch, waits if there are too many bulks in flight.
+	 * 
+	 * @throws AbortedException if thread was interrupted while waiting,
+	 * current batch isn't sent then
+	 * */
+	public void flush() throws AbortedException {
+		if(current.numberOfActions() == 0) {
+			return;
+		}
+
+		try {
+			inFlight.acquire();
+		}
+		catch (InterruptedException e) {
+			throw new AbortedException("Import was interrupted", e, false);
+		}
+		
+		BulkRequest bulk = current;
+		current = new BulkRequest();
+		
+		final long bulkN = flushed++;
+		synchronized (pending) {
+			if(currentFirstPosition >= 0) {
+				pending.put(bulkN, currentFirstPosition);
+				lastFlushedPosition = lastPosition;
+			}
+		}
+		currentFirstPosition = -1;
+		
+		send(bulk, bulkN, 1);
+	}
+	
+	/**
+	 * @return position up to which (inclusive) all requests are 
+	 * indexed or written into dead letters
+	 * */
+	public long getAcknowledged() {
+		synchronized (pending) {
+			if(pending.isEmpty()) {
+				return lastFlushedPosition;
+			}
+			return pending.firstEntry().getValue() - 1;
+		}
+	}
+	
+	/**
+	 * @return amount of bulks which are completely done
+	 * */
+	public long getAcknowledgedBulks() {
+		synchronized (pending) {
+			return flushed - pending.size();
+		}
+	}
+	
+	private void done(long bulkN) {
+		synchronized (pending) {
+			pending.remove(bulkN);
+		}
+		inFlight.release();
+	}
+
+	/**
+	 * Send current batch, wait for all bulks in flight including retries,
+	 * and close dead letters file.
+	 * */
+	public void close() throws AbortedException {
+		flush();
+		shutdown();
+	}
+
+	/**
+	 * Wait for bulks in flight, and close dead letters file.
+	 * Requests in current batch are not sent.
+	 * */
+	public void shutdown() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+
+		inFlight.acquireUninterruptibly(maxInFlight);
+		inFlight.release(maxInFlight);
+
+		retryExecutor.shutdownNow();
+
+		if(deadLetters != null) {
+			deadLetters.close();
+		}
+	}
+
+	/**
+	 * Permit for the bulk is held until bulk is done, including
+	 * all retries.
+	 * */
+	private void send(final BulkRequest bulk, final long bulkN, final int attempt) {
+		final long started = System.currentTimeMillis();
+		client.bulk(bulk, new ActionListener<BulkResponse>() {
+
+			@Override
+			public void onResponse(BulkResponse response) {
+				handleResponse(bulk, bulkN, response,
+						System.currentTimeMillis() - started, attempt);
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				handleFailure(bulk, bulkN, e, attempt);
+			}
+
+		});
+	}
+
+	private void handleResponse(BulkRequest bulk, long bulkN, BulkResponse response,
+			long took, int attempt) {
+
+		try {
+			bulks.incrementAndGet();
+
+			BulkRequest retry = new BulkRequest();
+			int failures = 0;
+			int rejections = 0;
+			int conflicts = 0;
+			if(response.hasFailures()) {
+				for(BulkItemResponse item : response.getItems()) {
+					if(item.isFailed()) {
+						RestStatus status = item.getFailure().getStatus();
+						if(status == RestStatus.TOO_MANY_REQUESTS) {
+							rejections++;
+						}
+
+						int i = item.getItemId();
+						if(status == RestStatus.CONFLICT && isExternalVersion(bulk.requests().get(i))) {
+							conflicts++;
+						}
+						else if(isTransient(status) && attempt < MAX_ATTEMPTS) {
+							retry.add(bulk.requests().get(i), getPayload(bulk, i));
+						}
+						else {
+							failures++;
+							log.warn("Failed to index {}: {}", item.getId(), item.getFailureMessage());
+							writeDeadLetter(bulk, i);
+						}
+					}
+				}
+			}
+
+			sent.addAndGet(bulk.numberOfActions() - failures - conflicts - retry.numberOfActions());
+			failed.addAndGet(failures);
+			superseded.addAndGet(conflicts);
+			rejected.addAndGet(rejections);
+
+			if(rejections > 0 || took > TARGET_LATENCY_MS * 2) {
+				decrease();
+			}
+			else if(took < TARGET_LATENCY_MS) {
+				increase();
+			}
+
+			if(retry.numberOfActions() > 0) {
+				scheduleRetry(retry, bulkN, attempt);
+				return;
+			}
+		}
+		catch (Throwable t) {
+			log.error("Failed to handle bulk response", t);
+		}
+
+		done(bulkN);
+	}
+
+	private void handleFailure(BulkRequest bulk, long bulkN, Throwable e, int attempt) {
+		try {
+			Throwable cause = ExceptionsHelper.unwrapCause(e);
+			boolean rejection = cause instanceof EsRejectedExecutionException;
+
+			if(rejection) {
+				rejected.addAndGet(bulk.numberOfActions());
+				decrease();
+			}
+
+			if((rejection || isTransient(cause)) && attempt < MAX_ATTEMPTS) {
+				log.warn("Bulk of {} requests failed, attempt {}: {}",
+						new Object[]{bulk.numberOfActions(), attempt, cause.getMessage()});
+
+				scheduleRetry(bulk, bulkN, attempt);
+				return;
+			}
+
+			log.error("Bulk of {} requests failed", bulk.numberOfActions(), e);
+
+			failed.addAndGet(bulk.numberOfActions());
+			for(int i = 0; i < bulk.numberOfActions(); i++) {
+				writeDeadLetter(bulk, i);
+			}
+		}
+		catch (Throwable t) {
+			log.error("Failed to handle bulk failure", t);
+		}
+
+		done(bulkN);
+	}
+
+	private void scheduleRetry(final BulkRequest bulk, final long bulkN, final int attempt) {
+		retried.addAndGet(bulk.numberOfActions());
+
+		long delay = RETRY_DELAY_MS << (attempt - 1);
+		retryExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				send(bulk, bulkN, attempt + 1);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private static boolean isTransient(RestStatus status) {
+		return status == RestStatus.TOO_MANY_REQUESTS
+				|| status == RestStatus.SERVICE_UNAVAILABLE
+				|| status == RestStatus.GATEWAY_TIMEOUT
+				|| status == RestStatus.REQUEST_TIMEOUT;
+	}
+
+	private static boolean isTransient(Throwable cause) {
+		return cause instanceof ElasticsearchTimeoutException
+				|| cause instanceof ReceiveTimeoutTransportException
+				|| cause instanceof NoNodeAvailableException
+				|| isTransient(ExceptionsHelper.status(cause));
+	}
+
+	private static boolean isExternalVersion(ActionRequest<?> request) {
+		if(request instanceof IndexRequest) {
+			return ((IndexRequest)request).versionType() != VersionType.INTERNAL;
+		}
+		if(request instanceof DeleteRequest) {
+			return ((DeleteRequest)request).versionType() != VersionType.INTERNAL;
+		}
+		return false;
+	}
+
+	private static Source getPayload(BulkRequest bulk, int i) {
+		List<Object> payloads = bulk.payloads();
+		if(payloads != null && i < payloads.size()) {
+			return (Source) payloads.get(i);
+		}
+		return null;
+	}
+
+	/**
+	 * Source line is written once, even if several requests 
+	 * made from it were failed.
+	 * */
+	private void writeDeadLetter(BulkRequest bulk, int i) {
+		Source source = getPayload(bulk, i);
+
+		if(deadLetters != null && source != null) {
+			if(source.lost.compareAndSet(false, true)) {
+				deadLetters.write(source.line);
+			}
+		}
+		else {
+			ActionRequest<?> request = bulk.requests().get(i);
+			if(request instanceof IndexRequest) {
+				log.error("Document {} is lost", ((IndexRequest)request).id());
+			}
+			else if(request instanceof DeleteRequest) {
+				log.error("Delete of {} is lost", ((DeleteRequest)request).id());
+			}
+		}
+	}
+
+	private synchronized void increase() {
+		batchSize = Math.min(MAX_BATCH_SIZE, batchSize + BATCH_SIZE_STEP);
+	}
+
+	private synchronized void decrease() {
+		batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+		log.info("Bulk size decreased to {}", batchSize);
+	}
+
+	/**
+	 * @return current documents limit for one bulk
+	 * */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return amount of successfully indexed requests
+	 * */
+	public long getSent() {
+		return sent.get();
+	}
+
+	/**
+	 * @return amount of requests failed permanently
+	 * */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return amount of externally versioned requests which were
+	 * older than documents in index
+	 * */
+	public long getSuperseded() {
+		return superseded.get();
+	}
+
+	/**
+	 * @return amount of requests rejected by ES
+	 * */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return amount of resent requests
+	 * */
+	public long getRetried() {
+		return retried.get();
+	}
+
+	/**
+	 * @return amount of completed bulks
+	 * */
+	public long getBulks() {
+		return bulks.get();
+	}
+
+	public DeadLetterWriter getDeadLetters() {
+		return deadLetters;
+	}
+
+	/**
+	 * Payload of requests, source line they were made from
+	 * */
+	private static final class Source {
+		
+		private final String line;
+		private final AtomicBoolean lost = new AtomicBoolean();
+		
+		public Source(String line) {
+			this.line = line;
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package me.osm.gazetteer.web.imp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import me.osm.gazetteer.web.GazetteerWeb;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes source lines which were not indexed into gzipped file,
+ * one line per document.
+ * <p>
+ * Lines are written as they were in the import source, so file could be
+ * imported again via /location/_import with the same source_type.
+ * <p>
+ * File is named after region of the source, inside folder of the
+ * import task, so documents imported again from it get the same region.
+ * <p>
+ * File is created on first write.
+ * */
+public class DeadLetterWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(DeadLetterWriter.class);
+
+	private final File file;
+	private Writer writer;
+	private boolean closed = false;
+
+	private long written = 0;
+
+	/**
+	 * @param taskUUID uuid of import task
+	 * @param region region of imported documents
+	 * */
+	public DeadLetterWriter(String taskUUID, String region) {
+		File folder = new File(GazetteerWeb.config().getDeadLetterFolder(), taskUUID);
+		this.file = new File(folder, region + ".json.gz");
+	}
+
+	public synchronized void write(String line) {
+		if(closed) {
+			log.warn("Dead letter file {} is closed, line is lost: {}", file, line);
+			return;
+		}
+
+		try {
+			if(writer == null) {
+				file.getParentFile().mkdirs();
+				writer = new OutputStreamWriter(
+						new GZIPOutputStream(new FileOutputStream(file)), "UTF8");
+			}
+
+			writer.write(line);
+			writer.write('\n');
+			written++;
+		}
+		catch (IOException e) {
+			log.error("Failed to write dead letter, line is lost: {}", line, e);
+		}
+	}
+
+	public synchronized void close() {
+		closed = true;
+		IOUtils.closeQuietly(writer);
+	}
+
+	/**
+	 * @return path to the file, or null if nothing was written
+	 * */
+	public synchronized String getPath() {
+		return written > 0 ? file.getPath() : null;
+	}
+
+	public synchronized long getWritten() {
+		return written;
+	}
+
+}
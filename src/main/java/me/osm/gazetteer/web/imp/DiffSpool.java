@@ -0,0 +1,447 @@
+package me.osm.gazetteer.web.imp;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import me.osm.gazetteer.web.ESNodeHolder;
+import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.api.meta.health.DiffSpoolState;
+import me.osm.gazetteer.web.api.utils.SearchCache;
+import me.osm.gazetteer.web.executions.AbortedException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports diffs put into diff_spool_folder, one by one in order
+ * of their arrival, by {@link LocationsDiffImporter}.
+ * <p>
+ * Files should be moved into the folder when they are completely
+ * written, hidden files and files which are not .json, .json.gz
+ * or .json.bz2 are ignored. Applied files are moved into applied
+ * subfolder, failed ones into failed subfolder.
+ * <p>
+ * Index is refreshed when there are no more queued files, or when
+ * diff_spool_max_delay_ms passed since the first not refreshed file
+ * was applied, so changes are visible in search after one file
+ * import plus max delay at most.
+ * <p>
+ * Works in its own thread, not in background tasks queue.
+ * If watch fails, it's restarted with growing delay.
+ * <p>
+ * Diffs are applied through alias, so reindex pauses spool
+ * (see {@link #pause()}), otherwise diffs applied to the old 
+ * index are lost when alias is moved. Diffs which arrive 
+ * during reindex are applied to the new index after it.
+ * */
+public class DiffSpool implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(DiffSpool.class);
+
+	private static final long POLL_INTERVAL_MS = 1000;
+	private static final long MAX_BACKOFF_MS = 60 * 1000;
+
+	private static volatile DiffSpool instance;
+	
+	/**
+	 * Diffs are applied holding this lock
+	 * */
+	private static final Object PAUSE_LOCK = new Object();
+	
+	/**
+	 * Amount of running reindexes
+	 * */
+	private static int pauses = 0;
+
+	private final File folder;
+	private final File appliedFolder;
+	private final File failedFolder;
+	private final long maxDelay;
+	private final boolean buildingsGeometry;
+
+	private Thread thread;
+	private volatile boolean stopped = false;
+
+	/**
+	 * Not applied files with their arrival time, in order of arrival
+	 * */
+	private final LinkedHashMap<File, Long> queue = new LinkedHashMap<>();
+
+	private volatile File applying;
+	private volatile LocationsDiffImporter importer;
+
+	private volatile long applied = 0;
+	private volatile long failed = 0;
+	private volatile String lastError;
+	private volatile long lastGenTS = -1;
+	private volatile long lastRefresh = -1;
+
+	/**
+	 * When first file which isn't visible yet was applied
+	 * */
+	private long notRefreshedSince = -1;
+
+	/**
+	 * Start diffs import, if diff_spool_folder is configured
+	 * */
+	public static synchronized void start() {
+		String folder = GazetteerWeb.config().getDiffSpoolFolder();
+		if(StringUtils.isBlank(folder) || instance != null) {
+			return;
+		}
+
+		instance = new DiffSpool(new File(folder),
+				GazetteerWeb.config().getDiffSpoolMaxDelayMs(),
+				GazetteerWeb.config().isDiffSpoolBuildingsGeometry());
+
+		instance.thread = new Thread(instance, "diff-spool");
+		instance.thread.setDaemon(true);
+		instance.thread.start();
+	}
+
+	/**
+	 * Stop diffs import, file which is imported now is aborted
+	 * and will be imported again after restart.
+	 * */
+	public static synchronized void stop() {
+		DiffSpool spool = instance;
+		if(spool != null) {
+			spool.stopped = true;
+
+			LocationsDiffImporter current = spool.importer;
+			if(current != null) {
+				current.abort();
+			}
+
+			spool.thread.interrupt();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Stop to apply diffs until {@link #resume()}. 
+	 * <p>
+	 * Waits for diff which is applied now, so it's safe 
+	 * to read data for a new index after pause.
+	 * */
+	public static void pause() {
+		synchronized (PAUSE_LOCK) {
+			pauses++;
+		}
+		log.info("Diff spool is paused");
+	}
+	
+	/**
+	 * Continue to apply diffs paused by {@link #pause()}
+	 * */
+	public static void resume() {
+		synchronized (PAUSE_LOCK) {
+			pauses = Math.max(0, pauses - 1);
+			if(pauses > 0) {
+				return;
+			}
+		}
+		log.info("Diff spool is resumed");
+	}
+	
+	/**
+	 * @return true if diffs aren't applied because of reindex
+	 * */
+	public static boolean isPaused() {
+		synchronized (PAUSE_LOCK) {
+			return pauses > 0;
+		}
+	}
+
+	/**
+	 * @return running spool or null
+	 * */
+	public static DiffSpool get() {
+		return instance;
+	}
+
+	private DiffSpool(File folder, long maxDelay, boolean buildingsGeometry) {
+		this.folder = folder;
+		this.appliedFolder = new File(folder, "applied");
+		this.failedFolder = new File(folder, "failed");
+		this.maxDelay = Math.max(0, maxDelay);
+		this.buildingsGeometry = buildingsGeometry;
+	}
+
+	@Override
+	public void run() {
+		long backoff = POLL_INTERVAL_MS;
+		
+		while(!stopped) {
+			long started = System.currentTimeMillis();
+			try {
+				watch();
+			}
+			catch (InterruptedException e) {
+				// stopped
+				break;
+			}
+			catch (Exception e) {
+				log.error("Diff spool {} failed, restart in {} ms", folder, backoff, e);
+				lastError = ExceptionUtils.getRootCauseMessage(e);
+			}
+			
+			if(stopped) {
+				break;
+			}
+			
+			// watch worked for a while, failure isn't persistent
+			if(System.currentTimeMillis() - started > MAX_BACKOFF_MS) {
+				backoff = POLL_INTERVAL_MS;
+			}
+			
+			try {
+				Thread.sleep(backoff);
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+		}
+		
+		log.info("Diff spool {} stopped", folder);
+	}
+	
+	/**
+	 * Watch folder and apply diffs until spool is stopped
+	 * */
+	private void watch() throws IOException, InterruptedException {
+		folder.mkdirs();
+		
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			folder.toPath().register(watcher, ENTRY_CREATE);
+			log.info("Watch {} for diffs", folder);
+
+			// files which were put while server was down,
+			// or while watch was restarted
+			scan();
+
+			while(!stopped) {
+				File next = peek();
+				if(next != null && apply(next)) {
+					handleEvents(watcher, watcher.poll());
+
+					if(notRefreshedSince >= 0
+							&& System.currentTimeMillis() - notRefreshedSince >= maxDelay) {
+						refresh();
+					}
+				}
+				else {
+					if(notRefreshedSince >= 0) {
+						refresh();
+					}
+					handleEvents(watcher, watcher.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS));
+				}
+			}
+		}
+	}
+
+	private void handleEvents(WatchService watcher, WatchKey key) {
+		while(key != null) {
+			for(WatchEvent<?> event : key.pollEvents()) {
+				if(event.kind() == OVERFLOW) {
+					scan();
+				}
+				else {
+					Path name = (Path) event.context();
+					enqueue(new File(folder, name.toString()));
+				}
+			}
+			key.reset();
+
+			key = watcher.poll();
+		}
+	}
+
+	private void scan() {
+		File[] files = folder.listFiles();
+		if(files == null) {
+			return;
+		}
+
+		// arrival order of files is unknown, use modification time
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				int c = Long.compare(f1.lastModified(), f2.lastModified());
+				return c != 0 ? c : f1.getName().compareTo(f2.getName());
+			}
+		});
+
+		for(File f : files) {
+			enqueue(f);
+		}
+	}
+
+	private void enqueue(File f) {
+		if(f.getName().startsWith(".") || !MultiRegionImporter.isDump(f.getName()) || !f.isFile()) {
+			return;
+		}
+
+		synchronized (queue) {
+			if(!queue.containsKey(f)) {
+				queue.put(f, f.lastModified());
+			}
+		}
+	}
+
+	private File peek() {
+		synchronized (queue) {
+			return queue.isEmpty() ? null : queue.keySet().iterator().next();
+		}
+	}
+
+	/**
+	 * @return false if spool is paused and file wasn't applied
+	 * */
+	private boolean apply(File f) {
+		synchronized (PAUSE_LOCK) {
+			if(pauses > 0) {
+				return false;
+			}
+			
+			applyFile(f);
+			return true;
+		}
+	}
+
+	private void applyFile(File f) {
+		applying = f;
+		LocationsDiffImporter current = new LocationsDiffImporter(f.getPath(), buildingsGeometry);
+		current.setNoRefresh();
+		importer = current;
+
+		try {
+			if(stopped) {
+				return;
+			}
+
+			log.info("Apply diff {}", f);
+			current.executeTask();
+
+			lastGenTS = Math.max(lastGenTS, current.getLastTimestamp());
+			applied++;
+			moveTo(f, appliedFolder);
+		}
+		catch (AbortedException e) {
+			if(stopped) {
+				// will be applied again after restart
+				return;
+			}
+			fail(f, e);
+		}
+		catch (Exception e) {
+			fail(f, e);
+		}
+		finally {
+			synchronized (queue) {
+				queue.remove(f);
+			}
+			importer = null;
+			applying = null;
+
+			if(notRefreshedSince < 0) {
+				notRefreshedSince = System.currentTimeMillis();
+			}
+		}
+	}
+
+	private void fail(File f, Exception e) {
+		failed++;
+		lastError = f.getName() + ": " + ExceptionUtils.getRootCauseMessage(e);
+		log.error("Failed to apply diff {}", f, e);
+		moveTo(f, failedFolder);
+	}
+
+	private void moveTo(File f, File dir) {
+		try {
+			dir.mkdirs();
+			Files.move(f.toPath(), new File(dir, f.getName()).toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			log.error("Can't move {} to {}", f, dir, e);
+		}
+	}
+
+	private void refresh() {
+		try {
+			ESNodeHolder.getClient().admin().indices().prepareRefresh(IndexHolder.ALIAS).get();
+			lastRefresh = System.currentTimeMillis();
+			notRefreshedSince = -1;
+			
+			SearchCache.get().invalidate();
+		}
+		catch (Exception e) {
+			log.warn("Failed to refresh {}", IndexHolder.ALIAS, e);
+		}
+	}
+
+	/**
+	 * @return current state and lag, for health api
+	 * */
+	public DiffSpoolState getState() {
+		DiffSpoolState state = new DiffSpoolState();
+
+		state.setFolder(folder.getPath());
+		state.setMaxDelayMs(maxDelay);
+
+		List<Map.Entry<File, Long>> queued;
+		synchronized (queue) {
+			queued = new ArrayList<>(queue.entrySet());
+		}
+
+		state.setQueued(queued.size());
+		if(!queued.isEmpty()) {
+			Map.Entry<File, Long> oldest = queued.get(0);
+			state.setOldestQueued(oldest.getKey().getName());
+			state.setOldestQueuedTS(new Date(oldest.getValue()));
+			state.setLagMs(Math.max(0, System.currentTimeMillis() - oldest.getValue()));
+		}
+
+		File current = applying;
+		if(current != null) {
+			state.setApplying(current.getName());
+		}
+
+		state.setPaused(isPaused());
+		state.setApplied(applied);
+		state.setFailed(failed);
+		state.setLastError(lastError);
+
+		if(lastGenTS > 0) {
+			state.setLastAppliedGenTS(new Date(lastGenTS));
+		}
+		if(lastRefresh > 0) {
+			state.setLastRefreshTS(new Date(lastRefresh));
+		}
+
+		return state;
+	}
+
+}
@@ -0,0 +1,195 @@
+package me.osm.gazetteer.web.imp;
+
+import java.io.File;
+import java.io.IOException;
+
+import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.api.utils.ImportSrcType;
+
+import org.apache.commons.io.FileUtils;
+import org.elasticsearch.common.joda.time.LocalDateTime;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Progress of locations import.
+ * <p>
+ * Stored as json file named by task uuid in import_checkpoints_folder.
+ * Line is the last source line, up to which (inclusive) all documents
+ * are acknowledged by ES, so import might be continued from the next one.
+ * File is deleted when import is done.
+ * */
+public class ImportCheckpoint {
+
+	private static final Logger log = LoggerFactory.getLogger(ImportCheckpoint.class);
+
+	private String taskUUID;
+	private String source;
+	private ImportSrcType sourceType;
+	private boolean buildingsGeometry;
+	
+	private String index = IndexHolder.ALIAS;
+	private boolean reindex;
+	private boolean optimize;
+
+	private long line;
+	private long bulks;
+	private boolean done;
+
+	public ImportCheckpoint(String taskUUID, String source,
+			ImportSrcType sourceType, boolean buildingsGeometry) {
+
+		this.taskUUID = taskUUID;
+		this.source = source;
+		this.sourceType = sourceType;
+		this.buildingsGeometry = buildingsGeometry;
+	}
+
+	/**
+	 * Read checkpoint of the task
+	 *
+	 * @param taskUUID uuid of import task
+	 *
+	 * @return checkpoint or null if there is no checkpoint for the task
+	 * */
+	public static ImportCheckpoint load(String taskUUID) {
+		File file = getFile(taskUUID);
+		if(!file.exists()) {
+			return null;
+		}
+
+		try {
+			JSONObject json = new JSONObject(FileUtils.readFileToString(file, "UTF8"));
+
+			ImportCheckpoint checkpoint = new ImportCheckpoint(
+					json.getString("task_uuid"),
+					json.getString("source"),
+					ImportSrcType.valueOf(json.getString("source_type")),
+					json.optBoolean("buildings_geometry", true));
+
+			checkpoint.index = json.optString("index", IndexHolder.ALIAS);
+			checkpoint.reindex = json.optBoolean("reindex");
+			checkpoint.optimize = json.optBoolean("optimize");
+			checkpoint.line = json.getLong("line");
+			checkpoint.bulks = json.optLong("bulks");
+			checkpoint.done = json.optBoolean("done");
+
+			return checkpoint;
+		}
+		catch (Exception e) {
+			log.error("Failed to read checkpoint {}", file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write checkpoint.
+	 * File is replaced atomically, so it's never seen half-written.
+	 * */
+	public void save() {
+		File file = getFile(taskUUID);
+		File tmp = new File(file.getPath() + ".tmp");
+
+		JSONObject json = new JSONObject();
+		json.put("task_uuid", taskUUID);
+		json.put("source", source);
+		json.put("source_type", sourceType.name());
+		json.put("buildings_geometry", buildingsGeometry);
+		json.put("index", index);
+		json.put("reindex", reindex);
+		json.put("optimize", optimize);
+		json.put("line", line);
+		json.put("bulks", bulks);
+		json.put("done", done);
+		json.put("ts", new LocalDateTime().toDateTime().toString());
+
+		try {
+			file.getParentFile().mkdirs();
+			FileUtils.writeStringToFile(tmp, json.toString(), "UTF8");
+			if(!tmp.renameTo(file)) {
+				file.delete();
+				if(!tmp.renameTo(file)) {
+					log.warn("Failed to write checkpoint {}", file);
+				}
+			}
+		}
+		catch (IOException e) {
+			log.warn("Failed to write checkpoint {}", file, e);
+		}
+	}
+
+	/**
+	 * Delete checkpoint file, when there is nothing to resume
+	 * */
+	public void delete() {
+		File file = getFile(taskUUID);
+		if(file.exists() && !file.delete()) {
+			log.warn("Failed to delete checkpoint {}", file);
+		}
+	}
+
+	private static File getFile(String taskUUID) {
+		File folder = new File(GazetteerWeb.config().getImportCheckpointsFolder());
+		return new File(folder, taskUUID + ".json");
+	}
+
+	public String getTaskUUID() {
+		return taskUUID;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public ImportSrcType getSourceType() {
+		return sourceType;
+	}
+
+	public boolean isBuildingsGeometry() {
+		return buildingsGeometry;
+	}
+
+	public void setIndex(String index, boolean reindex, boolean optimize) {
+		this.index = index;
+		this.reindex = reindex;
+		this.optimize = optimize;
+	}
+
+	public String getIndex() {
+		return index;
+	}
+
+	public boolean isReindex() {
+		return reindex;
+	}
+
+	public boolean isOptimize() {
+		return optimize;
+	}
+
+	public long getLine() {
+		return line;
+	}
+
+	public void setLine(long line) {
+		this.line = line;
+	}
+
+	public long getBulks() {
+		return bulks;
+	}
+
+	public void setBulks(long bulks) {
+		this.bulks = bulks;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	public void setDone(boolean done) {
+		this.done = done;
+	}
+
+}
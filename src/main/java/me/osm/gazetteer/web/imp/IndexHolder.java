@@ -2,11 +2,15 @@ package me.osm.gazetteer.web.imp;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import me.osm.gazetteer.web.ESNodeHolder;
+import me.osm.gazetteer.web.api.ImportOSMDoc;
+import me.osm.gazetteer.web.api.search.PoiClassMatcher;
+import me.osm.gazetteer.web.api.utils.SearchCache;
 import me.osm.gazetteer.web.utils.FileUtils;
 import me.osm.gazetteer.web.utils.FileUtils.LineHandler;
 import me.osm.gazetteer.web.utils.OSMDocSinglton;
@@ -16,9 +20,15 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequest;
 import org.elasticsearch.client.AdminClient;
 import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.joda.time.LocalDateTime;
+import org.elasticsearch.common.joda.time.format.DateTimeFormat;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.LoggerFactory;
@@ -28,17 +38,173 @@ public class IndexHolder {
 	public static final String POI_CLASS = "poi_class";
 	public static final String LOCATION = "location";
 	
+	/**
+	 * Full and simplified geometries of locations by feature_id,
+	 * see {@link me.osm.gazetteer.web.api.utils.GeometryStore}
+	 * */
+	public static final String GEOMETRY = "geometry";
+	
+	/**
+	 * Name of index or alias used for search.
+	 * <p>
+	 * Initially it's an index. After first reindex it's an alias 
+	 * pointing to versioned index (gazetteer_yyyyMMddHHmmss).
+	 * */
+	public static final String ALIAS = "gazetteer";
+	
 	public static void dropIndex() {
 		
 		IndicesAdminClient indices = ESNodeHolder.getClient().admin().indices();
 		
-		if(indices.exists(new IndicesExistsRequest("gazetteer")).actionGet().isExists()) {
-			indices.delete(new DeleteIndexRequest("gazetteer")).actionGet();
+		List<String> aliased = listAliasedIndexes();
+		if(!aliased.isEmpty()) {
+			indices.delete(new DeleteIndexRequest(aliased.toArray(new String[aliased.size()]))).actionGet();
+		}
+		else if(indices.exists(new IndicesExistsRequest(ALIAS)).actionGet().isExists()) {
+			indices.delete(new DeleteIndexRequest(ALIAS)).actionGet();
+		}
+		
+	}
+	
+	/**
+	 * Delete index, if it exists
+	 * */
+	public static void deleteIndex(String index) {
+		IndicesAdminClient indices = ESNodeHolder.getClient().admin().indices();
+		if(indices.exists(new IndicesExistsRequest(index)).actionGet().isExists()) {
+			indices.delete(new DeleteIndexRequest(index)).actionGet();
+		}
+	}
+	
+	/**
+	 * Name for a new versioned index
+	 * */
+	public static String newIndexName() {
+		return ALIAS + "_" + new LocalDateTime().toString(DateTimeFormat.forPattern("yyyyMMddHHmmss"));
+	}
+	
+	/**
+	 * @return indexes pointed by {@link #ALIAS}, empty list if 
+	 * there is no alias
+	 * */
+	public static List<String> listAliasedIndexes() {
+		IndicesAdminClient indices = ESNodeHolder.getClient().admin().indices();
+		
+		ImmutableOpenMap<String, List<AliasMetaData>> aliases = 
+				indices.prepareGetAliases(ALIAS).get().getAliases();
+		
+		List<String> result = new ArrayList<>();
+		for(Iterator<String> i = aliases.keysIt(); i.hasNext();) {
+			result.add(i.next());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Atomically point {@link #ALIAS} to the index.
+	 * <p>
+	 * If there is an old fashioned index with the alias name, 
+	 * it will be deleted first, so search will be unavailable 
+	 * for a moment. 
+	 * 
+	 * @param index new index
+	 * @param dropOld delete indexes which were pointed by alias before
+	 * 
+	 * @return indexes which were pointed by alias before
+	 * */
+	public static List<String> swapAlias(String index, boolean dropOld) {
+		IndicesAdminClient indices = ESNodeHolder.getClient().admin().indices();
+		
+		List<String> old = listAliasedIndexes();
+		
+		if(old.isEmpty() && indices.exists(new IndicesExistsRequest(ALIAS)).actionGet().isExists()) {
+			LoggerFactory.getLogger(IndexHolder.class).warn(
+					"Delete index {} to replace it with alias", ALIAS);
+			
+			indices.delete(new DeleteIndexRequest(ALIAS)).actionGet();
+		}
+		
+		IndicesAliasesRequestBuilder aliasesRequest = indices.prepareAliases();
+		for(String o : old) {
+			aliasesRequest.removeAlias(o, ALIAS);
+		}
+		aliasesRequest.addAlias(index, ALIAS).get();
+		
+		LoggerFactory.getLogger(IndexHolder.class).info(
+				"Alias {} moved from {} to {}", new Object[]{ALIAS, old, index});
+		
+		if(dropOld) {
+			old.remove(index);
+			if(!old.isEmpty()) {
+				indices.delete(new DeleteIndexRequest(old.toArray(new String[old.size()]))).actionGet();
+			}
 		}
 		
+		return old;
+	}
+	
+	/**
+	 * Finish load into a new versioned index and start to serve it:
+	 * restore settings, import osmdoc, move {@link #ALIAS} to the index,
+	 * then reload poi classes and invalidate search cache.
+	 * <p>
+	 * Every import which moves alias should use it, poi classes are not 
+	 * reloaded by {@link ImportOSMDoc} for indexes other than alias.
+	 * Imports should keep {@link DiffSpool} paused since the load 
+	 * is started, changes made through alias are not copied.
+	 * 
+	 * @param index new index
+	 * @param optimize merge segments
+	 * */
+	public static void switchIndex(String index, boolean optimize) {
+		LoggerFactory.getLogger(IndexHolder.class).info("Finish bulk load into {}", index);
+		finishBulkLoad(index, optimize);
+		
+		new ImportOSMDoc().run(null, false, index);
+		ESNodeHolder.getClient().admin().indices().prepareRefresh(index).get();
+		
+		swapAlias(index, true);
+		
+		PoiClassMatcher.get().rebuild();
+		SearchCache.get().invalidate();
+	}
+	
+	/**
+	 * Restore settings changed for bulk load
+	 * 
+	 * @param index index name
+	 * @param optimize merge segments
+	 * */
+	public static void finishBulkLoad(String index, boolean optimize) {
+		IndicesAdminClient indices = ESNodeHolder.getClient().admin().indices();
+		
+		JSONObject settings = readJSON("/gazetteer_schema.json").getJSONObject("settings");
+		
+		indices.prepareUpdateSettings(index).setSettings(ImmutableSettings.settingsBuilder()
+				.put("index.refresh_interval", settings.optString("refresh_interval", "1s"))
+				.put("index.number_of_replicas", settings.optInt("number_of_replicas", 1))
+				.build()).get();
+		
+		indices.prepareRefresh(index).get();
+		
+		if(optimize) {
+			indices.prepareOptimize(index).setMaxNumSegments(1).get();
+		}
 	}
 	
 	public static void createIndex() {
+		createIndex(ALIAS, false);
+	}
+	
+	/**
+	 * Create index with gazetteer settings and mappings
+	 * 
+	 * @param name index name
+	 * @param bulkLoad create index without replicas and refresh, 
+	 * use {@link #finishBulkLoad(String, boolean)} after load
+	 * */
+	public static void createIndex(String name, boolean bulkLoad) {
 
 		AdminClient admin = ESNodeHolder.getClient().admin();
 
@@ -54,14 +220,21 @@ public class IndexHolder {
 			.getJSONObject("properties").getJSONObject("more_tags").put("properties", moreTagsProperties);
 		
 		settings.getJSONObject("mappings").put(POI_CLASS, readJSON("/mappings/poi_class.json"));
+		settings.getJSONObject("mappings").put(GEOMETRY, readJSON("/mappings/geometry.json"));
 
 		JSONObject indexSettings = settings.getJSONObject("settings");
 		addSynonyms(indexSettings);
 		
-		CreateIndexRequestBuilder request = admin.indices().prepareCreate("gazetteer")
+		if(bulkLoad) {
+			indexSettings.put("number_of_replicas", 0);
+			indexSettings.put("refresh_interval", "-1");
+		}
+		
+		CreateIndexRequestBuilder request = admin.indices().prepareCreate(name)
 			.setSettings(indexSettings.toString())
 			.addMapping(LOCATION, settings.getJSONObject("mappings").getJSONObject(LOCATION).toString())
-			.addMapping(POI_CLASS, settings.getJSONObject("mappings").getJSONObject(POI_CLASS).toString());
+			.addMapping(POI_CLASS, settings.getJSONObject("mappings").getJSONObject(POI_CLASS).toString())
+			.addMapping(GEOMETRY, settings.getJSONObject("mappings").getJSONObject(GEOMETRY).toString());
 		
 		LoggerFactory.getLogger(IndexHolder.class).info("Update mappings");
 		
@@ -1,58 +1,262 @@
 package me.osm.gazetteer.web.imp;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.api.utils.ImportSrcType;
+import me.osm.gazetteer.web.executions.AbortedException;
+import me.osm.gazetteer.web.executions.BackgroudTaskDescription;
+import me.osm.gazetteer.web.utils.JSONStreamUtils;
+
 import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.common.joda.time.format.DateTimeFormatter;
+import org.elasticsearch.common.joda.time.format.ISODateTimeFormat;
+import org.elasticsearch.index.VersionType;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Imports diffs, lines are prefixed with action:
+ * "-" remove, "+" add and "N" update.
+ * <p>
+ * Operations are coalesced per object id inside a window of
+ * diff_coalesce_window lines, only the last operation for id
+ * is sent.
+ * <p>
+ * Writes are versioned externally by source timestamp, so
+ * older state never overwrites newer one, and diffs could
+ * be replayed or applied in any order. Hence bulks are sent
+ * concurrently, as for dumps.
+ * */
 public class LocationsDiffImporter extends LocationsDumpImporter {
 
+	private static final Logger log = LoggerFactory.getLogger(LocationsDiffImporter.class);
+
+	private static final DateTimeFormatter TIMESTAMP_PARSER = ISODateTimeFormat.dateTimeParser();
+
+	private final int windowSize;
+
+	/**
+	 * Last not sent operation by object id, in order of
+	 * their source lines.
+	 * */
+	private final LinkedHashMap<String, SourcedOperation> window =
+			new LinkedHashMap<String, SourcedOperation>();
+
+	private volatile long coalesced = 0;
+
+	/**
+	 * Max source timestamp of converted lines
+	 * */
+	private final AtomicLong lastTimestamp = new AtomicLong(-1);
+
+	private static final class SourcedOperation {
+
+		private final ActionRequest<?> request;
+		private final String line;
+		private final long lineN;
+
+		public SourcedOperation(ActionRequest<?> request, String line, long lineN) {
+			this.request = request;
+			this.line = line;
+			this.lineN = lineN;
+		}
+	}
+
 	public LocationsDiffImporter(String source, boolean buildingsGeometry) {
 		super(source, buildingsGeometry);
+		this.windowSize = GazetteerWeb.config().getDiffCoalesceWindow();
 	}
 
 	@Override
-	protected void createRequestAndAdd(String line) {
-		
+	protected ImportSrcType getSourceType() {
+		return ImportSrcType.DIFF;
+	}
+
+	/**
+	 * Diff lines are converted concurrently, but passed to
+	 * {@link #addRequestToBatch(ActionRequest, String, long)} in the same
+	 * order as they are in the source, so later line for the same id wins.
+	 * */
+	@Override
+	protected List<ActionRequest<?>> createRequests(String line) {
+
 		String action = StringUtils.strip(line.substring(0, 1));
 		String json = line.substring(2, line.length() - 1);
 
 		// Remove
 		if("-".equals(action)) {
-			String id = new JSONObject(json).getString("id");
-			deleteRequest(id);
-			counter++;
-		}
-		// Add
-		else if("+".equals(action)) {
-			String processed = processLine(json);
-			
-			if(processed != null) {
-				IndexRequestBuilder ind = indexRequest(processed);
-				bulkRequest.add(ind.request());
-				
-				counter++;
-			}
+			JSONObject obj = new JSONObject(json);
+			long version = getVersion(obj.optString("timestamp", null));
+			updateLastTimestamp(version);
+			return Collections.<ActionRequest<?>>singletonList(
+					deleteRequest(obj.getString("id"), version));
+		}
+		// Add or update
+		else if("+".equals(action) || "N".equalsIgnoreCase(action)) {
+			return versionedIndexRequests(json);
 		}
-		// Update
-		else if("N".equalsIgnoreCase(action)) {
-			String processed = processLine(json);
-			
-			if(processed != null) {
-				IndexRequestBuilder ind = indexRequest(processed);
-				bulkRequest.add(ind.request());
-				
-				counter++;
+
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Operation replaces not sent operation for the same document.
+	 * */
+	@Override
+	protected void addRequestToBatch(ActionRequest<?> request, String line, long lineN)
+			throws AbortedException {
+
+		String id = getId(request);
+		if(id == null) {
+			super.addRequestToBatch(request, line, lineN);
+			return;
+		}
+
+		// remove first, so order of the window is order of last operations
+		if(window.remove(id) != null) {
+			coalesced++;
+		}
+		window.put(id, new SourcedOperation(request, line, lineN));
+
+		if(window.size() >= windowSize) {
+			flushWindow();
+		}
+	}
+
+	@Override
+	protected void flushRequests() throws AbortedException {
+		flushWindow();
+	}
+
+	/**
+	 * Operations are sent in order of their lines, so checkpoint
+	 * never passes a line which is still in the window.
+	 * Lines replaced by later ones are sent with them.
+	 * */
+	private void flushWindow() throws AbortedException {
+		List<SourcedOperation> operations = new ArrayList<SourcedOperation>(window.values());
+		window.clear();
+
+		for(SourcedOperation op : operations) {
+			super.addRequestToBatch(op.request, op.line, op.lineN);
+		}
+	}
+
+	/**
+	 * Document and its geometry are versioned by the same timestamp
+	 * */
+	private List<ActionRequest<?>> versionedIndexRequests(String json) {
+		List<ActionRequest<?>> result = new ArrayList<ActionRequest<?>>(2);
+		try {
+			JSONObject obj = processJSON(JSONStreamUtils.parse(json));
+			if(obj == null) {
+				return result;
+			}
+
+			JSONObject imported = obj.optJSONObject("_imported");
+			long version = getVersion(imported == null ? null : imported.optString("gen_ts", null));
+			updateLastTimestamp(version);
+
+			for(IndexRequestBuilder ind : documentRequests(obj, json.length() + 256)) {
+				if(version > 0) {
+					ind.setVersion(version).setVersionType(VersionType.EXTERNAL_GTE);
+				}
+				result.add(ind.request());
 			}
 		}
+		catch (JSONException e) {
+			log.error("Failed to parse: " + json);
+		}
+		return result;
 	}
 
-	private void deleteRequest(String id) {
-		
-		DeleteRequestBuilder reqB = new DeleteRequestBuilder(client, "gazetteer")
+	/**
+	 * Only the location is deleted, other addresses of the 
+	 * feature may still use its geometry document.
+	 * */
+	private ActionRequest<?> deleteRequest(String id, long version) {
+
+		DeleteRequestBuilder reqB = new DeleteRequestBuilder(client, getIndex())
 			.setType(IndexHolder.LOCATION).setId(id);
-		
-		bulkRequest.add(reqB.request());
+
+		if(version > 0) {
+			reqB.setVersion(version).setVersionType(VersionType.EXTERNAL_GTE);
+		}
+
+		return reqB.request();
+	}
+
+	private void updateLastTimestamp(long version) {
+		long last = lastTimestamp.get();
+		while(version > last && !lastTimestamp.compareAndSet(last, version)) {
+			last = lastTimestamp.get();
+		}
+	}
+
+	/**
+	 * @return max source timestamp of diff lines, in millis,
+	 * or -1 if lines have no timestamps
+	 * */
+	public long getLastTimestamp() {
+		return lastTimestamp.get();
 	}
-	
+
+	/**
+	 * @param timestamp source timestamp
+	 *
+	 * @return timestamp millis or -1 if there is no timestamp
+	 * */
+	private static long getVersion(String timestamp) {
+		if(StringUtils.isBlank(timestamp)) {
+			return -1;
+		}
+
+		try {
+			return TIMESTAMP_PARSER.parseMillis(timestamp);
+		}
+		catch (IllegalArgumentException e) {
+			log.warn("Can't parse timestamp {}, operation isn't versioned", timestamp);
+			return -1;
+		}
+	}
+
+	/**
+	 * @return type and id of document or null
+	 * */
+	private static String getId(ActionRequest<?> request) {
+		if(request instanceof IndexRequest) {
+			IndexRequest index = (IndexRequest)request;
+			return index.id() == null ? null : index.type() + "/" + index.id();
+		}
+		if(request instanceof DeleteRequest) {
+			DeleteRequest delete = (DeleteRequest)request;
+			return delete.type() + "/" + delete.id();
+		}
+		return null;
+	}
+
+	@Override
+	public BackgroudTaskDescription description() {
+		BackgroudTaskDescription description = super.description();
+
+		Map<String, Object> parameters = description.getParameters();
+		parameters.put("coalesced", coalesced);
+		parameters.put("coalesceWindow", windowSize);
+
+		return description;
+	}
+
 }
@@ -4,15 +4,14 @@ import static me.osm.gazetteer.web.imp.IndexHolder.LOCATION;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URL;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -23,34 +22,50 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.osm.gazetteer.web.ESNodeHolder;
 import me.osm.gazetteer.web.FeatureTypes;
 import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.api.utils.GeometryStore;
+import me.osm.gazetteer.web.api.utils.ImportSrcType;
+import me.osm.gazetteer.web.api.utils.SearchCache;
 import me.osm.gazetteer.web.executions.AbortedException;
 import me.osm.gazetteer.web.executions.BackgroudTaskDescription;
 import me.osm.gazetteer.web.executions.BackgroundExecutorFacade.BackgroundExecutableTask;
+import me.osm.gazetteer.web.utils.GeometryPyramid;
+import me.osm.gazetteer.web.utils.JSONStreamUtils;
 import me.osm.gazetteer.web.utils.OSMDocProperties;
 import me.osm.gazetteer.web.utils.OSMDocSinglton;
+import me.osm.gazetteer.web.utils.ParallelInputStream;
+import me.osm.gazetteer.web.utils.ReplacersCache;
 import me.osm.gazetteer.web.utils.ReplacersCompiler;
+import me.osm.gazetteer.web.utils.ReplacersPrefilter;
 import me.osm.osmdoc.localization.L10n;
 import me.osm.osmdoc.model.Feature;
 import me.osm.osmdoc.model.Tag.Val;
 import me.osm.osmdoc.read.OSMDocFacade;
 import me.osm.osmdoc.read.tagvalueparsers.LogTagsStatisticCollector;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequestBuilder;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.joda.time.DateTimeUtils;
 import org.elasticsearch.common.joda.time.LocalDateTime;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -67,30 +82,69 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 	
 	private static final LogTagsStatisticCollector POI_STATISTICS = new LogTagsStatisticCollector();
 
+	/**
+	 * Neither facade nor {@link #POI_STATISTICS} are thread safe,
+	 * calls from processing workers are synchronized on facade.
+	 * */
 	private static final OSMDocFacade FACADE = OSMDocSinglton.get().getFacade();
 	
 	protected ObjectsWeightBuilder weighter;
 
 	Logger log = LoggerFactory.getLogger(LocationsDumpImporter.class);
 
-	protected static final int BATCH_SIZE = 1000;
+	/**
+	 * How many source lines are handed to processing worker at once
+	 * */
+	private static final int CHUNK_SIZE = 500;
+	
+	/**
+	 * Marks the end of processed chunks queue
+	 * */
+	private static final Future<List<SourcedRequest>> END_OF_SOURCE = 
+			new FutureTask<List<SourcedRequest>>(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, null);
 
 	protected Client client;
-	protected BulkRequestBuilder bulkRequest;
+	protected BulkDispatcher dispatcher;
 
 	private String filePath;
 	
-	protected long counter = 0;
+	/**
+	 * Amount of source lines passed to ES, one line 
+	 * might give several requests
+	 * */
+	protected volatile long counter = 0;
+	
+	/**
+	 * Line of the last request passed to ES
+	 * */
+	private long lastLineN = -1;
+	
+	/**
+	 * Amount of lines read from source
+	 * */
+	protected volatile long lines = 0;
 	
-	protected long skipedPoi = 0;
-	protected long skipedByType = 0;
+	protected final AtomicLong skipedPoi = new AtomicLong();
+	protected final AtomicLong skipedByType = new AtomicLong();
+	
+	private int threads;
 	
 	private boolean buildingsGeometry;
 
-	private ListenableActionFuture<BulkResponse> curentBulkRequest;
 	
 	private List<Replacer> hnReplacers = new ArrayList<>(); 
 	private List<Replacer> streetsReplacers = new ArrayList<>(); 
+	private ReplacersPrefilter hnPrefilter;
+	private ReplacersPrefilter streetsPrefilter;
+	
+	/**
+	 * Results of hnReplacers and streetsReplacers
+	 * */
+	private final ReplacersCache replacersCache = new ReplacersCache();
 	
 	private static final GeometryFactory factory = new GeometryFactory();
 	
@@ -104,10 +158,126 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 
 	private HashSet<String> skipPoiTypes;
 	
+	/**
+	 * Tolerances of simplified geometries
+	 * */
+	private final double[] geometryTolerances;
+	
+	private static final class ImportTimestamp {
+		private final long millis;
+		private final String text;
+		
+		public ImportTimestamp(long millis, String text) {
+			this.millis = millis;
+			this.text = text;
+		}
+	}
+	
+	/**
+	 * Last formatted imp_ts
+	 * */
+	private volatile ImportTimestamp importTimestamp;
+	
+	/**
+	 * There are only a few hundreds of poi_class combinations,
+	 * so osm-doc lookups are made once per combination.
+	 * */
+	private final ConcurrentHashMap<String, PoiClasses> poiClassesCache = 
+			new ConcurrentHashMap<>();
+	
+	private static final long CHECKPOINT_INTERVAL_MS = 10000;
+	
+	private ImportCheckpoint checkpoint;
+	private long checkpointSaved = 0;
+	
+	/**
+	 * Skip this amount of lines from the beginning of source
+	 * */
+	private long resumeFrom = 0;
+	private long resumeBulks = 0;
+	
+	/**
+	 * Checkpoint of resumed task, it's deleted when 
+	 * this task saves its own one
+	 * */
+	private ImportCheckpoint resumedFrom;
+	
+	/**
+	 * Index to import into
+	 * */
+	private String index = IndexHolder.ALIAS;
+	
+	/**
+	 * Import into a new index, and move alias to it after import
+	 * */
+	private boolean reindex = false;
+	private boolean optimize = false;
+	
+	/**
+	 * Refresh index and invalidate search cache after import
+	 * */
+	private boolean refresh = true;
+	
 	public void setCallback(String callback) {
 		this.callback = callback;
 	};
 	
+	/**
+	 * Continue import from the checkpoint of previous task.
+	 * Resumed reindex continues into the same new index, and 
+	 * finishes it as usual: settings are restored and alias 
+	 * is moved to it.
+	 * */
+	public void setResume(ImportCheckpoint from) {
+		this.resumedFrom = from;
+		this.resumeFrom = from.getLine();
+		this.resumeBulks = from.getBulks();
+		this.index = from.getIndex();
+		this.reindex = from.isReindex();
+		this.optimize = from.isOptimize();
+	}
+	
+	/**
+	 * Import into a new versioned index created with bulk load settings.
+	 * When import is done, settings are restored, osmdoc is imported, 
+	 * and {@link IndexHolder#ALIAS} is moved to the new index.
+	 * 
+	 * @param optimize merge segments before alias swap
+	 * */
+	public void setReindex(boolean optimize) {
+		this.reindex = true;
+		this.optimize = optimize;
+	}
+	
+	protected String getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Import into given index, which is managed by caller
+	 * */
+	void setIndex(String index) {
+		this.index = index;
+	}
+	
+	/**
+	 * Caller refreshes index by itself, for imports of diffs spool
+	 * */
+	void setNoRefresh() {
+		this.refresh = false;
+	}
+	
+	/**
+	 * Override import_threads, for concurrent imports
+	 * */
+	void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+	
+	protected ImportSrcType getSourceType() {
+		return ImportSrcType.DUMP;
+	}
+	
 	@Override
 	public String getCallbackURL() {
 		return callback;
@@ -132,11 +302,16 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 		
 		this.filePath = source;
 		
+		this.threads = GazetteerWeb.config().getImportThreads();
+		
 		weighter = new DefaultWeightBuilder();
-		ReplacersCompiler.compile(hnReplacers, new File("config/replacers/index/hnIndexReplasers"));
-		ReplacersCompiler.compile(streetsReplacers, new File("config/replacers/index/streetsReplacers"));
+		hnPrefilter = ReplacersCompiler.compile(hnReplacers, 
+				new File("config/replacers/index/hnIndexReplasers"));
+		streetsPrefilter = ReplacersCompiler.compile(streetsReplacers, 
+				new File("config/replacers/index/streetsReplacers"));
 		
 		this.skip = new HashSet<>(GazetteerWeb.config().getImportSkipTypes());
+		this.geometryTolerances = GazetteerWeb.config().getImportGeometryTolerances();
 		
 		this.skipPoiTypes = new HashSet<String>();
 		fillSkipPoiTypes();
@@ -154,73 +329,266 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 		this.skipPoiTypes.addAll(osmdocProperties.getIgnoreTypes());
 	}
 
+	/**
+	 * Opens dump, gzip and bzip2 are decompressed in parallel,
+	 * see {@link ParallelInputStream}
+	 * */
 	public static InputStream getFileIS(String osmFilePath) throws IOException,
 			FileNotFoundException {
 		
-		InputStream fileIS = null;
-		
-		if(osmFilePath.startsWith("http")) {
-			fileIS = new URL(osmFilePath).openStream();
-		}
-		else {
-			fileIS = new FileInputStream(osmFilePath);
-		}
-		
-		if (osmFilePath.endsWith("gz")) {
-			return new GZIPInputStream(fileIS);
-		}
-		if (osmFilePath.endsWith("bz2")) {
-			return new BZip2CompressorInputStream(fileIS);
-		}
-		
-		return fileIS;
+		return ParallelInputStream.open(osmFilePath, GazetteerWeb.config().getImportThreads());
 	}
 
+	/**
+	 * Import is done in three stages:
+	 * <ol>
+	 * <li>{@link SourceReader} thread reads lines and splits them into chunks,
+	 * <li>workers pool converts chunks of lines into ES requests (see {@link #createRequests(String)}),
+	 * <li>this thread takes processed chunks in the original order and sends bulk requests.
+	 * </ol>
+	 * Stages are connected via bounded queues, so reader will wait for
+	 * processing, and processing will wait for ES.
+	 * */
 	@Override
 	public void executeTask() throws AbortedException {
 		
 		client = ESNodeHolder.getClient();
-		bulkRequest = client.prepareBulk();
+		dispatcher = createDispatcher(client).setDeadLetters(createDeadLetters());
+		
+		if(reindex && IndexHolder.ALIAS.equals(index)) {
+			index = IndexHolder.newIndexName();
+		}
+		
+		checkpoint = new ImportCheckpoint(getUUID(), filePath, getSourceType(), buildingsGeometry);
+		checkpoint.setIndex(index, reindex, optimize);
+		
+		if(resumedFrom != null) {
+			saveCheckpoint(false);
+			resumedFrom.delete();
+			resumedFrom = null;
+		}
 		
 		IndicesExistsResponse response = new IndicesExistsRequestBuilder(
-				client.admin().indices()).setIndices("gazetteer").execute()
+				client.admin().indices()).setIndices(index).execute()
 				.actionGet();
 
 		if (!response.isExists()) {
-			IndexHolder.createIndex();
+			IndexHolder.createIndex(index, reindex);
 		}
 
+		// diffs applied to the old index would be lost after alias swap
+		if(reindex) {
+			DiffSpool.pause();
+		}
+		
 		InputStream fileIS = null;
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		SourceReader sourceReader = null;
 		try {
 			fileIS = getFileIS(filePath);
 			this.region = getRegionName(filePath);
 			BufferedReader reader = new BufferedReader(new InputStreamReader(fileIS, "UTF8"));
-			String line = reader.readLine();
-			while (line != null) {
-				addRequestToBatch(line);
-				line = reader.readLine();
+			
+			sourceReader = new SourceReader(reader, workers);
+			sourceReader.start();
+			
+			Future<List<SourcedRequest>> chunk = sourceReader.processed.take();
+			while (chunk != END_OF_SOURCE) {
+				for(SourcedRequest request : chunk.get()) {
+					addRequestToBatch(request.request, request.line, request.lineN);
+				}
+				chunk = sourceReader.processed.take();
+			}
+			
+			if(sourceReader.error != null) {
+				throw sourceReader.error;
+			}
+			
+			if(isAborted()) {
+				throw new AbortedException(null, null, true);
 			}
 			
-			if(bulkRequest.numberOfActions() > 0) {
-				executeBulk();
+			flushRequests();
+			dispatcher.close();
+			
+			if(reindex) {
+				IndexHolder.switchIndex(index, optimize);
 			}
 			
+			// there is nothing to resume
+			checkpoint.setDone(true);
+			checkpoint.delete();
+			
 			log.info("Import done. {} rows imported.", counter);
+			
+			if(dispatcher.getFailed() > 0) {
+				log.warn("{} rows failed, see {}", dispatcher.getFailed(), 
+						dispatcher.getDeadLetters().getPath());
+			}
 		}
 		catch (AbortedException aborted) {
 			log.info("Import was interrupted. {} rows imported.", counter);
 			throw aborted;
 		}
+		catch (ExecutionException e) {
+			throw new AbortedException("Import aborted. Root error msg: " + 
+					ExceptionUtils.getRootCauseMessage(e), e.getCause(), false);
+		}
 		catch (Exception e) {
 			throw new AbortedException("Import aborted. Root error msg: " + 
 						ExceptionUtils.getRootCauseMessage(e), e, false);
 		}
 		finally {
+			if(reindex) {
+				DiffSpool.resume();
+			}
+			
+			if(sourceReader != null) {
+				sourceReader.interrupt();
+			}
+			workers.shutdownNow();
 			IOUtils.closeQuietly(fileIS);
+			
+			if(!checkpoint.isDone()) {
+				dispatcher.shutdown();
+				saveCheckpoint(false);
+			}
+			
+			// even aborted import might change something
+			if(refresh && dispatcher.getSent() > 0) {
+				refresh();
+			}
+		}
+	}
+	
+	/**
+	 * Make imported documents visible first, otherwise searches 
+	 * would cache previous answers again
+	 * */
+	private void refresh() {
+		try {
+			client.admin().indices().prepareRefresh(index).get();
+			SearchCache.get().invalidate();
+		}
+		catch (Exception e) {
+			log.warn("Failed to refresh {}", index, e);
 		}
 	}
 	
-	private String getRegionName(String filepath) {
+	/**
+	 * Reads source lines, and submits them to processing workers by chunks.
+	 * Futures of processed chunks are put into the queue in the same order 
+	 * as lines were read. 
+	 * */
+	private class SourceReader extends Thread {
+		
+		private final BufferedReader reader;
+		private final ExecutorService workers;
+		
+		private final BlockingQueue<Future<List<SourcedRequest>>> processed;
+		private volatile Exception error;
+		
+		public SourceReader(BufferedReader reader, ExecutorService workers) {
+			super("import-reader-" + LocationsDumpImporter.this.getId());
+			this.reader = reader;
+			this.workers = workers;
+			this.processed = new ArrayBlockingQueue<>(threads * 2);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				String line = reader.readLine();
+				
+				// Resumed import, skip lines already imported
+				while (line != null && lines < resumeFrom && !isAborted()) {
+					lines++;
+					line = reader.readLine();
+				}
+				
+				if(resumeFrom > 0) {
+					log.info("Skipped {} lines", lines);
+				}
+				
+				List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+				long chunkStart = lines + 1;
+				while (line != null && !isAborted()) {
+					chunk.add(line);
+					lines++;
+					
+					if(chunk.size() == CHUNK_SIZE) {
+						submit(chunk, chunkStart);
+						chunk = new ArrayList<>(CHUNK_SIZE);
+						chunkStart = lines + 1;
+					}
+					
+					line = reader.readLine();
+				}
+				
+				if(!chunk.isEmpty()) {
+					submit(chunk, chunkStart);
+				}
+			}
+			catch (InterruptedException e) {
+				// Nobody waits for the rest of the source
+				return;
+			}
+			catch (Exception e) {
+				error = e;
+			}
+			
+			try {
+				processed.put(END_OF_SOURCE);
+			}
+			catch (InterruptedException e) {
+				// Nobody waits for the rest of the source
+			}
+		}
+
+		private void submit(final List<String> chunk, final long firstLine) 
+				throws InterruptedException {
+			
+			processed.put(workers.submit(new Callable<List<SourcedRequest>>() {
+				@Override
+				public List<SourcedRequest> call() throws Exception {
+					return processChunk(chunk, firstLine);
+				}
+			}));
+		}
+	}
+	
+	private List<SourcedRequest> processChunk(List<String> chunk, long firstLine) {
+		List<SourcedRequest> result = new ArrayList<>(chunk.size());
+		long lineN = firstLine;
+		for(String line : chunk) {
+			for(ActionRequest<?> request : createRequests(line)) {
+				result.add(new SourcedRequest(request, line, lineN));
+			}
+			lineN++;
+		}
+		return result;
+	}
+	
+	/**
+	 * ES request and the source line it was made of
+	 * */
+	private static final class SourcedRequest {
+		
+		private final ActionRequest<?> request;
+		private final String line;
+		private final long lineN;
+		
+		public SourcedRequest(ActionRequest<?> request, String line, long lineN) {
+			this.request = request;
+			this.line = line;
+			this.lineN = lineN;
+		}
+	}
+	
+	/**
+	 * @return name of region, derived from source file name
+	 * */
+	static String getRegionName(String filepath) {
 		String[] parts = StringUtils.split(filepath, "/\\");
 		if(parts.length > 0) {
 			String last = parts[parts.length - 1];
@@ -234,131 +602,268 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 		return null;
 	}
 
-	protected void addRequestToBatch(String line) throws AbortedException {
-		if(line != null) {
-			if(bulkRequest == null) {
-				bulkRequest = client.prepareBulk();
+	protected void addRequestToBatch(ActionRequest<?> request, String line, long lineN) 
+			throws AbortedException {
+		
+		if(lineN < 0 || lineN != lastLineN) {
+			counter++;
+			lastLineN = lineN;
+		}
+		
+		if(dispatcher.add(request, line, lineN)) {
+			
+			if(System.currentTimeMillis() - checkpointSaved > CHECKPOINT_INTERVAL_MS) {
+				saveCheckpoint(false);
 			}
 			
-			createRequestAndAdd(line);
+			if(isAborted()) {
+				throw new AbortedException(null, null, true);
+			}
 			
-			if(counter % BATCH_SIZE == 0) {
-				executeBulk();
-				
-				if(isAborted()) {
-					throw new AbortedException(null, null, true);
+			log.info("{} rows imported, bulk size {}", 
+					NumberFormat.getNumberInstance().format(counter), 
+					dispatcher.getBatchSize());
+		}
+	}
+	
+	/**
+	 * Called when all source lines were passed to
+	 * {@link #addRequestToBatch(ActionRequest, String, long)},
+	 * before the last bulk is sent.
+	 * */
+	protected void flushRequests() throws AbortedException {
+		
+	}
+	
+	/**
+	 * Store lines and bulks acknowledged so far
+	 * */
+	private void saveCheckpoint(boolean done) {
+		checkpoint.setLine(Math.max(resumeFrom, dispatcher.getAcknowledged()));
+		checkpoint.setBulks(resumeBulks + dispatcher.getAcknowledgedBulks());
+		checkpoint.setDone(done);
+		checkpoint.save();
+		
+		checkpointSaved = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Up to import_bulk_concurrency bulks are sent concurrently.
+	 * */
+	protected BulkDispatcher createDispatcher(Client client) {
+		return new BulkDispatcher(client);
+	}
+	
+	/**
+	 * Lines failed to import are written into dead_letter_folder
+	 * and could be imported again with the same source_type.
+	 * */
+	private DeadLetterWriter createDeadLetters() {
+		return new DeadLetterWriter(getUUID(), getRegionName(filePath));
+	}
+
+	/**
+	 * Converts source line into ES requests.
+	 * <p>
+	 * Called concurrently from processing workers. 
+	 * 
+	 * @param line source line
+	 * 
+	 * @return requests, empty if line should be skipped
+	 * */
+	protected List<ActionRequest<?>> createRequests(String line) {
+		List<ActionRequest<?>> result = new ArrayList<>(2);
+		try {
+			JSONObject obj = processJSON(JSONStreamUtils.parse(line));
+			if(obj != null) {
+				for(IndexRequestBuilder ind : documentRequests(obj, line.length() + 256)) {
+					result.add(ind.request());
 				}
-				
-				log.info("{} rows imported", 
-						NumberFormat.getNumberInstance().format(counter));
-				
-				bulkRequest = client.prepareBulk();
 			}
 		}
+		catch (JSONException e) {
+			log.error("Failed to parse: " + line);
+		}
+		return result;
 	}
-
-	protected void createRequestAndAdd(String line) {
-		line = processLine(line);
-		
-		if (line != null) {
-			IndexRequestBuilder ind = indexRequest(line);
-			bulkRequest.add(ind.request());
+	
+	/**
+	 * Location document goes into {@link IndexHolder#LOCATION}, where 
+	 * full_geometry is indexed but isn't stored in _source. Geometry
+	 * with its simplified levels goes into {@link IndexHolder#GEOMETRY} 
+	 * by feature_id.
+	 * 
+	 * @param obj processed document, see {@link #processJSON(JSONObject)}
+	 * @param sizeHint expected size of document in bytes
+	 * 
+	 * @return index requests for document and its geometry
+	 * */
+	protected List<IndexRequestBuilder> documentRequests(JSONObject obj, int sizeHint) {
+		List<IndexRequestBuilder> result = new ArrayList<>(2);
+		
+		JSONObject geometry = null;
+		Object fullGeometry = obj.opt("full_geometry");
+		if(fullGeometry != null) {
+			geometry = new JSONObject();
+			geometry.put("feature_id", GeometryStore.getFeatureId(obj));
+			geometry.put("full_geometry", fullGeometry);
 			
-			counter++;
+			Object simplified = obj.remove(GeometryPyramid.FIELD);
+			if(simplified != null) {
+				geometry.put(GeometryPyramid.FIELD, simplified);
+			}
+		}
+		
+		result.add(indexRequest(JSONStreamUtils.toBytes(obj, sizeHint)).setId(obj.getString("id")));
+		
+		if(geometry != null) {
+			result.add(new IndexRequestBuilder(client)
+				.setSource(JSONStreamUtils.toBytes(geometry, sizeHint))
+				.setIndex(index).setType(IndexHolder.GEOMETRY)
+				.setId(geometry.getString("feature_id")));
 		}
+		
+		return result;
 	}
 
 	protected IndexRequestBuilder indexRequest(String line) {
 		IndexRequestBuilder ind = new IndexRequestBuilder(client)
-			.setSource(line).setIndex("gazetteer").setType(LOCATION);
+			.setSource(line).setIndex(index).setType(LOCATION);
 		return ind;
 	}
 
-	protected void executeBulk() {
-		
-		if(curentBulkRequest != null && !curentBulkRequest.isDone()) {
-			BulkResponse bulkResponse = curentBulkRequest.actionGet();
-			if (bulkResponse.hasFailures()) {
-				log.error(bulkResponse.buildFailureMessage());
+	protected IndexRequestBuilder indexRequest(BytesReference source) {
+		IndexRequestBuilder ind = new IndexRequestBuilder(client)
+			.setSource(source).setIndex(index).setType(LOCATION);
+		return ind;
+	}
+
+	/**
+	 * Converts source line into document source.
+	 * <p>
+	 * Line is tokenized by jackson into JSONObject, and document 
+	 * is written directly into bytes, without intermediate strings.
+	 * Result is the same as bytes of {@link #processLine(String)}.
+	 * 
+	 * @param line source line
+	 * 
+	 * @return document source or null if line should be skipped 
+	 * */
+	public BytesReference processLineSource(String line) {
+		try {
+			JSONObject obj = processJSON(JSONStreamUtils.parse(line));
+			if(obj != null) {
+				return JSONStreamUtils.toBytes(obj, line.length() + 256);
 			}
+			return null;
 		}
-		
-		if(bulkRequest.numberOfActions() > 0) {
-			curentBulkRequest = bulkRequest.execute();
+		catch (JSONException e) {
+			log.error("Failed to parse: " + line);
+			return null;
 		}
 	}
 
-	protected String processLine(String line) {
+	/**
+	 * Converts source line into document source string.
+	 * 
+	 * @param line source line
+	 * 
+	 * @return document source or null if line should be skipped 
+	 * */
+	public String processLine(String line) {
 		try {
-			
-			JSONObject obj = new JSONObject(line);
-
-			if(doSkip(obj)) {
-				return null;
+			JSONObject obj = processJSON(new JSONObject(line));
+			if(obj != null) {
+				return obj.toString();
 			}
+			return null;
+		}
+		catch (JSONException e) {
+			log.error("Failed to parse: " + line);
+			return null;
+		}
+	}
+
+	/**
+	 * Converts source object into document.
+	 * 
+	 * @return document or null if object should be skipped
+	 * */
+	protected JSONObject processJSON(JSONObject obj) {
+
+		if(doSkip(obj)) {
+			return null;
+		}
+		
+		if(!buildingsGeometry) {
+			obj = filterFullGeometry(obj);
+		}
+		
+		obj = mergeHighwayNetsGeometry(obj);
+		
+		fillSimplifiedGeometry(obj);
+		
+		filterAddrPartsNames(obj);
+		
+		try {
+			String searchText = getSearchText(obj);
+			searchText = sanitizeSearchText(searchText);
+			obj.put("search", searchText);
 			
-			if(!buildingsGeometry) {
-				obj = filterFullGeometry(obj);
-			}
+		} catch (EmptyAddressException e) {
+			return null;
+		}
+		
+		if("poipnt".equals(obj.optString("type"))) {
+			PoiClasses poiClasses = getPoiClasses(obj);
+			obj.put("poi_class_trans", new JSONArray(poiClasses.titles));
 			
-			obj = mergeHighwayNetsGeometry(obj);
+			List<Feature> poiClassess = poiClasses.features;
+			Map<String, List<Val>> moreTagsVals = new HashMap<String, List<Val>>();
+			JSONObject moreTags;
+			synchronized (FACADE) {
+				moreTags = FACADE.parseMoreTags(poiClassess, obj.getJSONObject("tags"), 
+						POI_STATISTICS, moreTagsVals);
+			}
 			
-			filterAddrPartsNames(obj);
+			obj.put("more_tags", moreTags);
 			
-			try {
-				String searchText = getSearchText(obj);
-				searchText = sanitizeSearchText(searchText);
-				obj.put("search", searchText);
-				
-			} catch (EmptyAddressException e) {
-				return null;
+			if(moreTagsVals.isEmpty()) {
+				obj.put("poi_keywords", new JSONArray(poiClasses.keywords));
 			}
-			
-			if("poipnt".equals(obj.optString("type"))) {
-				obj.put("poi_class_trans", new JSONArray(getPoiTypesTranslated(obj)));
-				
-				List<Feature> poiClassess = listPoiClassesOSMDoc(obj);
-				Map<String, List<Val>> moreTagsVals = new HashMap<String, List<Val>>();
-				JSONObject moreTags = FACADE.parseMoreTags(poiClassess, obj.getJSONObject("tags"), 
-						POI_STATISTICS, moreTagsVals);
-				
-				obj.put("more_tags", moreTags);
-				
+			else {
 				LinkedHashSet<String> keywords = new LinkedHashSet<String>();
-				FACADE.collectKeywords(poiClassess, moreTagsVals, keywords, null);
+				synchronized (FACADE) {
+					FACADE.collectKeywords(poiClassess, moreTagsVals, keywords, null);
+				}
 				
 				obj.put("poi_keywords", new JSONArray(keywords));
 			}
-			
-			obj.remove("alt_addresses");
-			obj.remove("alt_addresses_trans");
-			obj.remove("hhash");
-			
-			if(obj.has("housenumber")) {
-				obj.put("housenumber_exact", obj.optString("housenumber").toLowerCase());
-				obj.put("housenumber_main", getMainHousenumber(obj.optString("housenumber")));
-				obj.put("housenumber", 
-						new JSONArray(fuzzyHousenumberIndex(obj.optString("housenumber"))));
-			}
-			
-			obj.put("weight", weighter.weight(obj));
-			
-			fillImported(obj);
-
-			return obj.toString();
 		}
-		catch (JSONException e) {
-			log.error("Failed to parse: " + line);
-			return null;
+		
+		obj.remove("alt_addresses");
+		obj.remove("alt_addresses_trans");
+		obj.remove("hhash");
+		
+		if(obj.has("housenumber")) {
+			obj.put("housenumber_exact", obj.optString("housenumber").toLowerCase());
+			obj.put("housenumber_main", getMainHousenumber(obj.optString("housenumber")));
+			obj.put("housenumber", 
+					new JSONArray(fuzzyHousenumberIndex(obj.optString("housenumber"))));
 		}
 		
+		obj.put("weight", weighter.weight(obj));
+		
+		fillImported(obj);
+
+		return obj;
 	}
 
 	private void fillImported(JSONObject obj) {
 		
 		JSONObject imported = new JSONObject();
 		imported.put("region", this.region);
-		imported.put("imp_ts", new LocalDateTime().toDateTime().toString());
+		imported.put("imp_ts", getImportTimestamp());
 		
 		Object genTS = obj.opt("timestamp");
 		if(genTS != null) {
@@ -368,6 +873,22 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 		
 		obj.put("_imported", imported);
 	}
+	
+	/**
+	 * Formatting of date is expensive, and there are
+	 * many documents per millisecond.
+	 * */
+	private String getImportTimestamp() {
+		long now = DateTimeUtils.currentTimeMillis();
+		
+		ImportTimestamp ts = importTimestamp;
+		if(ts == null || ts.millis != now) {
+			ts = new ImportTimestamp(now, new LocalDateTime(now).toDateTime().toString());
+			importTimestamp = ts;
+		}
+		
+		return ts.text;
+	}
 
 	private String getMainHousenumber(String optString) {
 		String lowerCase = optString.toLowerCase().trim();
@@ -412,10 +933,28 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 		return jsonObject;
 	}
 
+	/**
+	 * Store simplified levels of full_geometry, see {@link GeometryPyramid}
+	 * */
+	private void fillSimplifiedGeometry(JSONObject obj) {
+		JSONObject fullGeometry = obj.optJSONObject("full_geometry");
+		if(fullGeometry != null) {
+			try {
+				JSONArray levels = GeometryPyramid.build(fullGeometry, geometryTolerances);
+				if(levels != null) {
+					obj.put(GeometryPyramid.FIELD, levels);
+				}
+			}
+			catch (RuntimeException e) {
+				log.warn("Can't simplify geometry of {}: {}", obj.optString("id"), e.getMessage());
+			}
+		}
+	}
+
 	private boolean doSkip(JSONObject obj) {
 		
 		if(this.skip.contains(obj.getString("type"))) {
-			skipedByType++;
+			skipedByType.incrementAndGet();
 			return true;
 		}
 		
@@ -428,13 +967,13 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 					asStrings.add(clazzA.getString(i));
 				}
 				if(skipPoiTypes.containsAll(asStrings)) {
-					skipedPoi++;
+					skipedPoi.incrementAndGet();
 					return true;
 				}
 			}
 			else if(poiClass instanceof String ) {
 				if(skipPoiTypes.contains(poiClass)) {
-					skipedPoi++;
+					skipedPoi.incrementAndGet();
 					return true;
 				}
 			}
@@ -471,30 +1010,22 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 	}
 
 	private Collection<String> transformHousenumbers(String optString) {
-		return transform(optString, hnReplacers);
+		return transform("hn", optString, hnReplacers, hnPrefilter);
 	}
 
 	private Collection<String> transformStreets(String optString) {
-		Collection<String> s = transform(optString, streetsReplacers);
+		Collection<String> s = transform("streets", optString, streetsReplacers, streetsPrefilter);
 		s.add(optString);
 		return s;
 	}
 	
-	private Collection<String> transform(String optString, Collection<Replacer> replacers) {
+	private Collection<String> transform(String setName, String optString, 
+			List<Replacer> replacers, ReplacersPrefilter prefilter) {
+		
 		Set<String> result = new HashSet<>(); 
-		for(Replacer replacer : replacers) {
-			try {
-				Collection<String> replace = replacer.replace(optString);
-				if(replace != null) {
-					for(String s : replace) {
-						if(StringUtils.isNotBlank(s) && !"null".equals(s)) {
-							result.add(s);
-						}
-					}
-				}
-			}
-			catch (Exception e) {
-				
+		for(String s : replacersCache.replace(setName, replacers, prefilter, optString)) {
+			if(StringUtils.isNotBlank(s) && !"null".equals(s)) {
+				result.add(s);
 			}
 		}
 		
@@ -655,36 +1186,76 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 	}
 
 	private List<String> getPoiTypesTranslated(JSONObject obj) {
+		return getPoiClasses(obj).titles;
+	}
+
+	/**
+	 * @return osm-doc data for poi_class of the object
+	 * */
+	private PoiClasses getPoiClasses(JSONObject obj) {
+		JSONArray poiClasses = obj.getJSONArray("poi_class");
 		
-		List<String> result = new ArrayList<String>(1);
-		
-		List<Feature> classes = listPoiClassesOSMDoc(obj);
+		StringBuilder key = new StringBuilder();
+		for(int i = 0; i < poiClasses.length(); i++) {
+			key.append(poiClasses.getString(i)).append('\u0000');
+		}
 		
-		for(Feature f : classes) {
-			for(String ln : L10n.supported) {
-				String translatedTitle = FACADE.getTranslatedTitle(f, Locale.forLanguageTag(ln));
-				result.add(translatedTitle);
+		PoiClasses result = poiClassesCache.get(key.toString());
+		if(result == null) {
+			result = new PoiClasses(poiClasses);
+			PoiClasses present = poiClassesCache.putIfAbsent(key.toString(), result);
+			if(present != null) {
+				result = present;
 			}
 		}
 		
 		return result;
 	}
-
-	private List<Feature> listPoiClassesOSMDoc(JSONObject obj) {
-		JSONArray poiClasses = obj.getJSONArray("poi_class");
-		
-		List<Feature> classes = new ArrayList<Feature>();
-		for(int i = 0; i < poiClasses.length(); i++) {
-			String classCode = poiClasses.getString(i);
-			Feature poiClass = FACADE.getFeature(classCode);
-			if(poiClass != null) {
-				classes.add(poiClass);
-			}
-			else {
-				log.warn("Couldn't find poi class for code {}", classCode);
+	
+	/**
+	 * Features, translated titles and keywords for a 
+	 * combination of poi classes. 
+	 * */
+	private final class PoiClasses {
+		
+		private final List<Feature> features;
+		private final List<String> titles;
+		
+		/**
+		 * Keywords for poi without more tags values
+		 * */
+		private final List<String> keywords;
+		
+		public PoiClasses(JSONArray poiClasses) {
+			synchronized (FACADE) {
+				List<Feature> features = new ArrayList<Feature>();
+				for(int i = 0; i < poiClasses.length(); i++) {
+					String classCode = poiClasses.getString(i);
+					Feature poiClass = FACADE.getFeature(classCode);
+					if(poiClass != null) {
+						features.add(poiClass);
+					}
+					else {
+						log.warn("Couldn't find poi class for code {}", classCode);
+					}
+				}
+			
+				List<String> titles = new ArrayList<String>(1);
+				for(Feature f : features) {
+					for(String ln : L10n.supported) {
+						String translatedTitle = FACADE.getTranslatedTitle(f, Locale.forLanguageTag(ln));
+						titles.add(translatedTitle);
+					}
+				}
+			
+				LinkedHashSet<String> keywords = new LinkedHashSet<String>();
+				FACADE.collectKeywords(features, new HashMap<String, List<Val>>(), keywords, null);
+			
+				this.features = Collections.unmodifiableList(features);
+				this.titles = Collections.unmodifiableList(titles);
+				this.keywords = Collections.unmodifiableList(new ArrayList<>(keywords));
 			}
 		}
-		return classes;
 	}
 
 	
@@ -716,7 +1287,7 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 		
 		Coordinate[] coordinates = ls.getCoordinates();
 		for(Coordinate c : coordinates) {
-			result.put(new double[]{c.x, c.y});
+			result.put(new JSONArray().put(c.x).put(c.y));
 		}
 		
 		return result;
@@ -750,12 +1321,36 @@ public class LocationsDumpImporter extends BackgroundExecutableTask {
 		description.setParameters(parameters);
 		
 		parameters.put("source", filePath);
+		parameters.put("index", index);
+		parameters.put("reindex", reindex);
+		parameters.put("threads", threads);
 		parameters.put("skip", new HashSet<>(skip));
 		parameters.put("skipPoiTypes", new HashSet<>(skipPoiTypes));
 		
-		// Not synchronized, we don't need 100% correct data here
-		parameters.put("skipPoiTypes", skipedPoi);
-		parameters.put("skipedByType", skipedByType);
+		parameters.put("lines", lines);
+		if(resumeFrom > 0) {
+			parameters.put("resumeFrom", resumeFrom);
+		}
+		if(checkpoint != null) {
+			parameters.put("checkpointLine", checkpoint.getLine());
+		}
+		parameters.put("imported", counter);
+		
+		BulkDispatcher d = dispatcher;
+		if(d != null) {
+			parameters.put("indexed", d.getSent());
+			parameters.put("failed", d.getFailed());
+			parameters.put("superseded", d.getSuperseded());
+			parameters.put("rejected", d.getRejected());
+			parameters.put("retried", d.getRetried());
+			if(d.getDeadLetters() != null) {
+				parameters.put("deadLetters", d.getDeadLetters().getPath());
+			}
+			parameters.put("bulkSize", d.getBatchSize());
+		}
+		parameters.put("skipedPoi", skipedPoi.get());
+		parameters.put("skipedByType", skipedByType.get());
+		parameters.put("replacersCache", replacersCache.statsMap());
 		
 		parameters.put("callback", callback);
 		
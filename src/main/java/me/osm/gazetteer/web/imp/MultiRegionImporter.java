@@ -0,0 +1,434 @@
+package me.osm.gazetteer.web.imp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import me.osm.gazetteer.web.ESNodeHolder;
+import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.executions.AbortedException;
+import me.osm.gazetteer.web.executions.BackgroudTaskDescription;
+import me.osm.gazetteer.web.executions.BackgroundExecutorFacade.BackgroundExecutableTask;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequestBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports all dumps from a directory, or files matched by glob,
+ * as one task.
+ * <p>
+ * Files are imported concurrently by {@link LocationsDumpImporter}s,
+ * each document gets region of its own file. import_threads are
+ * divided between concurrently imported files.
+ * <p>
+ * If some file fails, others are imported anyway, and task
+ * is aborted with list of failed regions at the end.
+ * */
+public class MultiRegionImporter extends BackgroundExecutableTask {
+
+	private static final Logger log = LoggerFactory.getLogger(MultiRegionImporter.class);
+
+	private static final String[] DUMP_EXTENSIONS = new String[]{".json", ".json.gz", ".json.bz2"};
+
+	private final String source;
+	private final boolean buildingsGeometry;
+	private final int parallel;
+
+	/**
+	 * Processing threads per file
+	 * */
+	private final int threads;
+
+	private final List<File> files;
+
+	/**
+	 * Importers by region, in files order
+	 * */
+	private final Map<String, RegionImport> regions =
+			Collections.synchronizedMap(new LinkedHashMap<String, RegionImport>());
+
+	private String index = IndexHolder.ALIAS;
+	private boolean reindex = false;
+	private boolean optimize = false;
+
+	private String callback;
+
+	private static final class RegionImport {
+
+		private final File file;
+
+		/**
+		 * Created when import of region starts, and released
+		 * when it's done, importers have replacers caches.
+		 * */
+		private volatile LocationsDumpImporter importer;
+
+		/**
+		 * Last description of importer
+		 * */
+		private volatile Map<String, Object> parameters;
+
+		/**
+		 * Uuid of region import. For reindex, checkpoints of regions 
+		 * are deleted along with the new index if task fails, so 
+		 * regions of reindex couldn't be resumed.
+		 * */
+		private volatile String uuid;
+
+		private volatile String state = "queued";
+		private volatile String error;
+
+		public RegionImport(File file) {
+			this.file = file;
+		}
+	}
+
+	/**
+	 * @param source directory or glob, like regions/*.json.gz
+	 * @param buildingsGeometry import buildings geometry
+	 * @param parallel files to import concurrently
+	 * */
+	public MultiRegionImporter(String source, boolean buildingsGeometry, int parallel) {
+		this.source = source;
+		this.buildingsGeometry = buildingsGeometry;
+		this.parallel = Math.max(1, parallel);
+
+		this.files = listFiles(source);
+
+		this.threads = Math.max(1, GazetteerWeb.config().getImportThreads() /
+				Math.min(this.parallel, Math.max(1, files.size())));
+
+		for(File f : files) {
+			String region = LocationsDumpImporter.getRegionName(f.getPath());
+			if(regions.containsKey(region)) {
+				region = f.getPath();
+			}
+			regions.put(region, new RegionImport(f));
+		}
+	}
+
+	/**
+	 * @return true if source should be imported by this task
+	 * */
+	public static boolean isMultiSource(String source) {
+		if(source.startsWith("http")) {
+			return false;
+		}
+		return StringUtils.containsAny(source, "*?[{") || new File(source).isDirectory();
+	}
+
+	/**
+	 * @param source directory or glob
+	 *
+	 * @return dump files, sorted by name
+	 * */
+	public static List<File> listFiles(String source) {
+		List<File> result = new ArrayList<>();
+
+		File dir;
+		String glob;
+		if(new File(source).isDirectory()) {
+			dir = new File(source);
+			glob = "*";
+		}
+		else {
+			File f = new File(source);
+			dir = f.getParentFile() == null ? new File(".") : f.getParentFile();
+			glob = f.getName();
+		}
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath(), glob)) {
+			for(Path p : stream) {
+				File f = p.toFile();
+				if(f.isFile() && isDump(f.getName())) {
+					result.add(f);
+				}
+			}
+		}
+		catch (IOException e) {
+			log.warn("Failed to list {}", source, e);
+		}
+
+		Collections.sort(result);
+		return result;
+	}
+
+	static boolean isDump(String name) {
+		for(String ext : DUMP_EXTENSIONS) {
+			if(name.endsWith(ext)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public List<File> getFiles() {
+		return files;
+	}
+
+	/**
+	 * Import into a new index and move alias to it,
+	 * when all files are imported.
+	 * */
+	public void setReindex(boolean optimize) {
+		this.reindex = true;
+		this.optimize = optimize;
+	}
+
+	public void setCallback(String callback) {
+		this.callback = callback;
+	}
+
+	@Override
+	public String getCallbackURL() {
+		return callback;
+	}
+
+	@Override
+	public void abort() {
+		super.abort();
+		for(RegionImport r : regionsList()) {
+			LocationsDumpImporter importer = r.importer;
+			if(importer != null) {
+				importer.abort();
+			}
+		}
+	}
+
+	@Override
+	public void executeTask() throws AbortedException {
+
+		if(files.isEmpty()) {
+			throw new AbortedException("There are no dumps in " + source, null, false);
+		}
+
+		if(reindex) {
+			index = IndexHolder.newIndexName();
+			IndexHolder.createIndex(index, true);
+		}
+		else if (!new IndicesExistsRequestBuilder(ESNodeHolder.getClient().admin().indices())
+				.setIndices(index).execute().actionGet().isExists()) {
+			IndexHolder.createIndex(index, false);
+		}
+
+		// diffs applied to the old index would be lost after alias swap
+		if(reindex) {
+			DiffSpool.pause();
+		}
+
+		try {
+			importRegions();
+		}
+		catch (AbortedException | RuntimeException e) {
+			if(reindex) {
+				discardIndex();
+			}
+			throw e;
+		}
+		finally {
+			if(reindex) {
+				DiffSpool.resume();
+			}
+		}
+
+		log.info("Import of {} regions done", files.size());
+	}
+
+	private void importRegions() throws AbortedException {
+		ExecutorService pool = Executors.newFixedThreadPool(parallel);
+		try {
+			for(final Map.Entry<String, RegionImport> entry : regionsEntries()) {
+				final RegionImport r = entry.getValue();
+				pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						importRegion(entry.getKey(), r);
+					}
+				});
+			}
+
+			pool.shutdown();
+			while(!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+				// wait for all regions
+			}
+		}
+		catch (InterruptedException e) {
+			abort();
+			throw new AbortedException("Import was interrupted", e, false);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+		if(isAborted()) {
+			throw new AbortedException(null, null, true);
+		}
+
+		List<String> failed = new ArrayList<>();
+		for(Map.Entry<String, RegionImport> entry : regionsEntries()) {
+			if(entry.getValue().error != null) {
+				failed.add(entry.getKey() + ": " + entry.getValue().error);
+			}
+		}
+
+		if(!failed.isEmpty()) {
+			throw new AbortedException("Failed to import " + failed.size()
+					+ " of " + files.size() + " regions. "
+					+ StringUtils.join(failed, "; "), null, false);
+		}
+
+		if(reindex) {
+			IndexHolder.switchIndex(index, optimize);
+		}
+	}
+
+	/**
+	 * New index of failed reindex is left with bulk load settings
+	 * and is never pointed by alias, so drop it with checkpoints
+	 * of regions, which were imported into it.
+	 * */
+	private void discardIndex() {
+		log.info("Delete index {} of failed reindex", index);
+		try {
+			IndexHolder.deleteIndex(index);
+		}
+		catch (Exception e) {
+			log.warn("Failed to delete index {}", index, e);
+		}
+
+		for(RegionImport r : regionsList()) {
+			ImportCheckpoint checkpoint = r.uuid == null ? null : ImportCheckpoint.load(r.uuid);
+			if(checkpoint != null) {
+				checkpoint.delete();
+			}
+		}
+	}
+
+	private void importRegion(String region, RegionImport r) {
+		if(isAborted()) {
+			r.state = "aborted";
+			return;
+		}
+
+		LocationsDumpImporter importer = new LocationsDumpImporter(
+				r.file.getPath(), buildingsGeometry);
+		importer.setThreads(threads);
+		importer.setIndex(index);
+		r.importer = importer;
+		r.uuid = importer.getUUID();
+
+		// abort might be called before importer was set
+		if(isAborted()) {
+			importer.abort();
+		}
+
+		r.state = "running";
+		log.info("Import region {}", region);
+
+		try {
+			importer.executeTask();
+			r.state = "done";
+		}
+		catch (AbortedException e) {
+			r.state = e.isByUser() ? "aborted" : "failed";
+			if(!e.isByUser()) {
+				r.error = e.getMessage();
+				log.error("Import of region {} failed", region, e);
+			}
+		}
+		catch (Exception e) {
+			r.state = "failed";
+			r.error = ExceptionUtils.getRootCauseMessage(e);
+			log.error("Import of region {} failed", region, e);
+		}
+		finally {
+			r.parameters = importer.description().getParameters();
+			r.importer = null;
+		}
+	}
+
+	private List<RegionImport> regionsList() {
+		synchronized (regions) {
+			return new ArrayList<>(regions.values());
+		}
+	}
+
+	private List<Map.Entry<String, RegionImport>> regionsEntries() {
+		synchronized (regions) {
+			return new ArrayList<>(regions.entrySet());
+		}
+	}
+
+	@Override
+	public BackgroudTaskDescription description() {
+		BackgroudTaskDescription description = new BackgroudTaskDescription();
+
+		description.setId(this.getId());
+		description.setUuid(this.getUUID());
+		description.setClassName(getClass().getName());
+
+		Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+		description.setParameters(parameters);
+
+		parameters.put("source", source);
+		parameters.put("files", files.size());
+		parameters.put("parallel", parallel);
+		parameters.put("index", index);
+		parameters.put("reindex", reindex);
+		parameters.put("buildingsGeometry", buildingsGeometry);
+
+		long lines = 0;
+		long imported = 0;
+		Map<String, Integer> states = new LinkedHashMap<>();
+		Map<String, Object> regionsDescription = new LinkedHashMap<>();
+		for(Map.Entry<String, RegionImport> entry : regionsEntries()) {
+			RegionImport r = entry.getValue();
+
+			Map<String, Object> region = new LinkedHashMap<>();
+			region.put("state", r.state);
+			region.put("source", r.file.getPath());
+
+			LocationsDumpImporter running = r.importer;
+			Map<String, Object> importer = running != null
+					? running.description().getParameters() : r.parameters;
+			if(importer != null) {
+				region.put("task_uuid", r.uuid);
+				region.put("lines", importer.get("lines"));
+				region.put("imported", importer.get("imported"));
+				region.put("failed", importer.get("failed"));
+
+				lines += ((Number) importer.get("lines")).longValue();
+				imported += ((Number) importer.get("imported")).longValue();
+			}
+			if(r.error != null) {
+				region.put("error", r.error);
+			}
+			regionsDescription.put(entry.getKey(), region);
+
+			Integer c = states.get(r.state);
+			states.put(r.state, c == null ? 1 : c + 1);
+		}
+
+		parameters.put("lines", lines);
+		parameters.put("imported", imported);
+		parameters.put("states", states);
+		parameters.put("regions", regionsDescription);
+		parameters.put("callback", callback);
+
+		return description;
+	}
+
+}
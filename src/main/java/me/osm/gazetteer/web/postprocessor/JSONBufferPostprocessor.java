@@ -0,0 +1,51 @@
+package me.osm.gazetteer.web.postprocessor;
+
+import java.io.IOException;
+
+import me.osm.gazetteer.web.serialization.JSONBufferEncoder;
+import me.osm.gazetteer.web.serialization.SerializationProvider;
+
+import org.json.JSONObject;
+import org.restexpress.Request;
+import org.restexpress.Response;
+import org.restexpress.pipeline.Postprocessor;
+import org.restexpress.serialization.SerializationSettings;
+
+/**
+ * Encodes JSONObject answers, which are going to be serialized
+ * as json, straight into response buffer by {@link JSONBufferEncoder},
+ * instead of serializing them into string.
+ * <p>
+ * Should be the last postprocessor, previous ones could modify the answer.
+ * */
+public class JSONBufferPostprocessor implements Postprocessor {
+
+	@Override
+	public void process(Request request, Response response) {
+		Object body = response.getBody();
+
+		if(!(body instanceof JSONObject) || !response.isSerialized()
+				|| response.hasException() || !response.hasSerializationSettings()) {
+			return;
+		}
+
+		SerializationSettings settings = response.getSerializationSettings();
+		if(settings.getResponseProcessor().getSerializer() != SerializationProvider.json()) {
+			return;
+		}
+
+		try {
+			response.setBody(JSONBufferEncoder.encode((JSONObject) body));
+			response.noSerialization();
+
+			if(!response.hasHeader("Content-Type")) {
+				response.setContentType(settings.getMediaType());
+			}
+		}
+		catch (IOException e) {
+			// leave it for the default serialization
+			response.setBody(body);
+		}
+	}
+
+}
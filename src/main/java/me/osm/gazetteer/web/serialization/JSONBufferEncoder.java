@@ -0,0 +1,100 @@
+package me.osm.gazetteer.web.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes answer straight into response buffer.
+ * <p>
+ * Objects and arrays are written by Jackson generator, values
+ * are formatted by org.json, so output is the same as
+ * {@link JSONObject#toString()}, but without intermediate strings.
+ * {@link RawHitJSON} bytes are copied into buffer as is.
+ * */
+public class JSONBufferEncoder {
+
+	private static final JsonFactory FACTORY = new JsonFactory();
+
+	private static final int INITIAL_SIZE = 4096;
+
+	/**
+	 * @param json answer
+	 *
+	 * @return buffer with encoded answer
+	 * */
+	public static ChannelBuffer encode(JSONObject json) throws IOException {
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(estimateSize(json));
+		ChannelBufferOutputStream out = new ChannelBufferOutputStream(buffer);
+
+		JsonGenerator generator = FACTORY.createGenerator(out);
+		write(json, generator, out);
+		generator.close();
+
+		return buffer;
+	}
+
+	private static void write(Object value, JsonGenerator generator, OutputStream out)
+			throws IOException {
+
+		if(value instanceof JSONObject) {
+			JSONObject object = (JSONObject) value;
+
+			generator.writeStartObject();
+			for(Iterator<?> keys = object.keys(); keys.hasNext();) {
+				String key = keys.next().toString();
+				generator.writeFieldName(key);
+				write(object.opt(key), generator, out);
+			}
+			generator.writeEndObject();
+		}
+		else if(value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+
+			generator.writeStartArray();
+			for(int i = 0; i < array.length(); i++) {
+				write(array.opt(i), generator, out);
+			}
+			generator.writeEndArray();
+		}
+		else if(value instanceof RawHitJSON) {
+			// writes separator only
+			generator.writeRawValue("");
+			generator.flush();
+
+			((RawHitJSON) value).writeTo(out);
+		}
+		else {
+			generator.writeRawValue(JSONObject.valueToString(value));
+		}
+	}
+
+	/**
+	 * Raw hits are the most of answer size
+	 * */
+	private static int estimateSize(JSONObject json) {
+		int size = INITIAL_SIZE;
+		for(Iterator<?> keys = json.keys(); keys.hasNext();) {
+			Object value = json.opt(keys.next().toString());
+			if(value instanceof JSONArray) {
+				JSONArray array = (JSONArray) value;
+				for(int i = 0; i < array.length(); i++) {
+					if(array.opt(i) instanceof RawHitJSON) {
+						size += ((RawHitJSON) array.opt(i)).length();
+					}
+				}
+			}
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,106 @@
+package me.osm.gazetteer.web.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * Search hit source, which is written into the answer as is,
+ * without parsing, see {@link JSONBufferEncoder}.
+ * <p>
+ * Hit score is appended as the last <code>_hit_score</code> field.
+ * */
+public final class RawHitJSON implements JSONString {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final BytesReference source;
+	private final int end;
+	private final boolean empty;
+	private final Float score;
+
+	private RawHitJSON(BytesReference source, int end, boolean empty, Float score) {
+		this.source = source;
+		this.end = end;
+		this.empty = empty;
+		this.score = score;
+	}
+
+	/**
+	 * @param source hit source
+	 * @param score hit score, or null if score shouldn't be added
+	 *
+	 * @return raw hit or null if source isn't a json object
+	 * */
+	public static RawHitJSON create(BytesReference source, Float score) {
+		if(source == null || source.length() < 2
+				|| XContentFactory.xContentType(source) != XContentType.JSON) {
+			return null;
+		}
+
+		int end = skipWhitespaceBack(source, source.length() - 1);
+		if(end < 1 || source.get(end) != '}') {
+			return null;
+		}
+
+		boolean empty = source.get(skipWhitespaceBack(source, end - 1)) == '{';
+
+		return new RawHitJSON(source, end, empty, score);
+	}
+
+	private static int skipWhitespaceBack(BytesReference source, int i) {
+		while(i > 0 && Character.isWhitespace(source.get(i))) {
+			i--;
+		}
+		return i;
+	}
+
+	/**
+	 * Write hit bytes
+	 * */
+	public void writeTo(OutputStream out) throws IOException {
+		if(score == null) {
+			source.slice(0, end + 1).writeTo(out);
+			return;
+		}
+
+		source.slice(0, end).writeTo(out);
+
+		StringBuilder tail = new StringBuilder(32);
+		if(!empty) {
+			tail.append(',');
+		}
+		tail.append("\"_hit_score\":")
+			.append(JSONObject.numberToString(Double.valueOf(score)))
+			.append('}');
+
+		out.write(tail.toString().getBytes(UTF8));
+	}
+
+	/**
+	 * @return approximate length of written hit in bytes
+	 * */
+	public int length() {
+		return end + 32;
+	}
+
+	@Override
+	public String toJSONString() {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length());
+			writeTo(out);
+			return new String(out.toByteArray(), UTF8);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
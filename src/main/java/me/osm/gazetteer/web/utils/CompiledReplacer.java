@@ -0,0 +1,471 @@
+package me.osm.gazetteer.web.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import me.osm.gazetteer.web.imp.Replacer;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Replacer for templates which only substitute matched groups.
+ * <p>
+ * Supported template is a text with ${...} expressions, where
+ * expression is one of:
+ * <ul>
+ * <li>groups[N] or full
+ * <li>SU.lowerCase, upperCase, trim, trimToEmpty, strip, stripToEmpty
+ * or capitalize of expression
+ * <li>SU.replaceChars(expression, "chars", "chars")
+ * <li>expression.trim()
+ * <li>expression ?: "string" (+ "string")
+ * </ul>
+ * Such templates are compiled into a list of segments, and rendered
+ * without groovy. Result is the same as for groovy ReplacerImpl
+ * from config/replacers/ReplacersFactory.groovy, including "null"
+ * for missing groups.
+ * <p>
+ * Templates with code blocks, escapes or other expressions
+ * are not supported, {@link #compile(String, String)} returns null
+ * for them.
+ * */
+public class CompiledReplacer implements Replacer {
+
+	/**
+	 * Part of a template
+	 * */
+	private static interface Segment {
+		public String eval(String[] groups, String full);
+	}
+
+	private static final class Literal implements Segment {
+		private final String text;
+
+		public Literal(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public String eval(String[] groups, String full) {
+			return text;
+		}
+	}
+
+	private static final class GroupRef implements Segment {
+		private final int group;
+
+		public GroupRef(int group) {
+			this.group = group;
+		}
+
+		@Override
+		public String eval(String[] groups, String full) {
+			// Groovy returns null for index out of list bounds
+			return group < groups.length ? groups[group] : null;
+		}
+	}
+
+	private static final class FullRef implements Segment {
+		@Override
+		public String eval(String[] groups, String full) {
+			return full;
+		}
+	}
+
+	private static final class Function implements Segment {
+		private final String name;
+		private final Segment arg;
+
+		public Function(String name, Segment arg) {
+			this.name = name;
+			this.arg = arg;
+		}
+
+		@Override
+		public String eval(String[] groups, String full) {
+			String s = arg.eval(groups, full);
+			switch (name) {
+			case "lowerCase": return StringUtils.lowerCase(s);
+			case "upperCase": return StringUtils.upperCase(s);
+			case "trim": return StringUtils.trim(s);
+			case "trimToEmpty": return StringUtils.trimToEmpty(s);
+			case "strip": return StringUtils.strip(s);
+			case "stripToEmpty": return StringUtils.stripToEmpty(s);
+			case "capitalize": return StringUtils.capitalize(s);
+			}
+			throw new IllegalStateException("Unsupported function " + name);
+		}
+	}
+
+	private static final class ReplaceChars implements Segment {
+		private final Segment arg;
+		private final String search;
+		private final String replace;
+
+		public ReplaceChars(Segment arg, String search, String replace) {
+			this.arg = arg;
+			this.search = search;
+			this.replace = replace;
+		}
+
+		@Override
+		public String eval(String[] groups, String full) {
+			return StringUtils.replaceChars(arg.eval(groups, full), search, replace);
+		}
+	}
+
+	/**
+	 * groovy s.trim(), throws NPE for null like groovy does
+	 * */
+	private static final class MethodTrim implements Segment {
+		private final Segment arg;
+
+		public MethodTrim(Segment arg) {
+			this.arg = arg;
+		}
+
+		@Override
+		public String eval(String[] groups, String full) {
+			String s = arg.eval(groups, full);
+			if(s == null) {
+				throw new NullPointerException("Cannot invoke method trim() on null object");
+			}
+			return s.trim();
+		}
+	}
+
+	/**
+	 * groovy elvis operator, empty string is false for groovy
+	 * */
+	private static final class Elvis implements Segment {
+		private final Segment arg;
+		private final String otherwise;
+
+		public Elvis(Segment arg, String otherwise) {
+			this.arg = arg;
+			this.otherwise = otherwise;
+		}
+
+		@Override
+		public String eval(String[] groups, String full) {
+			String s = arg.eval(groups, full);
+			return StringUtils.isEmpty(s) ? otherwise : s;
+		}
+	}
+
+	private static final Set<String> FUNCTIONS = new LinkedHashSet<>();
+	static {
+		FUNCTIONS.add("lowerCase");
+		FUNCTIONS.add("upperCase");
+		FUNCTIONS.add("trim");
+		FUNCTIONS.add("trimToEmpty");
+		FUNCTIONS.add("strip");
+		FUNCTIONS.add("stripToEmpty");
+		FUNCTIONS.add("capitalize");
+	}
+
+	private final String patternString;
+	private final Pattern pattern;
+	private final Segment[] program;
+
+	private CompiledReplacer(String pattern, Segment[] program) {
+		this.patternString = pattern;
+		this.pattern = Pattern.compile(pattern);
+		this.program = program;
+	}
+
+	/**
+	 * @return compiled replacer, or null if template can't be compiled
+	 * */
+	public static CompiledReplacer compile(String pattern, String template) {
+		List<Segment> program = parseTemplate(template);
+		if(program == null) {
+			return null;
+		}
+
+		return new CompiledReplacer(pattern, program.toArray(new Segment[program.size()]));
+	}
+
+	@Override
+	public Collection<String> replace(String hn) {
+		Set<String> result = new LinkedHashSet<>();
+		for(Collection<String> group : replaceGroups(hn).values()) {
+			// groovy ReplacerImpl uses every {}, which stops
+			// when nothing new was added
+			if(!result.addAll(group)) {
+				break;
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public Map<String, Collection<String>> replaceGroups(String hn) {
+		Map<String, Collection<String>> replaces = new LinkedHashMap<>();
+
+		Matcher matcher = pattern.matcher(hn);
+		StringBuilder text = new StringBuilder();
+		while(matcher.find()) {
+
+			String[] groups = new String[matcher.groupCount() + 1];
+			for(int i = 0; i < groups.length; i++) {
+				groups[i] = matcher.group(i);
+			}
+
+			text.setLength(0);
+			for(Segment s : program) {
+				text.append(s.eval(groups, hn));
+			}
+
+			Set<String> group = new LinkedHashSet<>();
+			for(String str : StringUtils.split(text.toString(), "\n")) {
+				if(StringUtils.isNotBlank(str)) {
+					group.add(StringUtils.trim(str));
+				}
+			}
+
+			if(group.size() > 0) {
+				replaces.put(groups[0], group);
+			}
+		}
+
+		return replaces;
+	}
+
+	public String getPatternString() {
+		return patternString;
+	}
+
+	private static List<Segment> parseTemplate(String template) {
+		List<Segment> result = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+
+		int i = 0;
+		while(i < template.length()) {
+			char c = template.charAt(i);
+
+			// Escapes, code blocks and $variables needs groovy
+			if(c == '\\' || template.startsWith("<%", i)) {
+				return null;
+			}
+
+			if(c == '$') {
+				if(!template.startsWith("${", i)) {
+					return null;
+				}
+
+				int end = findExpressionEnd(template, i + 2);
+				if(end < 0) {
+					return null;
+				}
+
+				Segment expr = new ExpressionParser(template.substring(i + 2, end)).parse();
+				if(expr == null) {
+					return null;
+				}
+
+				if(literal.length() > 0) {
+					result.add(new Literal(literal.toString()));
+					literal.setLength(0);
+				}
+				result.add(expr);
+
+				i = end + 1;
+				continue;
+			}
+
+			literal.append(c);
+			i++;
+		}
+
+		if(literal.length() > 0) {
+			result.add(new Literal(literal.toString()));
+		}
+
+		return result;
+	}
+
+	private static int findExpressionEnd(String template, int from) {
+		boolean quoted = false;
+		for(int i = from; i < template.length(); i++) {
+			char c = template.charAt(i);
+			if(c == '"') {
+				quoted = !quoted;
+			}
+			else if(c == '}' && !quoted) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Recursive descent parser for supported expressions
+	 * */
+	private static final class ExpressionParser {
+
+		private final String s;
+		private int pos = 0;
+
+		public ExpressionParser(String s) {
+			this.s = s;
+		}
+
+		/**
+		 * @return parsed expression or null if it's not supported
+		 * */
+		public Segment parse() {
+			Segment result = expression();
+			skipSpaces();
+			return pos == s.length() ? result : null;
+		}
+
+		private Segment expression() {
+			skipSpaces();
+
+			Segment result = null;
+			if(accept("groups[")) {
+				int start = pos;
+				while(pos < s.length() && Character.isDigit(s.charAt(pos))) {
+					pos++;
+				}
+				int end = pos;
+				if(start == end || !accept("]")) {
+					return null;
+				}
+				result = new GroupRef(Integer.parseInt(s.substring(start, end)));
+			}
+			else if(accept("SU.")) {
+				String name = identifier();
+				skipSpaces();
+				if(!accept("(")) {
+					return null;
+				}
+
+				Segment arg = expression();
+				if(arg == null) {
+					return null;
+				}
+
+				if("replaceChars".equals(name)) {
+					String search = stringArg();
+					String replace = stringArg();
+					if(search == null || replace == null) {
+						return null;
+					}
+					result = new ReplaceChars(arg, search, replace);
+				}
+				else if(FUNCTIONS.contains(name)) {
+					result = new Function(name, arg);
+				}
+				else {
+					return null;
+				}
+
+				skipSpaces();
+				if(!accept(")")) {
+					return null;
+				}
+			}
+			else if(accept("full")) {
+				result = new FullRef();
+			}
+			else {
+				return null;
+			}
+
+			skipSpaces();
+			while(accept(".trim()")) {
+				result = new MethodTrim(result);
+				skipSpaces();
+			}
+
+			if(accept("?:")) {
+				String otherwise = concatenation();
+				if(otherwise == null) {
+					return null;
+				}
+				result = new Elvis(result, otherwise);
+			}
+
+			return result;
+		}
+
+		/**
+		 * "string" + "string" ...
+		 * */
+		private String concatenation() {
+			StringBuilder sb = new StringBuilder();
+			do {
+				String literal = stringLiteral();
+				if(literal == null) {
+					return null;
+				}
+				sb.append(literal);
+				skipSpaces();
+			}
+			while(accept("+"));
+
+			return sb.toString();
+		}
+
+		private String stringArg() {
+			skipSpaces();
+			if(!accept(",")) {
+				return null;
+			}
+			return stringLiteral();
+		}
+
+		private String stringLiteral() {
+			skipSpaces();
+			if(!accept("\"")) {
+				return null;
+			}
+			int end = s.indexOf('"', pos);
+			if(end < 0) {
+				return null;
+			}
+			String result = s.substring(pos, end);
+			pos = end + 1;
+
+			// GString interpolation and escapes
+			if(result.indexOf('$') >= 0 || result.indexOf('\\') >= 0) {
+				return null;
+			}
+
+			return result;
+		}
+
+		private String identifier() {
+			int start = pos;
+			while(pos < s.length() && Character.isJavaIdentifierPart(s.charAt(pos))) {
+				pos++;
+			}
+			return s.substring(start, pos);
+		}
+
+		private boolean accept(String token) {
+			if(s.startsWith(token, pos)) {
+				pos += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void skipSpaces() {
+			while(pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+
+}
@@ -9,9 +9,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 
 public class FileUtils {
 
@@ -76,16 +73,4 @@ public class FileUtils {
 		return result;
 	}
 
-	public static InputStream getFileIS(String osmFilePath) throws IOException,
-			FileNotFoundException {
-		if (osmFilePath.endsWith("gz")) {
-			return new GZIPInputStream(new FileInputStream(osmFilePath));
-		}
-		if (osmFilePath.endsWith("bz2")) {
-			return new BZip2CompressorInputStream(new FileInputStream(
-					osmFilePath));
-		}
-		return new FileInputStream(osmFilePath);
-	}
-
 }
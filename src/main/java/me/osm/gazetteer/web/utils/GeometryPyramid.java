@@ -0,0 +1,118 @@
+package me.osm.gazetteer.web.utils;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Simplified versions of feature full_geometry.
+ * <p>
+ * Levels are built at import with topology preserving simplification,
+ * and stored in not indexed {@link #FIELD} as array of
+ * <code>{"tolerance": t, "geometry": {...}}</code> sorted by tolerance.
+ * <p>
+ * Clients choose level by tolerance, see {@link #select(JSONObject, boolean, double)}
+ * */
+public class GeometryPyramid {
+
+	public static final String FIELD = "simplified_geometry";
+
+	/**
+	 * Request parameter, max acceptable simplification
+	 * tolerance in degrees
+	 * */
+	public static final String TOLERANCE_HEADER = "geometry_tolerance";
+
+	/**
+	 * Smaller geometries are returned as is
+	 * */
+	private static final int MIN_POINTS = 64;
+
+	/**
+	 * Level is stored only if it has at most half of points of
+	 * the previous one
+	 * */
+	private static final int MIN_REDUCTION = 2;
+
+	/**
+	 * Build simplified levels of geometry.
+	 *
+	 * @param geometry full geometry geojson
+	 * @param tolerances simplification tolerances in degrees
+	 *
+	 * @return levels or null if geometry is small
+	 * */
+	public static JSONArray build(JSONObject geometry, double[] tolerances) {
+		if(geometry == null || tolerances.length == 0) {
+			return null;
+		}
+
+		Geometry g = GeometryUtils.parseGeometry(geometry);
+		if(g == null || g.getNumPoints() < MIN_POINTS) {
+			return null;
+		}
+
+		double[] sorted = Arrays.copyOf(tolerances, tolerances.length);
+		Arrays.sort(sorted);
+
+		JSONArray levels = new JSONArray();
+		int points = g.getNumPoints();
+		for(double t : sorted) {
+			Geometry simplified = TopologyPreservingSimplifier.simplify(g, t);
+			if(simplified.isEmpty() || simplified.getNumPoints() * MIN_REDUCTION > points) {
+				continue;
+			}
+
+			JSONObject json = GeometryUtils.writeGeometry(simplified);
+			if(json != null) {
+				JSONObject level = new JSONObject();
+				level.put("tolerance", t);
+				level.put("geometry", json);
+				levels.put(level);
+
+				points = simplified.getNumPoints();
+			}
+		}
+
+		return levels.length() > 0 ? levels : null;
+	}
+
+	/**
+	 * Prepare feature geometry for response.
+	 * <p>
+	 * Removes {@link #FIELD}, and replaces full_geometry with the
+	 * most simplified level which tolerance doesn't exceed requested one.
+	 *
+	 * @param feature feature source
+	 * @param fullGeometry keep full_geometry
+	 * @param tolerance acceptable tolerance, 0 for full resolution
+	 * */
+	public static void select(JSONObject feature, boolean fullGeometry, double tolerance) {
+		Object stored = feature.remove(FIELD);
+		JSONArray levels = stored instanceof JSONArray ? (JSONArray) stored : null;
+
+		if(!fullGeometry) {
+			feature.remove("full_geometry");
+			return;
+		}
+
+		if(tolerance > 0 && levels != null) {
+			JSONObject geometry = null;
+			for(int i = 0; i < levels.length(); i++) {
+				JSONObject level = levels.getJSONObject(i);
+				if(level.getDouble("tolerance") <= tolerance) {
+					geometry = level.getJSONObject("geometry");
+				}
+			}
+
+			if(geometry != null) {
+				feature.put("full_geometry", geometry);
+			}
+		}
+	}
+
+}
@@ -8,7 +8,9 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 
 public class GeometryUtils {
@@ -24,6 +26,8 @@ public class GeometryUtils {
 				return factory.createPoint(new Coordinate(coords.getDouble(0), coords.getDouble(1)));
 			case "linestring":
 				return getLineStringGeometry(coords);
+			case "multilinestring":
+				return getMultiLineStringGeometry(coords);
 			case "polygon":
 				return getPolygonGeometry(coords);
 			case "multipolygon":
@@ -34,6 +38,16 @@ public class GeometryUtils {
 		return null;
 	}
 	
+	public static MultiLineString getMultiLineStringGeometry(JSONArray lines) {
+		
+		LineString lineStrings[] = new LineString[lines.length()];
+		for(int i = 0; i < lines.length(); i++) {
+			lineStrings[i] = getLineStringGeometry(lines.getJSONArray(i));
+		}
+		
+		return factory.createMultiLineString(lineStrings);
+	}
+	
 	public static MultiPolygon getMultiPolygonGeometry(JSONArray polygon) {
 		
 		Polygon polygons[] = new Polygon[polygon.length()];
@@ -81,4 +95,72 @@ public class GeometryUtils {
 		
 		return factory.createLineString(coords);
 	}
+	
+	/**
+	 * Write geometry in the same geojson form as it is 
+	 * read by {@link #parseGeometry(JSONObject)}
+	 * 
+	 * @return geojson or null for unsupported geometry types
+	 * */
+	public static JSONObject writeGeometry(Geometry g) {
+		JSONObject result = new JSONObject();
+		
+		if(g instanceof Point) {
+			result.put("type", "point");
+			result.put("coordinates", coordinate(g.getCoordinate()));
+		}
+		else if(g instanceof LineString) {
+			result.put("type", "linestring");
+			result.put("coordinates", coordinates(g.getCoordinates()));
+		}
+		else if(g instanceof MultiLineString) {
+			result.put("type", "multilinestring");
+			JSONArray lines = new JSONArray();
+			for(int i = 0; i < g.getNumGeometries(); i++) {
+				lines.put(coordinates(g.getGeometryN(i).getCoordinates()));
+			}
+			result.put("coordinates", lines);
+		}
+		else if(g instanceof Polygon) {
+			result.put("type", "polygon");
+			result.put("coordinates", polygonCoordinates((Polygon) g));
+		}
+		else if(g instanceof MultiPolygon) {
+			result.put("type", "multipolygon");
+			JSONArray polygons = new JSONArray();
+			for(int i = 0; i < g.getNumGeometries(); i++) {
+				polygons.put(polygonCoordinates((Polygon) g.getGeometryN(i)));
+			}
+			result.put("coordinates", polygons);
+		}
+		else {
+			return null;
+		}
+		
+		return result;
+	}
+
+	private static JSONArray polygonCoordinates(Polygon p) {
+		JSONArray rings = new JSONArray();
+		rings.put(coordinates(p.getExteriorRing().getCoordinates()));
+		for(int i = 0; i < p.getNumInteriorRing(); i++) {
+			rings.put(coordinates(p.getInteriorRingN(i).getCoordinates()));
+		}
+		return rings;
+	}
+
+	private static JSONArray coordinates(Coordinate[] coords) {
+		JSONArray result = new JSONArray();
+		for(Coordinate c : coords) {
+			result.put(coordinate(c));
+		}
+		return result;
+	}
+
+	private static JSONArray coordinate(Coordinate c) {
+		JSONArray result = new JSONArray();
+		result.put(c.x);
+		result.put(c.y);
+		return result;
+	}
 }
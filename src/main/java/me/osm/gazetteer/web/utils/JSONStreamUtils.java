@@ -0,0 +1,143 @@
+package me.osm.gazetteer.web.utils;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.jackson.core.JsonFactory;
+import org.elasticsearch.common.jackson.core.JsonParser;
+import org.elasticsearch.common.jackson.core.JsonToken;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Fast reading and writing of org.json objects.
+ * <p>
+ * {@link #parse(String)} builds the same JSONObject as 
+ * new JSONObject(String), including numbers conversion and keys
+ * order, but tokenizes text with jackson instead of org.json
+ * tokenizer. Whole object is still built in memory, import 
+ * transforms documents as org.json objects.
+ * <p>
+ * {@link #toBytes(JSONObject, int)} writes utf8 bytes of
+ * JSONObject.toString() without building the string.
+ * */
+public class JSONStreamUtils {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final JsonFactory factory = new JsonFactory();
+	static {
+		// org.json accepts them
+		factory.configure(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS, true);
+	}
+
+	/**
+	 * Parse json object
+	 *
+	 * @param json json object text
+	 *
+	 * @return parsed object
+	 *
+	 * @throws JSONException if text is not a valid json object
+	 * */
+	public static JSONObject parse(String json) throws JSONException {
+		try (JsonParser parser = factory.createParser(json)) {
+			if(parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JSONException("A JSONObject text must begin with '{'");
+			}
+			return readObject(parser);
+		}
+		catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
+	/**
+	 * Write object as utf8 bytes.
+	 *
+	 * @param obj object to write
+	 * @param sizeHint expected size of result in bytes
+	 *
+	 * @return same bytes as obj.toString().getBytes("UTF-8")
+	 * */
+	public static BytesReference toBytes(JSONObject obj, int sizeHint) throws JSONException {
+		BytesStreamOutput out = new BytesStreamOutput(sizeHint);
+		Writer writer = new OutputStreamWriter(out, UTF8);
+		obj.write(writer);
+
+		try {
+			writer.flush();
+		}
+		catch (IOException e) {
+			throw new JSONException(e);
+		}
+
+		return out.bytes();
+	}
+
+	private static JSONObject readObject(JsonParser parser) throws IOException {
+		JSONObject obj = new JSONObject();
+
+		JsonToken token;
+		while((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+			if(token != JsonToken.FIELD_NAME) {
+				throw new JSONException("Expected a key");
+			}
+
+			String key = parser.getCurrentName();
+			Object value = readValue(parser, parser.nextToken());
+
+			// same as JSONObject.putOnce
+			if(obj.opt(key) != null) {
+				throw new JSONException("Duplicate key \"" + key + "\"");
+			}
+			obj.put(key, value);
+		}
+
+		return obj;
+	}
+
+	private static JSONArray readArray(JsonParser parser) throws IOException {
+		JSONArray array = new JSONArray();
+
+		JsonToken token;
+		while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			array.put(readValue(parser, token));
+		}
+
+		return array;
+	}
+
+	private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+		if(token == null) {
+			throw new JSONException("Unexpected end of json");
+		}
+
+		switch (token) {
+		case START_OBJECT:
+			return readObject(parser);
+		case START_ARRAY:
+			return readArray(parser);
+		case VALUE_STRING:
+			return parser.getText();
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			// org.json converts numbers from their text
+			return JSONObject.stringToValue(parser.getText());
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		case VALUE_NULL:
+			return JSONObject.NULL;
+		default:
+			throw new JSONException("Unexpected token " + token);
+		}
+	}
+
+}
@@ -0,0 +1,823 @@
+package me.osm.gazetteer.web.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Input stream for dumps, which decodes source in parallel.
+ * <p>
+ * <ul>
+ * <li>Uncompressed files are memory mapped by segments, which are split
+ * on newline boundaries, next segments are loaded in background.
+ * <li>Gzip files are decompressed member by member in parallel.
+ * Multi-member files are produced by concatenation of region dumps.
+ * Members are found by gzip header signature in background, false signatures
+ * inside compressed data are detected because decompression of truncated
+ * member fails, such member is decompressed again up to the next signature.
+ * Single member files are decompressed as one stream.
+ * <li>Bzip2 files are decompressed stream by stream in parallel,
+ * pbzip2 writes each block as a separate stream.
+ * <li>Remote sources are decompressed in one background thread.
+ * </ul>
+ * Decompressed data is returned in the same order as in the source.
+ * */
+public class ParallelInputStream extends InputStream {
+
+	private static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	/**
+	 * Mapped segment of uncompressed file, in blocks
+	 * */
+	private static final int SEGMENT_BLOCKS = 16;
+
+	/**
+	 * Decoded blocks queued per member
+	 * */
+	private static final int MEMBER_QUEUE = 4;
+
+	private static final Object EOF = new Object();
+
+	private static final AtomicInteger poolsCounter = new AtomicInteger();
+
+	/**
+	 * Ordered source of decompressed blocks
+	 * */
+	private static interface BlockSource {
+
+		/**
+		 * @return next block or null at the end of data
+		 * */
+		public ByteBuffer next() throws IOException;
+
+		public void close();
+	}
+
+	private final BlockSource source;
+	private ByteBuffer current;
+
+	private ParallelInputStream(BlockSource source) {
+		this.source = source;
+	}
+
+	/**
+	 * Open dump file or url. Gzip and bzip2 are detected
+	 * by file extension.
+	 *
+	 * @param path file path or http url
+	 * @param threads decompression threads
+	 * */
+	public static InputStream open(String path, int threads) throws IOException {
+		return open(path, threads, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param path file path or http url
+	 * @param threads decompression threads
+	 * @param blockSize size of decompressed blocks and mapped segments
+	 * */
+	public static InputStream open(String path, int threads, int blockSize) throws IOException {
+		threads = Math.max(threads, 1);
+
+		if(path.startsWith("http")) {
+			InputStream is = new URL(path).openStream();
+			if (path.endsWith("gz")) {
+				is = new GZIPInputStream(is);
+			}
+			else if (path.endsWith("bz2")) {
+				is = new BZip2CompressorInputStream(is);
+			}
+			return new ParallelInputStream(new ReadAheadSource(is, blockSize));
+		}
+
+		File file = new File(path);
+		if (path.endsWith("gz")) {
+			return new ParallelInputStream(new MemberSource(file, Format.GZIP, threads, blockSize));
+		}
+		if (path.endsWith("bz2")) {
+			return new ParallelInputStream(new MemberSource(file, Format.BZIP2, threads, blockSize));
+		}
+
+		return new ParallelInputStream(new MappedSource(file, threads, blockSize * SEGMENT_BLOCKS));
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!fill()) {
+			return -1;
+		}
+		return current.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		if(!fill()) {
+			return -1;
+		}
+
+		int n = Math.min(len, current.remaining());
+		current.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current == null ? 0 : current.remaining();
+	}
+
+	private boolean fill() throws IOException {
+		while(current == null || !current.hasRemaining()) {
+			current = source.next();
+			if(current == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+	private static ExecutorService newPool(int threads) {
+		final String name = "dump-reader-" + poolsCounter.incrementAndGet() + "-";
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private static void putError(BlockingQueue<Object> blocks, Throwable t) {
+		try {
+			blocks.put(t);
+		}
+		catch (InterruptedException e) {
+			// nobody waits for it
+		}
+	}
+
+	/**
+	 * Reads up to buffer size, less only at the end of the stream.
+	 * */
+	private static int readFully(InputStream is, byte[] buffer) throws IOException {
+		int total = 0;
+		while(total < buffer.length) {
+			int n = is.read(buffer, total, buffer.length - total);
+			if(n < 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Memory mapped segments of uncompressed file
+	 * */
+	private static final class MappedSource implements BlockSource {
+
+		/**
+		 * How far segment end might be moved to find a newline
+		 * */
+		private static final int MAX_LINE = 64 * 1024 * 1024;
+
+		private final FileChannel channel;
+		private final long size;
+		private final int segmentSize;
+		private final ExecutorService pool;
+		private final ArrayDeque<Future<MappedByteBuffer>> segments = new ArrayDeque<>();
+		private final int prefetch;
+
+		private long position = 0;
+
+		public MappedSource(File file, int threads, int segmentSize) throws IOException {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			this.size = channel.size();
+			this.segmentSize = segmentSize;
+			this.prefetch = threads;
+			this.pool = newPool(threads);
+		}
+
+		@Override
+		public ByteBuffer next() throws IOException {
+			while(segments.size() < prefetch && position < size) {
+				long end = segmentEnd(position);
+				final MappedByteBuffer segment = channel.map(MapMode.READ_ONLY, position, end - position);
+				position = end;
+
+				segments.add(pool.submit(new Callable<MappedByteBuffer>() {
+					@Override
+					public MappedByteBuffer call() throws Exception {
+						return segment.load();
+					}
+				}));
+			}
+
+			Future<MappedByteBuffer> segment = segments.poll();
+			if(segment == null) {
+				return null;
+			}
+
+			return get(segment);
+		}
+
+		private static ByteBuffer get(Future<MappedByteBuffer> segment) throws IOException {
+			try {
+				return segment.get();
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+
+		/**
+		 * @return position after the first newline after nominal segment end
+		 * */
+		private long segmentEnd(long start) throws IOException {
+			long end = start + segmentSize;
+			if(end >= size) {
+				return size;
+			}
+
+			ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+			long limit = Math.min(size, end + MAX_LINE);
+			while(end < limit) {
+				buf.clear();
+				int n = channel.read(buf, end);
+				if(n <= 0) {
+					break;
+				}
+				for(int i = 0; i < n; i++) {
+					if(buf.get(i) == '\n') {
+						return end + i + 1;
+					}
+				}
+				end += n;
+			}
+
+			return Math.min(end, limit);
+		}
+
+		@Override
+		public void close() {
+			pool.shutdownNow();
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	private static enum Format {
+		GZIP, BZIP2;
+	}
+
+	/**
+	 * Compressed file, which consist of independent members
+	 * (gzip members or bzip2 streams)
+	 * <p>
+	 * Member starts are found by {@link Scanner} thread, which runs a few
+	 * members ahead of decompression. Member decompression starts before
+	 * its end is found, and reads only data already scanned.
+	 * <p>
+	 * If gzip file has no second member signature in the first
+	 * {@link #SCAN_WINDOW} bytes, scanning stops, and the whole file
+	 * is decompressed as one stream.
+	 * */
+	private static final class MemberSource implements BlockSource {
+
+		private static final int SCAN_BUFFER = 1024 * 1024;
+		private static final int SIGNATURE_LENGTH = 10;
+		private static final int SCAN_WINDOW = 8 * SCAN_BUFFER;
+
+		private final File file;
+		private final FileChannel channel;
+		private final long size;
+		private final Format format;
+		private final int blockSize;
+		private final int ahead;
+		private final ExecutorService pool;
+		private final Scanner scanner;
+
+		private final ArrayDeque<Member> members = new ArrayDeque<>();
+
+		/**
+		 * Found members starts, guarded by this
+		 * */
+		private final List<Long> starts = new ArrayList<>();
+
+		/**
+		 * All signatures before this position are found
+		 * */
+		private long scanned = 0;
+		private boolean scanDone = false;
+		private IOException scanError;
+
+		/**
+		 * Index of the next member start which isn't scheduled yet
+		 * */
+		private int nextMember = 0;
+
+		public MemberSource(File file, Format format, int threads, int blockSize) throws IOException {
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			this.size = channel.size();
+			this.format = format;
+			this.blockSize = blockSize;
+			this.ahead = threads;
+			this.pool = newPool(threads);
+
+			if(size > 0) {
+				starts.add(0L);
+			}
+
+			this.scanner = new Scanner();
+			this.scanner.start();
+		}
+
+		@Override
+		public ByteBuffer next() throws IOException {
+			while(true) {
+				schedule();
+
+				Member member = members.peek();
+				if(member == null) {
+					if(!awaitStart(nextMember)) {
+						return null;
+					}
+					continue;
+				}
+
+				Object o;
+				try {
+					o = member.blocks.take();
+				}
+				catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+
+				if(o instanceof ByteBuffer) {
+					member.consumed += ((ByteBuffer) o).remaining();
+					return (ByteBuffer) o;
+				}
+
+				members.poll();
+
+				if(o == EOF) {
+					continue;
+				}
+
+				// Member end might be a false signature
+				// in compressed data, try to decompress
+				// this one up to the start of the one after.
+				if(format == Format.GZIP && isStartFound(member.endIndex)) {
+					Member next = members.peek();
+					if(next != null && next.startIndex == member.endIndex) {
+						members.poll().cancel();
+					}
+					members.addFirst(start(member.startIndex, member.endIndex + 1, member.consumed));
+					continue;
+				}
+
+				throw new IOException("Failed to decompress member at " + member.start, (Throwable) o);
+			}
+		}
+
+		/**
+		 * Start decompression of next members
+		 * */
+		private synchronized void schedule() {
+			while(members.size() < ahead && nextMember < starts.size()) {
+				members.add(start(nextMember, nextMember + 1, 0));
+			}
+
+			// scanner might wait for scheduling
+			notifyAll();
+		}
+
+		private synchronized Member start(int startIndex, int endIndex, long skip) {
+			Member member = new Member(startIndex, starts.get(startIndex), endIndex, skip);
+			nextMember = Math.max(nextMember, endIndex);
+			member.task = pool.submit(member);
+			return member;
+		}
+
+		private synchronized boolean isStartFound(int index) {
+			return index < starts.size();
+		}
+
+		/**
+		 * Wait until member start is found, or the scan is done
+		 *
+		 * @return is there member with such index
+		 * */
+		private synchronized boolean awaitStart(int index) throws IOException {
+			try {
+				while(index >= starts.size() && !scanDone) {
+					wait();
+				}
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+
+			if(index < starts.size()) {
+				return true;
+			}
+			if(scanError != null) {
+				throw new IOException("Failed to scan for members", scanError);
+			}
+			return false;
+		}
+
+		/**
+		 * Wait until the end of member is found,
+		 * or the data after position is scanned.
+		 *
+		 * @return position up to which member might be read
+		 * */
+		private synchronized long readLimit(int endIndex, long position) throws IOException {
+			try {
+				while(true) {
+					if(endIndex < starts.size()) {
+						return starts.get(endIndex);
+					}
+					if(scanError != null) {
+						throw new IOException("Failed to scan for members", scanError);
+					}
+					if(scanDone) {
+						return size;
+					}
+					if(scanned > position) {
+						return scanned;
+					}
+					wait();
+				}
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		private boolean isSignature(ByteBuffer b, int i) {
+			if(format == Format.GZIP) {
+				// ID1 ID2 CM, FLG without reserved bits, XFL, OS
+				return b.get(i) == (byte)0x1f && b.get(i + 1) == (byte)0x8b
+						&& b.get(i + 2) == 8 && (b.get(i + 3) & 0xe0) == 0
+						&& (b.get(i + 8) == 0 || b.get(i + 8) == 2 || b.get(i + 8) == 4)
+						&& ((b.get(i + 9) & 0xff) <= 13 || (b.get(i + 9) & 0xff) == 255);
+			}
+
+			// BZh[1-9] and block header magic 0x314159265359
+			return b.get(i) == 'B' && b.get(i + 1) == 'Z' && b.get(i + 2) == 'h'
+					&& b.get(i + 3) >= '1' && b.get(i + 3) <= '9'
+					&& b.get(i + 4) == 0x31 && b.get(i + 5) == 0x41 && b.get(i + 6) == 0x59
+					&& b.get(i + 7) == 0x26 && b.get(i + 8) == 0x53 && b.get(i + 9) == 0x59;
+		}
+
+		@Override
+		public void close() {
+			scanner.interrupt();
+			pool.shutdownNow();
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				// nothing to do
+			}
+		}
+
+		/**
+		 * Looks for member signatures, keeps no more than
+		 * {@link MemberSource#ahead} found members unscheduled.
+		 * */
+		private final class Scanner extends Thread {
+
+			public Scanner() {
+				super("dump-scanner-" + poolsCounter.incrementAndGet());
+				setDaemon(true);
+			}
+
+			@Override
+			public void run() {
+				try {
+					ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+					long pos = 1;
+					while(pos < size) {
+						if(format == Format.GZIP && pos > SCAN_WINDOW && !isStartFound(1)) {
+							// single member, GZIPInputStream reads
+							// concatenated members if there are any
+							break;
+						}
+
+						buffer.clear();
+						int n = channel.read(buffer, pos);
+						if(n <= 0) {
+							break;
+						}
+
+						// signature might cross buffers boundary
+						int checked = pos + n >= size ? n : Math.max(n - SIGNATURE_LENGTH + 1, 1);
+						for(int i = 0; i < checked && i + SIGNATURE_LENGTH <= n; i++) {
+							if(isSignature(buffer, i)) {
+								found(pos + i);
+							}
+						}
+
+						pos += checked;
+						scanned(pos);
+					}
+					finish(null);
+				}
+				catch (InterruptedException e) {
+					// closed
+				}
+				catch (IOException e) {
+					finish(e);
+				}
+			}
+
+			private void found(long start) throws InterruptedException {
+				synchronized (MemberSource.this) {
+					starts.add(start);
+					MemberSource.this.notifyAll();
+
+					while(starts.size() - nextMember > ahead) {
+						MemberSource.this.wait();
+					}
+				}
+			}
+
+			private void scanned(long pos) {
+				synchronized (MemberSource.this) {
+					scanned = pos;
+					MemberSource.this.notifyAll();
+				}
+			}
+
+			private void finish(IOException error) {
+				synchronized (MemberSource.this) {
+					scanError = error;
+					scanDone = true;
+					MemberSource.this.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Decompression of one member
+		 * */
+		private final class Member implements Runnable {
+
+			private final int startIndex;
+			private final long start;
+			private final int endIndex;
+			private final long skip;
+			private final BlockingQueue<Object> blocks = new ArrayBlockingQueue<>(MEMBER_QUEUE + 1);
+
+			private Future<?> task;
+			private volatile boolean cancelled;
+
+			/**
+			 * Bytes returned to reader
+			 * */
+			private long consumed;
+
+			public Member(int startIndex, long start, int endIndex, long skip) {
+				this.startIndex = startIndex;
+				this.start = start;
+				this.endIndex = endIndex;
+				this.skip = skip;
+				this.consumed = skip;
+			}
+
+			/**
+			 * Member has its own channel, so interruption
+			 * doesn't close channel of other members
+			 * */
+			public void cancel() {
+				cancelled = true;
+				task.cancel(true);
+			}
+
+			@Override
+			public void run() {
+				FileChannel memberChannel = null;
+				try {
+					memberChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+					InputStream slice = new BufferedInputStream(
+							new MemberSlice(memberChannel, start, endIndex), 64 * 1024);
+
+					InputStream is = format == Format.GZIP
+							? new GZIPInputStream(slice, 64 * 1024)
+							: new BZip2CompressorInputStream(slice);
+
+					long skipped = 0;
+					while(skipped < skip) {
+						long n = is.skip(skip - skipped);
+						if(n <= 0) {
+							throw new IOException("Unexpected end of member");
+						}
+						skipped += n;
+					}
+
+					while(!cancelled) {
+						byte[] buffer = new byte[blockSize];
+						int n = readFully(is, buffer);
+						if(n > 0) {
+							blocks.put(ByteBuffer.wrap(buffer, 0, n));
+						}
+						if(n < buffer.length) {
+							break;
+						}
+					}
+
+					blocks.put(EOF);
+				}
+				catch (InterruptedException e) {
+					// cancelled
+				}
+				catch (Throwable t) {
+					if(!cancelled) {
+						putError(blocks, t);
+					}
+				}
+				finally {
+					if(memberChannel != null) {
+						try {
+							memberChannel.close();
+						}
+						catch (IOException e) {
+							// nothing to do
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Positional reads of a member, up to its end
+		 * or up to the scanned part of file.
+		 * */
+		private final class MemberSlice extends InputStream {
+
+			private final FileChannel channel;
+			private final int endIndex;
+			private long position;
+
+			public MemberSlice(FileChannel channel, long start, int endIndex) {
+				this.channel = channel;
+				this.position = start;
+				this.endIndex = endIndex;
+			}
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				int n = read(b, 0, 1);
+				return n < 0 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				long end = readLimit(endIndex, position);
+				if(position >= end) {
+					return -1;
+				}
+
+				len = (int) Math.min(len, end - position);
+				int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+				if(n > 0) {
+					position += n;
+				}
+				return n;
+			}
+
+			/**
+			 * GZIPInputStream reads concatenated member, if there is
+			 * something available after trailer, and BZip2CompressorInputStream
+			 * fails for empty available(), so it waits for scanner.
+			 * */
+			@Override
+			public int available() throws IOException {
+				long end = readLimit(endIndex, position);
+				return (int) Math.min(end - position, Integer.MAX_VALUE);
+			}
+		}
+	}
+
+	/**
+	 * Reads sequential stream in background thread
+	 * */
+	private static final class ReadAheadSource implements BlockSource {
+
+		private final BlockingQueue<Object> blocks = new ArrayBlockingQueue<>(MEMBER_QUEUE + 1);
+		private final Thread thread;
+		private final InputStream is;
+
+		public ReadAheadSource(final InputStream is, final int blockSize) {
+			this.is = is;
+			this.thread = new Thread("dump-reader-" + poolsCounter.incrementAndGet()) {
+				@Override
+				public void run() {
+					try {
+						while(!isInterrupted()) {
+							byte[] buffer = new byte[blockSize];
+							int n = readFully(is, buffer);
+							if(n > 0) {
+								blocks.put(ByteBuffer.wrap(buffer, 0, n));
+							}
+							if(n < buffer.length) {
+								break;
+							}
+						}
+						blocks.put(EOF);
+					}
+					catch (InterruptedException e) {
+						// closed
+					}
+					catch (Throwable t) {
+						putError(blocks, t);
+					}
+				}
+			};
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		@Override
+		public ByteBuffer next() throws IOException {
+			Object o;
+			try {
+				o = blocks.take();
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+
+			if(o instanceof ByteBuffer) {
+				return (ByteBuffer) o;
+			}
+
+			if(o == EOF) {
+				// keep returning end of stream
+				blocks.offer(EOF);
+				return null;
+			}
+
+			blocks.offer(o);
+			throw new IOException((Throwable) o);
+		}
+
+		@Override
+		public void close() {
+			thread.interrupt();
+			try {
+				is.close();
+			}
+			catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package me.osm.gazetteer.web.utils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import me.osm.gazetteer.web.GazetteerWeb;
+import me.osm.gazetteer.web.imp.Replacer;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded concurrent memo for results of replacers.
+ * <p>
+ * Same street names and housenumbers repeat many times,
+ * and replacers (regexp + groovy template) are expensive.
+ * <p>
+ * Results are cached by replacers set name and input string,
+ * so cached results are valid only as long as replacers
+ * with the same name are the same.
+ * */
+public class ReplacersCache {
+
+	private static final Logger log = LoggerFactory.getLogger(ReplacersCache.class);
+
+	private final Cache<String, List<String>> cache;
+
+	public ReplacersCache() {
+		this(GazetteerWeb.config().getReplacersCacheSize());
+	}
+
+	public ReplacersCache(long maxSize) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maxSize).recordStats().build();
+	}
+
+	/**
+	 * Apply all replacers to the input.
+	 * <p>
+	 * Replacers which throws an exception are skipped, 
+	 * exception is logged once per input, results are cached. 
+	 *
+	 * @param setName name of replacers set, part of the cache key
+	 * @param replacers replacers to apply
+	 * @param input string to transform
+	 *
+	 * @return unmodifiable list of unique results,
+	 * in order of replacers
+	 * */
+	public List<String> replace(String setName,
+			final Collection<Replacer> replacers, final String input) {
+		return replace(setName, new ArrayList<>(replacers), null, input);
+	}
+
+	/**
+	 * Apply replacers selected by prefilter to the input.
+	 * 
+	 * @param setName name of replacers set, part of the cache key
+	 * @param replacers replacers to apply
+	 * @param prefilter prefilter for replacers, or null to apply all of them
+	 * @param input string to transform
+	 *
+	 * @return unmodifiable list of unique results,
+	 * in order of replacers
+	 * */
+	public List<String> replace(String setName, final List<Replacer> replacers, 
+			final ReplacersPrefilter prefilter, final String input) {
+
+		try {
+			return cache.get(setName + '\u0000' + input, new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws Exception {
+					return apply(replacers, prefilter, input);
+				}
+			});
+		}
+		catch (ExecutionException e) {
+			log.warn("Failed to apply replacers {}", setName, e.getCause());
+			return Collections.emptyList();
+		}
+	}
+
+	private static List<String> apply(List<Replacer> replacers, 
+			ReplacersPrefilter prefilter, String input) {
+		
+		BitSet candidates;
+		if(prefilter != null) {
+			candidates = prefilter.candidates(input);
+		}
+		else {
+			candidates = new BitSet();
+			candidates.set(0, replacers.size());
+		}
+		
+		LinkedHashSet<String> result = new LinkedHashSet<>();
+		for(int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			Replacer replacer = replacers.get(i);
+			try {
+				Collection<String> replace = replacer.replace(input);
+				if(replace != null) {
+					result.addAll(replace);
+				}
+			}
+			catch (Exception e) {
+				log.warn("Exception in Replacer", e);
+			}
+		}
+
+		return Collections.unmodifiableList(new ArrayList<>(result));
+	}
+
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @return hits, misses and size, for tasks descriptions
+	 * */
+	public Map<String, Object> statsMap() {
+		CacheStats stats = cache.stats();
+
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("hits", stats.hitCount());
+		result.put("misses", stats.missCount());
+		result.put("hitRate", stats.hitRate());
+		result.put("size", cache.size());
+
+		return result;
+	}
+
+}
@@ -8,12 +8,25 @@ import static org.apache.commons.lang3.StringUtils.substringBefore;
 import groovy.lang.GroovyClassLoader;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
+import me.osm.gazetteer.web.GazetteerWeb;
 import me.osm.gazetteer.web.imp.Replacer;
 
 import org.apache.commons.lang3.StringUtils;
 
+/**
+ * Reads replacers rules.
+ * <p>
+ * Templates which only substitute groups are compiled into 
+ * {@link CompiledReplacer}, others are created by groovy ReplacersFactory.
+ * Set replacers_backend=groovy to use groovy for all templates.
+ * <p>
+ * Compile methods return {@link ReplacersPrefilter} for the whole
+ * list of replacers, replacers which were in the list before
+ * are always candidates.
+ * */
 public class ReplacersCompiler {
 
 	private final static GroovyClassLoader gcl = new GroovyClassLoader(ReplacersCompiler.class.getClassLoader());
@@ -36,10 +49,28 @@ public class ReplacersCompiler {
 		}
 	}
 	
-	public static void compile(List<Replacer> replacers, File src) {
+	public static ReplacersPrefilter compile(List<Replacer> replacers, File src) {
+		return compile(replacers, src, !"groovy".equals(GazetteerWeb.config().getReplacersBackend()));
+	}
+
+	/**
+	 * @param replacers list to add replacers to
+	 * @param src rules file
+	 * @param compiled use compiled replacers where it's possible
+	 * 
+	 * @return prefilter for replacers list
+	 * */
+	public static ReplacersPrefilter compile(List<Replacer> replacers, File src, boolean compiled) {
+		List<String> patterns = unknownPatterns(replacers);
+		compile(replacers, patterns, src, compiled);
+		return new ReplacersPrefilter(patterns);
+	}
+
+	private static void compile(List<Replacer> replacers, List<String> patterns, 
+			File src, boolean compiled) {
 
 		List<String> configContent = FileUtils.readLines(src);
-		compile(replacers, configContent);
+		compile(replacers, patterns, configContent, compiled);
 	}
 
 	private static class State {
@@ -49,8 +80,28 @@ public class ReplacersCompiler {
 		public boolean multiline = false;
 	}
 	
-	public static void compile(List<Replacer> replacers,
+	public static ReplacersPrefilter compile(List<Replacer> replacers,
 			List<String> text) {
+		return compile(replacers, text, !"groovy".equals(GazetteerWeb.config().getReplacersBackend()));
+	}
+	
+	public static ReplacersPrefilter compile(List<Replacer> replacers,
+			List<String> text, boolean compiled) {
+		List<String> patterns = unknownPatterns(replacers);
+		compile(replacers, patterns, text, compiled);
+		return new ReplacersPrefilter(patterns);
+	}
+
+	private static List<String> unknownPatterns(List<Replacer> replacers) {
+		List<String> patterns = new ArrayList<>();
+		for(int i = 0; i < replacers.size(); i++) {
+			patterns.add(null);
+		}
+		return patterns;
+	}
+	
+	private static void compile(List<Replacer> replacers, List<String> patterns,
+			List<String> text, boolean compiled) {
 		
 		State state = new State();
 		
@@ -70,7 +121,7 @@ public class ReplacersCompiler {
 					}
 					else {
 						state.multiline = false;
-						add(replacers, state.pattern, state.sb.toString());
+						add(replacers, patterns, state.pattern, state.sb.toString(), compiled);
 						state.sb = new StringBuilder();
 					}
 				}
@@ -78,23 +129,28 @@ public class ReplacersCompiler {
 					state.sb.append(line).append("\n");
 				}
 				else {
-					add(replacers, state.pattern, state.template);
+					add(replacers, patterns, state.pattern, state.template, compiled);
 				}
 			}
 			else if(startsWith(line, "@")) {
 				String include = substringAfter(line, "include").trim();
 				if(isNotBlank(include)) {
-					compile(replacers, new File(include));
+					compile(replacers, patterns, new File(include), compiled);
 				}
 			}
 		}
 	}
 
-	private static void add(List<Replacer> replacers, String pattern,
-			String template) {
+	private static void add(List<Replacer> replacers, List<String> patterns, 
+			String pattern, String template, boolean compiled) {
 		try {
 			if(StringUtils.isNotBlank(pattern)) {
-				replacers.add(replacersFactory.createReplacer(pattern, template));
+				Replacer replacer = compiled ? CompiledReplacer.compile(pattern, template) : null;
+				if(replacer == null) {
+					replacer = replacersFactory.createReplacer(pattern, template);
+				}
+				replacers.add(replacer);
+				patterns.add(pattern);
 			}
 		}
 		catch (Exception e) {
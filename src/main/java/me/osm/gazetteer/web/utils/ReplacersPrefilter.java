@@ -0,0 +1,628 @@
+package me.osm.gazetteer.web.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Selects replacers which might match a string,
+ * without running all replacers regexps.
+ * <p>
+ * For each pattern a necessary condition is extracted: the string
+ * must contain one of required literals, or a character from
+ * a required class. Literals of all patterns are searched at once
+ * with Aho-Corasick automaton.
+ * <p>
+ * Extraction is conservative: patterns with unsupported syntax
+ * (inline flags, quotations, nested classes, etc.) are always
+ * treated as candidates.
+ * */
+public class ReplacersPrefilter {
+
+	/**
+	 * Necessary condition for pattern match
+	 * */
+	private static final class Requirement {
+
+		/**
+		 * One of these strings must be in the input
+		 * */
+		private Set<String> literals;
+
+		/**
+		 * One of chars from this class must be in the input
+		 * */
+		private CharClass chars;
+
+		private static Requirement literals(Set<String> literals) {
+			Requirement r = new Requirement();
+			r.literals = literals;
+			return r;
+		}
+
+		private static Requirement chars(CharClass chars) {
+			Requirement r = new Requirement();
+			r.chars = chars;
+			return r;
+		}
+
+		private int score() {
+			if(literals != null) {
+				int min = Integer.MAX_VALUE;
+				for(String s : literals) {
+					min = Math.min(min, s.length());
+				}
+				return 10 + min;
+			}
+			return 1;
+		}
+
+		private CharClass asChars() {
+			if(chars != null) {
+				return chars;
+			}
+			CharClass result = new CharClass();
+			for(String s : literals) {
+				result.add(s.charAt(0), s.charAt(0));
+			}
+			return result;
+		}
+
+		/**
+		 * @return requirement satisfied if one of a or b is satisfied
+		 * */
+		private static Requirement union(Requirement a, Requirement b) {
+			if(a == null || b == null) {
+				return null;
+			}
+
+			if(a.literals != null && b.literals != null) {
+				Set<String> literals = new LinkedHashSet<>(a.literals);
+				literals.addAll(b.literals);
+				return literals(literals);
+			}
+
+			return chars(CharClass.union(a.asChars(), b.asChars()));
+		}
+
+		private static Requirement best(Requirement a, Requirement b) {
+			if(a == null) {
+				return b;
+			}
+			if(b == null) {
+				return a;
+			}
+			return b.score() > a.score() ? b : a;
+		}
+	}
+
+	/**
+	 * Set of chars ranges plus java \d, \w, \s classes
+	 * */
+	private static final class CharClass {
+
+		private final List<char[]> ranges = new ArrayList<>();
+		private boolean digit;
+		private boolean word;
+		private boolean space;
+
+		private void add(char from, char to) {
+			ranges.add(new char[]{from, to});
+		}
+
+		private boolean matches(char c) {
+			if(digit && c >= '0' && c <= '9') {
+				return true;
+			}
+			if(word && (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+					|| c >= '0' && c <= '9' || c == '_')) {
+				return true;
+			}
+			if(space && (c == ' ' || c == '\t' || c == '\n'
+					|| c == '\u000B' || c == '\f' || c == '\r')) {
+				return true;
+			}
+			for(char[] r : ranges) {
+				if(c >= r[0] && c <= r[1]) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static CharClass union(CharClass a, CharClass b) {
+			CharClass result = new CharClass();
+			result.ranges.addAll(a.ranges);
+			result.ranges.addAll(b.ranges);
+			result.digit = a.digit || b.digit;
+			result.word = a.word || b.word;
+			result.space = a.space || b.space;
+			return result;
+		}
+	}
+
+	private static final class UnsupportedPatternException extends Exception {
+		private static final long serialVersionUID = 4000524066226839384L;
+	}
+
+	/**
+	 * Extracts {@link Requirement} from java regexp.
+	 * */
+	private static final class PatternAnalyzer {
+
+		/**
+		 * Atom which matches nothing in particular, or a zero width
+		 * assertion
+		 * */
+		private static final Object ANY_CHAR = new Object();
+		private static final Object ZERO_WIDTH = new Object();
+
+		private final String p;
+		private int pos = 0;
+
+		private PatternAnalyzer(String pattern) {
+			this.p = pattern;
+		}
+
+		/**
+		 * @return requirement or null if there is no one
+		 * */
+		private Requirement analyze() throws UnsupportedPatternException {
+			Requirement result = alternation();
+			if(pos != p.length()) {
+				throw new UnsupportedPatternException();
+			}
+			return result;
+		}
+
+		private Requirement alternation() throws UnsupportedPatternException {
+			Requirement result = sequence();
+			while(pos < p.length() && p.charAt(pos) == '|') {
+				pos++;
+				result = Requirement.union(result, sequence());
+			}
+			return result;
+		}
+
+		private Requirement sequence() throws UnsupportedPatternException {
+			Requirement best = null;
+			StringBuilder run = new StringBuilder();
+
+			while(pos < p.length() && p.charAt(pos) != '|' && p.charAt(pos) != ')') {
+				Object atom = atom();
+
+				boolean optional = false;
+				boolean repeated = false;
+				if(pos < p.length()) {
+					char q = p.charAt(pos);
+					if(q == '?' || q == '*') {
+						pos++;
+						optional = true;
+					}
+					else if(q == '+') {
+						pos++;
+						repeated = true;
+					}
+					else if(q == '{') {
+						int end = p.indexOf('}', pos);
+						if(end < 0) {
+							throw new UnsupportedPatternException();
+						}
+						String min = p.substring(pos + 1, end).split(",", -1)[0].trim();
+						if(min.isEmpty() || !min.matches("[0-9]+")) {
+							throw new UnsupportedPatternException();
+						}
+						optional = Integer.parseInt(min) == 0;
+						repeated = true;
+						pos = end + 1;
+					}
+
+					// lazy and possessive quantifiers
+					if((optional || repeated) && pos < p.length()
+							&& (p.charAt(pos) == '?' || p.charAt(pos) == '+')) {
+						pos++;
+					}
+				}
+
+				if(atom == ZERO_WIDTH) {
+					continue;
+				}
+
+				if(optional || !(atom instanceof Character)) {
+					best = flush(best, run);
+				}
+
+				if(optional) {
+					continue;
+				}
+
+				if(atom instanceof Character) {
+					run.append((Character) atom);
+					if(repeated) {
+						best = flush(best, run);
+					}
+				}
+				else if(atom instanceof Requirement) {
+					best = Requirement.best(best, (Requirement) atom);
+				}
+			}
+
+			return flush(best, run);
+		}
+
+		private static Requirement flush(Requirement best, StringBuilder run) {
+			if(run.length() > 0) {
+				best = Requirement.best(best,
+						Requirement.literals(Collections.singleton(run.toString())));
+				run.setLength(0);
+			}
+			return best;
+		}
+
+		/**
+		 * @return Character for literal, Requirement for groups and classes,
+		 * ANY_CHAR or ZERO_WIDTH
+		 * */
+		private Object atom() throws UnsupportedPatternException {
+			char c = p.charAt(pos);
+
+			switch (c) {
+			case '(':
+				return group();
+			case '[':
+				return charClass();
+			case '\\':
+				return escape();
+			case '.':
+				pos++;
+				return ANY_CHAR;
+			case '^':
+			case '$':
+				pos++;
+				return ZERO_WIDTH;
+			case '?':
+			case '*':
+			case '+':
+			case '{':
+				throw new UnsupportedPatternException();
+			default:
+				pos++;
+				return c;
+			}
+		}
+
+		private Object group() throws UnsupportedPatternException {
+			pos++;
+
+			boolean lookaround = false;
+			if(p.startsWith("?:", pos)) {
+				pos += 2;
+			}
+			else if(p.startsWith("?=", pos) || p.startsWith("?!", pos)) {
+				pos += 2;
+				lookaround = true;
+			}
+			else if(p.startsWith("?<=", pos) || p.startsWith("?<!", pos)) {
+				pos += 3;
+				lookaround = true;
+			}
+			else if(p.startsWith("?<", pos)) {
+				int end = p.indexOf('>', pos);
+				if(end < 0) {
+					throw new UnsupportedPatternException();
+				}
+				pos = end + 1;
+			}
+			else if(p.startsWith("?", pos)) {
+				// inline flags, atomic groups
+				throw new UnsupportedPatternException();
+			}
+
+			Requirement inner = alternation();
+
+			if(pos >= p.length() || p.charAt(pos) != ')') {
+				throw new UnsupportedPatternException();
+			}
+			pos++;
+
+			if(lookaround) {
+				return ZERO_WIDTH;
+			}
+
+			return inner == null ? ANY_CHAR : inner;
+		}
+
+		private Object escape() throws UnsupportedPatternException {
+			if(pos + 1 >= p.length()) {
+				throw new UnsupportedPatternException();
+			}
+
+			char c = p.charAt(pos + 1);
+			pos += 2;
+
+			CharClass cc = new CharClass();
+			switch (c) {
+			case 'd': cc.digit = true; return Requirement.chars(cc);
+			case 'w': cc.word = true; return Requirement.chars(cc);
+			case 's': cc.space = true; return Requirement.chars(cc);
+			case 'D':
+			case 'W':
+			case 'S':
+				return ANY_CHAR;
+			case 'b':
+			case 'B':
+			case 'A':
+			case 'z':
+			case 'Z':
+			case 'G':
+				return ZERO_WIDTH;
+			case 'p':
+			case 'P':
+				if(pos < p.length() && p.charAt(pos) == '{') {
+					int end = p.indexOf('}', pos);
+					if(end < 0) {
+						throw new UnsupportedPatternException();
+					}
+					pos = end + 1;
+				}
+				else {
+					pos++;
+				}
+				return ANY_CHAR;
+			case 't': return '\t';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 'f': return '\f';
+			default:
+				if(Character.isLetterOrDigit(c)) {
+					// backreferences, \Q, \x, \\u and so on
+					throw new UnsupportedPatternException();
+				}
+				return c;
+			}
+		}
+
+		private Object charClass() throws UnsupportedPatternException {
+			pos++;
+
+			boolean negated = false;
+			if(pos < p.length() && p.charAt(pos) == '^') {
+				negated = true;
+				pos++;
+			}
+
+			CharClass cc = new CharClass();
+			boolean unknown = false;
+			boolean first = true;
+
+			while(true) {
+				if(pos >= p.length()) {
+					throw new UnsupportedPatternException();
+				}
+
+				char c = p.charAt(pos);
+				if(c == ']' && !first) {
+					pos++;
+					break;
+				}
+				first = false;
+
+				if(c == '[' || p.startsWith("&&", pos)) {
+					throw new UnsupportedPatternException();
+				}
+
+				Character from;
+				if(c == '\\') {
+					if(pos + 1 >= p.length()) {
+						throw new UnsupportedPatternException();
+					}
+					char e = p.charAt(pos + 1);
+					pos += 2;
+					from = null;
+					switch (e) {
+					case 'd': cc.digit = true; break;
+					case 'w': cc.word = true; break;
+					case 's': cc.space = true; break;
+					case 'D':
+					case 'W':
+					case 'S':
+						unknown = true;
+						break;
+					case 't': from = '\t'; break;
+					case 'n': from = '\n'; break;
+					case 'r': from = '\r'; break;
+					case 'f': from = '\f'; break;
+					default:
+						if(Character.isLetterOrDigit(e)) {
+							throw new UnsupportedPatternException();
+						}
+						from = e;
+					}
+					if(from == null) {
+						continue;
+					}
+				}
+				else {
+					from = c;
+					pos++;
+				}
+
+				// range
+				if(pos + 1 < p.length() && p.charAt(pos) == '-' && p.charAt(pos + 1) != ']') {
+					char to = p.charAt(pos + 1);
+					if(to == '\\' || to == '[') {
+						throw new UnsupportedPatternException();
+					}
+					pos += 2;
+					cc.add(from, to);
+				}
+				else {
+					cc.add(from, from);
+				}
+			}
+
+			if(negated || unknown) {
+				return ANY_CHAR;
+			}
+
+			return Requirement.chars(cc);
+		}
+	}
+
+	/**
+	 * Aho-Corasick automaton state
+	 * */
+	private static final class Node {
+		private final Map<Character, Node> next = new HashMap<>();
+		private Node fail;
+		private final BitSet out = new BitSet();
+	}
+
+	private final int size;
+	private final BitSet always = new BitSet();
+	private final Node root = new Node();
+	private final List<CharClass> classes = new ArrayList<>();
+	private final List<Integer> classRules = new ArrayList<>();
+
+	/**
+	 * @param patterns patterns of replacers, null means
+	 * unknown pattern, such replacer is always a candidate
+	 * */
+	public ReplacersPrefilter(List<String> patterns) {
+		this.size = patterns.size();
+
+		for(int i = 0; i < patterns.size(); i++) {
+			Requirement r = analyze(patterns.get(i));
+			if(r == null) {
+				always.set(i);
+			}
+			else if(r.literals != null) {
+				for(String literal : r.literals) {
+					addLiteral(literal, i);
+				}
+			}
+			else {
+				classes.add(r.chars);
+				classRules.add(i);
+			}
+		}
+
+		buildFailLinks();
+	}
+
+	/**
+	 * @return requirement for pattern or null if it can't be extracted
+	 * */
+	private static Requirement analyze(String pattern) {
+		if(pattern == null) {
+			return null;
+		}
+
+		try {
+			Requirement r = new PatternAnalyzer(pattern).analyze();
+			if(r != null && r.literals != null && r.literals.contains("")) {
+				return null;
+			}
+			return r;
+		}
+		catch (UnsupportedPatternException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return indexes of replacers which might match the input.
+	 * */
+	public BitSet candidates(String input) {
+		BitSet result = (BitSet) always.clone();
+
+		Node state = root;
+		for(int i = 0; i < input.length(); i++) {
+			char c = input.charAt(i);
+
+			while(state != root && !state.next.containsKey(c)) {
+				state = state.fail;
+			}
+			Node next = state.next.get(c);
+			state = next == null ? root : next;
+
+			result.or(state.out);
+		}
+
+		for(int k = 0; k < classes.size(); k++) {
+			int rule = classRules.get(k);
+			if(result.get(rule)) {
+				continue;
+			}
+			CharClass cc = classes.get(k);
+			for(int i = 0; i < input.length(); i++) {
+				if(cc.matches(input.charAt(i))) {
+					result.set(rule);
+					break;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return amount of replacers which are always candidates
+	 * */
+	public int countUnfiltered() {
+		return always.cardinality();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void addLiteral(String literal, int rule) {
+		Node state = root;
+		for(int i = 0; i < literal.length(); i++) {
+			char c = literal.charAt(i);
+			Node next = state.next.get(c);
+			if(next == null) {
+				next = new Node();
+				state.next.put(c, next);
+			}
+			state = next;
+		}
+		state.out.set(rule);
+	}
+
+	private void buildFailLinks() {
+		Queue<Node> queue = new ArrayDeque<>();
+		root.fail = root;
+		for(Node n : root.next.values()) {
+			n.fail = root;
+			queue.add(n);
+		}
+
+		while(!queue.isEmpty()) {
+			Node node = queue.poll();
+			for(Map.Entry<Character, Node> e : node.next.entrySet()) {
+				char c = e.getKey();
+				Node child = e.getValue();
+
+				Node f = node.fail;
+				while(f != root && !f.next.containsKey(c)) {
+					f = f.fail;
+				}
+				Node target = f.next.get(c);
+				child.fail = (target == null || target == child) ? root : target;
+				child.out.or(child.fail.out);
+
+				queue.add(child);
+			}
+		}
+	}
+
+}
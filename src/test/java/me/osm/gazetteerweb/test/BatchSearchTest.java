@@ -0,0 +1,114 @@
+package me.osm.gazetteerweb.test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import me.osm.gazetteer.web.api.AnswerDetalization;
+import me.osm.gazetteer.web.api.search.BatchQuery;
+import me.osm.gazetteer.web.api.search.BatchSearch;
+import me.osm.gazetteer.web.api.utils.ChunkedAnswer;
+import me.osm.gazetteer.web.api.utils.DeferredAnswer;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class BatchSearchTest {
+
+	@Test
+	public void testParse() {
+		BatchQuery query = BatchQuery.parse(new JSONObject(
+				"{\"q\": \" Тверская 7 \", \"type\": [\"adrpnt\", \"poipnt\"], "
+			  + "\"filter\": \"r1, r2\", \"bbox\": [37.1, 55.1, 38.2, 56.3], "
+			  + "\"lat\": \"55.7\", \"lon\": 37.6, \"strict\": true, "
+			  + "\"detalization\": \"short\", \"size\": 1000}"));
+
+		assertEquals("Тверская 7", query.getQ());
+		assertEquals(new HashSet<>(Arrays.asList("adrpnt", "poipnt")), query.getTypes());
+		assertEquals(new HashSet<>(Arrays.asList("r1", "r2")), query.getRefs());
+		assertEquals(Arrays.asList("37.1", "55.1", "38.2", "56.3"), query.getBbox());
+		assertEquals(55.7, query.getLat(), 0.0);
+		assertEquals(37.6, query.getLon(), 0.0);
+		assertTrue(query.isStrict());
+		assertFalse(query.isAddressesOnly());
+		assertEquals(AnswerDetalization.SHORT, query.getDetalization());
+		assertEquals(Integer.valueOf(BatchQuery.MAX_SIZE), query.getSize());
+
+		BatchQuery empty = BatchQuery.parse(new JSONObject("{}"));
+		assertNull(empty.getQ());
+		assertTrue(empty.getTypes().isEmpty());
+		assertNull(empty.getLat());
+		assertNull(empty.getSize());
+		assertEquals(AnswerDetalization.FULL, empty.getDetalization());
+	}
+
+	@Test
+	public void testMalformedItems() throws InterruptedException {
+		List<BatchSearch.Item> items = new ArrayList<>();
+		for(int i = 0; i < 5; i++) {
+			items.add(null);
+		}
+
+		final List<Integer> order = new ArrayList<>();
+		final boolean[] done = new boolean[1];
+
+		new BatchSearch(2, 2).execute(items, new BatchSearch.Listener() {
+
+			@Override
+			public void onResult(int index, JSONObject answer, Throwable failure) {
+				assertNull(answer);
+				assertNotNull(failure);
+				order.add(index);
+			}
+
+			@Override
+			public void onDone() {
+				done[0] = true;
+			}
+
+		});
+
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+		assertTrue(done[0]);
+
+		List<DeferredAnswer<JSONObject>> answers = new BatchSearch(2, 1).executeAndWait(items);
+		assertEquals(5, answers.size());
+		assertNotNull(answers.get(4).getFailure());
+
+		assertTrue(new BatchSearch(2, 1).executeAndWait(new ArrayList<BatchSearch.Item>()).isEmpty());
+	}
+
+	@Test
+	public void testChunkedAnswer() {
+		ChunkedAnswer answer = new ChunkedAnswer();
+		answer.write(new JSONObject().put("i", 0));
+
+		final StringBuilder out = new StringBuilder();
+		answer.setSink(new ChunkedAnswer.Sink() {
+
+			@Override
+			public void write(JSONObject part) {
+				out.append(part.getInt("i"));
+			}
+
+			@Override
+			public void close() {
+				out.append(".");
+			}
+
+		});
+
+		answer.write(new JSONObject().put("i", 1));
+		answer.close();
+		answer.close();
+
+		assertEquals("01.", out.toString());
+	}
+
+}
@@ -0,0 +1,104 @@
+package me.osm.gazetteerweb.test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import me.osm.gazetteer.web.utils.GeometryPyramid;
+import me.osm.gazetteer.web.utils.GeometryUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+public class GeometryPyramidTest {
+
+	private static final double[] TOLERANCES = new double[]{0.01, 0.0001, 0.001};
+
+	@Test
+	public void testLevels() {
+		JSONObject full = polygon(5000);
+		JSONArray levels = GeometryPyramid.build(full, TOLERANCES);
+
+		assertNotNull(levels);
+
+		int points = GeometryUtils.parseGeometry(full).getNumPoints();
+		double tolerance = 0;
+		for(int i = 0; i < levels.length(); i++) {
+			JSONObject level = levels.getJSONObject(i);
+			assertTrue(level.getDouble("tolerance") > tolerance);
+			tolerance = level.getDouble("tolerance");
+
+			Geometry g = GeometryUtils.parseGeometry(level.getJSONObject("geometry"));
+			assertTrue(g.isValid());
+			assertTrue(g.getNumPoints() * 2 <= points);
+			points = g.getNumPoints();
+		}
+	}
+
+	@Test
+	public void testSmallGeometry() {
+		assertNull(GeometryPyramid.build(polygon(10), TOLERANCES));
+	}
+
+	@Test
+	public void testSelect() {
+		JSONObject full = polygon(5000);
+		JSONArray levels = GeometryPyramid.build(full, TOLERANCES);
+		JSONObject coarsest = levels.getJSONObject(levels.length() - 1);
+
+		JSONObject feature = feature(full, levels);
+		GeometryPyramid.select(feature, true, 1.0);
+		assertFalse(feature.has(GeometryPyramid.FIELD));
+		assertEquals(coarsest.getJSONObject("geometry").toString(),
+				feature.getJSONObject("full_geometry").toString());
+
+		feature = feature(full, levels);
+		GeometryPyramid.select(feature, true, 0);
+		assertEquals(full.toString(), feature.getJSONObject("full_geometry").toString());
+
+		feature = feature(full, levels);
+		GeometryPyramid.select(feature, true, 0.00001);
+		assertEquals(full.toString(), feature.getJSONObject("full_geometry").toString());
+
+		feature = feature(full, levels);
+		GeometryPyramid.select(feature, false, 1.0);
+		assertFalse(feature.has("full_geometry"));
+		assertFalse(feature.has(GeometryPyramid.FIELD));
+	}
+
+	private static JSONObject feature(JSONObject full, JSONArray levels) {
+		JSONObject feature = new JSONObject();
+		feature.put("full_geometry", new JSONObject(full.toString()));
+		feature.put(GeometryPyramid.FIELD, new JSONArray(levels.toString()));
+		return feature;
+	}
+
+	/**
+	 * Noisy circle around 37.6, 55.7
+	 * */
+	private static JSONObject polygon(int n) {
+		Random random = new Random(n);
+		JSONArray ring = new JSONArray();
+		for(int i = 0; i < n; i++) {
+			double a = 2 * Math.PI * i / n;
+			double r = 0.5 + random.nextDouble() * 0.0005;
+			ring.put(new JSONArray().put(37.6 + r * Math.cos(a)).put(55.7 + r * Math.sin(a)));
+		}
+		ring.put(ring.get(0));
+
+		JSONArray coords = new JSONArray();
+		coords.put(ring);
+
+		JSONObject polygon = new JSONObject();
+		polygon.put("type", "polygon");
+		polygon.put("coordinates", coords);
+		return polygon;
+	}
+
+}
@@ -0,0 +1,126 @@
+package me.osm.gazetteerweb.test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import me.osm.gazetteer.web.imp.LocationsDumpImporter;
+import me.osm.gazetteer.web.utils.JSONStreamUtils;
+import me.osm.gazetteer.web.utils.OSMDocSinglton;
+
+import org.apache.commons.io.IOUtils;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Import path via {@link JSONStreamUtils} must give the same 
+ * bytes as org.json one, on locations_golden.json sample.
+ * <p>
+ * Both paths are compared with locations_golden.expected.json, 
+ * documents written by import before jackson tokenizer was 
+ * introduced, one line per source line, empty for skipped lines.
+ * */
+public class ImportGoldenTest {
+
+	private LocationsDumpImporter importer;
+	private List<String> lines;
+	private List<String> expectedDocs;
+
+	@Before
+	public void setUp() throws Exception {
+		OSMDocSinglton.initialize("jar");
+		importer = new LocationsDumpImporter(null, false);
+
+		lines = readLines("/locations_golden.json");
+		expectedDocs = readLines("/locations_golden.expected.json");
+	}
+
+	private List<String> readLines(String resource) throws IOException {
+		InputStream is = getClass().getResourceAsStream(resource);
+		try {
+			return IOUtils.readLines(is, "UTF8");
+		}
+		finally {
+			is.close();
+		}
+	}
+
+	@Test
+	public void testParse() {
+		for(String line : lines) {
+			String expected = null;
+			try {
+				expected = new JSONObject(line).toString();
+			}
+			catch (JSONException e) {
+				expected = null;
+			}
+
+			String actual = null;
+			try {
+				actual = JSONStreamUtils.parse(line).toString();
+			}
+			catch (JSONException e) {
+				actual = null;
+			}
+
+			assertEquals(line, expected, actual);
+		}
+	}
+
+	@Test
+	public void testBytes() throws Exception {
+		for(String line : lines) {
+			try {
+				JSONObject obj = new JSONObject(line);
+				byte[] expected = obj.toString().getBytes("UTF8");
+				assertArrayEquals(line, expected, JSONStreamUtils.toBytes(obj, 16).toBytes());
+			}
+			catch (JSONException e) {
+				// not a json
+			}
+		}
+	}
+
+	@Test
+	public void testProcessLine() throws Exception {
+		assertEquals(lines.size(), expectedDocs.size());
+		
+		int processed = 0;
+		for(int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i);
+			String expected = expectedDocs.get(i);
+			
+			String doc = importer.processLine(line);
+			BytesReference source = importer.processLineSource(line);
+
+			if(expected.isEmpty()) {
+				assertNull(line, doc);
+				assertNull(line, source);
+				continue;
+			}
+
+			assertNotNull(line, doc);
+			assertNotNull(line, source);
+			assertEquals(line, expected, withoutImpTS(doc));
+			assertEquals(line, expected, 
+					withoutImpTS(new String(source.toBytes(), "UTF8")));
+
+			processed++;
+		}
+
+		assertEquals(7, processed);
+	}
+
+	private static String withoutImpTS(String json) {
+		return json.replaceAll("\"imp_ts\":\"[^\"]*\"", "\"imp_ts\":\"\"");
+	}
+
+}
@@ -0,0 +1,71 @@
+package me.osm.gazetteerweb.test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import me.osm.gazetteer.web.serialization.JSONBufferEncoder;
+import me.osm.gazetteer.web.serialization.RawHitJSON;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JSONBufferEncoderTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testSameAsToString() throws Exception {
+		JSONObject json = new JSONObject();
+		json.put("result", "success");
+		json.put("hits", 12L);
+		json.put("strict", true);
+		json.put("request", "Москва </script> \"quoted\"\n");
+		json.put("list", Arrays.asList("a", "b"));
+		json.put("features", new JSONArray()
+			.put(new JSONObject().put("lon", 37.6).put("lat", 55.7).put("score", 1.0))
+			.put(new JSONArray())
+			.put(new JSONObject()));
+
+		assertEquals(json.toString(), encode(json));
+	}
+
+	@Test
+	public void testRawHits() throws Exception {
+		JSONObject source = new JSONObject();
+		source.put("id", "adrpnt-1");
+		source.put("name", "Тверская");
+
+		JSONObject feature = new JSONObject(source.toString());
+		feature.put("_hit_score", 1.25f);
+
+		JSONObject json = new JSONObject();
+		json.put("features", new JSONArray()
+			.put(RawHitJSON.create(new BytesArray(source.toString() + "\n"), 1.25f))
+			.put(RawHitJSON.create(new BytesArray(source.toString()), null))
+			.put(RawHitJSON.create(new BytesArray("{}"), 2.0f)));
+
+		JSONObject expected = new JSONObject();
+		expected.put("features", new JSONArray()
+			.put(feature)
+			.put(source)
+			.put(new JSONObject().put("_hit_score", 2.0f)));
+
+		assertEquals(expected.toString(), encode(json));
+		assertEquals(expected.toString(), json.toString());
+	}
+
+	@Test
+	public void testNotJSON() {
+		assertNull(RawHitJSON.create(new BytesArray("[1, 2]"), null));
+		assertNull(RawHitJSON.create(new BytesArray(""), null));
+	}
+
+	private static String encode(JSONObject json) throws Exception {
+		return JSONBufferEncoder.encode(json).toString(UTF8);
+	}
+
+}
@@ -0,0 +1,209 @@
+package me.osm.gazetteerweb.test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import me.osm.gazetteer.web.utils.ParallelInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelInputStreamTest {
+
+	private static final int BLOCK = 512;
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("parallel", ".tmp");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void testPlain() throws Exception {
+		byte[] data = lines(0, 3000);
+		write(file, data);
+
+		assertArrayEquals(data, read(file.getPath()));
+	}
+
+	@Test
+	public void testMultiMemberGzip() throws Exception {
+		File gz = new File(file.getPath() + ".gz");
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+		OutputStream out = new FileOutputStream(gz);
+		try {
+			for(int i = 0; i < 7; i++) {
+				byte[] member = lines(i * 1000, 1000);
+				expected.write(member);
+				out.write(gzip(member, Deflater.DEFAULT_COMPRESSION));
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		try {
+			assertArrayEquals(expected.toByteArray(), read(gz.getPath()));
+		}
+		finally {
+			gz.delete();
+		}
+	}
+
+	/**
+	 * Stored deflate blocks keep gzip header from the data,
+	 * which looks like a member start.
+	 * */
+	@Test
+	public void testFalseGzipSignature() throws Exception {
+		File gz = new File(file.getPath() + ".gz");
+
+		ByteArrayOutputStream member = new ByteArrayOutputStream();
+		member.write(lines(0, 100));
+		member.write(new byte[]{0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, 3});
+		member.write(lines(100, 100));
+
+		byte[] second = lines(200, 500);
+
+		OutputStream out = new FileOutputStream(gz);
+		try {
+			out.write(gzip(member.toByteArray(), Deflater.NO_COMPRESSION));
+			out.write(gzip(second, Deflater.BEST_SPEED));
+		}
+		finally {
+			out.close();
+		}
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(member.toByteArray());
+		expected.write(second);
+
+		try {
+			assertArrayEquals(expected.toByteArray(), read(gz.getPath()));
+		}
+		finally {
+			gz.delete();
+		}
+	}
+
+	@Test
+	public void testTruncatedGzip() throws Exception {
+		File gz = new File(file.getPath() + ".gz");
+		byte[] compressed = gzip(lines(0, 1000), Deflater.DEFAULT_COMPRESSION);
+
+		OutputStream out = new FileOutputStream(gz);
+		try {
+			out.write(compressed, 0, compressed.length / 2);
+		}
+		finally {
+			out.close();
+		}
+
+		try {
+			read(gz.getPath());
+			fail("Truncated member must fail");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		finally {
+			gz.delete();
+		}
+	}
+
+	@Test
+	public void testMultiStreamBzip2() throws Exception {
+		File bz = new File(file.getPath() + ".bz2");
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+		OutputStream out = new FileOutputStream(bz);
+		try {
+			for(int i = 0; i < 4; i++) {
+				byte[] stream = lines(i * 500, 500);
+				expected.write(stream);
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				BZip2CompressorOutputStream bzip = new BZip2CompressorOutputStream(bytes);
+				bzip.write(stream);
+				bzip.close();
+
+				out.write(bytes.toByteArray());
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		try {
+			assertArrayEquals(expected.toByteArray(), read(bz.getPath()));
+		}
+		finally {
+			bz.delete();
+		}
+	}
+
+	private static byte[] read(String path) throws IOException {
+		InputStream is = ParallelInputStream.open(path, 3, BLOCK);
+		try {
+			return IOUtils.toByteArray(is);
+		}
+		finally {
+			is.close();
+		}
+	}
+
+	private static byte[] lines(int from, int count) throws IOException {
+		Random random = new Random(from);
+		StringBuilder sb = new StringBuilder();
+		for(int i = from; i < from + count; i++) {
+			sb.append("{\"id\":").append(i).append(",\"name\":\"Улица ");
+			for(int j = random.nextInt(40); j >= 0; j--) {
+				sb.append((char)('a' + random.nextInt(26)));
+			}
+			sb.append("\"}\n");
+		}
+		return sb.toString().getBytes("UTF8");
+	}
+
+	private static byte[] gzip(byte[] data, final int level) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes) {
+			{
+				def.setLevel(level);
+			}
+		};
+		gzip.write(data);
+		gzip.close();
+		return bytes.toByteArray();
+	}
+
+	private static void write(File f, byte[] data) throws IOException {
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(data);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+}
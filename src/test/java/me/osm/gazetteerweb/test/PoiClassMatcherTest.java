@@ -0,0 +1,100 @@
+package me.osm.gazetteerweb.test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import me.osm.gazetteer.web.api.query.QToken;
+import me.osm.gazetteer.web.api.query.Query;
+import me.osm.gazetteer.web.api.search.PoiClassMatcher;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PoiClassMatcherTest {
+
+	private PoiClassMatcher matcher;
+
+	@Before
+	public void setUp() {
+		List<JSONObject> docs = Arrays.asList(
+				poiClass("cafe", "Кафе", "кофейня", "кофе"),
+				poiClass("fast_food", "Фастфуд", "быстрое питание", "бургер"),
+				poiClass("pharmacy", "Аптека", "лекарства"),
+				poiClass("car_wash", "Автомойка", "мойка"),
+				poiClass("cafe_internet", "Интернет кафе", "интернет"));
+
+		List<JSONObject> translations = Arrays.asList(
+				poiClass("cafe", "Cafe", "coffee"),
+				poiClass("pharmacy", "Pharmacy", "drugstore"));
+
+		matcher = new PoiClassMatcher();
+		matcher.update(docs, translations);
+	}
+
+	@Test
+	public void testMatch() {
+		assertEquals("cafe", name(matcher.match("кафе")));
+		assertEquals("cafe_internet", name(matcher.match("интернет кафе")));
+		assertEquals("pharmacy", name(matcher.match("ближайшая АПТЕКА")));
+		assertEquals("fast_food", name(matcher.match("быстрое")));
+
+		// other locales
+		assertEquals("pharmacy", name(matcher.match("drugstore")));
+		assertEquals("cafe", name(matcher.match("coffee")));
+
+		assertTrue(matcher.match("тверская").isEmpty());
+		assertTrue(matcher.match("").isEmpty());
+	}
+
+	@Test
+	public void testSuggest() {
+		List<String> names = names(suggest("ка"));
+		assertEquals(Arrays.asList("cafe", "cafe_internet"), names);
+
+		names = names(suggest("тверская", "мой"));
+		assertEquals(Collections.singletonList("car_wash"), names);
+
+		names = names(suggest("апт", "тверская"));
+		assertEquals(Collections.singletonList("pharmacy"), names);
+
+		assertTrue(suggest("тверская").isEmpty());
+	}
+
+	private List<JSONObject> suggest(String... tokens) {
+		List<QToken> list = new ArrayList<>();
+		for(String t : tokens) {
+			list.add(new QToken(t, null, false, false, false));
+		}
+
+		Query query = new Query(list, null, null);
+		return matcher.suggest(query, query);
+	}
+
+	private static String name(List<JSONObject> matched) {
+		assertEquals(1, matched.size());
+		return matched.get(0).getString("name");
+	}
+
+	private static List<String> names(List<JSONObject> matched) {
+		List<String> result = new ArrayList<>();
+		for(JSONObject obj : matched) {
+			result.add(obj.getString("name"));
+		}
+		return result;
+	}
+
+	private static JSONObject poiClass(String name, String title, String... keywords) {
+		JSONObject obj = new JSONObject();
+		obj.put("name", name);
+		obj.put("translated_title", title);
+		obj.put("keywords", new JSONArray(Arrays.asList(keywords)));
+		return obj;
+	}
+
+}
@@ -0,0 +1,108 @@
+package me.osm.gazetteerweb.test;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import me.osm.gazetteer.web.imp.Replacer;
+import me.osm.gazetteer.web.utils.ReplacersCache;
+
+import org.junit.Test;
+
+public class ReplacersCacheTest {
+
+	/**
+	 * Appends suffix, counts calls
+	 * */
+	private static final class SuffixReplacer implements Replacer {
+
+		private final String suffix;
+		private int calls = 0;
+
+		public SuffixReplacer(String suffix) {
+			this.suffix = suffix;
+		}
+
+		@Override
+		public Collection<String> replace(String hn) {
+			calls++;
+			return Collections.singletonList(hn + suffix);
+		}
+
+		@Override
+		public Map<String, Collection<String>> replaceGroups(String hn) {
+			return null;
+		}
+	}
+
+	private static final class FailedReplacer implements Replacer {
+
+		@Override
+		public Collection<String> replace(String hn) {
+			throw new IllegalStateException("Broken replacer");
+		}
+
+		@Override
+		public Map<String, Collection<String>> replaceGroups(String hn) {
+			return null;
+		}
+	}
+
+	@Test
+	public void testHit() {
+		ReplacersCache cache = new ReplacersCache(10);
+		SuffixReplacer a = new SuffixReplacer("a");
+		SuffixReplacer b = new SuffixReplacer("b");
+		List<Replacer> replacers = Arrays.<Replacer>asList(a, b);
+
+		assertEquals(Arrays.asList("15a", "15b"), cache.replace("hn", replacers, "15"));
+		assertEquals(Arrays.asList("15a", "15b"), cache.replace("hn", replacers, "15"));
+
+		assertEquals(1, a.calls);
+		assertEquals(1, b.calls);
+		assertEquals(1, cache.stats().hitCount());
+		assertEquals(1, cache.stats().missCount());
+	}
+
+	@Test
+	public void testSetName() {
+		ReplacersCache cache = new ReplacersCache(10);
+
+		assertEquals(Arrays.asList("15a"), cache.replace("hn",
+				Arrays.<Replacer>asList(new SuffixReplacer("a")), "15"));
+		assertEquals(Arrays.asList("15b"), cache.replace("streets",
+				Arrays.<Replacer>asList(new SuffixReplacer("b")), "15"));
+
+		assertEquals(0, cache.stats().hitCount());
+	}
+
+	@Test
+	public void testEviction() {
+		ReplacersCache cache = new ReplacersCache(1);
+		SuffixReplacer a = new SuffixReplacer("a");
+		List<Replacer> replacers = Arrays.<Replacer>asList(a);
+
+		cache.replace("hn", replacers, "15");
+		cache.replace("hn", replacers, "16");
+		cache.replace("hn", replacers, "15");
+
+		assertEquals(3, a.calls);
+		assertEquals(0, cache.stats().hitCount());
+		assertEquals(1L, cache.statsMap().get("size"));
+	}
+
+	@Test
+	public void testFailedReplacer() {
+		ReplacersCache cache = new ReplacersCache(10);
+		SuffixReplacer a = new SuffixReplacer("a");
+		List<Replacer> replacers = Arrays.<Replacer>asList(new FailedReplacer(), a);
+
+		assertEquals(Arrays.asList("15a"), cache.replace("hn", replacers, "15"));
+		assertEquals(Arrays.asList("15a"), cache.replace("hn", replacers, "15"));
+		assertEquals(1, a.calls);
+	}
+
+}
@@ -1,13 +1,23 @@
 package me.osm.gazetteerweb.test;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import me.osm.gazetteer.web.imp.LocationsDumpImporter;
+import me.osm.gazetteer.web.imp.Replacer;
+import me.osm.gazetteer.web.utils.CompiledReplacer;
 import me.osm.gazetteer.web.utils.OSMDocSinglton;
+import me.osm.gazetteer.web.utils.ReplacersCompiler;
+import me.osm.gazetteer.web.utils.ReplacersPrefilter;
 
 import org.junit.After;
 import org.junit.Before;
@@ -16,6 +26,20 @@ import org.junit.Test;
 
 public class ReplacersTest {
 
+	private static final List<String> HOUSENUMBERS = Arrays.asList(
+			"1", "15", "15A", "15a", "15Aк1", "15 строение1a", "15 стр.1б",
+			"15к1", "д. 15-a", "15/123", "15A/123", "12-3", "7 литера Б",
+			"104 корпус 2", "3 уч 5", "22/1", "9Б", "45 с-е 1");
+
+	private static final List<String> STREETS = Arrays.asList(
+			"улица Ленина", "ул. В. И. Ленина", "проспект Мира",
+			"улица А. С. Пушкина", "переулок М.Горького", "Садовая улица",
+			"улица Н. Островского", "8-я улица Соколиной Горы");
+
+	private static final List<String> QUERIES = Arrays.asList(
+			"8-я улица Ленина 5", "50 летия Победы", "улица 1905 года 3",
+			"8го марта 12к1", "20-ти бакинских комиссаров", "третья улица строителей 25");
+
 	private LocationsDumpImporter importer;
 
 	@Before
@@ -107,5 +131,80 @@ public class ReplacersTest {
 		assertTrue(set.contains("д. 15-a"));
 		assertTrue(set.contains("15a"));
 	}
-	
+
+	@Test
+	public void testCompiledSameAsGroovy() {
+		assertCompiledSameAsGroovy("config/replacers/index/hnIndexReplasers", HOUSENUMBERS);
+		assertCompiledSameAsGroovy("config/replacers/index/streetsReplacers", STREETS);
+		assertCompiledSameAsGroovy("config/replacers/search/hnSearchReplacers", HOUSENUMBERS);
+		assertCompiledSameAsGroovy("config/replacers/search/requiredSearchReplacers", QUERIES);
+	}
+
+	private static void assertCompiledSameAsGroovy(String path, List<String> inputs) {
+		List<Replacer> groovy = new ArrayList<>();
+		ReplacersCompiler.compile(groovy, new File(path), false);
+
+		List<Replacer> compiled = new ArrayList<>();
+		ReplacersCompiler.compile(compiled, new File(path), true);
+
+		assertEquals(path, groovy.size(), compiled.size());
+
+		int compiledCount = 0;
+		for(Replacer r : compiled) {
+			if(r instanceof CompiledReplacer) {
+				compiledCount++;
+			}
+		}
+		assertTrue(path + " has no compiled replacers", compiledCount > 0);
+
+		for(String input : inputs) {
+			for(int i = 0; i < groovy.size(); i++) {
+				assertEquals(path + " replacer " + i + " for '" + input + "'",
+						apply(groovy.get(i), input), apply(compiled.get(i), input));
+			}
+		}
+	}
+
+	@Test
+	public void testPrefilterKeepsMatching() {
+		List<String> inputs = new ArrayList<>(HOUSENUMBERS);
+		inputs.addAll(STREETS);
+		inputs.addAll(QUERIES);
+
+		assertPrefilterKeepsMatching("config/replacers/index/hnIndexReplasers", inputs);
+		assertPrefilterKeepsMatching("config/replacers/index/streetsReplacers", inputs);
+		assertPrefilterKeepsMatching("config/replacers/search/hnSearchReplacers", inputs);
+		assertPrefilterKeepsMatching("config/replacers/search/requiredSearchReplacers", inputs);
+	}
+
+	/**
+	 * Prefilter may keep replacers which give nothing, 
+	 * but must never skip one which gives some results
+	 * */
+	private static void assertPrefilterKeepsMatching(String path, List<String> inputs) {
+		List<Replacer> replacers = new ArrayList<>();
+		ReplacersPrefilter prefilter = ReplacersCompiler.compile(replacers, new File(path), true);
+
+		assertEquals(path, replacers.size(), prefilter.size());
+
+		for(String input : inputs) {
+			BitSet candidates = prefilter.candidates(input);
+			for(int i = 0; i < replacers.size(); i++) {
+				if(!candidates.get(i)) {
+					assertTrue(path + " prefilter skips matching replacer " + i + " for '" + input + "'",
+							replacers.get(i).replaceGroups(input).isEmpty());
+				}
+			}
+		}
+	}
+
+	private static String apply(Replacer replacer, String input) {
+		try {
+			return String.valueOf(replacer.replace(input));
+		}
+		catch (Exception e) {
+			return e.getClass().getSimpleName();
+		}
+	}
+
 }
@@ -0,0 +1,91 @@
+package me.osm.gazetteerweb.test;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.osm.gazetteer.web.ResponsesQueue;
+
+import org.junit.Test;
+
+public class ResponsesQueueTest {
+
+	private final List<String> written = new ArrayList<>();
+
+	private Runnable write(final String response) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				written.add(response);
+			}
+		};
+	}
+
+	@Test
+	public void testOrder() {
+		ResponsesQueue queue = new ResponsesQueue();
+		ResponsesQueue.Slot a = queue.add();
+		ResponsesQueue.Slot b = queue.add();
+		ResponsesQueue.Slot c = queue.add();
+
+		c.ready(write("c"));
+		b.ready(write("b"));
+		assertEquals(0, written.size());
+
+		a.ready(write("a"));
+		assertEquals(Arrays.asList("a", "b", "c"), written);
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void testStarted() {
+		ResponsesQueue queue = new ResponsesQueue();
+		ResponsesQueue.Slot a = queue.add();
+		ResponsesQueue.Slot b = queue.add();
+
+		a.start(write("a"));
+		b.ready(write("b"));
+		assertEquals(Arrays.asList("a"), written);
+
+		a.finish();
+		assertEquals(Arrays.asList("a", "b"), written);
+	}
+
+	@Test
+	public void testFinishedWhileWritten() {
+		final ResponsesQueue queue = new ResponsesQueue();
+		final ResponsesQueue.Slot a = queue.add();
+		ResponsesQueue.Slot b = queue.add();
+
+		b.ready(write("b"));
+		a.start(new Runnable() {
+			@Override
+			public void run() {
+				written.add("a");
+				a.finish();
+			}
+		});
+
+		assertEquals(Arrays.asList("a", "b"), written);
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void testFailedWrite() {
+		ResponsesQueue queue = new ResponsesQueue();
+		ResponsesQueue.Slot a = queue.add();
+		ResponsesQueue.Slot b = queue.add();
+
+		b.ready(write("b"));
+		a.start(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("Channel is closed");
+			}
+		});
+
+		assertEquals(Arrays.asList("b"), written);
+	}
+
+}
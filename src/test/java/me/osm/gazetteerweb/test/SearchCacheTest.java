@@ -0,0 +1,80 @@
+package me.osm.gazetteerweb.test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import me.osm.gazetteer.web.api.utils.SearchCache;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class SearchCacheTest {
+
+	@Test
+	public void testCopies() {
+		SearchCache cache = new SearchCache(1024 * 1024, 60);
+
+		String key = cache.key("москва");
+		assertNull(cache.get(key));
+
+		JSONObject returned = cache.put(key, answer("Москва"));
+		returned.put("mark", "1");
+
+		JSONObject cached = cache.get(key);
+		assertNotNull(cached);
+		assertFalse(cached.has("mark"));
+		assertEquals("Москва", cached.getJSONArray("features").getJSONObject(0).getString("name"));
+
+		assertEquals(1, cache.getState().getHits());
+		assertEquals(1, cache.getState().getEntries());
+		assertTrue(cache.getState().getSizeBytes() > 0);
+	}
+
+	@Test
+	public void testInvalidate() {
+		SearchCache cache = new SearchCache(1024 * 1024, 60);
+
+		String key = cache.key("москва");
+		cache.invalidate();
+
+		// answer started before invalidation
+		cache.put(key, answer("Москва"));
+
+		assertNull(cache.get(cache.key("москва")));
+		assertEquals(1, cache.getState().getGeneration());
+	}
+
+	@Test
+	public void testSizeLimit() {
+		SearchCache cache = new SearchCache(16 * 1024, 60);
+
+		for(int i = 0; i < 1000; i++) {
+			cache.put(cache.key("q" + i), answer("Москва " + i));
+		}
+
+		assertTrue(cache.getState().getEvictions() > 0);
+		assertTrue(cache.getState().getSizeBytes() <= 16 * 1024);
+	}
+
+	@Test
+	public void testDisabled() {
+		SearchCache cache = new SearchCache(0, 60);
+
+		String key = cache.key("москва");
+		cache.put(key, answer("Москва"));
+
+		assertFalse(cache.isEnabled());
+		assertNull(cache.get(key));
+	}
+
+	private static JSONObject answer(String name) {
+		JSONObject answer = new JSONObject();
+		answer.put("result", "success");
+		answer.put("features", new JSONArray().put(new JSONObject().put("name", name)));
+		return answer;
+	}
+
+}